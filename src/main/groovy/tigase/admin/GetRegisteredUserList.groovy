@@ -89,12 +89,9 @@ try {
 		def users_list = [ ];
 		def domain_user_repo = (user_repo instanceof tigase.db.UserRepositoryMDImpl) ? user_repo.getRepo(
 				bareJID.getDomain()) : user_repo;
-		def users = domain_user_repo.getUsers();
-		for (user in users) {
-			if (!user.getDomain().equals(bareJID.getDomain())) {
-				continue
-			};
-
+		def users = domain_user_repo.getUsersCursor(bareJID.getDomain(), maxItems ? Math.min(maxItems + 1, 1000) : 1000);
+		def user;
+		while ((user = users.next()) != null) {
 			users_list.add(user.toString());
 			if (maxItems && users_list.size() > maxItems) {
 				break
@@ -0,0 +1,175 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.beans.config.ConfigurationChangedAware;
+import tigase.server.xmppsession.SessionManager;
+import tigase.stats.ComponentStatisticsProvider;
+import tigase.stats.StatisticsList;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dedicated pool of threads used for authentication, which may require expensive key derivation (ie. PBKDF2 used by
+ * SCRAM mechanisms) and access to the authentication repository. Running authentication on a separate pool prevents
+ * reconnection of many clients at once from blocking processing of other packets by session manager threads.
+ * <br>
+ * Pool has a bounded queue of <code>queue-size</code> tasks. If the queue is full, task is rejected and authentication
+ * should fail immediately with a temporary error, so clients will retry later instead of waiting for a response.
+ * <br>
+ * Bean also collects authentication rate and latency statistics, both for authentications executed by the pool and
+ * directly by session manager threads.
+ */
+@Bean(name = "authWorkerPool", parent = SessionManager.class, active = true)
+public class AuthWorkerPool
+		implements Initializable, UnregisterAware, ConfigurationChangedAware, ComponentStatisticsProvider {
+
+	private static final Logger log = Logger.getLogger(AuthWorkerPool.class.getCanonicalName());
+
+	private final LongAdder authentications = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder latency = new LongAdder();
+	private final LongAdder steps = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private volatile long maxLatency = 0;
+	private volatile float authPerSecond = 0;
+	private long lastAuthentications = 0;
+	private ThreadPoolExecutor executor;
+	@ConfigField(desc = "Maximal number of queued authentication tasks", alias = "queue-size")
+	private int queueSize = 10000;
+	@ConfigField(desc = "Number of authentication threads", alias = "threads")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Override
+	public void initialize() {
+		startExecutor();
+	}
+
+	@Override
+	public void beanConfigurationChanged(Collection<String> changedFields) {
+		if (executor != null && (changedFields.contains("threads") || changedFields.contains("queueSize"))) {
+			ThreadPoolExecutor old = executor;
+			startExecutor();
+			old.shutdown();
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Submits authentication task for execution.
+	 *
+	 * @throws RejectedExecutionException if the queue is full.
+	 */
+	public void execute(Runnable task) throws RejectedExecutionException {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			rejected.increment();
+			throw ex;
+		}
+	}
+
+	public int getQueueSize() {
+		return executor == null ? 0 : executor.getQueue().size();
+	}
+
+	/**
+	 * Records single step of an authentication.
+	 *
+	 * @param startNanos value of {@link System#nanoTime()} when authentication request was received.
+	 */
+	public void recordStep(long startNanos) {
+		long time = System.nanoTime() - startNanos;
+		steps.increment();
+		latency.add(time);
+		if (time > maxLatency) {
+			maxLatency = time;
+		}
+	}
+
+	/**
+	 * Records result of a completed authentication.
+	 */
+	public void recordResult(boolean success) {
+		if (success) {
+			authentications.increment();
+		} else {
+			failures.increment();
+		}
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		String name = compName + "/authWorkerPool";
+		long stepsCount = steps.sum();
+		list.add(name, "Authentications per second", authPerSecond, Level.FINE);
+		list.add(name, "Successful authentications", authentications.sum(), Level.FINE);
+		list.add(name, "Failed authentications", failures.sum(), Level.FINE);
+		list.add(name, "Average authentication step latency [ms]",
+				 stepsCount == 0 ? 0f : (latency.sum() / (float) stepsCount) / 1000000f, Level.FINE);
+		list.add(name, "Maximal authentication step latency [ms]", maxLatency / 1000000f, Level.FINER);
+		list.add(name, "Queue size", getQueueSize(), Level.FINE);
+		list.add(name, "Rejected authentications", rejected.sum(), Level.FINE);
+	}
+
+	@Override
+	public void everyHour() {
+	}
+
+	@Override
+	public void everyMinute() {
+		maxLatency = 0;
+	}
+
+	@Override
+	public void everySecond() {
+		long current = authentications.sum() + failures.sum();
+		authPerSecond = current - lastAuthentications;
+		lastAuthentications = current;
+	}
+
+	private void startExecutor() {
+		AtomicInteger counter = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+										  r -> {
+											  Thread t = new Thread(r, "auth-worker-" + counter.incrementAndGet());
+											  t.setDaemon(true);
+											  return t;
+										  }, new ThreadPoolExecutor.AbortPolicy());
+		log.log(Level.CONFIG, "Started authentication pool with {0} threads and queue of {1} tasks",
+				new Object[]{threads, queueSize});
+	}
+}
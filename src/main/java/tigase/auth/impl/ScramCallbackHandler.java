@@ -27,6 +27,7 @@ import tigase.auth.credentials.entries.PlainCredentialsEntry;
 import tigase.auth.credentials.entries.ScramCredentialsEntry;
 import tigase.auth.mechanisms.AbstractSasl;
 import tigase.auth.mechanisms.AbstractSaslSCRAM;
+import tigase.auth.mechanisms.ScramKeysCache;
 import tigase.db.AuthRepository;
 import tigase.util.Base64;
 import tigase.xmpp.XMPPResourceConnection;
@@ -253,7 +254,7 @@ public class ScramCallbackHandler
 				if (entry instanceof ScramCredentialsEntry) {
 					credentialsEntry = (ScramCredentialsEntry) entry;
 				} else if (entry instanceof PlainCredentialsEntry) {
-					credentialsEntry = new ScramCredentialsEntry(mech.replace("SCRAM-", ""),
+					credentialsEntry = ScramKeysCache.getDerived(jid.toString(), mech.replace("SCRAM-", ""),
 																 (PlainCredentialsEntry) entry);
 				}
 
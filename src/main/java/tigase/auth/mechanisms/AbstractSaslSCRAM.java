@@ -37,6 +37,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.logging.Level;
@@ -57,6 +58,8 @@ public abstract class AbstractSaslSCRAM
 			"^(?<gs2Header>(?:y|n|p=(?<cbName>[a-zA-z0-9.-]+))," +
 					"(?:a=(?<authzid>(?:[^,\\x00-\\x20\\x2C]|=2C|=3D)+))?,)(?<clientFirstBare>(?<mext>m=[^\\000=]+,)" +
 					"?n=(?<username>(?:[^,\\x00-\\x20\\x2C]|=2C|=3D)+),r=(?<nonce>[^,\\x00-\\x20\\x2C]+)(?:,.*)?)$");
+	// Mac instances are not thread safe and expensive to obtain, so each thread keeps its own instances
+	private final static ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial(HashMap::new);
 	private final static Pattern CLIENT_LAST_MESSAGE = Pattern.compile("^(?<withoutProof>c=(?<cb>[a-zA-Z0-9/+=]+)," +
 																			   "(?:r=(?<nonce>[^,\\x00-\\x20\\x2C]+))(?:,.*)?),p=(?<proof>[a-zA-Z0-9/+=]+)$");
 
@@ -95,6 +98,7 @@ public abstract class AbstractSaslSCRAM
 	private Random random = new SecureRandom();
 	private BindType requestedBindType;
 	private byte[] saltedPassword;
+	private byte[] serverKey;
 	private String sfmMessage;
 	private String sfmNonce;
 	private Step step = Step.clientFirstMessage;
@@ -106,18 +110,21 @@ public abstract class AbstractSaslSCRAM
 			algorithm = algorithm.replace("SHA-", "SHA");
 		}
 		final SecretKeySpec k = new SecretKeySpec(password, "Hmac" + algorithm);
+		// the same key is used for all iterations, doFinal() resets Mac to the state after initialization
+		final Mac mac = mac(k.getAlgorithm());
+		mac.init(k);
 
 		byte[] z = new byte[salt.length + 4];
 		System.arraycopy(salt, 0, z, 0, salt.length);
 		System.arraycopy(new byte[]{0, 0, 0, 1}, 0, z, salt.length, 4);
 
-		byte[] u = hmac(k, z);
+		byte[] u = mac.doFinal(z);
 		byte[] result = new byte[u.length];
 		System.arraycopy(u, 0, result, 0, result.length);
 
 		int i = 1;
 		while (i < iterations) {
-			u = hmac(k, u);
+			u = mac.doFinal(u);
 			for (int j = 0; j < u.length; j++) {
 				result[j] ^= u[j];
 			}
@@ -129,11 +136,21 @@ public abstract class AbstractSaslSCRAM
 
 	protected static byte[] hmac(final SecretKey key, byte[] data)
 			throws NoSuchAlgorithmException, InvalidKeyException {
-		Mac mac = Mac.getInstance(key.getAlgorithm());
+		Mac mac = mac(key.getAlgorithm());
 		mac.init(key);
 		return mac.doFinal(data);
 	}
 
+	protected static Mac mac(String algorithm) throws NoSuchAlgorithmException {
+		Map<String, Mac> macs = MACS.get();
+		Mac mac = macs.get(algorithm);
+		if (mac == null) {
+			mac = Mac.getInstance(algorithm);
+			macs.put(algorithm, mac);
+		}
+		return mac;
+	}
+
 	public static byte[] normalize(String str) {
 		return str.getBytes(CHARSET);
 	}
@@ -281,8 +298,15 @@ public abstract class AbstractSaslSCRAM
 		this.sfmNonce = cfmNonce + serverNonce;
 
 		this.saltedPassword = pc.getSaltedPassword();
-		this.clientKey = hmac(key(saltedPassword), clientKeyData);
-		this.storedKey = h(clientKey);
+		byte[][] keys = ScramKeysCache.getKeys(cfmAuthzid, mechanismName, saltedPassword);
+		if (keys == null) {
+			byte[] clientKey = hmac(key(saltedPassword), clientKeyData);
+			keys = new byte[][]{clientKey, h(clientKey), hmac(key(saltedPassword), serverKeyData)};
+			ScramKeysCache.putKeys(cfmAuthzid, mechanismName, saltedPassword, keys);
+		}
+		this.clientKey = keys[0];
+		this.storedKey = keys[1];
+		this.serverKey = keys[2];
 
 		final StringBuilder serverStringMessage = new StringBuilder();
 		serverStringMessage.append("r=").append(sfmNonce).append(",");
@@ -341,7 +365,6 @@ public abstract class AbstractSaslSCRAM
 											   "SCRAM: " + cfmAuthzid + " is not authorized to act as " + cfmAuthzid);
 		}
 
-		byte[] serverKey = hmac(key(saltedPassword), serverKeyData);
 		byte[] serverSignature = hmac(key(serverKey), authMessage.getBytes(CHARSET));
 
 		final StringBuilder serverStringMessage = new StringBuilder();
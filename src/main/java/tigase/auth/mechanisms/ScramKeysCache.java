@@ -0,0 +1,200 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth.mechanisms;
+
+import tigase.auth.TigaseSaslProvider;
+import tigase.auth.credentials.entries.PlainCredentialsEntry;
+import tigase.auth.credentials.entries.ScramCredentialsEntry;
+import tigase.db.AuthRepository;
+import tigase.eventbus.EventBus;
+import tigase.eventbus.HandleEvent;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of SCRAM keys of users, so keys derived from the same credentials are not computed on every
+ * authentication. It keeps ClientKey, StoredKey and ServerKey derived from a salted password and SCRAM credentials
+ * derived from a password stored as plain text, which otherwise requires thousands of HMAC iterations on every
+ * authentication.
+ * <br>
+ * Entries are kept per user and credentials entry. Every entry is used only if it was derived from the same
+ * credentials, which is checked with a digest of the salted password or a salted digest of the plain password, so
+ * passwords are never kept in the cache. Entries of a user are also removed when {@link
+ * AuthRepository.CredentialsChangedEvent} is received.
+ * <br>
+ * The cache is static, as SASL mechanisms and callback handlers are not beans. The bean configures its size and
+ * removes entries on credentials changes.
+ */
+@Bean(name = "scram-keys-cache", parent = TigaseSaslProvider.class, active = true)
+public class ScramKeysCache
+		implements Initializable, UnregisterAware {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static volatile int maxSize = 10000;
+	private static final Map<String, Map<String, Entry>> USERS = Collections.synchronizedMap(
+			new LinkedHashMap<String, Map<String, Entry>>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Map<String, Entry>> eldest) {
+					return size() > maxSize;
+				}
+			});
+
+	@Inject
+	private EventBus eventBus;
+	@ConfigField(desc = "Maximal number of users with cached SCRAM keys (0 - disabled)", alias = "size")
+	private int size = 10000;
+
+	/**
+	 * Returns ClientKey, StoredKey and ServerKey derived from the salted password, if they are cached.
+	 *
+	 * @param user identity which credentials were used
+	 * @param mechanism name of the mechanism which derived the keys
+	 * @param saltedPassword salted password from which the keys were derived
+	 *
+	 * @return array with ClientKey, StoredKey and ServerKey or <code>null</code>
+	 */
+	public static byte[][] getKeys(String user, String mechanism, byte[] saltedPassword)
+			throws NoSuchAlgorithmException {
+		Entry entry = get(user, mechanism);
+		if (entry == null || entry.keys == null || !MessageDigest.isEqual(entry.check, digest(null, saltedPassword))) {
+			return null;
+		}
+		return entry.keys;
+	}
+
+	public static void putKeys(String user, String mechanism, byte[] saltedPassword, byte[][] keys)
+			throws NoSuchAlgorithmException {
+		put(user, mechanism, new Entry(digest(null, saltedPassword), keys, null));
+	}
+
+	/**
+	 * Returns SCRAM credentials derived from the password stored as plain text. Credentials are derived only if they
+	 * are not cached or the password was changed.
+	 *
+	 * @param user identity which credentials were used
+	 * @param algorithm of the SCRAM mechanism
+	 * @param plain credentials entry with password stored as plain text
+	 *
+	 * @return SCRAM credentials derived from the password
+	 */
+	public static ScramCredentialsEntry getDerived(String user, String algorithm, PlainCredentialsEntry plain)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		String key = "PLAIN/" + algorithm;
+		Entry entry = get(user, key);
+		byte[] password = plain.getPassword().getBytes(CHARSET);
+		if (entry != null && entry.credentials != null &&
+				MessageDigest.isEqual(entry.check, digest(entry.credentials.getSalt(), password))) {
+			return entry.credentials;
+		}
+
+		ScramCredentialsEntry credentials = new ScramCredentialsEntry(algorithm, plain);
+		put(user, key, new Entry(digest(credentials.getSalt(), password), null, credentials));
+		return credentials;
+	}
+
+	public static void invalidate(String user) {
+		USERS.remove(user);
+	}
+
+	public static int getCachedUsers() {
+		return USERS.size();
+	}
+
+	private static Entry get(String user, String key) {
+		Map<String, Entry> entries = user == null ? null : USERS.get(user);
+		return entries == null ? null : entries.get(key);
+	}
+
+	private static void put(String user, String key, Entry entry) {
+		if (user == null || maxSize <= 0) {
+			return;
+		}
+		Map<String, Entry> entries = USERS.get(user);
+		if (entries == null) {
+			entries = new ConcurrentHashMap<>(4);
+			Map<String, Entry> prev = USERS.putIfAbsent(user, entries);
+			if (prev != null) {
+				entries = prev;
+			}
+		}
+		entries.put(key, entry);
+	}
+
+	private static byte[] digest(byte[] salt, byte[] data) throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		if (salt != null) {
+			digest.update(salt);
+		}
+		return digest.digest(data);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+		ScramKeysCache.maxSize = size;
+		if (size <= 0) {
+			USERS.clear();
+		}
+	}
+
+	@Override
+	public void initialize() {
+		eventBus.registerAll(this);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		eventBus.unregisterAll(this);
+	}
+
+	@HandleEvent
+	protected void onCredentialsChanged(AuthRepository.CredentialsChangedEvent event) {
+		if (event.getJid() != null) {
+			invalidate(event.getJid().toString());
+		}
+	}
+
+	private static class Entry {
+
+		private final byte[] check;
+		private final ScramCredentialsEntry credentials;
+		private final byte[][] keys;
+
+		private Entry(byte[] check, byte[][] keys, ScramCredentialsEntry credentials) {
+			this.check = check;
+			this.keys = keys;
+			this.credentials = credentials;
+		}
+	}
+}
@@ -66,6 +66,7 @@ import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.Deflater;
@@ -138,6 +139,10 @@ public class ClusterConnectionManager
 	private DataSourceBean dataSourceBean = null;
 	@Inject
 	private EventBus eventBus = null;
+	@Inject(nullAllowed = true)
+	private ClusterFlowControl flowControl = null;
+	private final Consumer<Packet> flowControlSink = this::addPacketNB;
+	private volatile JID localNodeJid = null;
 	private String identity_type = IDENTITY_TYPE_VAL;
 	private boolean initialClusterConnectedDone = false;
 	// private String cluster_controller_id = null;
@@ -423,6 +428,10 @@ public class ClusterConnectionManager
 			if (p.getElemName().equals("handshake")) {
 				processHandshake(p, serv);
 			} else {
+				if (flowControl != null && flowControl.isWindowUpdate(p)) {
+					flowControl.windowUpdateReceived((String) serv.getSessionData().get(PORT_REMOTE_HOST_PROP_KEY), p);
+					continue;
+				}
 				if (p.getAttributeStaticStr(new String[]{Iq.ELEM_NAME, "ping"}, "xmlns") == "urn:xmpp:ping" &&
 						getDefHostName().getDomain().equals(p.getStanzaTo().getDomain()) &&
 						p.getStanzaFrom().getDomain().equals(serv.getSessionData().get(PORT_REMOTE_HOST_PROP_KEY))) {
@@ -444,13 +453,23 @@ public class ClusterConnectionManager
 					} catch (TigaseStringprepException ex) {
 						log.log(Level.WARNING, "Packet stringprep addressing problem, dropping packet: {0}", p);
 
-						return null;
+						continue;
 					}
 				}    // end of if (p.isRouted())
 				addOutPacket(result);
 			}
 		}        // end of while ()
 
+		if (flowControl != null) {
+			String node = (String) serv.getSessionData().get(PORT_REMOTE_HOST_PROP_KEY);
+			Packet windowUpdate = flowControl.bytesReceived(getLocalNodeJid(), node, serv);
+			if (windowUpdate != null) {
+				writePacketToSocket(windowUpdate);
+			}
+			// window update might have been received
+			flowControl.releaseDeferred(node, connectionsPool.get(node), flowControlSink);
+		}
+
 		return null;
 	}
 
@@ -547,6 +566,9 @@ public class ClusterConnectionManager
 				log.log(Level.INFO, "Disonnected from: {0}", addr);
 				updateServiceDiscoveryItem(addr, addr, XMLNS + " disconnected", true);
 				clusterController.nodeDisconnected(addr);
+				if (flowControl != null) {
+					flowControl.nodeDisconnected(addr);
+				}
 			}
 
 			ConnectionType type = service.connectionType();
@@ -678,9 +700,23 @@ public class ClusterConnectionManager
 		return "Cluster connection manager";
 	}
 
+	@Override
+	public synchronized void everySecond() {
+		super.everySecond();
+		if (flowControl != null) {
+			for (Packet windowUpdate : flowControl.pendingWindowUpdates(getLocalNodeJid())) {
+				writePacketToSocket(windowUpdate);
+			}
+			flowControl.releaseDeferred(connectionsPool::get, flowControlSink);
+		}
+	}
+
 	@Override
 	public void getStatistics(StatisticsList list) {
 		super.getStatistics(list);
+		if (flowControl != null) {
+			flowControl.getStatistics(getName(), list);
+		}
 		list.add(getName(), "Total disconnects", totalNodeDisconnects, Level.FINE);
 		list.add(getName(), "Service connected time-outs", servConnectedTimeouts, Level.FINE);
 		list.add(getName(), "Last day disconnects", Arrays.toString(lastDay), Level.FINE);
@@ -862,6 +898,15 @@ public class ClusterConnectionManager
 		return true;
 	}
 
+	private JID getLocalNodeJid() {
+		JID jid = localNodeJid;
+		if (jid == null || !jid.getDomain().equals(getDefHostName().getDomain())) {
+			jid = JID.jidInstanceNS(getDefHostName().getDomain());
+			localNodeJid = jid;
+		}
+		return jid;
+	}
+
 	private void sendEvent(REPO_ITEM_UPDATE_TYPE action, ClusterRepoItem item) {
 
 		// either RepositoryItem was wrong or EventBus is not enabled - skiping broadcasting the event;
@@ -1075,7 +1120,21 @@ public class ClusterConnectionManager
 			}
 			for (Element element : packets) {
 				try {
-					addPacketNB(Packet.packetInstance(element));
+					Packet packet = Packet.packetInstance(element);
+					if (flowControl == null) {
+						addPacketNB(packet);
+					} else {
+						// packet is deferred (or refused) if destination node is not able to keep up,
+						// this thread belongs to the producer so it must not wait here
+						if (!flowControl.send(packet, connectionsPool.get(packet.getTo().getDomain()),
+											  flowControlSink)) {
+							log.log(Level.WARNING,
+									"Node {0} is not able to keep up, {1} packets deferred, dropping packet: {2}",
+									new Object[]{packet.getTo().getDomain(),
+												 flowControl.getDeferredCount(packet.getTo().getDomain()),
+												 packet});
+						}
+					}
 
 					// writePacketToSocket();
 				} catch (TigaseStringprepException ex) {
@@ -0,0 +1,385 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.beans.selector.ClusterModeRequired;
+import tigase.kernel.beans.selector.ConfigType;
+import tigase.kernel.beans.selector.ConfigTypeEnum;
+import tigase.kernel.core.Kernel;
+import tigase.server.Iq;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.stats.StatisticsList;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPIOService;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Credit based flow control of traffic between cluster nodes.
+ * <br>
+ * Every node counts bytes received from each of the other nodes and acknowledges them by sending window updates over
+ * system (<code>Priority.CLUSTER</code>) connections. Window updates are withheld while the local node is overloaded.
+ * Sending node keeps track of bytes which were not acknowledged yet (in-flight) and if it exceeds the window size or
+ * too many packets are waiting to be written to the node connections, packets with priority lower than
+ * <code>Priority.CLUSTER</code> are deferred in a bounded per node queue (producers are never blocked) and released
+ * in order when the node acknowledges received data. Packets which do not fit in the queue are refused. Producers may
+ * check {@link #hasBackpressuredNodes()} to refuse new traffic before the queue is full.
+ * <br>
+ * Flow control needs to be enabled on all cluster nodes. Limits (both the window size and the number of packets
+ * waiting to be written) are enforced only for nodes which sent at least one window update.
+ */
+@Bean(name = "clusterFlowControl", parent = Kernel.class, active = true, exportable = true)
+@ConfigType({ConfigTypeEnum.DefaultMode, ConfigTypeEnum.SessionManagerMode, ConfigTypeEnum.ConnectionManagersMode,
+			 ConfigTypeEnum.ComponentMode})
+@ClusterModeRequired(active = true)
+public class ClusterFlowControl {
+
+	public static final String FLOW_EL_NAME = "flow";
+	public static final String FLOW_XMLNS = "tigase:cluster:flow";
+	private static final String RECEIVED_BYTES_KEY = "flow-control-received-bytes";
+	private static final String SENT_BYTES_KEY = "flow-control-sent-bytes";
+	private static final Logger log = Logger.getLogger(ClusterFlowControl.class.getName());
+
+	@ConfigField(desc = "Enable flow control between cluster nodes", alias = "enabled")
+	private boolean enabled = false;
+	@ConfigField(desc = "Maximal number of packets deferred for a node which is not able to keep up", alias = "max-deferred-packets")
+	private int maxDeferredPackets = 10000;
+	@ConfigField(desc = "Maximal number of packets waiting to be written to node connections", alias = "max-waiting-packets")
+	private int maxWaitingPackets = 10000;
+	private final Map<String, NodeFlow> nodes = new ConcurrentHashMap<>();
+	private volatile boolean overloaded = false;
+	@ConfigField(desc = "Maximal number of unacknowledged bytes sent to a node", alias = "window-size")
+	private long windowSize = 4 * 1024 * 1024;
+
+	private static long getDelta(XMPPIOService<Object> serv, String key, long total) {
+		Long prev = (Long) serv.getSessionData().put(key, total);
+		// swapping value in concurrent map makes deltas sum up correctly even if counters are read concurrently
+		return prev == null ? total : total - prev;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxDeferredPackets() {
+		return maxDeferredPackets;
+	}
+
+	public void setMaxDeferredPackets(int maxDeferredPackets) {
+		this.maxDeferredPackets = maxDeferredPackets;
+	}
+
+	public long getWindowSize() {
+		return windowSize;
+	}
+
+	public void setWindowSize(long windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Passes packet to the sink if it may be sent to the destination node now. If the node is backpressured (or
+	 * there are already packets deferred for it), packet is deferred and will be passed to the sink by {@link
+	 * #releaseDeferred(String, ClusterConnection, Consumer)} once node acknowledges received data. This method never
+	 * blocks the caller.
+	 *
+	 * @param packet which will be sent
+	 * @param conns connections to destination node
+	 * @param sink which queues packet for sending
+	 *
+	 * @return <code>false</code> if packet was refused as there was no space to defer it
+	 */
+	public boolean send(Packet packet, ClusterConnection conns, Consumer<Packet> sink) {
+		if (!enabled || conns == null || packet.getPriority().ordinal() <= Priority.CLUSTER.ordinal()) {
+			sink.accept(packet);
+			return true;
+		}
+
+		final NodeFlow flow = getNodeFlow(packet.getTo().getDomain());
+		synchronized (flow) {
+			// packets deferred earlier need to be sent first to keep ordering
+			if (flow.deferred.isEmpty() && !isBackpressured(flow, conns)) {
+				sink.accept(packet);
+				return true;
+			}
+			if (flow.deferred.isEmpty()) {
+				flow.backpressureEvents.incrementAndGet();
+			}
+			if (flow.deferred.size() >= maxDeferredPackets) {
+				flow.refused.incrementAndGet();
+				return false;
+			}
+			flow.deferred.offer(packet);
+			flow.deferredCount = flow.deferred.size();
+			return true;
+		}
+	}
+
+	/**
+	 * Passes packets deferred for a node to the sink (in order in which they were deferred) until node becomes
+	 * backpressured again.
+	 *
+	 * @param node address of remote node
+	 * @param conns connections to the node
+	 * @param sink which queues packets for sending
+	 *
+	 * @return number of released packets
+	 */
+	public int releaseDeferred(String node, ClusterConnection conns, Consumer<Packet> sink) {
+		final NodeFlow flow = node == null ? null : nodes.get(node);
+		if (flow == null || flow.deferredCount == 0 || conns == null) {
+			return 0;
+		}
+		int released = 0;
+		synchronized (flow) {
+			Packet packet;
+			while (!isBackpressured(flow, conns) && (packet = flow.deferred.poll()) != null) {
+				sink.accept(packet);
+				released++;
+			}
+			flow.deferredCount = flow.deferred.size();
+		}
+		return released;
+	}
+
+	/**
+	 * Releases deferred packets of all nodes, it should be called periodically, as node may stop being backpressured
+	 * without sending a window update (ie. when packets waiting in its connections are written).
+	 *
+	 * @param connsLookup function returning connections to the node
+	 * @param sink which queues packets for sending
+	 */
+	public void releaseDeferred(Function<String, ClusterConnection> connsLookup, Consumer<Packet> sink) {
+		for (NodeFlow flow : nodes.values()) {
+			if (flow.deferredCount > 0) {
+				releaseDeferred(flow.node, connsLookup.apply(flow.node), sink);
+			}
+		}
+	}
+
+	/**
+	 * Checks if packets for any of the nodes are deferred and the queue of deferred packets is at least half full.
+	 * Producers of cluster traffic should refuse new packets while this method returns <code>true</code>, so packets
+	 * are not refused later by {@link #send(Packet, ClusterConnection, Consumer)}.
+	 *
+	 * @return <code>true</code> if any of the nodes is not able to keep up with the traffic
+	 */
+	public boolean hasBackpressuredNodes() {
+		if (!enabled) {
+			return false;
+		}
+		for (NodeFlow flow : nodes.values()) {
+			if (flow.deferredCount >= maxDeferredPackets / 2) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getDeferredCount(String node) {
+		final NodeFlow flow = nodes.get(node);
+		return flow == null ? 0 : flow.deferredCount;
+	}
+
+	public long getInFlight(String node) {
+		final NodeFlow flow = nodes.get(node);
+		return flow == null ? 0 : flow.getInFlight();
+	}
+
+	/**
+	 * Updates number of bytes received from a node and creates window update if enough bytes were received and local
+	 * node is not overloaded.
+	 *
+	 * @param from address of the local node
+	 * @param node address of remote node
+	 * @param serv connection to remote node
+	 *
+	 * @return packet with window update or <code>null</code>
+	 */
+	public Packet bytesReceived(JID from, String node, XMPPIOService<Object> serv) {
+		if (!enabled || node == null) {
+			return null;
+		}
+
+		final NodeFlow flow = getNodeFlow(node);
+		flow.pendingAck.addAndGet(getDelta(serv, RECEIVED_BYTES_KEY, serv.getTotalBytesReceived()));
+		return prepareWindowUpdate(flow, from, windowSize / 2);
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		if (!enabled) {
+			return;
+		}
+		list.add(compName, "Flow control local overload", String.valueOf(overloaded), Level.FINE);
+		for (NodeFlow flow : nodes.values()) {
+			list.add(compName, "Flow control in-flight bytes: " + flow.node, flow.getInFlight(), Level.FINE);
+			list.add(compName, "Flow control backpressure events: " + flow.node, flow.backpressureEvents.get(),
+					 Level.FINE);
+			list.add(compName, "Flow control deferred packets: " + flow.node, flow.deferredCount, Level.FINE);
+			list.add(compName, "Flow control refused packets: " + flow.node, flow.refused.get(), Level.FINE);
+			list.add(compName, "Flow control window updates received: " + flow.node, flow.updatesReceived.get(),
+					 Level.FINER);
+			list.add(compName, "Flow control window updates sent: " + flow.node, flow.updatesSent.get(),
+					 Level.FINER);
+		}
+	}
+
+	public boolean isOverloaded() {
+		return overloaded;
+	}
+
+	/**
+	 * Marks local node as overloaded. While overloaded, window updates are not sent to other nodes.
+	 *
+	 * @param overloaded state of the local node
+	 */
+	public void setOverloaded(boolean overloaded) {
+		this.overloaded = overloaded;
+	}
+
+	public boolean isWindowUpdate(Packet packet) {
+		return packet.getElemName() == Iq.ELEM_NAME && packet.getElement().getChild(FLOW_EL_NAME, FLOW_XMLNS) != null;
+	}
+
+	public void nodeDisconnected(String node) {
+		NodeFlow flow = nodes.remove(node);
+		if (flow != null) {
+			synchronized (flow) {
+				if (!flow.deferred.isEmpty() && log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Node {0} disconnected, dropping {1} deferred packets",
+							new Object[]{node, flow.deferred.size()});
+				}
+				flow.deferred.clear();
+				flow.deferredCount = 0;
+			}
+		}
+	}
+
+	/**
+	 * Creates window updates for all nodes with pending acknowledgements, it should be called periodically to send
+	 * acknowledgements withheld during overload.
+	 *
+	 * @param from address of the local node
+	 *
+	 * @return array of window updates to send
+	 */
+	public Packet[] pendingWindowUpdates(JID from) {
+		if (!enabled || overloaded) {
+			return new Packet[0];
+		}
+		return nodes.values()
+				.stream()
+				.map(flow -> prepareWindowUpdate(flow, from, 1))
+				.filter(p -> p != null)
+				.toArray(Packet[]::new);
+	}
+
+	public void windowUpdateReceived(String node, Packet packet) {
+		final NodeFlow flow = getNodeFlow(node);
+		final String ack = packet.getElement().getChild(FLOW_EL_NAME, FLOW_XMLNS).getAttributeStaticStr("ack");
+		try {
+			flow.acked.addAndGet(Long.parseLong(ack));
+		} catch (NumberFormatException ex) {
+			log.log(Level.FINE, "Invalid window update from {0}: {1}", new Object[]{node, packet});
+			return;
+		}
+		flow.updatesReceived.incrementAndGet();
+		flow.peerSupportsFlowControl = true;
+	}
+
+	private NodeFlow getNodeFlow(String node) {
+		NodeFlow flow = nodes.get(node);
+		if (flow == null) {
+			flow = nodes.computeIfAbsent(node, NodeFlow::new);
+		}
+		return flow;
+	}
+
+	private boolean isBackpressured(NodeFlow flow, ClusterConnection conns) {
+		if (!flow.peerSupportsFlowControl) {
+			return false;
+		}
+
+		int waiting = 0;
+		for (XMPPIOService<Object> serv : conns.getConnections()) {
+			flow.sent.addAndGet(getDelta(serv, SENT_BYTES_KEY, serv.getTotalBytesSent()));
+			waiting += serv.waitingToSendSize();
+		}
+		return waiting > maxWaitingPackets || flow.getInFlight() > windowSize;
+	}
+
+	private Packet prepareWindowUpdate(NodeFlow flow, JID from, long threshold) {
+		if (overloaded || flow.pendingAck.get() < threshold) {
+			return null;
+		}
+		final long ack = flow.pendingAck.getAndSet(0);
+		if (ack <= 0) {
+			flow.pendingAck.addAndGet(ack);
+			return null;
+		}
+
+		Element flowEl = new Element(FLOW_EL_NAME, new String[]{"xmlns", "ack"},
+									 new String[]{FLOW_XMLNS, String.valueOf(ack)});
+		Element iq = new Element(Iq.ELEM_NAME, new String[]{"type", "id", "from", "to"},
+								 new String[]{"set", "flow-" + flow.updatesSent.incrementAndGet(), from.toString(),
+											  flow.node});
+		iq.addChild(flowEl);
+		Packet packet = Packet.packetInstance(iq, from, JID.jidInstanceNS(flow.node));
+		// window updates are sent over system connections
+		packet.setPriority(Priority.CLUSTER);
+		return packet;
+	}
+
+	private static class NodeFlow {
+
+		private final AtomicLong acked = new AtomicLong();
+		private final AtomicLong backpressureEvents = new AtomicLong();
+		private final ArrayDeque<Packet> deferred = new ArrayDeque<>();
+		private final String node;
+		private final AtomicLong pendingAck = new AtomicLong();
+		private final AtomicLong refused = new AtomicLong();
+		private final AtomicLong sent = new AtomicLong();
+		private final AtomicLong updatesReceived = new AtomicLong();
+		private final AtomicLong updatesSent = new AtomicLong();
+		private volatile int deferredCount = 0;
+		private volatile boolean peerSupportsFlowControl = false;
+
+		NodeFlow(String node) {
+			this.node = node;
+		}
+
+		long getInFlight() {
+			return Math.max(0, sent.get() - acked.get());
+		}
+	}
+}
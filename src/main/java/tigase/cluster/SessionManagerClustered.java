@@ -33,6 +33,7 @@ import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
 import tigase.server.ComponentInfo;
+import tigase.server.Iq;
 import tigase.server.Message;
 import tigase.server.Packet;
 import tigase.server.xmppsession.SessionManager;
@@ -42,6 +43,8 @@ import tigase.stats.StatisticsList;
 import tigase.util.dns.DNSResolverFactory;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.PacketErrorTypeException;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.XMPPSession;
@@ -51,6 +54,7 @@ import tigase.xmpp.jid.JID;
 import javax.script.Bindings;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -86,6 +90,9 @@ public class SessionManagerClustered
 	;
 
 	private ComponentInfo cmpInfo = null;
+	@Inject(nullAllowed = true)
+	private ClusterFlowControl flowControl = null;
+	private final LongAdder flowControlRefused = new LongAdder();
 	@ConfigField(desc = "Component own internal JID")
 	private JID my_address;
 	@ConfigField(desc = "Server domain name")
@@ -122,6 +129,10 @@ public class SessionManagerClustered
 		if (strategy != null) {
 			strategy.everySecond();
 		}
+		if (flowControl != null) {
+			// stop acknowledging data received from other nodes if we are not able to process it on time
+			flowControl.setOverloaded(getTotalInQueuesSize() > (maxInQueueSize * processingInThreads()) / 2);
+		}
 	}
 
 	@Override
@@ -237,7 +248,7 @@ public class SessionManagerClustered
 		}
 
 		if (packet.isCommand() && processCommand(packet)) {
-			packet.processedBy("SessionManager");
+			packet.processedBy(SESSION_MANAGER_PROCESSOR_INDEX);
 
 		} else {
 			XMPPResourceConnection conn = getXMPPResourceConnection(packet);
@@ -246,6 +257,10 @@ public class SessionManagerClustered
 				log.log(Level.FINEST, "Ressource connection found: {0}", conn);
 			}
 
+			if (conn == null && isRefusedByFlowControl(packet)) {
+				return;
+			}
+
 			boolean clusterOK = strategy.processPacket(packet, conn);
 
 			if (conn == null) {
@@ -277,6 +292,42 @@ public class SessionManagerClustered
 		super.processPacket(packet, conn);
 	}
 
+	/**
+	 * Checks if a packet for a user without a local session should be refused, because other cluster nodes are not
+	 * able to keep up and forwarding it would only add to packets deferred by {@link ClusterFlowControl}. Senders of
+	 * refused messages and requests get a <code>resource-constraint</code> error, so they may retry later.
+	 *
+	 * @param packet to be forwarded to other cluster nodes
+	 *
+	 * @return <code>true</code> if the packet was refused
+	 */
+	protected boolean isRefusedByFlowControl(Packet packet) {
+		if (flowControl == null || packet.getType() == StanzaType.error || packet.getStanzaTo() == null ||
+				packet.getStanzaTo().getLocalpart() == null) {
+			return false;
+		}
+
+		boolean request = packet.getElemName() == Message.ELEM_NAME ||
+				(packet.getElemName() == Iq.ELEM_NAME && packet.getType() != StanzaType.result);
+
+		if (!request || !flowControl.hasBackpressuredNodes()) {
+			return false;
+		}
+
+		flowControlRefused.increment();
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Cluster nodes are not able to keep up, refusing packet: {0}", packet);
+		}
+		try {
+			addOutPacket(Authorization.RESOURCE_CONSTRAINT.getResponseMessage(packet,
+																			  "Server is busy, try again later.",
+																			  true));
+		} catch (PacketErrorTypeException ex) {
+			log.log(Level.FINEST, "Packet is an error already, dropping: {0}", packet);
+		}
+		return true;
+	}
+
 	@Override
 	public void processPresenceUpdate(XMPPSession session, Element packet) {
 		super.processPresenceUpdate(session, packet);
@@ -334,6 +385,9 @@ public class SessionManagerClustered
 	@Override
 	public void getStatistics(StatisticsList list) {
 		super.getStatistics(list);
+		if (flowControl != null) {
+			list.add(getName(), "Packets refused by cluster flow control", flowControlRefused.sum(), Level.FINE);
+		}
 		if (strategy != null) {
 			strategy.getStatistics(list);
 		}
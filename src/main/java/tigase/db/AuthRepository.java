@@ -24,6 +24,7 @@ import tigase.auth.credentials.Credentials;
 import tigase.auth.credentials.entries.PlainCredentialsEntry;
 import tigase.xmpp.jid.BareJID;
 
+import java.io.Serializable;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.logging.Level;
@@ -251,6 +252,27 @@ public interface AuthRepository
 	@TigaseDeprecated(since = "8.0.0")
 	void updatePassword(BareJID user, String password) throws TigaseDBException;
 
+	/**
+	 * Event fired when a user was added or removed, or credentials or account status of a user were modified. It is
+	 * used to invalidate credentials cached on other cluster nodes.
+	 */
+	class CredentialsChangedEvent
+			implements Serializable {
+
+		private BareJID jid;
+
+		public CredentialsChangedEvent() {
+		}
+
+		public CredentialsChangedEvent(BareJID jid) {
+			this.jid = jid;
+		}
+
+		public BareJID getJid() {
+			return jid;
+		}
+	}
+
 	class DefaultCredentials
 			implements Credentials {
 
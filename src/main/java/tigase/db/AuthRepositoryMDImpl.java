@@ -20,8 +20,13 @@ package tigase.db;
 import tigase.auth.credentials.Credentials;
 import tigase.db.beans.AuthRepositoryMDPoolBean;
 import tigase.db.beans.MDPoolBeanWithStatistics;
+import tigase.db.util.ConcurrentRepoCache;
 import tigase.eventbus.EventBus;
 import tigase.eventbus.EventBusFactory;
+import tigase.eventbus.HandleEvent;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
+import tigase.stats.StatisticsList;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.Collection;
@@ -40,18 +45,50 @@ public abstract class AuthRepositoryMDImpl
 
 	private static final Logger log = Logger.getLogger(AuthRepositoryMDImpl.class.getName());
 
+	private static final String CREDENTIALS_KEY = "/credentials/";
+	private static final String STATUS_KEY = "/status";
+
 	private EventBus eventBus = EventBusFactory.getInstance();
+	private ConcurrentRepoCache credentialsCache = null;
+	@ConfigField(desc = "Maximal number of cached credentials entries (0 - disabled)", alias = "credentials-cache-size")
+	private int credentialsCacheSize = 0;
+	@ConfigField(desc = "Time in ms for which credentials entries are cached", alias = "credentials-cache-time")
+	private long credentialsCacheTime = 30000;
 
 	public AuthRepositoryMDImpl() {
 		super(AuthRepository.class);
 	}
 
+	@Override
+	public void register(Kernel kernel) {
+		super.register(kernel);
+		eventBus.registerAll(this);
+	}
+
+	@Override
+	public void unregister(Kernel kernel) {
+		eventBus.unregisterAll(this);
+		super.unregister(kernel);
+	}
+
+	public void setCredentialsCacheSize(int credentialsCacheSize) {
+		this.credentialsCacheSize = credentialsCacheSize;
+		resetCredentialsCache();
+	}
+
+	public void setCredentialsCacheTime(long credentialsCacheTime) {
+		this.credentialsCacheTime = credentialsCacheTime;
+		resetCredentialsCache();
+	}
+
 	@Override
 	public void addUser(BareJID user, String password) throws TigaseDBException {
 		AuthRepository repo = getRepo(user.getDomain());
 
 		if (repo != null) {
 			repo.addUser(user, password);
+			// absence of the user may be cached
+			credentialsChanged(user);
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -63,7 +100,19 @@ public abstract class AuthRepositoryMDImpl
 		AuthRepository repo = getRepo(user.getDomain());
 
 		if (repo != null) {
-			return repo.getAccountStatus(user);
+			ConcurrentRepoCache cache = credentialsCache;
+			if (cache == null) {
+				return repo.getAccountStatus(user);
+			}
+			String key = user.toString() + STATUS_KEY;
+			Object cached = cache.get(key);
+			if (cached != null) {
+				return cached == ConcurrentRepoCache.NULL ? null : (AccountStatus) cached;
+			}
+			long stamp = cache.getStamp(key);
+			AccountStatus status = repo.getAccountStatus(user);
+			cache.put(key, status == null ? ConcurrentRepoCache.NULL : status, stamp);
+			return status;
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -76,7 +125,19 @@ public abstract class AuthRepositoryMDImpl
 		AuthRepository repo = getRepo(user.getDomain());
 
 		if (repo != null) {
-			return repo.getCredentials(user, username);
+			ConcurrentRepoCache cache = credentialsCache;
+			if (cache == null) {
+				return repo.getCredentials(user, username);
+			}
+			String key = user.toString() + CREDENTIALS_KEY + username;
+			Object cached = cache.get(key);
+			if (cached != null) {
+				return cached == ConcurrentRepoCache.NULL ? null : (Credentials) cached;
+			}
+			long stamp = cache.getStamp(key);
+			Credentials credentials = repo.getCredentials(user, username);
+			cache.put(key, credentials == null ? ConcurrentRepoCache.NULL : credentials, stamp);
+			return credentials;
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -220,6 +281,7 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.removeCredential(user, username);
+			credentialsChanged(user);
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -232,6 +294,7 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.removeUser(user);
+			credentialsChanged(user);
 
 			eventBus.fire(new UserRepository.UserRemovedEvent(user));
 		} else {
@@ -246,6 +309,7 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.setAccountStatus(user, status);
+			credentialsChanged(user);
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -258,6 +322,7 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.setUserDisabled(user, value);
+			credentialsChanged(user);
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -270,6 +335,7 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.updateCredential(user, username, password);
+			credentialsChanged(user);
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
@@ -282,9 +348,44 @@ public abstract class AuthRepositoryMDImpl
 
 		if (repo != null) {
 			repo.updatePassword(user, password);
+			credentialsChanged(user);
 		} else {
 			log.log(Level.WARNING,
 					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
 		}
 	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		super.getStatistics(compName, list);
+		ConcurrentRepoCache cache = credentialsCache;
+		if (cache != null) {
+			cache.getStatistics(compName, "credentialsCache", list);
+			list.add(compName, "credentialsCache/DB lookups avoided", cache.getHits(), Level.FINE);
+		}
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	protected void onCredentialsChanged(CredentialsChangedEvent event) {
+		if (event.getJid() != null) {
+			invalidateCredentials(event.getJid());
+		}
+	}
+
+	private void credentialsChanged(BareJID user) {
+		invalidateCredentials(user);
+		eventBus.fire(new CredentialsChangedEvent(user));
+	}
+
+	private void invalidateCredentials(BareJID user) {
+		ConcurrentRepoCache cache = credentialsCache;
+		if (cache != null) {
+			cache.remove(user.toString() + "/");
+		}
+	}
+
+	private void resetCredentialsCache() {
+		credentialsCache = credentialsCacheSize > 0 ? new ConcurrentRepoCache(credentialsCacheSize, credentialsCacheTime,
+																			  32, value -> 1) : null;
+	}
 }
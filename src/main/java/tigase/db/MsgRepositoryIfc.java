@@ -22,11 +22,13 @@ import tigase.xml.Element;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.JID;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 /**
  * Created by andrzej on 13.03.2016.
@@ -38,8 +40,37 @@ public interface MsgRepositoryIfc<T extends DataSource>
 
 	List<Element> getMessagesList(JID to) throws UserNotFoundException;
 
+	/**
+	 * Returns identifiers of all messages stored for the user, in order in which messages were stored. Identifiers may
+	 * be used to load and delete messages in pages.
+	 *
+	 * @param to address of the user
+	 *
+	 * @return list of identifiers of stored messages
+	 */
+	default List<String> getMessagesIds(JID to) throws UserNotFoundException {
+		return getMessagesList(to).stream()
+				.map(item -> item.getAttributeStaticStr("node"))
+				.collect(Collectors.toList());
+	}
+
 	void setCondition(ReentrantLock lock, Condition condition);
 
+	/**
+	 * Removes messages which expired before passed time, starting from the ones which expired first. Each removed
+	 * message is passed to the handler after it was deleted from the repository.
+	 *
+	 * @param before time before which messages should be expired
+	 * @param limit maximal number of messages removed by single call
+	 * @param handler handler receiving removed messages
+	 *
+	 * @return number of removed messages or <code>-1</code> if repository does not support bulk removal of expired
+	 * messages
+	 */
+	default int removeExpiredMessages(Date before, int limit, MsgRepository.ExpiredMessagesHandler handler) {
+		return -1;
+	}
+
 	Queue<Element> loadMessagesToJID(List<String> db_ids, XMPPResourceConnection session,
 													 boolean delete, MsgRepository.OfflineMessagesProcessor proc)
 			throws UserNotFoundException;
@@ -0,0 +1,82 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import tigase.xmpp.jid.BareJID;
+
+import java.util.Objects;
+
+/**
+ * Single value stored in a user repository under a key in a node of a user. Instances are identified by a user, node
+ * and key only, so entries for the same location are equal regardless of value they carry.
+ */
+public final class UserDataEntry {
+
+	private final String key;
+	private final String subnode;
+	private final BareJID user;
+	private final String value;
+
+	public UserDataEntry(BareJID user, String subnode, String key, String value) {
+		this.user = user;
+		this.subnode = subnode;
+		this.key = key;
+		this.value = value;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getSubnode() {
+		return subnode;
+	}
+
+	public BareJID getUser() {
+		return user;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof UserDataEntry)) {
+			return false;
+		}
+		UserDataEntry that = (UserDataEntry) o;
+		return user.equals(that.user) && Objects.equals(subnode, that.subnode) && key.equals(that.key);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = user.hashCode();
+		result = 31 * result + (subnode == null ? 0 : subnode.hashCode());
+		result = 31 * result + key.hashCode();
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "UserDataEntry[user=" + user + ", subnode=" + subnode + ", key=" + key + "]";
+	}
+}
@@ -20,7 +20,12 @@ package tigase.db;
 import tigase.annotations.TigaseDeprecated;
 import tigase.xmpp.jid.BareJID;
 
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
 
 /**
  * <code>UserRepository</code> interface defines all functionalities required to store user data. It contains adding,
@@ -141,6 +146,60 @@ public interface UserRepository
 	 */
 	String[] getDataList(BareJID user, String subnode, String key) throws UserNotFoundException, TigaseDBException;
 
+	/**
+	 * <code>getDataMap</code> method returns all key/value pairs stored directly in each of given subnodes of a user at
+	 * once. It is intended for loading many values needed at the same time, ie. when user session is opened. Default
+	 * implementation reads each value separately, while implementations backed by a database may retrieve them with a
+	 * single query. If many values are stored for a single key, then only one of them is returned.
+	 *
+	 * @param user a <code>BareJID</code> value of user ID for which data must be retrieved.
+	 * @param subnodes a <code>Collection</code> of node paths, <code>null</code> path represents root user node.
+	 *
+	 * @return a <code>Map</code> of node paths (as passed in <code>subnodes</code>) to maps of keys and values. Nodes
+	 * which do not exist or have no data may not be included.
+	 *
+	 * @throws UserNotFoundException if user id hasn't been found in repository.
+	 * @throws TigaseDBException if database backend error occurs.
+	 */
+	default Map<String, Map<String, String>> getDataMap(BareJID user, Collection<String> subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		Map<String, Map<String, String>> result = new HashMap<>();
+		for (String subnode : subnodes) {
+			String[] keys = getKeys(user, subnode);
+			if (keys == null || keys.length == 0) {
+				continue;
+			}
+			Map<String, String> data = new HashMap<>();
+			for (String key : keys) {
+				String value = getData(user, subnode, key);
+				if (value != null) {
+					data.put(key, value);
+				}
+			}
+			result.put(subnode, data);
+		}
+		return result;
+	}
+
+	/**
+	 * Normalizes node path by removing leading, trailing and repeated separators, so different forms of the same path
+	 * may be compared. <code>null</code> node path (root node) is represented by an empty string.
+	 */
+	static String normalizeNodePath(String subnode) {
+		if (subnode == null) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		StringTokenizer strtok = new StringTokenizer(subnode, "/", false);
+		while (strtok.hasMoreTokens()) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			sb.append(strtok.nextToken());
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * <code>getKeys</code> method returns list of all keys stored in given subnode in user repository. There is a value
 	 * (or list of values) associated with each key. It is up to user (developer) to know what key keeps one value and
@@ -237,6 +296,19 @@ public interface UserRepository
 	 */
 	List<BareJID> getUsers() throws TigaseDBException;
 
+	/**
+	 * Returns cursor iterating over users stored in the repository. Implementations should load users in batches, so
+	 * iteration over all users will not require loading of all of them into memory at once.
+	 *
+	 * @param domain name of a domain to which users should be limited or <code>null</code> for all users
+	 * @param batchSize maximal number of users loaded at once
+	 *
+	 * @return cursor over users
+	 */
+	default UsersCursor getUsersCursor(String domain, int batchSize) throws TigaseDBException {
+		return UsersCursor.of(getUsers(), domain);
+	}
+
 	/**
 	 * This method is only used by the server statistics component to report number of registered users.
 	 *
@@ -345,6 +417,25 @@ public interface UserRepository
 	 */
 	void setData(BareJID user, String key, String value) throws UserNotFoundException, TigaseDBException;
 
+	/**
+	 * This <code>setData</code> method stores many values at once, possibly for different users. Entries for users
+	 * which do not exist in the repository are skipped. Default implementation stores each entry separately, while
+	 * implementations backed by a database may write all of them in a single batch.
+	 *
+	 * @param entries a <code>Collection</code> of entries to store.
+	 *
+	 * @throws TigaseDBException if database backend error occurs.
+	 */
+	default void setData(Collection<UserDataEntry> entries) throws TigaseDBException {
+		for (UserDataEntry entry : entries) {
+			try {
+				setData(entry.getUser(), entry.getSubnode(), entry.getKey(), entry.getValue());
+			} catch (UserNotFoundException ex) {
+				// user was removed in the meantime, nothing to store
+			}
+		}
+	}
+
 	/**
 	 * <code>setDataList</code> method sets list of values for given user associated given key in repository under given
 	 * node path. If there already exist values for given key in given node, all old values are replaced with new
@@ -391,4 +482,38 @@ public interface UserRepository
 		}
 
 	}
+
+	/**
+	 * Event fired when data of a user stored in a repository was modified. It is used to invalidate data cached by
+	 * repositories on other cluster nodes. If <code>key</code> is <code>null</code> then structure of user nodes was
+	 * changed and all cached data of the user should be invalidated.
+	 */
+	class UserDataChangedEvent
+			implements Serializable {
+
+		private BareJID jid;
+		private String key;
+		private String subnode;
+
+		public UserDataChangedEvent() {
+		}
+
+		public UserDataChangedEvent(BareJID jid, String subnode, String key) {
+			this.jid = jid;
+			this.subnode = subnode;
+			this.key = key;
+		}
+
+		public BareJID getJid() {
+			return jid;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getSubnode() {
+			return subnode;
+		}
+	}
 }    // UserRepository
@@ -23,8 +23,12 @@ import tigase.eventbus.EventBus;
 import tigase.kernel.beans.Inject;
 import tigase.xmpp.jid.BareJID;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -130,6 +134,21 @@ public abstract class UserRepositoryMDImpl
 		return null;
 	}
 
+	@Override
+	public Map<String, Map<String, String>> getDataMap(BareJID user, Collection<String> subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		UserRepository repo = getRepo(user.getDomain());
+
+		if (repo != null) {
+			return repo.getDataMap(user, subnodes);
+		} else {
+			log.log(Level.WARNING,
+					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
+		}
+
+		return null;
+	}
+
 	@Override
 	public String[] getKeys(BareJID user, String subnode) throws UserNotFoundException, TigaseDBException {
 		UserRepository repo = getRepo(user.getDomain());
@@ -229,6 +248,46 @@ public abstract class UserRepositoryMDImpl
 		return repositoriesStream().mapToLong(UserRepository::getUsersCount).sum();
 	}
 
+	@Override
+	public UsersCursor getUsersCursor(String domain, int batchSize) throws TigaseDBException {
+		if (domain != null) {
+			UserRepository repo = getRepo(domain);
+
+			if (repo != null) {
+				return repo.getUsersCursor(domain, batchSize);
+			} else {
+				log.log(Level.WARNING,
+						"Couldn't obtain user repository for domain: " + domain + ", not even default one!");
+				return UsersCursor.of(null, domain);
+			}
+		}
+
+		final List<UserRepository> repos = repositoriesStream().collect(Collectors.toList());
+		return new UsersCursor(null, batchSize) {
+			private UsersCursor current;
+			private int idx = 0;
+
+			@Override
+			protected int fetchBatch(Queue<BareJID> batch) throws TigaseDBException {
+				int count = 0;
+				while (count < this.batchSize && idx < repos.size()) {
+					if (current == null) {
+						current = repos.get(idx).getUsersCursor(null, this.batchSize);
+					}
+					BareJID user = current.next();
+					if (user == null) {
+						current = null;
+						idx++;
+					} else {
+						batch.offer(user);
+						count++;
+					}
+				}
+				return count;
+			}
+		};
+	}
+
 	@Override
 	public long getUsersCount(String domain) {
 		UserRepository repo = getRepo(domain);
@@ -323,6 +382,24 @@ public abstract class UserRepositoryMDImpl
 		}
 	}
 
+	@Override
+	public void setData(Collection<UserDataEntry> entries) throws TigaseDBException {
+		Map<String, List<UserDataEntry>> entriesByDomain = new HashMap<>();
+		for (UserDataEntry entry : entries) {
+			entriesByDomain.computeIfAbsent(entry.getUser().getDomain(), domain -> new ArrayList<>()).add(entry);
+		}
+		for (Map.Entry<String, List<UserDataEntry>> e : entriesByDomain.entrySet()) {
+			UserRepository repo = getRepo(e.getKey());
+
+			if (repo != null) {
+				repo.setData(e.getValue());
+			} else {
+				log.log(Level.WARNING,
+						"Couldn't obtain user repository for domain: " + e.getKey() + ", not even default one!");
+			}
+		}
+	}
+
 	@Override
 	public void setDataList(BareJID user, String subnode, String key, String[] list)
 			throws UserNotFoundException, TigaseDBException {
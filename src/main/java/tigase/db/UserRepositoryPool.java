@@ -17,10 +17,10 @@
  */
 package tigase.db;
 
-import tigase.util.cache.SimpleCache;
+import tigase.db.util.ConcurrentRepoCache;
 import tigase.xmpp.jid.BareJID;
 
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -167,6 +167,24 @@ public class UserRepositoryPool
 		return null;
 	}
 
+	@Override
+	public Map<String, Map<String, String>> getDataMap(BareJID user, Collection<String> subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		UserRepository repo = takeRepo();
+
+		if (repo != null) {
+			try {
+				return repo.getDataMap(user, subnodes);
+			} finally {
+				addRepo(repo);
+			}
+		} else {
+			log.log(Level.WARNING, "repo is NULL, pool empty? - {0}", repoPool.size());
+		}
+
+		return null;
+	}
+
 	@Override
 	public String[] getKeys(BareJID user, String subnode) throws UserNotFoundException, TigaseDBException {
 		UserRepository repo = takeRepo();
@@ -274,6 +292,23 @@ public class UserRepositoryPool
 		return null;
 	}
 
+	@Override
+	public UsersCursor getUsersCursor(String domain, int batchSize) throws TigaseDBException {
+		UserRepository repo = takeRepo();
+
+		if (repo != null) {
+			try {
+				return repo.getUsersCursor(domain, batchSize);
+			} finally {
+				addRepo(repo);
+			}
+		} else {
+			log.log(Level.WARNING, "repo is NULL, pool empty? - {0}", repoPool.size());
+		}
+
+		return UsersCursor.of(null, domain);
+	}
+
 	@Override
 	public long getUsersCount() {
 		UserRepository repo = takeRepo();
@@ -402,6 +437,25 @@ public class UserRepositoryPool
 		cache.put(user + "/" + subnode + "/" + key, value);
 	}
 
+	@Override
+	public void setData(Collection<UserDataEntry> entries) throws TigaseDBException {
+		UserRepository repo = takeRepo();
+
+		if (repo != null) {
+			try {
+				repo.setData(entries);
+			} finally {
+				addRepo(repo);
+			}
+		} else {
+			log.log(Level.WARNING, "repo is NULL, pool empty? - {0}", repoPool.size());
+		}
+
+		for (UserDataEntry entry : entries) {
+			cache.put(entry.getUser() + "/" + entry.getSubnode() + "/" + entry.getKey(), entry.getValue());
+		}
+	}
+
 	@Override
 	public void setData(BareJID user, String key, String value) throws UserNotFoundException, TigaseDBException {
 		UserRepository repo = takeRepo();
@@ -490,56 +544,10 @@ public class UserRepositoryPool
 	}
 
 	private class RepoCache
-			extends SimpleCache<String, Object> implements IRepoCache<String, Object> {
+			extends ConcurrentRepoCache implements IRepoCache<String, Object> {
 
 		public RepoCache(int maxsize, long cache_time) {
 			super(maxsize, cache_time);
 		}
-
-		@Override
-		public Object get(Object key) {
-			if (cache_off) {
-				return null;
-			}
-
-			synchronized (this) {
-				return super.get(key);
-			}
-		}
-
-		@Override
-		public Object put(String key, Object value) {
-			if (cache_off) {
-				return null;
-			}
-
-			synchronized (this) {
-				return super.put(key, value);
-			}
-		}
-
-		@Override
-		public Object remove(Object key) {
-			if (cache_off) {
-				return null;
-			}
-
-			synchronized (this) {
-				Object val = super.remove(key);
-				String strk = key.toString();
-				Iterator<String> ks = keySet().iterator();
-
-				while (ks.hasNext()) {
-					String k = ks.next().toString();
-
-					if (k.startsWith(strk)) {
-						ks.remove();
-					}    // end of if (k.startsWith(strk))
-				}      // end of while (ks.hasNext())
-
-				return val;
-			}
-		}
 	}
 }
-
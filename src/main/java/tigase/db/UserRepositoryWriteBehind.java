@@ -0,0 +1,224 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import tigase.component.ScheduledTask;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.server.xmppsession.SessionManager;
+import tigase.stats.ComponentStatisticsProvider;
+import tigase.stats.StatisticsList;
+import tigase.sys.ShutdownHook;
+import tigase.sys.TigaseRuntime;
+import tigase.util.common.TimerTask;
+import tigase.xmpp.jid.BareJID;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for frequently updated values of a user repository, ie. last activity of a user.
+ * <br>
+ * Values passed to {@link #setData(BareJID, String, String, String)} are kept in memory, identified by user, node and
+ * key, so repeated updates of the same value are coalesced and only the latest one is stored. Pending values are
+ * written to the repository with {@link UserRepository#setData(java.util.Collection)} in batches of
+ * <code>batch-size</code> entries every <code>period</code> or as soon as number of pending values exceeds
+ * <code>max-pending</code>. Values of a single user may be written synchronously with {@link #flush(BareJID)}, ie.
+ * when the user session is closed, and all pending values are written when the bean is unregistered or the server is
+ * shut down.
+ * <br>
+ * Values are not visible for readers of the repository until they are written, so this buffer should be used only for
+ * data which may be read with a delay.
+ */
+@Bean(name = "userRepositoryWriteBehind", parent = SessionManager.class, active = true)
+public class UserRepositoryWriteBehind
+		extends ScheduledTask
+		implements ComponentStatisticsProvider, ShutdownHook {
+
+	private static final Logger log = Logger.getLogger(UserRepositoryWriteBehind.class.getName());
+
+	@ConfigField(desc = "Maximal number of values written in a single batch", alias = "batch-size")
+	private int batchSize = 100;
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final Object flushLock = new Object();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private final LongAdder flushTime = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private volatile long lastFlushTime = 0;
+	@ConfigField(desc = "Number of pending values which triggers immediate write", alias = "max-pending")
+	private int maxPending = 1000;
+	private final ConcurrentHashMap<UserDataEntry, UserDataEntry> pending = new ConcurrentHashMap<>();
+	@Inject
+	private UserRepository userRepository;
+	private final LongAdder written = new LongAdder();
+
+	public UserRepositoryWriteBehind() {
+		super(Duration.ofSeconds(5), Duration.ofSeconds(5));
+	}
+
+	@Override
+	public void initialize() {
+		super.initialize();
+		TigaseRuntime.getTigaseRuntime().addShutdownHook(this);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		super.beforeUnregister();
+		TigaseRuntime.getTigaseRuntime().removeShutdownHook(this);
+		flush();
+	}
+
+	/**
+	 * Schedules value to be stored in the repository. If there is already a pending value for the same user, node and
+	 * key, it is replaced.
+	 */
+	public void setData(BareJID user, String subnode, String key, String value) {
+		UserDataEntry entry = new UserDataEntry(user, subnode, key, value);
+		if (pending.put(entry, entry) != null) {
+			coalesced.increment();
+		}
+		if (pending.size() >= maxPending && component != null && flushScheduled.compareAndSet(false, true)) {
+			component.addTimerTask(new TimerTask() {
+				@Override
+				public void run() {
+					flushScheduled.set(false);
+					flush();
+				}
+			}, 0);
+		}
+	}
+
+	public void setUserRepository(UserRepository userRepository) {
+		this.userRepository = userRepository;
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Writes all pending values to the repository.
+	 */
+	public void flush() {
+		flush(null);
+	}
+
+	/**
+	 * Writes pending values of a user to the repository.
+	 *
+	 * @param user for which values should be written or <code>null</code> to write values of all users.
+	 */
+	public void flush(BareJID user) {
+		if (pending.isEmpty()) {
+			return;
+		}
+		// flushes are serialized, so older value of an entry could not be written after a newer one
+		synchronized (flushLock) {
+			List<UserDataEntry> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+			for (UserDataEntry key : pending.keySet()) {
+				if (user != null && !user.equals(key.getUser())) {
+					continue;
+				}
+				UserDataEntry entry = pending.remove(key);
+				if (entry == null) {
+					continue;
+				}
+				batch.add(entry);
+				if (batch.size() >= batchSize) {
+					write(batch);
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+			if (!batch.isEmpty()) {
+				write(batch);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		flush();
+	}
+
+	@Override
+	public String getName() {
+		return "userRepositoryWriteBehind";
+	}
+
+	@Override
+	public String shutdown() {
+		int count = pending.size();
+		flush();
+		return count > 0 ? ("Stored " + count + " pending user repository values\n") : null;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		String name = compName + "/userRepositoryWriteBehind";
+		long flushCount = flushes.sum();
+		list.add(name, "Pending writes", pending.size(), Level.FINE);
+		list.add(name, "Written values", written.sum(), Level.FINER);
+		list.add(name, "Coalesced values", coalesced.sum(), Level.FINER);
+		list.add(name, "Failed writes", failed.sum(), Level.FINER);
+		list.add(name, "Flushes", flushCount, Level.FINER);
+		list.add(name, "Last flush time [ms]", lastFlushTime, Level.FINER);
+		list.add(name, "Average flush time [ms]", flushCount == 0 ? 0 : (flushTime.sum() / flushCount),
+				 Level.FINER);
+	}
+
+	@Override
+	public void everyHour() {
+	}
+
+	@Override
+	public void everyMinute() {
+	}
+
+	@Override
+	public void everySecond() {
+	}
+
+	private void write(List<UserDataEntry> batch) {
+		long start = System.currentTimeMillis();
+		try {
+			userRepository.setData(batch);
+			written.add(batch.size());
+		} catch (TigaseDBException ex) {
+			log.log(Level.WARNING, "Could not store " + batch.size() + " pending values, will retry later", ex);
+			failed.add(batch.size());
+			for (UserDataEntry entry : batch) {
+				// value could be updated in the meantime and newer one must not be overwritten
+				pending.putIfAbsent(entry, entry);
+			}
+		} finally {
+			long time = System.currentTimeMillis() - start;
+			lastFlushTime = time;
+			flushTime.add(time);
+			flushes.increment();
+		}
+	}
+}
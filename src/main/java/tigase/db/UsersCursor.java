@@ -0,0 +1,105 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import tigase.xmpp.jid.BareJID;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+
+/**
+ * Cursor used to iterate over users stored in a repository without loading all of them into memory. Users are
+ * loaded in batches, each batch is loaded when users from the previous one were consumed.
+ * <br>
+ * Usage:
+ * <pre>
+ * UsersCursor cursor = repo.getUsersCursor(domain, 1000);
+ * BareJID user;
+ * while ((user = cursor.next()) != null) {
+ *     ...
+ * }
+ * </pre>
+ */
+public abstract class UsersCursor {
+
+	protected final int batchSize;
+	protected final String domain;
+	private final Queue<BareJID> batch = new ArrayDeque<>();
+	private boolean finished = false;
+
+	/**
+	 * Creates cursor iterating over provided collection of users.
+	 *
+	 * @param users collection of users
+	 * @param domain name of a domain to which users should be limited or <code>null</code>
+	 */
+	public static UsersCursor of(Collection<BareJID> users, String domain) {
+		final Iterator<BareJID> it = users == null ? null : users.iterator();
+		return new UsersCursor(domain, 1) {
+			@Override
+			protected int fetchBatch(Queue<BareJID> batch) {
+				if (it == null || !it.hasNext()) {
+					return 0;
+				}
+				batch.offer(it.next());
+				return 1;
+			}
+		};
+	}
+
+	/**
+	 * @param domain name of a domain to which users should be limited or <code>null</code>
+	 * @param batchSize maximal number of users loaded from a repository at once
+	 */
+	protected UsersCursor(String domain, int batchSize) {
+		this.domain = domain;
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Returns next user or <code>null</code> if there are no more users.
+	 */
+	public BareJID next() throws TigaseDBException {
+		while (true) {
+			BareJID user = batch.poll();
+			if (user == null) {
+				if (finished) {
+					return null;
+				}
+				finished = fetchBatch(batch) < batchSize;
+				continue;
+			}
+			if (domain == null || domain.equals(user.getDomain())) {
+				return user;
+			}
+		}
+	}
+
+	/**
+	 * Loads next batch of users.
+	 *
+	 * @param batch queue to which loaded users should be added
+	 *
+	 * @return number of rows read from a repository, if it is lower than <code>batchSize</code> then it is assumed
+	 * that there are no more users to load
+	 */
+	protected abstract int fetchBatch(Queue<BareJID> batch) throws TigaseDBException;
+
+}
@@ -25,7 +25,9 @@ import tigase.db.beans.SDRepositoryBean;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Class implements ComponentRepository interfaces and extends SDRepositoryBean and is designed to be based bean used by
@@ -38,10 +40,23 @@ public abstract class AbstractSDComponentRepositoryBean<Item extends RepositoryI
 		extends SDRepositoryBean<ComponentRepositoryDataSourceAware<Item, DataSource>>
 		implements ComponentRepository<Item> {
 
+	private final List<RepositoryChangeListenerIfc<Item>> repoChangeListeners = new CopyOnWriteArrayList<>();
+
 	@Override
 	public void setRepository(ComponentRepositoryDataSourceAware<Item, DataSource> repository) {
 		ComponentRepositoryDataSourceAware<Item, DataSource> oldRepo = getRepository();
 		super.setRepository(repository);
+		if (oldRepo != getRepository()) {
+			// listeners are kept here so they are not lost when the underlying repository is replaced
+			for (RepositoryChangeListenerIfc<Item> listener : repoChangeListeners) {
+				if (oldRepo != null) {
+					oldRepo.removeRepoChangeListener(listener);
+				}
+				if (getRepository() != null) {
+					getRepository().addRepoChangeListener(listener);
+				}
+			}
+		}
 		if (oldRepo != getRepository() && oldRepo != null) {
 			oldRepo.destroy();
 		}
@@ -49,13 +64,18 @@ public abstract class AbstractSDComponentRepositoryBean<Item extends RepositoryI
 
 	@Override
 	public void addRepoChangeListener(RepositoryChangeListenerIfc<Item> repoChangeListener) {
-		getRepository().addRepoChangeListener(repoChangeListener);
+		repoChangeListeners.add(repoChangeListener);
+		if (getRepository() != null) {
+			getRepository().addRepoChangeListener(repoChangeListener);
+		}
 	}
 
 	@Override
 	public void removeRepoChangeListener(RepositoryChangeListenerIfc<Item> repoChangeListener) {
-		getRepository().removeRepoChangeListener(repoChangeListener);
-
+		repoChangeListeners.remove(repoChangeListener);
+		if (getRepository() != null) {
+			getRepository().removeRepoChangeListener(repoChangeListener);
+		}
 	}
 
 	@Override
@@ -28,8 +28,10 @@ import tigase.xml.SingletonFactory;
 import tigase.xmpp.jid.BareJID;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +47,11 @@ public abstract class UserRepoRepository<Item extends RepositoryItem>
 	public static final String REPO_URI_PROP_KEY = "repo-uri";
 	private static final Logger log = Logger.getLogger(UserRepoRepository.class.getName());
 
+	// serialized items as last seen in the database, used to skip
+	// recreation of items which were not modified since the previous reload
+	private final Map<String, String> itemsElems = new ConcurrentHashMap<>();
+	// items list as last loaded from the database
+	private String itemsList = null;
 	private String items_list_pkey = "items-lists";
 	@Inject
 	private UserRepository repo = null;
@@ -71,7 +78,7 @@ public abstract class UserRepoRepository<Item extends RepositoryItem>
 			if (items_list != null) {
 				hashCode = items_list.hashCode();
 
-				if (hashCode != itemsHash) {
+				if (!items_list.equals(itemsList)) {
 					Set<String> oldKeys = new HashSet<>(super.items.keySet());
 
 					if (!items_list.isEmpty()) {
@@ -87,21 +94,30 @@ public abstract class UserRepoRepository<Item extends RepositoryItem>
 								Item item = getItemInstance();
 
 								item.initFromElement(elem);
-								addItemNoStore(item);
 								oldKeys.remove(item.getKey());
+
+								String elemStr = elem.toString();
+								String oldElemStr = itemsElems.put(item.getKey(), elemStr);
+								if (elemStr.equals(oldElemStr) && items.containsKey(item.getKey())) {
+									if (log.isLoggable(Level.FINEST)) {
+										log.log(Level.FINEST, "Item {0} not modified, keeping loaded instance",
+												item.getKey());
+									}
+									continue;
+								}
+								addItemNoStore(item);
 							}
 						}
 						log.log(Level.CONFIG, "All loaded items: {0}", items);
 					}
 					itemsHash = hashCode;
+					itemsList = items_list;
 
 					for (String key : oldKeys) {
+						itemsElems.remove(key);
 						removeItemNoStore(key);
 					}
 				}
-
-				if (hashCode != itemsHash) {
-				}
 			}
 		} catch (TigaseDBException ex) {
 			log.log(Level.SEVERE, "Problem with loading items list from the database.", ex);
@@ -134,7 +150,9 @@ public abstract class UserRepoRepository<Item extends RepositoryItem>
 			StringBuilder sb = new StringBuilder();
 
 			for (Item item : items.values()) {
-				sb.append(item.toElement().toString());
+				String elem = item.toElement().toString();
+				itemsElems.put(item.getKey(), elem);
+				sb.append(elem);
 			}
 			try {
 				repo.setData(getRepoUser(), getItemsListPKey(), sb.toString());
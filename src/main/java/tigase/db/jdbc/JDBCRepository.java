@@ -18,8 +18,15 @@
 package tigase.db.jdbc;
 
 import tigase.db.*;
+import tigase.db.util.ConcurrentRepoCache;
 import tigase.db.util.RepositoryVersionAware;
-import tigase.util.cache.SimpleCache;
+import tigase.eventbus.EventBus;
+import tigase.eventbus.HandleEvent;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.xmpp.jid.BareJID;
 
 import java.io.StringReader;
@@ -38,7 +45,8 @@ import java.util.logging.Logger;
 @Repository.Meta(supportedUris = {"jdbc:[^:]+:.*"})
 @Repository.SchemaId(id = Schema.SERVER_SCHEMA_ID, name = Schema.SERVER_SCHEMA_NAME)
 public class JDBCRepository
-		implements AuthRepository, UserRepository, DataSourceAware<DataRepository>, RepositoryVersionAware {
+		implements AuthRepository, UserRepository, DataSourceAware<DataRepository>, RepositoryVersionAware,
+				   StatisticsProviderIfc, UnregisterAware {
 
 	public static final String CURRENT_DB_SCHEMA_VER = "8.0.0";
 
@@ -75,16 +83,24 @@ public class JDBCRepository
 	private static final String REMOVE_USER_QUERY = "{ call TigRemoveUser(?) }";
 	private static final String UPDATE_PAIRS_QUERY = "{ call TigUpdatePairs(?, ?, ?, ?) }";
 	private static final String USER_STR = "User: ";
+	private static final String USERS_PAGE_SELECT = "select uid, user_id from " + DEF_USERS_TBL + " where uid > ?";
+	private static final String USERS_PAGE_DOMAIN_FILTER = " and user_id like ?";
 	private static final String REMOVE_KEY_DATA_QUERY =
 			"delete from " + DEF_PAIRS_TBL + " where (nid = ?) AND (pkey = ?)";
 	private static final String NODES_FOR_NODE_QUERY =
 			"select nid, node from " + DEF_NODES_TBL + " where parent_nid = ?";
 	private static final String KEYS_FOR_NODE_QUERY = "select pkey from " + DEF_PAIRS_TBL + " where (nid = ?)";
+	private static final String NODES_FOR_USER_QUERY =
+			"select nid, parent_nid, node from " + DEF_NODES_TBL + " where uid = ?";
 	private static final String INSERT_KEY_VAL_QUERY =
 			"insert into " + DEF_PAIRS_TBL + " (nid, uid, pkey, pval) " + " values (?, ?, ?, ?)";
 	private static final String DATA_FOR_NODE_QUERY =
 			"select pval from " + DEF_PAIRS_TBL + " where (nid = ?) AND (pkey = ?)";
 
+	// separators of cache keys, they can not be a part of a node path so cached data are removed with a node
+	private static final String CACHE_DATA_SEPARATOR = "\u0000";
+	private static final String CACHE_KEYS_SUFFIX = "\u0001keys";
+	private static final String CACHE_SUBNODES_SUFFIX = "\u0001subnodes";
 	private static final String UPDATE_LAST_LOGIN_QUERY =
 			"update " + DEF_USERS_TBL + " set last_login=? where user_id=?";
 
@@ -93,8 +109,24 @@ public class JDBCRepository
 	private boolean autoCreateUser = false;
 	// Cache moved to connection pool
 	private IRepoCache<String, Object> cache = null;
+	// disabled by default as data may be modified by other cluster nodes or other applications using the same
+	// database, enable only if this instance is the only writer or, in cluster mode, the only other writers are
+	// cluster nodes notifying about changes
+	@ConfigField(desc = "Cache user data read from the database", alias = "cache-user-data")
+	private boolean cacheUserData = false;
+	@ConfigField(desc = "Maximal weight of cached user data", alias = "cache-size")
+	private int cacheSize = 10000;
+	@ConfigField(desc = "Time after which cached user data expires [ms]", alias = "cache-time")
+	private long cacheTime = 60 * 1000;
+	@ConfigField(desc = "Cluster mode", alias = "cluster-mode")
+	private boolean clusterMode = false;
 	private DataRepository data_repo = null;
+	@Inject(nullAllowed = true)
+	private EventBus eventBus;
 	private String get_users_query = null;
+	private String users_page_domain_query = null;
+	private boolean users_page_limit_first = false;
+	private String users_page_query = null;
 
 	@Override
 	public void addDataList(BareJID user_id, final String subnode, final String key, final String[] list)
@@ -123,6 +155,12 @@ public class JDBCRepository
 	@Override
 	public String getData(BareJID user_id, final String subnode, final String key, final String def)
 			throws UserNotFoundException, TigaseDBException {
+		final String cacheKey = dataCacheKey(user_id, subnode, key);
+		String cached = (String) getCachedData(cacheKey);
+		if (cached != null) {
+			return cached;
+		}
+		final long stamp = cache.getStamp(cacheKey);
 
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
@@ -139,7 +177,7 @@ public class JDBCRepository
 
 				synchronized (data_for_node_st) {
 					try {
-						String result = def;
+						String result = null;
 
 						data_for_node_st.setLong(1, nid);
 						data_for_node_st.setString(2, key);
@@ -151,8 +189,8 @@ public class JDBCRepository
 							}
 						}
 
-						// cache.put(user_id+"/"+subnode+"/"+key, new String[] {result});
-						return result;
+						cacheData(cacheKey, result, stamp);
+						return result == null ? def : result;
 					} finally {
 						data_repo.release(null, rs);
 					}
@@ -228,8 +266,86 @@ public class JDBCRepository
 		}
 	}
 
+	@Override
+	public Map<String, Map<String, String>> getDataMap(BareJID user_id, Collection<String> subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		Map<String, Map<String, String>> result = new HashMap<>();
+		if (subnodes.isEmpty()) {
+			return result;
+		}
+
+		final long stamp = cache.getStamp(nodeCacheKey(user_id, null));
+		Statement stmt = null;
+		ResultSet rs = null;
+		String query = null;
+		try {
+			long uid = getUserUID(null, user_id, autoCreateUser);
+
+			// all nodes of the user are loaded with a single query instead of resolving each node path separately
+			Map<String, String> requested = new HashMap<>();
+			for (String subnode : subnodes) {
+				requested.put(UserRepository.normalizeNodePath(subnode), subnode);
+			}
+			Map<Long, String> nids = new HashMap<>();
+			for (Map.Entry<Long, String> e : getNodePaths(user_id, uid).entrySet()) {
+				if (requested.containsKey(e.getValue())) {
+					nids.put(e.getKey(), requested.get(e.getValue()));
+				}
+			}
+			if (nids.isEmpty()) {
+				return result;
+			}
+
+			StringBuilder sb = new StringBuilder();
+			for (Long nid : nids.keySet()) {
+				if (sb.length() > 0) {
+					sb.append(", ");
+				}
+				sb.append(nid);
+			}
+			query = "select nid, pkey, pval from " + DEF_PAIRS_TBL + " where (uid = " + uid + ") AND (nid in (" + sb +
+					"))";
+
+			Map<String, List<String>> keys = new HashMap<>();
+			for (String subnode : nids.values()) {
+				keys.put(subnode, new ArrayList<>());
+			}
+			stmt = data_repo.createStatement(user_id);
+			rs = stmt.executeQuery(query);
+			while (rs.next()) {
+				String subnode = nids.get(rs.getLong(1));
+				String key = rs.getString(2);
+				keys.get(subnode).add(key);
+				result.computeIfAbsent(subnode, node -> new HashMap<>()).putIfAbsent(key, rs.getString(3));
+			}
+
+			// loaded values are cached, so plugins reading them separately will not query database again
+			for (Map.Entry<String, List<String>> e : keys.entrySet()) {
+				cacheArray(nodeCacheKey(user_id, e.getKey()) + CACHE_KEYS_SUFFIX, e.getValue(), stamp);
+				Map<String, String> data = result.get(e.getKey());
+				if (data != null) {
+					for (Map.Entry<String, String> d : data.entrySet()) {
+						cacheData(dataCacheKey(user_id, e.getKey(), d.getKey()), d.getValue(), stamp);
+					}
+				}
+			}
+
+			return result;
+		} catch (SQLException e) {
+			throw new TigaseDBException("Error getting user data for: " + user_id + ", query: " + query, e);
+		} finally {
+			data_repo.release(stmt, rs);
+		}
+	}
+
 	@Override
 	public String[] getKeys(BareJID user_id, final String subnode) throws UserNotFoundException, TigaseDBException {
+		final String cacheKey = nodeCacheKey(user_id, subnode) + CACHE_KEYS_SUFFIX;
+		String[] cached = (String[]) getCachedData(cacheKey);
+		if (cached != null) {
+			return cached.clone();
+		}
+		final long stamp = cache.getStamp(cacheKey);
 
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
@@ -247,7 +363,7 @@ public class JDBCRepository
 							results.add(rs.getString(1));
 						}
 
-						return (results.size() == 0) ? null : results.toArray(new String[results.size()]);
+						return cacheArray(cacheKey, results, stamp);
 					} finally {
 						data_repo.release(null, rs);
 					}
@@ -272,6 +388,13 @@ public class JDBCRepository
 
 	@Override
 	public String[] getSubnodes(BareJID user_id, final String subnode) throws UserNotFoundException, TigaseDBException {
+		final String cacheKey = nodeCacheKey(user_id, subnode) + CACHE_SUBNODES_SUFFIX;
+		String[] cached = (String[]) getCachedData(cacheKey);
+		if (cached != null) {
+			return cached.clone();
+		}
+		final long stamp = cache.getStamp(cacheKey);
+
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
 			if (nid > 0) {
@@ -288,7 +411,7 @@ public class JDBCRepository
 							results.add(rs.getString(2));
 						}
 
-						return (results.size() == 0) ? null : results.toArray(new String[results.size()]);
+						return cacheArray(cacheKey, results, stamp);
 					} finally {
 						data_repo.release(null, rs);
 					}
@@ -344,6 +467,52 @@ public class JDBCRepository
 		return users;
 	}
 
+	@Override
+	public UsersCursor getUsersCursor(String domain, int batchSize) throws TigaseDBException {
+		return new UsersCursor(domain, batchSize) {
+			private long lastUid = -1;
+
+			@Override
+			protected int fetchBatch(Queue<BareJID> batch) throws TigaseDBException {
+				ResultSet rs = null;
+				int count = 0;
+
+				try {
+					PreparedStatement users_page_st = data_repo.getPreparedStatement(null, this.domain == null
+																						   ? users_page_query
+																						   : users_page_domain_query);
+
+					synchronized (users_page_st) {
+						try {
+							int i = 1;
+							if (users_page_limit_first) {
+								users_page_st.setInt(i++, this.batchSize);
+							}
+							users_page_st.setLong(i++, lastUid);
+							if (this.domain != null) {
+								users_page_st.setString(i++, "%@" + this.domain);
+							}
+							if (!users_page_limit_first) {
+								users_page_st.setInt(i++, this.batchSize);
+							}
+							rs = users_page_st.executeQuery();
+							while (rs.next()) {
+								lastUid = rs.getLong(1);
+								batch.offer(BareJID.bareJIDInstanceNS(rs.getString(2)));
+								count++;
+							}
+						} finally {
+							data_repo.release(null, rs);
+						}
+					}
+				} catch (SQLException e) {
+					throw new TigaseDBException("Problem loading user list from repository", e);
+				}
+				return count;
+			}
+		};
+	}
+
 	@Override
 	public long getUsersCount() {
 		try {
@@ -419,7 +588,7 @@ public class JDBCRepository
 				log.fine("Disabling cache.");
 				cache = new RepoNoCache();
 			} else {
-				cache = new RepoCache(10000, 60 * 1000);
+				cache = new RepoCache(cacheSize, cacheTime);
 			}
 			data_repo.initPreparedStatement(GET_USER_DB_UID_QUERY, GET_USER_DB_UID_QUERY);
 			data_repo.initPreparedStatement(GET_USERS_COUNT_QUERY, GET_USERS_COUNT_QUERY);
@@ -429,6 +598,11 @@ public class JDBCRepository
 				get_users_query = DEF_GET_USERS_QUERY;
 			}
 			data_repo.initPreparedStatement(get_users_query, get_users_query);
+			users_page_limit_first = isUsersPageLimitFirst();
+			users_page_query = getUsersPageQuery(false);
+			users_page_domain_query = getUsersPageQuery(true);
+			data_repo.initPreparedStatement(users_page_query, users_page_query);
+			data_repo.initPreparedStatement(users_page_domain_query, users_page_domain_query);
 			data_repo.initPreparedStatement(ADD_USER_PLAIN_PW_QUERY, ADD_USER_PLAIN_PW_QUERY);
 			data_repo.initPreparedStatement(REMOVE_USER_QUERY, REMOVE_USER_QUERY);
 			data_repo.initPreparedStatement(ADD_NODE_QUERY, ADD_NODE_QUERY);
@@ -436,6 +610,7 @@ public class JDBCRepository
 			data_repo.initPreparedStatement(DATA_FOR_NODE_QUERY, DATA_FOR_NODE_QUERY);
 			data_repo.initPreparedStatement(KEYS_FOR_NODE_QUERY, KEYS_FOR_NODE_QUERY);
 			data_repo.initPreparedStatement(NODES_FOR_NODE_QUERY, NODES_FOR_NODE_QUERY);
+			data_repo.initPreparedStatement(NODES_FOR_USER_QUERY, NODES_FOR_USER_QUERY);
 			data_repo.initPreparedStatement(INSERT_KEY_VAL_QUERY, INSERT_KEY_VAL_QUERY);
 			data_repo.initPreparedStatement(REMOVE_KEY_DATA_QUERY, REMOVE_KEY_DATA_QUERY);
 			data_repo.initPreparedStatement(UPDATE_PAIRS_QUERY, UPDATE_PAIRS_QUERY);
@@ -519,7 +694,7 @@ public class JDBCRepository
 
 			if (nid > 0) {
 				deleteSubnode(null, nid);
-				cache.remove(user_id + "/" + subnode);
+				nodesChanged(user_id);
 			}
 		} catch (SQLException e) {
 			throw new TigaseDBException("Error getting subnodes list.", e);
@@ -568,8 +743,7 @@ public class JDBCRepository
 			data_repo.release(stmt, null);
 			stmt = null;
 			cache.remove(user_id.toString());
-
-			// cache.clear();
+			fireUserDataChanged(user_id, null, null);
 		}
 	}
 
@@ -627,6 +801,91 @@ public class JDBCRepository
 								", uid: " + uid + ", nid: " + nid + ", value: " + value, e);
 			}
 		}
+		dataChanged(user_id, subnode, key);
+	}
+
+	@Override
+	public void setData(Collection<UserDataEntry> entries) throws TigaseDBException {
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		DataRepository repo = data_repo.takeRepoHandle(null);
+
+		synchronized (repo) {
+			try {
+				// node ids are resolved before the batch is started, as resolving them may need other statements
+				List<UserDataEntry> resolved = new ArrayList<>(entries.size());
+				List<long[]> ids = new ArrayList<>(entries.size());
+				for (UserDataEntry entry : entries) {
+					try {
+						long uid = getUserUID(repo, entry.getUser(), autoCreateUser);
+						long nid = getNodeNID(repo, uid, entry.getSubnode());
+						if (nid < 0) {
+							try {
+								nid = createNodePath(repo, entry.getUser(), entry.getSubnode());
+							} catch (SQLException e) {
+								// node could be created at the same time by other cluster node
+								nid = getNodeNID(repo, uid, entry.getSubnode());
+							}
+						}
+						resolved.add(entry);
+						ids.add(new long[]{uid, nid});
+					} catch (UserNotFoundException ex) {
+						if (log.isLoggable(Level.FINEST)) {
+							log.log(Level.FINEST, "Skipping data of not existing user: {0}", entry);
+						}
+					}
+				}
+
+				if (resolved.isEmpty()) {
+					return;
+				}
+
+				PreparedStatement update_pairs_sp = repo.getPreparedStatement(null, UPDATE_PAIRS_QUERY);
+
+				synchronized (update_pairs_sp) {
+					for (int i = 0; i < resolved.size(); i++) {
+						setUpdatePairsParams(update_pairs_sp, ids.get(i), resolved.get(i));
+						update_pairs_sp.addBatch();
+					}
+					try {
+						update_pairs_sp.executeBatch();
+					} catch (SQLException ex) {
+						// some drivers do not support batches of stored procedure calls, storing one by one
+						// is safe as TigUpdatePairs replaces existing values
+						log.log(Level.FINE, "Batch update of pairs failed, storing entries one by one", ex);
+						update_pairs_sp.clearBatch();
+						for (int i = 0; i < resolved.size(); i++) {
+							setUpdatePairsParams(update_pairs_sp, ids.get(i), resolved.get(i));
+							update_pairs_sp.executeUpdate();
+						}
+					}
+				}
+			} catch (SQLException e) {
+				throw new TigaseDBException("Error setting data for " + entries.size() + " entries", e);
+			} finally {
+				for (UserDataEntry entry : entries) {
+					dataChanged(entry.getUser(), entry.getSubnode(), entry.getKey());
+				}
+			}
+		}
+	}
+
+	private void setUpdatePairsParams(PreparedStatement update_pairs_sp, long[] ids, UserDataEntry entry)
+			throws SQLException {
+		update_pairs_sp.setLong(1, ids[1]);
+		update_pairs_sp.setLong(2, ids[0]);
+		update_pairs_sp.setString(3, entry.getKey());
+		switch (data_repo.getDatabaseType()) {
+			case derby:
+				// see setData(BareJID, String, String, String) for explanation
+				update_pairs_sp.setCharacterStream(4,
+												   entry.getValue() == null ? null : new StringReader(entry.getValue()));
+				break;
+			default:
+				update_pairs_sp.setString(4, entry.getValue());
+		}
 	}
 
 	@Override
@@ -665,6 +924,28 @@ public class JDBCRepository
 		auth.updatePassword(user, password);
 	}
 
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		if (cache instanceof ConcurrentRepoCache) {
+			((ConcurrentRepoCache) cache).getStatistics(compName, "cache", list);
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		setEventBus(null);
+	}
+
+	public void setEventBus(EventBus eventBus) {
+		if (this.eventBus != null) {
+			this.eventBus.unregisterAll(this);
+		}
+		this.eventBus = eventBus;
+		if (eventBus != null) {
+			eventBus.registerAll(this);
+		}
+	}
+
 	@Override
 	public boolean userExists(BareJID user) {
 		try {
@@ -782,13 +1063,11 @@ public class JDBCRepository
 			throw e;
 		}
 
-		// cache.put(user_id+"/"+subnode+"/"+key, list);
+		dataChanged(user_id, subnode, key);
 	}
 
 	private void removeData(DataRepository repo, BareJID user_id, final String subnode, final String key)
 			throws UserNotFoundException, TigaseDBException {
-
-		// cache.remove(user_id+"/"+subnode+"/"+key);
 		try {
 			long nid = getNodeNID(repo, user_id, subnode);
 
@@ -810,6 +1089,7 @@ public class JDBCRepository
 					remove_key_data_st.setString(2, key);
 					remove_key_data_st.executeUpdate();
 				}
+				dataChanged(user_id, subnode, key);
 			}
 		} catch (SQLException e) {
 			throw new TigaseDBException("Error getting subnodes list.", e);
@@ -943,6 +1223,30 @@ public class JDBCRepository
 		}      // end of else
 	}
 
+	private boolean isUsersPageLimitFirst() {
+		switch (data_repo.getDatabaseType()) {
+			case jtds:
+			case sqlserver:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private String getUsersPageQuery(boolean withDomain) {
+		String filter = withDomain ? USERS_PAGE_DOMAIN_FILTER : "";
+		switch (data_repo.getDatabaseType()) {
+			case jtds:
+			case sqlserver:
+				return USERS_PAGE_SELECT.replace("select ", "select top (?) ") + filter + " order by uid";
+			case mysql:
+			case postgresql:
+				return USERS_PAGE_SELECT + filter + " order by uid limit ?";
+			default:
+				return USERS_PAGE_SELECT + filter + " order by uid offset 0 rows fetch next ? rows only";
+		}
+	}
+
 	// Implementation of tigase.db.UserRepository
 	private void checkDBSchema() throws SQLException {
 		String schema_version = "1.0";
@@ -986,6 +1290,118 @@ public class JDBCRepository
 		}    // end of try-catch
 	}
 
+	private String[] cacheArray(String cacheKey, List<String> results, long stamp) {
+		if (results.isEmpty()) {
+			return null;
+		}
+		String[] result = results.toArray(new String[results.size()]);
+		cacheData(cacheKey, result.clone(), stamp);
+		return result;
+	}
+
+	private Object getCachedData(String cacheKey) {
+		return cacheUserData ? cache.get(cacheKey) : null;
+	}
+
+	private void cacheData(String cacheKey, Object value, long stamp) {
+		// absence of data is not cached, as it may be created by other cluster node without notifying this one
+		if (cacheUserData && value != null) {
+			cache.put(cacheKey, value, stamp);
+		}
+	}
+
+	private Map<Long, String> getNodePaths(BareJID user_id, long uid) throws SQLException {
+		Map<Long, Long> parents = new HashMap<>();
+		Map<Long, String> names = new HashMap<>();
+		ResultSet rs = null;
+		PreparedStatement nodes_for_user_st = data_repo.getPreparedStatement(user_id, NODES_FOR_USER_QUERY);
+
+		synchronized (nodes_for_user_st) {
+			try {
+				nodes_for_user_st.setLong(1, uid);
+				rs = nodes_for_user_st.executeQuery();
+				while (rs.next()) {
+					long nid = rs.getLong(1);
+					long parent = rs.getLong(2);
+					parents.put(nid, rs.wasNull() ? null : parent);
+					names.put(nid, rs.getString(3));
+				}
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
+
+		Map<Long, String> paths = new HashMap<>();
+		for (Long nid : names.keySet()) {
+			resolveNodePath(nid, parents, names, paths);
+		}
+		return paths;
+	}
+
+	private String resolveNodePath(Long nid, Map<Long, Long> parents, Map<Long, String> names,
+								   Map<Long, String> paths) {
+		String path = paths.get(nid);
+		if (path != null) {
+			return path;
+		}
+		Long parent = parents.get(nid);
+		if (parent == null) {
+			// root node of the user
+			path = "";
+		} else if (!names.containsKey(parent)) {
+			// orphaned node, it is not reachable by a path
+			path = "\u0000";
+		} else {
+			String parentPath = resolveNodePath(parent, parents, names, paths);
+			path = parentPath.isEmpty() ? names.get(nid) : (parentPath + "/" + names.get(nid));
+		}
+		paths.put(nid, path);
+		return path;
+	}
+
+	private String nodeCacheKey(BareJID user_id, String subnode) {
+		// the same form as the key of cached node id, so removal of a node removes its cached data
+		return user_id + "/" + subnode;
+	}
+
+	private String dataCacheKey(BareJID user_id, String subnode, String key) {
+		return nodeCacheKey(user_id, subnode) + CACHE_DATA_SEPARATOR + key;
+	}
+
+	private void dataChanged(BareJID user_id, String subnode, String key) {
+		invalidateData(user_id, subnode, key);
+		fireUserDataChanged(user_id, subnode, key);
+	}
+
+	private void nodesChanged(BareJID user_id) {
+		cache.remove(user_id + "/");
+		fireUserDataChanged(user_id, null, null);
+	}
+
+	private void invalidateData(BareJID user_id, String subnode, String key) {
+		cache.remove(dataCacheKey(user_id, subnode, key));
+		cache.remove(nodeCacheKey(user_id, subnode) + CACHE_KEYS_SUFFIX);
+	}
+
+	private void fireUserDataChanged(BareJID user_id, String subnode, String key) {
+		// other cluster nodes need to be notified only if they cache user data
+		if (eventBus != null && cacheUserData && clusterMode) {
+			eventBus.fire(new UserDataChangedEvent(user_id, subnode, key));
+		}
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	protected void onUserDataChanged(UserDataChangedEvent event) {
+		if (event.getJid() == null) {
+			return;
+		}
+		if (event.getKey() == null) {
+			cache.remove(event.getJid().toString());
+		} else {
+			invalidateData(event.getJid(), event.getSubnode(), event.getKey());
+		}
+	}
+
 	private long createNodePath(DataRepository repo, BareJID user_id, String node_path)
 			throws SQLException, UserNotFoundException {
 		if (node_path == null) {
@@ -1002,6 +1418,7 @@ public class JDBCRepository
 		long nid = getNodeNID(repo, uid, null);
 		StringTokenizer strtok = new StringTokenizer(node_path, "/", false);
 		StringBuilder built_path = new StringBuilder();
+		boolean added = false;
 
 		while (strtok.hasMoreTokens()) {
 			String token = strtok.nextToken();
@@ -1017,9 +1434,15 @@ public class JDBCRepository
 
 				// OK
 				nid = addNode(repo, uid, nid, token);
+				added = true;
 			}    // end of if (cur_nid > 0) else
 		}      // end of while (strtok.hasMoreTokens())
 
+		if (added) {
+			// cached lists of subnodes and missing nodes are no longer valid
+			nodesChanged(user_id);
+		}
+
 		return nid;
 	}
 
@@ -1184,6 +1607,14 @@ public class JDBCRepository
 		V put(K key, V value);
 
 		V remove(Object key);
+
+		default long getStamp(K key) {
+			return -1;
+		}
+
+		default V put(K key, V value, long stamp) {
+			return put(key, value);
+		}
 	}
 
 	private class RepoNoCache implements IRepoCache<String, Object> {
@@ -1205,56 +1636,10 @@ public class JDBCRepository
 	}
 	// ~--- inner classes --------------------------------------------------------
 	private class RepoCache
-			extends SimpleCache<String, Object> implements IRepoCache<String, Object> {
+			extends ConcurrentRepoCache implements IRepoCache<String, Object> {
 
 		public RepoCache(int maxsize, long cache_time) {
 			super(maxsize, cache_time);
 		}
-
-		@Override
-		public Object get(Object key) {
-			if (cache_off) {
-				return null;
-			}
-
-			synchronized (this) {
-				return super.get(key);
-			}
-		}
-
-		@Override
-		public Object put(String key, Object value) {
-			if (cache_off) {
-				return null;
-			}
-
-			synchronized (this) {
-				return super.put(key, value);
-			}
-		}
-
-		@Override
-		public Object remove(Object key) {
-			if (cache_off) {
-				return null;
-			}
-
-			synchronized (this) {
-				Object val = super.remove(key);
-				String strk = key.toString();
-				Iterator<String> ks = keySet().iterator();
-
-				while (ks.hasNext()) {
-					String k = ks.next().toString();
-
-					if (k.startsWith(strk)) {
-						ks.remove();
-					}    // end of if (k.startsWith(strk))
-				}      // end of while (ks.hasNext())
-
-				return val;
-			}
-		}
 	}
 }    // JDBCRepository
-
@@ -0,0 +1,350 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.jdbc;
+
+import tigase.db.DataRepository;
+import tigase.db.DataRepositoryPool;
+import tigase.stats.StatisticsList;
+import tigase.xmpp.jid.BareJID;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of JDBC connections which hands out prepared statements from the least loaded connection instead of selecting
+ * connection by hash code of a user JID.
+ * <br>
+ * Every connection of the pool is a separate {@link DataRepository} instance (by default {@link DataRepositoryImpl})
+ * with its own cache of prepared statements. Each call to <code>getPreparedStatement()</code> selects a connection
+ * which is currently not in use (or the one with the lowest number of statements in use if all of them are busy). A
+ * statement is in use from the start of an <code>execute*()</code> call until its result is released, ie. until the
+ * returned <code>ResultSet</code> is closed (directly or by {@link #release(Statement, ResultSet)}), the statement is
+ * closed or executed again. Update statements are released when <code>execute*()</code> returns. As a result
+ * concurrent callers are spread over all connections and do not queue on a single statement only because their JIDs
+ * hash to the same connection.
+ * <br>
+ * The contract of {@link DataRepository#getPreparedStatement(BareJID, String)} is not changed - callers still need
+ * to synchronize on returned statement as the same instance is returned for the same connection and key. Obtaining a
+ * statement without executing it does not mark the connection as used.
+ * <br>
+ * Transactions obtained by {@link #takeRepoHandle(BareJID)} are still bound to a connection selected by a hash code
+ * of a user JID. This pool is not selected automatically and needs to be enabled for a data source by setting
+ * <code>pool-class</code> to <code>tigase.db.jdbc.PooledDataRepository</code>.
+ */
+public class PooledDataRepository
+		extends DataRepositoryPool {
+
+	private static final Logger log = Logger.getLogger(PooledDataRepository.class.getName());
+
+	private final LongAdder checkouts = new LongAdder();
+	private final LongAdder checkoutsWithoutIdle = new LongAdder();
+	private volatile Connection[] connections = new Connection[0];
+
+	@Override
+	public synchronized void addRepo(DataRepository repo) {
+		super.addRepo(repo);
+		for (Connection connection : connections) {
+			if (connection.repo == repo) {
+				return;
+			}
+		}
+		Connection[] tmp = Arrays.copyOf(connections, connections.length + 1);
+		tmp[tmp.length - 1] = new Connection(repo);
+		connections = tmp;
+	}
+
+	@Override
+	public Statement createStatement(BareJID user_id) throws SQLException {
+		Connection connection = selectConnection();
+		if (connection == null) {
+			return super.createStatement(user_id);
+		}
+		return connection.repo.createStatement(user_id);
+	}
+
+	@Override
+	public PreparedStatement getPreparedStatement(BareJID user_id, String stIdKey) throws SQLException {
+		return getPreparedStatement(user_id == null ? 0 : user_id.hashCode(), stIdKey);
+	}
+
+	@Override
+	public PreparedStatement getPreparedStatement(int hashCode, String stIdKey) throws SQLException {
+		Connection connection = selectConnection();
+		if (connection == null) {
+			return super.getPreparedStatement(hashCode, stIdKey);
+		}
+
+		PreparedStatement statement = connection.repo.getPreparedStatement(hashCode, stIdKey);
+		if (statement == null) {
+			return null;
+		}
+		return connection.getTrackedStatement(stIdKey, statement);
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		super.getStatistics(compName, list);
+		list.add(compName, "statement checkouts", checkouts.sum(), Level.FINER);
+		list.add(compName, "statement checkouts without idle connection", checkoutsWithoutIdle.sum(), Level.FINER);
+		list.add(compName, "busy connections", getBusyConnectionsCount(), Level.FINEST);
+	}
+
+	int getBusyConnectionsCount() {
+		int busy = 0;
+		for (Connection connection : connections) {
+			if (connection.pending.get() > 0) {
+				busy++;
+			}
+		}
+		return busy;
+	}
+
+	/**
+	 * Selects connection which has no statement in use, starting from a random position to avoid always loading the
+	 * first connection of the pool. If all connections are busy, the one with the lowest number of statements in use
+	 * is selected.
+	 */
+	private Connection selectConnection() {
+		Connection[] connections = this.connections;
+		if (connections.length == 0) {
+			return null;
+		}
+
+		checkouts.increment();
+		int start = connections.length == 1 ? 0 : ThreadLocalRandom.current().nextInt(connections.length);
+		Connection best = null;
+		int bestPending = Integer.MAX_VALUE;
+		for (int i = 0; i < connections.length; i++) {
+			Connection connection = connections[(start + i) % connections.length];
+			int pending = connection.pending.get();
+			if (pending == 0) {
+				return connection;
+			}
+			if (pending < bestPending) {
+				best = connection;
+				bestPending = pending;
+			}
+		}
+		checkoutsWithoutIdle.increment();
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "No idle connection available, using connection with {0} statements in use",
+					bestPending);
+		}
+		return best;
+	}
+
+	private static class Connection {
+
+		private final AtomicInteger pending = new AtomicInteger();
+		private final DataRepository repo;
+		private final ConcurrentHashMap<String, TrackedStatement> statements = new ConcurrentHashMap<>();
+
+		private Connection(DataRepository repo) {
+			this.repo = repo;
+		}
+
+		private void checkin() {
+			pending.getAndUpdate(value -> value > 0 ? value - 1 : 0);
+		}
+
+		private void checkout() {
+			pending.incrementAndGet();
+		}
+
+		/**
+		 * Returns tracking wrapper for a statement. The same wrapper is returned as long as the underlying statement
+		 * is not recreated by the connection (ie. after reconnection), so callers synchronizing on it are still
+		 * serialized.
+		 */
+		private PreparedStatement getTrackedStatement(String key, PreparedStatement statement) {
+			TrackedStatement tracked = statements.get(key);
+			if (tracked == null || tracked.target != statement) {
+				tracked = statements.compute(key, (k, old) -> {
+					if (old != null && old.target == statement) {
+						return old;
+					}
+					if (old != null) {
+						// statement was recreated, so result of the old one cannot be in use anymore
+						old.released();
+					}
+					return new TrackedStatement(this, statement);
+				});
+			}
+			return tracked.proxy;
+		}
+	}
+
+	/**
+	 * Usage state of a single prepared statement. Executions are numbered, so closing a result set of a previous
+	 * execution (which is already closed by the driver on re-execution) does not release the current one.
+	 */
+	private static class TrackedStatement {
+
+		private final Connection connection;
+		private final PreparedStatement proxy;
+		private final PreparedStatement target;
+		private boolean inUse = false;
+		private long execution = 0;
+
+		private TrackedStatement(Connection connection, PreparedStatement target) {
+			this.connection = connection;
+			this.target = target;
+			this.proxy = (PreparedStatement) Proxy.newProxyInstance(PooledDataRepository.class.getClassLoader(),
+																	new Class[]{PreparedStatement.class},
+																	new StatementInvocationHandler(this));
+		}
+
+		private synchronized long executionStarted() {
+			if (!inUse) {
+				inUse = true;
+				connection.checkout();
+			}
+			return ++execution;
+		}
+
+		private synchronized void released(long execution) {
+			if (inUse && this.execution == execution) {
+				inUse = false;
+				connection.checkin();
+			}
+		}
+
+		private synchronized void released() {
+			released(execution);
+		}
+
+		private ResultSet track(ResultSet rs, long execution) {
+			if (rs == null) {
+				released(execution);
+				return null;
+			}
+			return (ResultSet) Proxy.newProxyInstance(PooledDataRepository.class.getClassLoader(),
+													  new Class[]{ResultSet.class},
+													  new ResultSetInvocationHandler(this, rs, execution));
+		}
+	}
+
+	private static class StatementInvocationHandler
+			extends PreparedStatementInvocationHandler {
+
+		private final TrackedStatement statement;
+
+		private StatementInvocationHandler(TrackedStatement statement) {
+			super(statement.target);
+			this.statement = statement;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "executeQuery": {
+					long execution = statement.executionStarted();
+					try {
+						return statement.track((ResultSet) super.invoke(proxy, method, args), execution);
+					} catch (Throwable ex) {
+						statement.released(execution);
+						throw ex;
+					}
+				}
+				case "execute": {
+					// result set of execute() is retrieved by getResultSet(), so statement stays in use until then
+					long execution = statement.executionStarted();
+					try {
+						Object result = super.invoke(proxy, method, args);
+						if (!Boolean.TRUE.equals(result)) {
+							statement.released(execution);
+						}
+						return result;
+					} catch (Throwable ex) {
+						statement.released(execution);
+						throw ex;
+					}
+				}
+				case "executeUpdate":
+				case "executeLargeUpdate":
+				case "executeBatch":
+				case "executeLargeBatch": {
+					long execution = statement.executionStarted();
+					try {
+						return super.invoke(proxy, method, args);
+					} finally {
+						statement.released(execution);
+					}
+				}
+				case "getResultSet": {
+					long execution;
+					synchronized (statement) {
+						execution = statement.execution;
+					}
+					return statement.track((ResultSet) super.invoke(proxy, method, args), execution);
+				}
+				case "close":
+					try {
+						return super.invoke(proxy, method, args);
+					} finally {
+						statement.released();
+					}
+				default:
+					return super.invoke(proxy, method, args);
+			}
+		}
+	}
+
+	private static class ResultSetInvocationHandler
+			implements InvocationHandler {
+
+		private final long execution;
+		private final ResultSet rs;
+		private final TrackedStatement statement;
+
+		private ResultSetInvocationHandler(TrackedStatement statement, ResultSet rs, long execution) {
+			this.statement = statement;
+			this.rs = rs;
+			this.execution = execution;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if ("getStatement".equals(method.getName())) {
+				return statement.proxy;
+			}
+			try {
+				return method.invoke(rs, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getTargetException();
+			} finally {
+				if ("close".equals(method.getName())) {
+					statement.released(execution);
+				}
+			}
+		}
+	}
+}
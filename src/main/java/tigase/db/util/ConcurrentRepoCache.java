@@ -0,0 +1,278 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.util;
+
+import tigase.stats.StatisticsList;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+
+/**
+ * Concurrent, size bounded cache for data loaded from user repositories.
+ * <br>
+ * Keys are paths in form of <code>user/node/...</code>. Entries are split between segments by the first element of a
+ * path (usually a user JID), so all entries of a single user are kept in the same segment and each segment is locked
+ * separately. Segments evict least recently used entries when total weight of their entries exceeds the limit and
+ * entries expire after configured time.
+ * <br>
+ * Absence of a value may be cached by storing {@link #NULL}. Removal of a key removes all entries with keys starting
+ * with the removed key, as long as it contains whole first element of a path.
+ * <br>
+ * To prevent caching of values read before concurrent modification was applied, value read from a repository should
+ * be stored with {@link #put(String, Object, long)} passing stamp obtained by {@link #getStamp(String)} before the
+ * read.
+ */
+public class ConcurrentRepoCache {
+
+	/**
+	 * Marker for cached absence of a value.
+	 */
+	public static final Object NULL = new Object() {
+		@Override
+		public String toString() {
+			return "NULL";
+		}
+	};
+
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final Segment[] segments;
+	private final long ttl;
+	private final ToIntFunction<Object> weigher;
+
+	/**
+	 * Default weight of a cached value: strings and arrays of strings are weighted by their length, so few large values
+	 * will not take as much space as many small ones.
+	 */
+	public static int defaultWeight(Object value) {
+		if (value instanceof String) {
+			return 1 + ((String) value).length() / 64;
+		}
+		if (value instanceof String[]) {
+			int length = 0;
+			for (String str : (String[]) value) {
+				length += str == null ? 0 : str.length();
+			}
+			return 1 + length / 64;
+		}
+		return 1;
+	}
+
+	public ConcurrentRepoCache(long maxWeight, long ttl) {
+		this(maxWeight, ttl, 32, ConcurrentRepoCache::defaultWeight);
+	}
+
+	public ConcurrentRepoCache(long maxWeight, long ttl, int concurrencyLevel, ToIntFunction<Object> weigher) {
+		int size = 1;
+		while (size < concurrencyLevel) {
+			size <<= 1;
+		}
+		this.segments = new Segment[size];
+		long segmentWeight = Math.max(1, maxWeight / size);
+		for (int i = 0; i < size; i++) {
+			segments[i] = new Segment(segmentWeight);
+		}
+		this.ttl = ttl;
+		this.weigher = weigher;
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.entries.clear();
+				segment.weight = 0;
+				segment.stamp++;
+			}
+		}
+	}
+
+	/**
+	 * Returns cached value, {@link #NULL} if absence of the value was cached or <code>null</code> if there is no
+	 * entry for the key.
+	 */
+	public Object get(Object key) {
+		String strKey = key.toString();
+		Segment segment = segmentFor(strKey);
+		Object result = null;
+		synchronized (segment) {
+			Entry entry = segment.entries.get(strKey);
+			if (entry != null) {
+				if (ttl > 0 && System.currentTimeMillis() - entry.created > ttl) {
+					segment.entries.remove(strKey);
+					segment.weight -= entry.weight;
+				} else {
+					result = entry.value;
+				}
+			}
+		}
+		if (result == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return result;
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public double getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : ((double) hits) / total;
+	}
+
+	/**
+	 * Returns stamp of a segment holding the key, which changes on every removal of entries from the segment.
+	 */
+	public long getStamp(String key) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.stamp;
+		}
+	}
+
+	public void getStatistics(String compName, String prefix, StatisticsList list) {
+		list.add(compName, prefix + "/Hits", getHits(), Level.FINE);
+		list.add(compName, prefix + "/Misses", getMisses(), Level.FINE);
+		list.add(compName, prefix + "/Hit ratio", (float) getHitRatio(), Level.FINE);
+		list.add(compName, prefix + "/Evictions", getEvictions(), Level.FINER);
+		list.add(compName, prefix + "/Size", size(), Level.FINER);
+	}
+
+	public Object put(String key, Object value) {
+		return put(key, value, -1);
+	}
+
+	/**
+	 * Stores value in the cache unless entries of the segment holding the key were removed after the stamp was
+	 * obtained.
+	 *
+	 * @param stamp value obtained by {@link #getStamp(String)} or <code>-1</code> to store value unconditionally.
+	 */
+	public Object put(String key, Object value, long stamp) {
+		int weight = weigher.applyAsInt(value);
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			if (stamp >= 0 && stamp != segment.stamp) {
+				return null;
+			}
+			if (weight > segment.maxWeight) {
+				Entry old = segment.entries.remove(key);
+				if (old != null) {
+					segment.weight -= old.weight;
+				}
+				return old == null ? null : old.value;
+			}
+			Entry old = segment.entries.put(key, new Entry(value, weight));
+			segment.weight += weight;
+			if (old != null) {
+				segment.weight -= old.weight;
+			}
+			if (segment.weight > segment.maxWeight) {
+				Iterator<Entry> it = segment.entries.values().iterator();
+				while (segment.weight > segment.maxWeight && it.hasNext()) {
+					Entry eldest = it.next();
+					it.remove();
+					segment.weight -= eldest.weight;
+					evictions.increment();
+				}
+			}
+			return old == null ? null : old.value;
+		}
+	}
+
+	/**
+	 * Removes entry for the key and all entries with keys starting with the key.
+	 */
+	public Object remove(Object key) {
+		String strKey = key.toString();
+		Segment segment = segmentFor(strKey);
+		synchronized (segment) {
+			segment.stamp++;
+			Entry result = segment.entries.remove(strKey);
+			if (result != null) {
+				segment.weight -= result.weight;
+			}
+			Iterator<Map.Entry<String, Entry>> it = segment.entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Entry> e = it.next();
+				if (e.getKey().startsWith(strKey)) {
+					it.remove();
+					segment.weight -= e.getValue().weight;
+				}
+			}
+			return result == null ? null : result.value;
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.entries.size();
+			}
+		}
+		return size;
+	}
+
+	private Segment segmentFor(String key) {
+		int idx = key.indexOf('/');
+		int hash = (idx < 0 ? key : key.substring(0, idx)).hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (segments.length - 1)];
+	}
+
+	private static class Entry {
+
+		private final long created = System.currentTimeMillis();
+		private final Object value;
+		private final int weight;
+
+		private Entry(Object value, int weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private static class Segment {
+
+		private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+		private final long maxWeight;
+		private long stamp = 0;
+		private long weight = 0;
+
+		private Segment(long maxWeight) {
+			this.maxWeight = maxWeight;
+		}
+	}
+}
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -222,6 +223,27 @@ public class XMLRepository
 		return result;
 	}
 
+	@Override
+	public UsersCursor getUsersCursor(String domain, int batchSize) {
+		final List<String> users;
+		synchronized (this) {
+			users = xmldb.getAllNode1s();
+		}
+		return new UsersCursor(domain, batchSize) {
+			private int idx = 0;
+
+			@Override
+			protected int fetchBatch(Queue<BareJID> batch) {
+				int count = 0;
+				while (count < this.batchSize && users != null && idx < users.size()) {
+					batch.offer(BareJID.bareJIDInstanceNS(users.get(idx++)));
+					count++;
+				}
+				return count;
+			}
+		};
+	}
+
 	@Override
 	public synchronized long getUsersCount(String domain) {
 		long res = 0;
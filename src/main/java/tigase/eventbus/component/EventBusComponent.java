@@ -65,6 +65,14 @@ public class EventBusComponent
 	@Override
 	public void getStatistics(StatisticsList list) {
 		super.getStatistics(list);
+		EventPublisherModule publisherModule = kernel.getInstance(EventPublisherModule.class);
+		if (publisherModule != null) {
+			publisherModule.getStatistics(getName(), list);
+		}
+		EventReceiverModule receiverModule = kernel.getInstance(EventReceiverModule.class);
+		if (receiverModule != null) {
+			receiverModule.getStatistics(getName(), list);
+		}
 	}
 
 	@Override
@@ -86,6 +94,10 @@ public class EventBusComponent
 			((SubscribeModule) module).clusterNodeDisconnected(jid);
 		}
 		kernel.getInstance(AffiliationStore.class).removeAffiliation(jid);
+		EventPublisherModule publisherModule = kernel.getInstance(EventPublisherModule.class);
+		if (publisherModule != null) {
+			publisherModule.clusterNodeDisconnected(jid);
+		}
 	}
 
 	@Override
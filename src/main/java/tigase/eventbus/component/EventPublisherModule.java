@@ -30,14 +30,22 @@ import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Packet;
 import tigase.server.Permissions;
+import tigase.stats.StatisticsList;
+import tigase.util.common.TimerTask;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.jid.JID;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 @Bean(name = EventPublisherModule.ID, active = true)
@@ -46,6 +54,15 @@ public class EventPublisherModule
 		implements Initializable, UnregisterAware {
 
 	public final static String ID = "publisher";
+	private final Map<String, EventsBatch> batches = new ConcurrentHashMap<>();
+	private final AtomicLong batchedEventsSent = new AtomicLong();
+	private final AtomicLong batchedStanzasSent = new AtomicLong();
+	private final AtomicLong batchQueueDelayMax = new AtomicLong();
+	private final AtomicLong batchQueueDelayTotal = new AtomicLong();
+	@ConfigField(desc = "Maximal time (in ms) for which event sent to cluster node may be buffered", alias = "batch-delay")
+	private long batchDelay = 10;
+	@ConfigField(desc = "Maximal number of events sent to cluster node in a single stanza", alias = "batch-size")
+	private int batchSize = 1;
 	@Inject
 	private EventBusComponent component;
 	@Inject(nullAllowed = false, bean = "localEventBus")
@@ -76,6 +93,36 @@ public class EventPublisherModule
 	@Override
 	public void beforeUnregister() {
 		localEventBus.removeHandler(firedEventHandler);
+		for (EventsBatch batch : batches.values()) {
+			batch.flush();
+		}
+	}
+
+	/**
+	 * Drops events buffered for a cluster node which was disconnected.
+	 *
+	 * @param node JID of disconnected cluster node
+	 */
+	public void clusterNodeDisconnected(JID node) {
+		batches.values().removeIf(batch -> {
+			if (node.getDomain().equals(batch.to.getDomain())) {
+				batch.discard();
+				return true;
+			}
+			return false;
+		});
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		final long stanzas = batchedStanzasSent.get();
+		final long events = batchedEventsSent.get();
+		list.add(compName, "Batched cluster events sent", events, Level.FINE);
+		list.add(compName, "Batched cluster stanzas sent", stanzas, Level.FINE);
+		list.add(compName, "Average cluster events per stanza", stanzas == 0 ? 0f : ((float) events) / stanzas,
+				 Level.FINE);
+		list.add(compName, "Average cluster event queueing delay [ms]",
+				 events == 0 ? 0f : ((float) batchQueueDelayTotal.get()) / events, Level.FINE);
+		list.add(compName, "Max cluster event queueing delay [ms]", batchQueueDelayMax.get(), Level.FINE);
 	}
 
 	@Override
@@ -146,7 +193,11 @@ public class EventPublisherModule
 				}
 				JID toJID = subscriber.getJid();
 
-				publishEvent(eventElem, from, toJID);
+				if (batchSize > 1 && subscriber.isInClusterSubscription()) {
+					enqueueEvent(EventName.toString(eventPackage, name), event, from, toJID);
+				} else {
+					publishEvent(eventElem, from, toJID);
+				}
 			}
 		} catch (Exception e) {
 			log.log(Level.FINEST, "Error publishing event", e);
@@ -187,6 +238,19 @@ public class EventPublisherModule
 		return subscribers;
 	}
 
+	int getBatchesCount() {
+		return batches.size();
+	}
+
+	private void enqueueEvent(String node, Element event, String from, JID toJID) {
+		final String key = from + "|" + toJID;
+		EventsBatch batch = batches.get(key);
+		if (batch == null) {
+			batch = batches.computeIfAbsent(key, k -> new EventsBatch(from, toJID));
+		}
+		batch.add(node, event);
+	}
+
 	private void publishEvent(Element pubsubEventElem, String from, JID toJID) throws TigaseStringprepException {
 		Packet message = Packet.packetInstance(new Element("message", new String[]{"to", "from", "id"},
 														   new String[]{toJID.toString(), from, nextStanzaID()}));
@@ -197,4 +261,97 @@ public class EventPublisherModule
 
 		write(message);
 	}
+
+	/**
+	 * Buffer of events awaiting delivery to a single cluster node. Events are sent in order in which they were added,
+	 * as a single stanza containing <code>items</code> element for every run of events with the same node name.
+	 */
+	private class EventsBatch {
+
+		private final String from;
+		private final JID to;
+		private List<QueuedEvent> events = new ArrayList<>();
+		private TimerTask flushTask;
+
+		EventsBatch(String from, JID to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		synchronized void add(String node, Element event) {
+			events.add(new QueuedEvent(node, event));
+			if (events.size() >= batchSize) {
+				flush();
+			} else if (flushTask == null) {
+				flushTask = new TimerTask() {
+					@Override
+					public void run() {
+						flush();
+					}
+				};
+				component.addTimerTask(flushTask, batchDelay);
+			}
+		}
+
+		synchronized void discard() {
+			if (flushTask != null) {
+				flushTask.cancel();
+				flushTask = null;
+			}
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Dropping {0} events buffered for disconnected node {1}",
+						new Object[]{events.size(), to});
+			}
+			events = new ArrayList<>();
+		}
+
+		synchronized void flush() {
+			if (flushTask != null) {
+				flushTask.cancel();
+				flushTask = null;
+			}
+			if (events.isEmpty()) {
+				return;
+			}
+
+			final long now = System.currentTimeMillis();
+			final Element eventElem = new Element("event", new String[]{"xmlns"},
+												  new String[]{"http://jabber.org/protocol/pubsub#event"});
+			Element itemsElem = null;
+			for (QueuedEvent it : events) {
+				if (itemsElem == null || !it.node.equals(itemsElem.getAttributeStaticStr("node"))) {
+					itemsElem = new Element("items", new String[]{"node"}, new String[]{it.node});
+					eventElem.addChild(itemsElem);
+				}
+				final Element itemElem = new Element("item");
+				itemElem.addChild(it.event);
+				itemsElem.addChild(itemElem);
+
+				final long delay = now - it.timestamp;
+				batchQueueDelayTotal.addAndGet(delay);
+				batchQueueDelayMax.accumulateAndGet(delay, Math::max);
+			}
+			batchedEventsSent.addAndGet(events.size());
+			events = new ArrayList<>();
+
+			try {
+				publishEvent(eventElem, from, to);
+				batchedStanzasSent.incrementAndGet();
+			} catch (TigaseStringprepException e) {
+				log.log(Level.FINEST, "Error publishing events batch", e);
+			}
+		}
+	}
+
+	private static class QueuedEvent {
+
+		private final Element event;
+		private final String node;
+		private final long timestamp = System.currentTimeMillis();
+
+		QueuedEvent(String node, Element event) {
+			this.node = node;
+			this.event = event;
+		}
+	}
 }
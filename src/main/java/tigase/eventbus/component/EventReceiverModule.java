@@ -30,12 +30,17 @@ import tigase.eventbus.impl.EventName;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.server.Packet;
+import tigase.stats.StatisticsList;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,6 +60,8 @@ public class EventReceiverModule
 
 	@Inject(nullAllowed = false, bean = "localEventBus")
 	private EventBusImplementation localEventBus;
+	private final AtomicLong receivedEvents = new AtomicLong();
+	private final AtomicLong receivedStanzas = new AtomicLong();
 	private EventBusSerializer serializer = new EventBusSerializer();
 	@Inject
 	private SubscriptionStore subscriptionStore;
@@ -90,38 +97,69 @@ public class EventReceiverModule
 		}
 
 		Element eventElem = packet.getElement().getChild("event", "http://jabber.org/protocol/pubsub#event");
-		Element itemsElem = eventElem.getChild("items");
+		List<Element> itemsElems = eventElem.getChildren();
+		if (itemsElems == null) {
+			return;
+		}
+
+		receivedStanzas.incrementAndGet();
 
-		for (Element item : itemsElem.getChildren()) {
-			if (!"item".equals(item.getName())) {
+		// stanza may contain batch of events, subscribers are resolved once for every event name in a batch
+		final Map<String, Collection<Subscription>> nonClusterSubscribers = new HashMap<>();
+		for (Element itemsElem : itemsElems) {
+			if (!"items".equals(itemsElem.getName()) || itemsElem.getChildren() == null) {
 				continue;
 			}
-			for (Element event : item.getChildren()) {
-				EventName eventName = new EventName(event.getName());
+			for (Element item : itemsElem.getChildren()) {
+				if (!"item".equals(item.getName()) || item.getChildren() == null) {
+					continue;
+				}
+				for (Element event : item.getChildren()) {
+					EventName eventName = new EventName(event.getName());
 
-				event.setAttribute("remote", "true");
+					event.setAttribute("remote", "true");
+					receivedEvents.incrementAndGet();
 
-				if (log.isLoggable(Level.FINER)) {
-					log.finer("Received event " + eventName + ": " + event);
-				}
+					if (log.isLoggable(Level.FINER)) {
+						log.finer("Received event " + eventName + ": " + event);
+					}
 
-				fireEventLocally(eventName, event);
+					fireEventLocally(eventName, event);
 
-				// forwarding event to _non cluster_ subscribers.
-				final Collection<Subscription> subscribers = subscriptionStore.getSubscribersJIDs(
-						eventName.getPackage(), eventName.getName());
-				Iterator<Subscription> it = subscribers.iterator();
-				while (it.hasNext()) {
-					Subscription subscription = it.next();
-					if (subscription.isInClusterSubscription()) {
-						it.remove();
+					// forwarding event to _non cluster_ subscribers.
+					final Collection<Subscription> subscribers = nonClusterSubscribers.computeIfAbsent(
+							event.getName(), name -> getNonClusterSubscribers(eventName));
+					if (!subscribers.isEmpty()) {
+						eventPublisherModule.publishEvent(eventName.getPackage(), eventName.getName(), event,
+														  subscribers);
 					}
 				}
-				eventPublisherModule.publishEvent(eventName.getPackage(), eventName.getName(), event, subscribers);
 			}
 		}
 	}
 
+	public void getStatistics(String compName, StatisticsList list) {
+		final long stanzas = receivedStanzas.get();
+		final long events = receivedEvents.get();
+		list.add(compName, "Cluster event stanzas received", stanzas, Level.FINE);
+		list.add(compName, "Cluster events received", events, Level.FINE);
+		list.add(compName, "Average cluster events per received stanza",
+				 stanzas == 0 ? 0f : ((float) events) / stanzas, Level.FINE);
+	}
+
+	private Collection<Subscription> getNonClusterSubscribers(EventName eventName) {
+		final Collection<Subscription> subscribers = subscriptionStore.getSubscribersJIDs(eventName.getPackage(),
+																						  eventName.getName());
+		Iterator<Subscription> it = subscribers.iterator();
+		while (it.hasNext()) {
+			Subscription subscription = it.next();
+			if (subscription.isInClusterSubscription()) {
+				it.remove();
+			}
+		}
+		return subscribers;
+	}
+
 	private Object deserialize(final Element event) {
 		// TODO: for now commented. This optimization will be enabled in the future,
 		//  when attribute 'serialized' will be set for sure on all nodes.
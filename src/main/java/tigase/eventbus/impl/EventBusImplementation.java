@@ -22,6 +22,7 @@ import tigase.xml.Element;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +30,14 @@ public class EventBusImplementation
 		implements EventBus {
 
 	private static final Logger log = Logger.getLogger(EventBusImplementation.class.getName());
+	private final Map<Class<?>, DispatchMode> dispatchModes = new ConcurrentHashMap<>();
+	private final Map<Class<?>, HandlersSnapshot> handlersForClass = new ConcurrentHashMap<>();
+	private final Map<String, HandlersSnapshot> handlersForName = new ConcurrentHashMap<>();
+	/**
+	 * Incremented on every change of registered handlers. Cached snapshots created with older generation are ignored
+	 * and rebuilt on next use.
+	 */
+	private final AtomicLong handlersGeneration = new AtomicLong();
 	private final EventsNameMap<AbstractHandler> listeners = new EventsNameMap<>();
 	private final ReflectEventListenerHandlerFactory reflectEventListenerFactory = new ReflectEventListenerHandlerFactory();
 	private final ReflectEventRoutedTransientFillerFactory reflectEventRoutedTransientFillerFactory = new ReflectEventRoutedTransientFillerFactory();
@@ -38,6 +47,7 @@ public class EventBusImplementation
 	private final Map<Class<?>, EventRoutingSelector> routingSelectors = new ConcurrentHashMap<>();
 	private final Serializer serializer = new EventBusSerializer();
 	private boolean acceptOnlyRegisteredEvents = false;
+	private DispatchMode defaultDispatchMode = DispatchMode.taskPerHandler;
 	private Executor executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
 	private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
@@ -52,6 +62,7 @@ public class EventBusImplementation
 
 	public void addHandler(AbstractHandler listenerHandler) {
 		listeners.put(listenerHandler.getPackageName(), listenerHandler.getEventName(), listenerHandler);
+		invalidateHandlersCache();
 	}
 
 	public <T> void addListener(Class<T> eventClass, tigase.eventbus.EventListener<T> listener) {
@@ -95,20 +106,34 @@ public class EventBusImplementation
 
 	public void fire(Object event, Object source, boolean remotelyGeneratedEvent) {
 		try {
-			HashSet<AbstractHandler> listeners;
+			AbstractHandler[] handlers;
+			DispatchMode mode;
 			if (event instanceof Element) {
 				String eventFullName = ((Element) event).getName();
-				int i = eventFullName.lastIndexOf(".");
-				final String packageName = i >= 0 ? eventFullName.substring(0, i) : "";
-				final String eventName = eventFullName.substring(i + 1);
 				checkIfEventIsRegistered(eventFullName);
-				listeners = getListenersForEvent(packageName, eventName);
+				handlers = getCachedHandlersForEvent(eventFullName);
+				mode = defaultDispatchMode;
 			} else {
 				checkIfEventIsRegistered(event.getClass().getName());
-				listeners = getListenersForEvent(event.getClass());
+				handlers = getCachedHandlersForEvent(event.getClass());
+				mode = getDispatchMode(event.getClass());
 			}
 
-			doFireThreadPerHandler(event, source, remotelyGeneratedEvent, listeners);
+			if (handlers.length == 0) {
+				return;
+			}
+
+			switch (mode) {
+				case synchronous:
+					doFireSynchronously(event, source, remotelyGeneratedEvent, handlers);
+					break;
+				case taskPerEvent:
+					doFireThreadPerEvent(event, source, remotelyGeneratedEvent, handlers);
+					break;
+				default:
+					doFireThreadPerHandler(event, source, remotelyGeneratedEvent, Arrays.asList(handlers));
+					break;
+			}
 		} catch (Exception e) {
 			log.log(Level.WARNING, "Problem on firing event", e);
 		}
@@ -150,6 +175,51 @@ public class EventBusImplementation
 		return handler;
 	}
 
+	public DispatchMode getDefaultDispatchMode() {
+		return defaultDispatchMode;
+	}
+
+	public void setDefaultDispatchMode(DispatchMode defaultDispatchMode) {
+		this.defaultDispatchMode = defaultDispatchMode == null ? DispatchMode.taskPerHandler : defaultDispatchMode;
+	}
+
+	/**
+	 * Returns dispatch mode which will be used for events of passed class. Mode set for event class (or its nearest
+	 * superclass) takes precedence over default dispatch mode.
+	 *
+	 * @param eventClass class of event
+	 *
+	 * @return dispatch mode
+	 */
+	public DispatchMode getDispatchMode(Class<?> eventClass) {
+		if (!dispatchModes.isEmpty()) {
+			Class<?> tmp = eventClass;
+			while (tmp != null && !tmp.equals(Object.class)) {
+				DispatchMode mode = dispatchModes.get(tmp);
+				if (mode != null) {
+					return mode;
+				}
+				tmp = tmp.getSuperclass();
+			}
+		}
+		return defaultDispatchMode;
+	}
+
+	/**
+	 * Sets dispatch mode for events of passed class (and its subclasses). Passing <code>null</code> as a mode restores
+	 * usage of default dispatch mode.
+	 *
+	 * @param eventClass class of event
+	 * @param mode dispatch mode
+	 */
+	public void setDispatchMode(Class<?> eventClass, DispatchMode mode) {
+		if (mode == null) {
+			dispatchModes.remove(eventClass);
+		} else {
+			dispatchModes.put(eventClass, mode);
+		}
+	}
+
 	public Executor getExecutor() {
 		return executor;
 	}
@@ -207,6 +277,7 @@ public class EventBusImplementation
 
 	public void removeHandler(AbstractHandler listenerHandler) {
 		listeners.delete(listenerHandler);
+		invalidateHandlersCache();
 	}
 
 	public <T> void removeListener(EventSourceListener<T> listener) {
@@ -280,40 +351,91 @@ public class EventBusImplementation
 		return result;
 	}
 
+	AbstractHandler[] getCachedHandlersForEvent(final Class<?> eventClass) {
+		final long generation = handlersGeneration.get();
+		HandlersSnapshot snapshot = handlersForClass.get(eventClass);
+		if (snapshot == null || snapshot.generation != generation) {
+			snapshot = new HandlersSnapshot(generation, getListenersForEvent(eventClass));
+			handlersForClass.put(eventClass, snapshot);
+		}
+		return snapshot.handlers;
+	}
+
+	AbstractHandler[] getCachedHandlersForEvent(final String eventFullName) {
+		final long generation = handlersGeneration.get();
+		HandlersSnapshot snapshot = handlersForName.get(eventFullName);
+		if (snapshot == null || snapshot.generation != generation) {
+			int i = eventFullName.lastIndexOf(".");
+			final String packageName = i >= 0 ? eventFullName.substring(0, i) : "";
+			final String eventName = eventFullName.substring(i + 1);
+			snapshot = new HandlersSnapshot(generation, getListenersForEvent(packageName, eventName));
+			handlersForName.put(eventFullName, snapshot);
+		}
+		return snapshot.handlers;
+	}
+
+	protected void doFireSynchronously(final Object event, final Object source, boolean remotelyGeneratedEvent,
+									   AbstractHandler[] handlers) {
+		Element eventConverted = null;
+		for (AbstractHandler listenerHandler : handlers) {
+			if (!accepts(listenerHandler, event)) {
+				continue;
+			}
+			if (eventConverted == null && requiresConversion(listenerHandler, event)) {
+				eventConverted = serializer.serialize(event);
+			}
+			dispatch(listenerHandler, event, eventConverted, source, remotelyGeneratedEvent);
+		}
+	}
+
+	protected void doFireThreadPerEvent(final Object event, final Object source, boolean remotelyGeneratedEvent,
+										AbstractHandler[] handlers) {
+		executor.execute(() -> doFireSynchronously(event, source, remotelyGeneratedEvent, handlers));
+	}
+
 	protected void doFireThreadPerHandler(final Object event, final Object source, boolean remotelyGeneratedEvent,
-										  HashSet<AbstractHandler> handlers) {
+										  Collection<AbstractHandler> handlers) {
 		Element eventConverted = null;
 		for (AbstractHandler listenerHandler : handlers) {
-			Object eventObject;
-
-			if (listenerHandler.getRequiredEventType() == AbstractListenerHandler.Type.asIs) {
-				eventObject = event;
-			} else if (listenerHandler.getRequiredEventType() == AbstractListenerHandler.Type.element &&
-					!(event instanceof Element)) {
-				if (eventConverted == null) {
-					eventConverted = serializer.serialize(event);
-				}
-				eventObject = eventConverted;
-			} else if (listenerHandler.getRequiredEventType() != AbstractListenerHandler.Type.element &&
-					event instanceof Element) {
+			if (!accepts(listenerHandler, event)) {
 				continue;
-			} else {
-				eventObject = event;
+			}
+			if (eventConverted == null && requiresConversion(listenerHandler, event)) {
+				eventConverted = serializer.serialize(event);
 			}
 
-			Runnable task = () -> {
-				try {
-					listenerHandler.dispatch(eventObject, source, remotelyGeneratedEvent);
-				} catch (Throwable e) {
-					log.log(Level.WARNING,
-							"Exception during execution of event: " + event.getClass().getCanonicalName(), e);
-				}
-			};
+			final Element converted = eventConverted;
+			executor.execute(() -> dispatch(listenerHandler, event, converted, source, remotelyGeneratedEvent));
+		}
+	}
 
-			executor.execute(task);
+	private static boolean accepts(AbstractHandler listenerHandler, Object event) {
+		return listenerHandler.getRequiredEventType() == AbstractListenerHandler.Type.asIs ||
+				listenerHandler.getRequiredEventType() == AbstractListenerHandler.Type.element ||
+				!(event instanceof Element);
+	}
+
+	private static boolean requiresConversion(AbstractHandler listenerHandler, Object event) {
+		return listenerHandler.getRequiredEventType() == AbstractListenerHandler.Type.element &&
+				!(event instanceof Element);
+	}
+
+	private void dispatch(AbstractHandler listenerHandler, Object event, Element eventConverted, Object source,
+						  boolean remotelyGeneratedEvent) {
+		final Object eventObject = requiresConversion(listenerHandler, event) ? eventConverted : event;
+		try {
+			listenerHandler.dispatch(eventObject, source, remotelyGeneratedEvent);
+		} catch (Throwable e) {
+			log.log(Level.WARNING, "Exception during execution of event: " + event.getClass().getCanonicalName(), e);
 		}
 	}
 
+	private void invalidateHandlersCache() {
+		handlersGeneration.incrementAndGet();
+		handlersForClass.clear();
+		handlersForName.clear();
+	}
+
 	private void checkIfEventIsRegistered(final String eventName) throws EventBusException {
 		if (!registrar.isRegistered(eventName)) {
 			if (this.acceptOnlyRegisteredEvents) {
@@ -340,6 +462,24 @@ public class EventBusImplementation
 		fire(event);
 	}
 
+	/**
+	 * Defines how handlers of a single event are executed.
+	 */
+	public enum DispatchMode {
+		/**
+		 * Every handler is executed as a separate task of executor.
+		 */
+		taskPerHandler,
+		/**
+		 * All handlers of an event are executed one after another within a single task of executor.
+		 */
+		taskPerEvent,
+		/**
+		 * All handlers are executed in the thread firing an event. Suitable only for lightweight listeners.
+		 */
+		synchronous
+	}
+
 	public interface InternalEventbusEvent {
 
 	}
@@ -389,4 +529,15 @@ public class EventBusImplementation
 			this.packageName = packageName;
 		}
 	}
+
+	private static class HandlersSnapshot {
+
+		private final long generation;
+		private final AbstractHandler[] handlers;
+
+		HandlersSnapshot(long generation, Collection<AbstractHandler> handlers) {
+			this.generation = generation;
+			this.handlers = handlers.toArray(new AbstractHandler[handlers.size()]);
+		}
+	}
 }
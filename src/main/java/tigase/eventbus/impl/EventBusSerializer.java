@@ -17,109 +17,71 @@
  */
 package tigase.eventbus.impl;
 
-import tigase.kernel.BeanUtils;
 import tigase.kernel.DefaultTypesConverter;
 import tigase.kernel.TypesConverter;
 import tigase.xml.Element;
-import tigase.xml.XMLUtils;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Serializes events to XML form and back. For every event class a dedicated <code>EventCodec</code> is created on
+ * first use and cached, so class structure is analyzed only once. Custom codecs may be registered with {@link
+ * #registerCodec(Class, EventCodec)}.
+ */
 public class EventBusSerializer
 		implements Serializer {
 
 	private static final Logger log = Logger.getLogger(EventBusSerializer.class.getName());
+	private final Map<String, EventCodec<?>> codecs = new ConcurrentHashMap<>();
 	private TypesConverter typesConverter = new DefaultTypesConverter();
 
 	public <T> T deserialize(final Element element) {
-		try {
-			final Class<?> cls = Class.forName(element.getName());
-			final Object result = cls.newInstance();
-
-			Field[] fields = BeanUtils.getAllFields(cls);
-			for (final Field f : fields) {
-				if (Modifier.isTransient(f.getModifiers())) {
-					continue;
-				}
-				if (Modifier.isFinal(f.getModifiers())) {
-					continue;
-				}
-				if (Modifier.isStatic(f.getModifiers())) {
-					continue;
-				}
-
-				try {
-					Object value;
-					Element v = element.getChild(f.getName());
-					if (v == null) {
-						continue;
-					}
-
-					if (Element.class.isAssignableFrom(f.getType())) {
-						if (v.getChildren().size() > 0) {
-							value = v.getChildren().get(0);
-						} else {
-							value = null;
-						}
-					} else {
-						value = typesConverter.convert(XMLUtils.unescape(v.getCData()), f.getType(),
-													   f.getGenericType());
-					}
-					BeanUtils.setValue(result, f, value);
-				} catch (IllegalAccessException | InvocationTargetException caught) {
-					log.log(Level.WARNING, "Error while deserializing", caught);
-				}
-			}
-			return (T) result;
-		} catch (ClassNotFoundException e) {
-			return null;
-		} catch (InstantiationException | IllegalAccessException e) {
-			log.log(Level.WARNING, "Error while deserializing", e);
+		final EventCodec<T> codec = getCodec(element.getName());
+		if (codec == null) {
 			return null;
 		}
+		return codec.deserialize(element);
+	}
+
+	public <T> void registerCodec(Class<T> cls, EventCodec<T> codec) {
+		codecs.put(cls.getName(), codec);
 	}
 
 	public Element serialize(final Object object) {
-		final Class<?> cls = object.getClass();
-		Element e = new Element(cls.getName());
+		final EventCodec<Object> codec = getCodec(object.getClass());
+		return codec.serialize(object);
+	}
 
-		Field[] fields = BeanUtils.getAllFields(cls);
-		for (final Field f : fields) {
-			if (Modifier.isTransient(f.getModifiers())) {
-				continue;
-			}
-			if (Modifier.isFinal(f.getModifiers())) {
-				continue;
-			}
-			if (Modifier.isStatic(f.getModifiers())) {
-				continue;
-			}
+	@SuppressWarnings("unchecked")
+	protected <T> EventCodec<T> getCodec(final Class<?> cls) {
+		EventCodec<?> codec = codecs.get(cls.getName());
+		if (codec == null) {
+			codec = codecs.computeIfAbsent(cls.getName(), name -> createCodec(cls));
+		}
+		return (EventCodec<T>) codec;
+	}
 
+	@SuppressWarnings("unchecked")
+	protected <T> EventCodec<T> getCodec(final String className) {
+		EventCodec<?> codec = codecs.get(className);
+		if (codec == null) {
+			final Class<?> cls;
 			try {
-				final Object value = BeanUtils.getValue(object, f);
-
-				if (value == null) {
-					continue;
-				}
-
-				Element v = new Element(f.getName());
-				if (Element.class.isAssignableFrom(f.getType())) {
-					v.addChild((Element) value);
-				} else {
-					String x = typesConverter.toString(value);
-					v.setCData(XMLUtils.escape(x));
-				}
-				e.addChild(v);
-			} catch (IllegalAccessException | InvocationTargetException caught) {
-				log.log(Level.WARNING, "Error while serializing", e);
+				cls = Class.forName(className);
+			} catch (ClassNotFoundException e) {
+				log.log(Level.FINEST, "Unknown event class " + className);
+				return null;
 			}
+			codec = getCodec(cls);
 		}
+		return (EventCodec<T>) codec;
+	}
 
-		return e;
+	protected EventCodec<?> createCodec(Class<?> cls) {
+		return new MethodHandleEventCodec<>(cls, typesConverter);
 	}
 
 }
@@ -0,0 +1,262 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.eventbus.impl;
+
+import tigase.kernel.BeanUtils;
+import tigase.kernel.TypesConverter;
+import tigase.xml.Element;
+import tigase.xml.XMLUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of <code>EventCodec</code> which analyzes event class only once and accesses its fields using
+ * <code>MethodHandle</code>s bound to getters/setters (or fields, if there are no accessors). Values of commonly used
+ * types are converted directly, other types are converted using <code>TypesConverter</code>. If any member cannot be
+ * accessed using <code>MethodHandle</code>, reflection is used as a fallback for this member only.
+ *
+ * @param <T> class of event
+ */
+public class MethodHandleEventCodec<T>
+		implements EventCodec<T> {
+
+	private static final Logger log = Logger.getLogger(MethodHandleEventCodec.class.getName());
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private final Class<T> cls;
+	private final MethodHandle constructor;
+	private final FieldCodec[] fields;
+	private final String name;
+	private final TypesConverter typesConverter;
+
+	public MethodHandleEventCodec(Class<T> cls, TypesConverter typesConverter) {
+		this.cls = cls;
+		this.name = cls.getName();
+		this.typesConverter = typesConverter;
+
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		this.constructor = findConstructor(lookup, cls);
+
+		List<FieldCodec> fields = new ArrayList<>();
+		for (Field f : BeanUtils.getAllFields(cls)) {
+			final int modifiers = f.getModifiers();
+			if (Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers) || Modifier.isStatic(modifiers)) {
+				continue;
+			}
+			fields.add(new FieldCodec(lookup, f, typesConverter));
+		}
+		this.fields = fields.toArray(new FieldCodec[fields.size()]);
+	}
+
+	private static MethodHandle findConstructor(MethodHandles.Lookup lookup, Class<?> cls) {
+		try {
+			return lookup.findConstructor(cls, MethodType.methodType(void.class)).asType(CONSTRUCTOR_TYPE);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public T deserialize(Element element) {
+		final T result;
+		try {
+			result = newInstance();
+		} catch (Throwable e) {
+			log.log(Level.WARNING, "Error while deserializing", e);
+			return null;
+		}
+
+		for (FieldCodec f : fields) {
+			Element v = element.getChild(f.name);
+			if (v == null) {
+				continue;
+			}
+			try {
+				f.set(result, f.decode(v));
+			} catch (Throwable caught) {
+				log.log(Level.WARNING, "Error while deserializing", caught);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Element serialize(T event) {
+		Element e = new Element(name);
+		for (FieldCodec f : fields) {
+			try {
+				final Object value = f.get(event);
+				if (value == null) {
+					continue;
+				}
+				e.addChild(f.encode(value));
+			} catch (Throwable caught) {
+				log.log(Level.WARNING, "Error while serializing", caught);
+			}
+		}
+		return e;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T newInstance() throws Throwable {
+		if (constructor != null) {
+			return (T) constructor.invokeExact();
+		}
+		return cls.newInstance();
+	}
+
+	private enum ValueType {
+		string,
+		integer,
+		longInteger,
+		bool,
+		element,
+		other
+	}
+
+	private static class FieldCodec {
+
+		private final Field field;
+		private final Type genericType;
+		private final MethodHandle getter;
+		private final String name;
+		private final MethodHandle setter;
+		private final Class<?> type;
+		private final TypesConverter typesConverter;
+		private final ValueType valueType;
+
+		FieldCodec(MethodHandles.Lookup lookup, Field field, TypesConverter typesConverter) {
+			this.field = field;
+			this.typesConverter = typesConverter;
+			this.name = field.getName();
+			this.type = field.getType();
+			this.genericType = field.getGenericType();
+			this.valueType = valueTypeOf(type);
+			this.getter = findGetter(lookup, field);
+			this.setter = findSetter(lookup, field);
+		}
+
+		Object decode(Element v) {
+			switch (valueType) {
+				case element:
+					return v.getChildren() == null || v.getChildren().isEmpty() ? null : v.getChildren().get(0);
+				case string:
+					// same as conversion done by DefaultTypesConverter, including trimming of the value
+					String value = XMLUtils.unescape(v.getCData());
+					return (value == null || "null".equals(value)) ? null : value.trim();
+				default:
+					return typesConverter.convert(XMLUtils.unescape(v.getCData()), type, genericType);
+			}
+		}
+
+		Element encode(Object value) {
+			Element v = new Element(name);
+			switch (valueType) {
+				case element:
+					v.addChild((Element) value);
+					break;
+				case string:
+				case integer:
+				case longInteger:
+				case bool:
+					v.setCData(XMLUtils.escape(value.toString()));
+					break;
+				default:
+					v.setCData(XMLUtils.escape(typesConverter.toString(value)));
+					break;
+			}
+			return v;
+		}
+
+		Object get(Object bean) throws Throwable {
+			if (getter != null) {
+				return (Object) getter.invokeExact(bean);
+			}
+			return BeanUtils.getValue(bean, field);
+		}
+
+		void set(Object bean, Object value) throws Throwable {
+			if (setter != null && (value != null || !type.isPrimitive())) {
+				setter.invokeExact(bean, value);
+			} else {
+				BeanUtils.setValue(bean, field, value);
+			}
+		}
+
+		private MethodHandle findGetter(MethodHandles.Lookup lookup, Field field) {
+			try {
+				Method m = BeanUtils.prepareGetterMethod(field);
+				if (m != null) {
+					return lookup.unreflect(m).asType(GETTER_TYPE);
+				}
+				field.setAccessible(true);
+				return lookup.unreflectGetter(field).asType(GETTER_TYPE);
+			} catch (IllegalAccessException | RuntimeException e) {
+				log.log(Level.FINEST, "Falling back to reflection for reading field " + field, e);
+				return null;
+			}
+		}
+
+		private MethodHandle findSetter(MethodHandles.Lookup lookup, Field field) {
+			try {
+				Method m = BeanUtils.prepareSetterMethod(field);
+				if (m != null) {
+					return lookup.unreflect(m).asType(SETTER_TYPE);
+				}
+				List<Method> setters = BeanUtils.prepareSetterMethods(field.getDeclaringClass(), field.getName());
+				if (setters != null && !setters.isEmpty()) {
+					// setter accepting other type may exist, it needs to be matched against value
+					return null;
+				}
+				field.setAccessible(true);
+				return lookup.unreflectSetter(field).asType(SETTER_TYPE);
+			} catch (IllegalAccessException | RuntimeException e) {
+				log.log(Level.FINEST, "Falling back to reflection for writing field " + field, e);
+				return null;
+			}
+		}
+
+		private ValueType valueTypeOf(Class<?> type) {
+			if (Element.class.isAssignableFrom(type)) {
+				return ValueType.element;
+			} else if (type == String.class) {
+				return ValueType.string;
+			} else if (type == Integer.class || type == int.class) {
+				return ValueType.integer;
+			} else if (type == Long.class || type == long.class) {
+				return ValueType.longInteger;
+			} else if (type == Boolean.class || type == boolean.class) {
+				return ValueType.bool;
+			}
+			return ValueType.other;
+		}
+	}
+
+}
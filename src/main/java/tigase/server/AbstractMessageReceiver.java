@@ -760,17 +760,9 @@ public abstract class AbstractMessageReceiver
 			}
 		}
 
-		int in_queue_size = 0;
-
-		for (PriorityQueueAbstract<Packet> total_size : in_queues) {
-			in_queue_size += total_size.totalSize();
-		}
-
-		int out_queue_size = 0;
+		int in_queue_size = getTotalInQueuesSize();
+		int out_queue_size = getTotalOutQueuesSize();
 
-		for (PriorityQueueAbstract<Packet> total_size : out_queues) {
-			out_queue_size += total_size.totalSize();
-		}
 		list.add(getName(), "Total In queues wait", in_queue_size, Level.INFO);
 		list.add(getName(), "Total Out queues wait", out_queue_size, Level.INFO);
 		list.add(getName(), "Total queues wait", (in_queue_size + out_queue_size), Level.INFO);
@@ -895,6 +887,34 @@ public abstract class AbstractMessageReceiver
 		}
 	}
 
+	/**
+	 * Method returns number of packets waiting in all internal input queues of the component.
+	 *
+	 * @return number of packets awaiting processing
+	 */
+	public int getTotalInQueuesSize() {
+		int in_queue_size = 0;
+
+		for (PriorityQueueAbstract<Packet> total_size : in_queues) {
+			in_queue_size += total_size.totalSize();
+		}
+		return in_queue_size;
+	}
+
+	/**
+	 * Method returns number of packets waiting in all internal output queues of the component.
+	 *
+	 * @return number of packets awaiting delivery
+	 */
+	public int getTotalOutQueuesSize() {
+		int out_queue_size = 0;
+
+		for (PriorityQueueAbstract<Packet> total_size : out_queues) {
+			out_queue_size += total_size.totalSize();
+		}
+		return out_queue_size;
+	}
+
 	public boolean addOutPacketWithTimeout(Packet packet, ReceiverTimeoutHandler handler, long delay, TimeUnit unit) {
 
 		// It is automatically added to collections and the Timer
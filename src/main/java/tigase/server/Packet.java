@@ -23,9 +23,8 @@ import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.JID;
 
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Objects of this class carry a single XMPP packet (stanza). The XMPP stanza is carried as an XML element in DOM
@@ -93,6 +92,10 @@ public class Packet {
 	 */
 	public static boolean FULL_DEBUG = Boolean.getBoolean("packet.debug.full");
 
+	// processors marking packets are given dense indexes, so packets may keep them in bitsets
+	private static final Map<String, Integer> processorIndexes = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] processorIdsByIndex = new String[64];
+
 	protected Element elem;
 	private JID packetFrom = null;
 	private JID packetTo = null;
@@ -100,14 +103,87 @@ public class Packet {
 	private String packetToStringSecure = null;
 	private Permissions permissions = Permissions.NONE;
 	private Priority priority = Priority.NORMAL;
-	private Set<String> processorsIds = new LinkedHashSet<String>(4, 0.9f);
+	// bits of processors with index < 64, overflow array is created only for higher indexes
+	private long processors = 0;
+	private long[] processorsOverflow = null;
 	private boolean routed;
-	private LinkedHashSet<String> skippedProcessorsIds = new LinkedHashSet<String>(4, 0.9f);
+	private long skippedProcessors = 0;
+	private long[] skippedProcessorsOverflow = null;
 	private JID stanzaFrom = null;
 	private String stanzaId = null;
 	private JID stanzaTo = null;
 	private StanzaType type;
 
+	/**
+	 * Method returns index of the packet processor with a given ID. Index is assigned on the first call for the ID and
+	 * is used by packets to track processors which handled them.
+	 *
+	 * @param id is a <code>String</code> instance of the packet processor identifier.
+	 *
+	 * @return index of the packet processor.
+	 */
+	public static int getProcessorIndex(String id) {
+		Integer index = processorIndexes.get(id);
+		return index != null ? index : registerProcessor(id);
+	}
+
+	private static synchronized int registerProcessor(String id) {
+		Integer index = processorIndexes.get(id);
+		if (index == null) {
+			index = processorIndexes.size();
+			String[] ids = processorIdsByIndex;
+			if (index >= ids.length) {
+				ids = Arrays.copyOf(ids, ids.length * 2);
+			}
+			ids[index] = id;
+			processorIdsByIndex = ids;
+			processorIndexes.put(id, index);
+		}
+		return index;
+	}
+
+	private static long[] setBit(long[] overflow, int index) {
+		int word = (index >> 6) - 1;
+		if (overflow == null) {
+			overflow = new long[word + 1];
+		} else if (overflow.length <= word) {
+			overflow = Arrays.copyOf(overflow, word + 1);
+		}
+		overflow[word] |= 1L << index;
+		return overflow;
+	}
+
+	private static boolean isBitSet(long bits, long[] overflow, int index) {
+		if (index < 64) {
+			return (bits & (1L << index)) != 0;
+		}
+		int word = (index >> 6) - 1;
+		return overflow != null && overflow.length > word && (overflow[word] & (1L << index)) != 0;
+	}
+
+	private static Set<String> bitsToIds(long bits, long[] overflow) {
+		if (bits == 0 && overflow == null) {
+			return Collections.emptySet();
+		}
+		String[] ids = processorIdsByIndex;
+		Set<String> result = new LinkedHashSet<String>();
+		for (int i = 0; i < 64; i++) {
+			if ((bits & (1L << i)) != 0) {
+				result.add(ids[i]);
+			}
+		}
+		if (overflow != null) {
+			for (int word = 0; word < overflow.length; word++) {
+				for (int i = 0; i < 64; i++) {
+					if ((overflow[word] & (1L << i)) != 0) {
+						result.add(ids[((word + 1) << 6) + i]);
+					}
+				}
+			}
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
 	/**
 	 * Method trims {@link Element} stanza to 1024 characters and returns String representation of the element
 	 *
@@ -590,21 +666,22 @@ public class Packet {
 	 * Method returns a set of all processor IDs which processed the packet. Each session manager processor which
 	 * handles the packet can mark the packet as processed. This is used internally by the session manager to detect
 	 * packets which hasn't been processed by any processor, hence a default action is applied to the packet if
-	 * possible.
+	 * possible. Returned set is created on each call, ordered by processor indexes, and cannot be modified.
 	 *
 	 * @return a <code>Set</code> of stanza processor IDs which handled the packet.
 	 */
 	public Set<String> getProcessorsIds() {
-		return processorsIds;
+		return bitsToIds(processors, processorsOverflow);
 	}
 
 	/**
-	 * Method returns a set of all processor IDs which skipped processing packets.
+	 * Method returns a set of all processor IDs which skipped processing packets. Returned set is created on each
+	 * call, ordered by processor indexes, and cannot be modified.
 	 *
 	 * @return a <code>Set</code> of stanza processor IDs which skipped the packet.
 	 */
 	public Set<String> getSkippedProcessorsIds() {
-		return skippedProcessorsIds;
+		return bitsToIds(skippedProcessors, skippedProcessorsOverflow);
 	}
 
 	/**
@@ -837,7 +914,20 @@ public class Packet {
 	 * @param id is a <code>String</code> instance of the packet processer identifier.
 	 */
 	public void notProcessedBy(String id) {
-		skippedProcessorsIds.add(id);
+		notProcessedBy(getProcessorIndex(id));
+	}
+
+	/**
+	 * The method marks that the packet has NOT been processed by a packet processor with a given index.
+	 *
+	 * @param index is an index of the packet processor returned by {@link #getProcessorIndex(String)}.
+	 */
+	public void notProcessedBy(int index) {
+		if (index < 64) {
+			skippedProcessors |= 1L << index;
+		} else {
+			skippedProcessorsOverflow = setBit(skippedProcessorsOverflow, index);
+		}
 	}
 
 	/**
@@ -964,7 +1054,20 @@ public class Packet {
 	 * @param id is a <code>String</code> instance of the packet processer identifier.
 	 */
 	public void processedBy(String id) {
-		processorsIds.add(id);
+		processedBy(getProcessorIndex(id));
+	}
+
+	/**
+	 * The method marks that the packet has been processed by a packet processor with a given index.
+	 *
+	 * @param index is an index of the packet processor returned by {@link #getProcessorIndex(String)}.
+	 */
+	public void processedBy(int index) {
+		if (index < 64) {
+			processors |= 1L << index;
+		} else {
+			processorsOverflow = setBit(processorsOverflow, index);
+		}
 	}
 
 	/**
@@ -1144,7 +1247,7 @@ public class Packet {
 	 * <code>false</code> otherwise.
 	 */
 	public boolean wasProcessed() {
-		return processorsIds.size() > 0;
+		return processors != 0 || processorsOverflow != null;
 	}
 
 	/**
@@ -1154,7 +1257,7 @@ public class Packet {
 	 * @return <code>true</code> if packet was skipped by any processor.
 	 */
 	public boolean wasSkipped() {
-		return skippedProcessorsIds.size() > 0;
+		return skippedProcessors != 0 || skippedProcessorsOverflow != null;
 	}
 
 	/**
@@ -1166,7 +1269,8 @@ public class Packet {
 	 * specified ID and <code>false</code> otherwise.
 	 */
 	public boolean wasProcessedBy(String id) {
-		return processorsIds.contains(id);
+		Integer index = processorIndexes.get(id);
+		return index != null && isBitSet(processors, processorsOverflow, index);
 	}
 
 	/**
@@ -24,17 +24,31 @@ import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Packet;
 import tigase.server.amp.ActionAbstract;
 import tigase.server.amp.AmpComponent;
 import tigase.server.amp.cond.ExpireAt;
+import tigase.stats.ComponentStatisticsProvider;
+import tigase.stats.StatisticsList;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,14 +60,24 @@ import java.util.logging.Logger;
 @Bean(name = "store", parent = AmpComponent.class, active = true)
 public class Store
 		extends ActionAbstract
-		implements Initializable, UnregisterAware {
+		implements Initializable, UnregisterAware, ComponentStatisticsProvider {
 
 	private static final Logger log = Logger.getLogger(Store.class.getName());
 	private static final String name = "store";
 
+	private final LongAdder expiredCounter = new LongAdder();
+	private final LongAccumulator expiryLagMax = new LongAccumulator(Long::max, 0);
 	private final SimpleDateFormat formatter;
 	private final SimpleDateFormat formatter2;
 	// ~--- fields ---------------------------------------------------------------
+	@ConfigField(desc = "Maximal number of expired messages removed at once", alias = "expiry-batch-size")
+	private int expiryBatchSize = 1000;
+	@ConfigField(desc = "Number of threads preparing notifications for expired messages", alias = "expiry-concurrency")
+	private int expiryConcurrency = 1;
+	@ConfigField(desc = "Interval in ms between checks for expired messages", alias = "expiry-interval")
+	private long expiryInterval = 1000;
+	private volatile long expiryLag = 0;
+	private ExecutorService expiryExecutor = null;
 	private Thread expiredProcessor = null;
 	@Inject
 	private NonAuthUserRepositoryImpl nonAuthUserRepo;
@@ -135,6 +159,20 @@ public class Store
 				public void run() {
 					try {
 						Thread.sleep(90 * 1000);
+						while (true) {
+							int removed = removeExpiredMessages();
+							if (removed < 0) {
+								// repository does not support bulk removal
+								break;
+							}
+							if (removed < expiryBatchSize) {
+								Thread.sleep(expiryInterval);
+							} else if (Thread.interrupted()) {
+								log.info("stopping expired-processor");
+								expiredProcessor = null;
+								return;
+							}
+						}
 						while (true) {
 							Element elem = repo.getMessageExpired(0, true);
 
@@ -169,6 +207,95 @@ public class Store
 		if (expiredProcessor != null) {
 			expiredProcessor.interrupt();
 		}
+		if (expiryExecutor != null) {
+			expiryExecutor.shutdown();
+			expiryExecutor = null;
+		}
+	}
+
+	@Override
+	public void everyHour() {
+	}
+
+	@Override
+	public void everyMinute() {
+		expiryLagMax.reset();
+	}
+
+	@Override
+	public void everySecond() {
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Expired messages", expiredCounter.sum(), Level.FINE);
+		list.add(compName, "Expiry lag [ms]", expiryLag, Level.FINE);
+		list.add(compName, "Max expiry lag in last minute [ms]", expiryLagMax.get(), Level.FINE);
+	}
+
+	/**
+	 * Removes single batch of expired messages from repository and sends notifications about them.
+	 *
+	 * @return number of removed messages or <code>-1</code> if repository does not support bulk removal
+	 */
+	int removeExpiredMessages() {
+		return repo.removeExpiredMessages(new Date(), expiryBatchSize, this::expired);
+	}
+
+	public void setExpiryConcurrency(int expiryConcurrency) {
+		this.expiryConcurrency = expiryConcurrency;
+		ExecutorService oldExecutor = expiryExecutor;
+		if (expiryConcurrency > 1) {
+			AtomicInteger counter = new AtomicInteger();
+			// queue is bounded, so expired messages are not removed faster than notifications are prepared
+			expiryExecutor = new ThreadPoolExecutor(expiryConcurrency, expiryConcurrency, 0, TimeUnit.MILLISECONDS,
+													new LinkedBlockingQueue<>(expiryConcurrency * 100), r -> {
+				Thread thread = new Thread(r, "expired-processor-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.CallerRunsPolicy());
+		} else {
+			expiryExecutor = null;
+		}
+		if (oldExecutor != null) {
+			oldExecutor.shutdown();
+		}
+	}
+
+	private void expired(String msg, Date expired) {
+		long lag = System.currentTimeMillis() - expired.getTime();
+		expiryLag = lag;
+		expiryLagMax.accumulate(lag);
+		expiredCounter.increment();
+
+		ExecutorService executor = expiryExecutor;
+		if (executor != null) {
+			executor.execute(() -> sendExpired(msg));
+		} else {
+			sendExpired(msg);
+		}
+	}
+
+	private void sendExpired(String msg) {
+		DomBuilderHandler domHandler = new DomBuilderHandler();
+		SimpleParser parser = SingletonFactory.getParserInstance();
+		parser.parse(domHandler, msg.toCharArray(), 0, msg.length());
+
+		Queue<Element> elems = domHandler.getParsedElements();
+		Element elem = elems.poll();
+		if (elem == null) {
+			log.log(Level.INFO, "Something wrong, loaded expired message from DB but parsed no XML elements: {0}",
+					msg);
+			return;
+		}
+
+		elem.addAttribute(OFFLINE, "1");
+		elem.addAttribute(EXPIRED, "1");
+		try {
+			resultsHandler.addOutPacket(Packet.packetInstance(elem));
+		} catch (TigaseStringprepException ex) {
+			log.info("Stringprep error for offline message loaded from DB: " + elem);
+		}
 	}
 
 	// ~--- get methods ----------------------------------------------------------
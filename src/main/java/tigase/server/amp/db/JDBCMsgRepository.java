@@ -47,6 +47,8 @@ public class JDBCMsgRepository
 		implements RepositoryVersionAware {
 
 	private static final Logger log = Logger.getLogger(JDBCMsgRepository.class.getName());
+	private static final int DELETE_BY_IDS_BATCH = 100;
+	private static final String MSGS_DELETE_MESSAGES_BULK = createDeleteMessagesBulkQuery();
 	protected DataRepository data_repo = null;
 	@ConfigField(desc = "Query to add message", alias = "add-message-query")
 	private String MSGS_ADD_MESSAGE = "{ call Tig_OfflineMessages_AddMessage(?,?,?,?,?,?,?) }";
@@ -75,6 +77,17 @@ public class JDBCMsgRepository
 	private String MSGS_LIST_MESSAGES = "{ call Tig_OfflineMessages_ListMessages(?) }";
 	private boolean initialized = false;
 
+	private static String createDeleteMessagesBulkQuery() {
+		StringBuilder sb = new StringBuilder("delete from tig_offline_messages where msg_id in (");
+		for (int i = 0; i < DELETE_BY_IDS_BATCH; i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append("?");
+		}
+		return sb.append(")").toString();
+	}
+
 	@Override
 	public void setDataSource(DataRepository data_repo) {
 		try {
@@ -88,6 +101,7 @@ public class JDBCMsgRepository
 			data_repo.initPreparedStatement(MSGS_DELETE_MESSAGES_BY_IDS, MSGS_DELETE_MESSAGES_BY_IDS);
 			data_repo.initPreparedStatement(MSGS_GET_EXPIRED_MESSAGES, MSGS_GET_EXPIRED_MESSAGES);
 			data_repo.initPreparedStatement(MSGS_GET_EXPIRED_MESSAGES_BEFORE, MSGS_GET_EXPIRED_MESSAGES_BEFORE);
+			data_repo.initPreparedStatement(MSGS_DELETE_MESSAGES_BULK, MSGS_DELETE_MESSAGES_BULK);
 		} catch (SQLException ex) {
 			log.log(Level.WARNING, "MsgRepository not initialized due to exception",
 					ExceptionUtilities.getExceptionRootCause(ex, true));
@@ -191,6 +205,43 @@ public class JDBCMsgRepository
 
 	}
 
+	@Override
+	public List<String> getMessagesIds(JID to) {
+		List<Long> ids = new ArrayList<>();
+		ResultSet rs = null;
+
+		try {
+			PreparedStatement select_messages_list = data_repo.getPreparedStatement(to.getBareJID(),
+																					MSGS_LIST_MESSAGES);
+
+			synchronized (select_messages_list) {
+				try {
+					select_messages_list.setString(1, to.getBareJID().toString());
+
+					rs = select_messages_list.executeQuery();
+
+					while (rs.next()) {
+						long msgId = rs.getLong(1);
+						if (msgId != 0) {
+							ids.add(msgId);
+						}
+					}
+				} finally {
+					data_repo.release(null, rs);
+				}
+			}
+		} catch (SQLException e) {
+			log.log(Level.WARNING, "Problem getting offline messages for user: " + to, e);
+		}
+
+		Collections.sort(ids);
+		List<String> result = new ArrayList<>(ids.size());
+		for (Long id : ids) {
+			result.add(String.valueOf(id));
+		}
+		return result;
+	}
+
 	@Override
 	public Queue<Element> loadMessagesToJID(List<String> db_ids, XMPPResourceConnection session, boolean delete,
 											OfflineMessagesProcessor proc) throws UserNotFoundException {
@@ -349,6 +400,52 @@ public class JDBCMsgRepository
 		return result;
 	}
 
+	@Override
+	public int removeExpiredMessages(Date before, int limit, ExpiredMessagesHandler handler) {
+		bulkExpiry = true;
+		List<Long> ids = new ArrayList<>();
+		List<String> msgs = new ArrayList<>();
+		List<Date> expirations = new ArrayList<>();
+
+		try {
+			ResultSet rs = null;
+			PreparedStatement select_expired_st = data_repo.getPreparedStatement(null, MSGS_GET_EXPIRED_MESSAGES);
+
+			synchronized (select_expired_st) {
+				try {
+					select_expired_st.setInt(1, limit);
+					rs = select_expired_st.executeQuery();
+
+					// rows are ordered by expiration time, so we may stop at first not expired message
+					while (rs.next() && ids.size() < limit) {
+						Timestamp expired = data_repo.getTimestamp(rs, 2);
+						if (expired == null || expired.after(before)) {
+							break;
+						}
+						ids.add(rs.getLong(1));
+						expirations.add(expired);
+						msgs.add(rs.getString(3));
+					}
+				} finally {
+					data_repo.release(null, rs);
+				}
+			}
+
+			deleteMessages(ids);
+		} catch (SQLException e) {
+			log.log(Level.WARNING, "Problem removing expired offline messages from db: ", e);
+			return 0;
+		}
+
+		// messages are passed to the handler only after they were deleted, so a failed delete will not result in
+		// duplicated notifications for messages which are still in the repository
+		for (int i = 0; i < ids.size(); i++) {
+			handler.handle(msgs.get(i), expirations.get(i));
+		}
+
+		return ids.size();
+	}
+
 	@Override
 	public boolean storeMessage(JID from, JID to, Date expired, Element msg, NonAuthUserRepository userRepo)
 			throws UserNotFoundException {
@@ -401,7 +498,7 @@ public class JDBCMsgRepository
 					earliestOffline = expired.getTime();
 				}
 
-				if (expiredQueue.size() == 0) {
+				if (expiredQueue.size() == 0 && !bulkExpiry) {
 					loadExpiredQueue(1);
 				}
 			}
@@ -469,6 +566,23 @@ public class JDBCMsgRepository
 		}
 	}
 
+	protected void deleteMessages(List<Long> ids) throws SQLException {
+		for (int offset = 0; offset < ids.size(); offset += DELETE_BY_IDS_BATCH) {
+			PreparedStatement delete_bulk_st = data_repo.getPreparedStatement(null, MSGS_DELETE_MESSAGES_BULK);
+
+			synchronized (delete_bulk_st) {
+				for (int i = 0; i < DELETE_BY_IDS_BATCH; i++) {
+					if (offset + i < ids.size()) {
+						delete_bulk_st.setLong(i + 1, ids.get(offset + i));
+					} else {
+						delete_bulk_st.setNull(i + 1, Types.BIGINT);
+					}
+				}
+				delete_bulk_st.executeUpdate();
+			}
+		}
+	}
+
 	@Override
 	protected void loadExpiredQueue(int min_elements) {
 		try {
@@ -90,6 +90,11 @@ public abstract class MsgRepository<T, S extends DataSource>
 		}
 
 	}
+	/**
+	 * Set when expired messages are removed in bulk by {@link #removeExpiredMessages(Date, int,
+	 * ExpiredMessagesHandler)}, so the queue of expired messages does not need to be refilled.
+	 */
+	protected volatile boolean bulkExpiry = false;
 	protected long earliestOffline = Long.MAX_VALUE;
 	protected SimpleParser parser = SingletonFactory.getParserInstance();
 	private Condition expiredMessagesCondition;
@@ -238,6 +243,17 @@ public abstract class MsgRepository<T, S extends DataSource>
 		public void stamp(Element msg, String msgID);
 	}
 
+	public interface ExpiredMessagesHandler {
+
+		/**
+		 * Called for every removed expired message.
+		 *
+		 * @param msg serialized message
+		 * @param expired time at which message expired
+		 */
+		void handle(String msg, Date expired);
+	}
+
 	public static class MsgDBItem<T>
 			implements Delayed {
 
@@ -342,6 +358,23 @@ public abstract class MsgRepository<T, S extends DataSource>
 			return getRepository(to.getDomain()).getMessagesList(to);
 		}
 
+		@Override
+		public int removeExpiredMessages(Date before, int limit, ExpiredMessagesHandler handler) {
+			int result = -1;
+			for (MsgRepositoryIfc repo : getRepositories().values()) {
+				int removed = repo.removeExpiredMessages(before, limit, handler);
+				if (removed >= 0) {
+					result = Math.max(result, 0) + removed;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public List<String> getMessagesIds(JID to) throws UserNotFoundException {
+			return getRepository(to.getDomain()).getMessagesIds(to);
+		}
+
 		@Override
 		public void setCondition(ReentrantLock lock, Condition condition) {
 
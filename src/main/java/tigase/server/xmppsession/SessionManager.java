@@ -75,6 +75,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -95,6 +96,12 @@ public class SessionManager
 		implements Configurable, SessionManagerHandler, OnlineJidsReporter, RegistrarBean {
 
 	protected static final String ADMIN_COMMAND_NODE = "http://jabber.org/protocol/admin";
+	// indexes used to mark packets handled by the session manager itself
+	protected static final int SESSION_MANAGER_PROCESSOR_INDEX = Packet.getProcessorIndex("SessionManager");
+	private static final int ADMINS_OR_DOMAINS_PROCESSOR_INDEX = Packet.getProcessorIndex("admins-or-domains");
+	private static final int DEF_HANDLER_PROCESSOR_INDEX = Packet.getProcessorIndex(defaultHandlerProcId);
+	private static final int FILTER_FORWARD_PROCESSOR_INDEX = Packet.getProcessorIndex("filter-foward");
+	private static final int IQ_RESULT_TO_SERVER_PROCESSOR_INDEX = Packet.getProcessorIndex("iq-result-to-server");
 
 	private static final Logger log = Logger.getLogger(SessionManager.class.getName());
 
@@ -120,6 +127,8 @@ public class SessionManager
 	@ConfigField(desc = "Authentication timeout", alias = SessionManagerConfig.AUTH_TIMEOUT_PROP_KEY)
 	private long authTimeout = 120;
 	private long authTimeouts = 0;
+	@ConfigField(desc = "Maximal number of CAPS nodes learned from clients kept in memory", alias = PresenceCapabilitiesManager.CAPS_CACHE_SIZE_PROP_KEY)
+	private int capsCacheSize = PresenceCapabilitiesManager.CAPS_CACHE_SIZE_PROP_DEF;
 	@Inject
 	private AuthRepository auth_repository = null;
 	private long closedConnections = 0;
@@ -140,6 +149,12 @@ public class SessionManager
 	 * Date of moment where daily stats was resetted.
 	 */
 	private Calendar lastDailyStatsReset = Calendar.getInstance();
+	private final LongAdder loginPrefetchHits = new LongAdder();
+	@ConfigField(desc = "User data nodes loaded at once when user logs in, '/' stands for root node", alias = "login-prefetch-nodes")
+	private String[] loginPrefetchNodes = new String[0];
+	@ConfigField(desc = "Maximal time for which user data loaded on login is used [ms]", alias = "login-prefetch-time")
+	private long loginPrefetchTime = 10 * 1000;
+	private final LongAdder loginPrefetches = new LongAdder();
 	private int maxDailyUsersConnectionsWithinLastWeek = 0;
 	private MaxDailyCounterQueue<Integer> maxDailyUsersSessions = new MaxDailyCounterQueue<>(31);
 	private int maxIdx = 100;
@@ -166,6 +181,7 @@ public class SessionManager
 	private Map<String, long[]> postTimes = new ConcurrentSkipListMap<String, long[]>();
 	private Map<String, XMPPPreprocessorIfc> preProcessors = new ConcurrentHashMap<String, XMPPPreprocessorIfc>(10);
 	private Map<String, XMPPProcessorIfc> processors = new ConcurrentHashMap<String, XMPPProcessorIfc>(32);
+	private Map<String, IndexedProcessor> indexedProcessors = new ConcurrentHashMap<String, IndexedProcessor>(32);
 	@Inject(nullAllowed = true)
 	private MessageRouter router;
 	@Inject
@@ -254,6 +270,7 @@ public class SessionManager
 				}
 			}
 			processors.put(proc.id(), (XMPPProcessorIfc) proc);
+			indexedProcessors.put(proc.id(), new IndexedProcessor((XMPPProcessorIfc) proc));
 			log.log(Level.CONFIG, "Added processor: {0} for plugin id: {1}",
 					new Object[]{proc.getClass().getSimpleName(), proc.id()});
 			loaded = true;
@@ -343,6 +360,7 @@ public class SessionManager
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "handleLogin called for: {0}, conn_id: {1}", new Object[]{userId, conn});
 		}
+		prefetchUserData(userId, conn);
 		registerNewSession(userId, conn);
 	}
 
@@ -370,6 +388,9 @@ public class SessionManager
 
 	@Override
 	public void handlePresenceSet(XMPPResourceConnection conn) {
+		// initial presence ends the login sequence, so data prefetched on login may not be used anymore
+		conn.setDataSnapshot(null);
+
 		XMPPSession parentSession = conn.getParentSession();
 
 		if (parentSession == null) {
@@ -448,7 +469,7 @@ public class SessionManager
 			log.log(Level.FINEST, "Received packet: {0}", packet.toStringSecure());
 		}
 		if (packet.isCommand() && processCommand(packet)) {
-			packet.processedBy("SessionManager");
+			packet.processedBy(SESSION_MANAGER_PROCESSOR_INDEX);
 
 			// No more processing is needed for command packet
 			return;
@@ -477,6 +498,7 @@ public class SessionManager
 
 		if (pt != null) {
 			p = processors.remove(plug_id);
+			indexedProcessors.remove(plug_id);
 			pt.shutdown();
 			if (p != null) {
 				allPlugins.remove(p);
@@ -658,6 +680,14 @@ public class SessionManager
 		list.add(getName(), "Total user sessions", totalUserSessions, Level.FINER);
 		list.add(getName(), "Active user connections", activeUserNumber, Level.FINER);
 		list.add(getName(), "Authentication timouts", authTimeouts, Level.INFO);
+		if (loginPrefetchNodes.length > 0) {
+			long prefetches = loginPrefetches.sum();
+			long prefetchHits = loginPrefetchHits.sum();
+			list.add(getName(), "Login data prefetches", prefetches, Level.FINE);
+			list.add(getName(), "Reads served from login prefetch", prefetchHits, Level.FINE);
+			list.add(getName(), "Avg. reads per login served from prefetch",
+					 prefetches == 0 ? 0f : ((float) prefetchHits) / prefetches, Level.FINE);
+		}
 		if (list.checkLevel(Level.INFO)) {
 			int totalQueuesWait = list.getValue(getName(), "Total queues wait", 0);
 			long totalQueuesOverflow = list.getValue(getName(), "Total queues overflow", 0l);
@@ -738,6 +768,11 @@ public class SessionManager
 		}
 	}
 
+	public void setCapsCacheSize(int capsCacheSize) {
+		this.capsCacheSize = capsCacheSize;
+		PresenceCapabilitiesManager.setCapsCacheSize(capsCacheSize);
+	}
+
 	public void setSmThreadsPool(String val) {
 		this.smThreadsPool = val;
 		if (!SM_THREADS_POOL_PROP_VAL.equals(val)) {
@@ -1129,7 +1164,7 @@ public class SessionManager
 					log.log(Level.FINER, "Packet for admin: {0}", packet);
 				}
 				sendToAdmins(packet);
-				packet.processedBy("admins-or-domains");
+				packet.processedBy(ADMINS_OR_DOMAINS_PROCESSOR_INDEX);
 
 				return true;
 			} else if (packet.getElemName() == "iq" && packet.getType() == StanzaType.result) {
@@ -1137,7 +1172,7 @@ public class SessionManager
 					log.log(Level.FINER,
 							"IQ result packet addressed directly to server and not handle by any plugin: {0}", packet);
 				}
-				packet.processedBy("iq-result-to-server");
+				packet.processedBy(IQ_RESULT_TO_SERVER_PROCESSOR_INDEX);
 				return true;
 			} else {
 				if (log.isLoggable(Level.FINER)) {
@@ -1771,7 +1806,7 @@ public class SessionManager
 
 		if (!stop) {
 			if (defPacketHandler.preprocess(packet, conn, naUserRepository, results)) {
-				packet.processedBy("filter-foward");
+				packet.processedBy(FILTER_FORWARD_PROCESSOR_INDEX);
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Packet preprocessed: {0}", packet.toStringSecure());
 					if (results.size() > 0) {
@@ -1809,7 +1844,7 @@ public class SessionManager
 		// prepTm = System.currentTimeMillis() - startTime;
 		if (!stop) {
 			if (defPacketHandler.forward(packet, conn, naUserRepository, results)) {
-				packet.processedBy("filter-foward");
+				packet.processedBy(FILTER_FORWARD_PROCESSOR_INDEX);
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Packet forwarded: {0}", packet);
 				}
@@ -1865,7 +1900,7 @@ public class SessionManager
 					pt = workerThreads.get(defPluginsThreadsPool);
 				}
 				pt.addItem(defHandlerProc, packet, conn);
-				packet.processedBy(defHandlerProc.id());
+				packet.processedBy(DEF_HANDLER_PROCESSOR_INDEX);
 			}
 		}
 		setPermissions(conn, results);
@@ -1953,6 +1988,32 @@ public class SessionManager
 		}
 	}
 
+	/**
+	 * Loads configured nodes of user data with a single repository call, so plugins reading them while session is
+	 * being opened do not access user repository for each value separately.
+	 */
+	protected void prefetchUserData(BareJID userId, XMPPResourceConnection conn) {
+		if (loginPrefetchNodes.length == 0 || conn.isAnonymous() || conn.isServerSession()) {
+			return;
+		}
+		List<String> nodes = new ArrayList<>(loginPrefetchNodes.length);
+		for (String node : loginPrefetchNodes) {
+			String path = UserRepository.normalizeNodePath(node);
+			nodes.add(path.isEmpty() ? null : path);
+		}
+		try {
+			Map<String, Map<String, String>> data = user_repository.getDataMap(userId, nodes);
+			if (data == null) {
+				return;
+			}
+			conn.setDataSnapshot(new UserDataSnapshot(nodes, data, System.currentTimeMillis() + loginPrefetchTime,
+													  loginPrefetchHits));
+			loginPrefetches.increment();
+		} catch (TigaseDBException ex) {
+			log.log(Level.FINE, "Could not prefetch data of user " + userId + ", data will be loaded on demand", ex);
+		}
+	}
+
 	protected void registerNewSession(BareJID userId, XMPPResourceConnection conn) {
 		synchronized (conn) {
 			if (conn.getSessionData(XMPPResourceConnection.CLOSING_KEY) != null) {
@@ -2236,8 +2297,8 @@ public class SessionManager
 	private void walk(final Packet packet, final XMPPResourceConnection connection) {
 
 		// final Element elem, final Queue<Packet> results) {
-		for (XMPPProcessorIfc proc_t : processors.values()) {
-			XMPPProcessorIfc processor = proc_t;
+		for (IndexedProcessor proc_t : indexedProcessors.values()) {
+			XMPPProcessorIfc processor = proc_t.processor;
 			Authorization result = processor.canHandle(packet, connection);
 
 			if (result == Authorization.AUTHORIZED) {
@@ -2252,9 +2313,9 @@ public class SessionManager
 					pt = workerThreads.get(defPluginsThreadsPool);
 				}
 				if (pt.addItem(processor, packet, connection)) {
-					packet.processedBy(processor.id());
+					packet.processedBy(proc_t.index);
 				} else {
-					packet.notProcessedBy(processor.id());
+					packet.notProcessedBy(proc_t.index);
 					// proc_t.debugQueue();
 					if (log.isLoggable(Level.FINE)) {
 						log.log(Level.FINE, "Can not add packet: {0} to processor: {1} internal queue full.",
@@ -2388,6 +2449,21 @@ public class SessionManager
 
 	}
 
+	/**
+	 * Keeps processor together with its index used to mark packets processed by it, so the index is not looked up
+	 * for every packet.
+	 */
+	private static class IndexedProcessor {
+
+		private final int index;
+		private final XMPPProcessorIfc processor;
+
+		private IndexedProcessor(XMPPProcessorIfc processor) {
+			this.processor = processor;
+			this.index = Packet.getProcessorIndex(processor.id());
+		}
+	}
+
 	private static class AuthenticationTimer
 			extends TimerTask {
 
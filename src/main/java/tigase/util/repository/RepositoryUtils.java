@@ -21,6 +21,7 @@ import tigase.db.AuthRepository;
 import tigase.db.RepositoryFactory;
 import tigase.db.UserExistsException;
 import tigase.db.UserRepository;
+import tigase.db.UsersCursor;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xmpp.impl.roster.RosterAbstract;
 import tigase.xmpp.jid.BareJID;
@@ -30,7 +31,6 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.Writer;
-import java.util.List;
 
 /**
  * Describe class RepositoryUtils here.
@@ -41,6 +41,7 @@ import java.util.List;
 */
 public class RepositoryUtils {
 
+	private static final int USERS_BATCH_SIZE = 1000;
 	private static boolean add = false;
 	private static boolean add_user_test = false;
 	private static boolean allowed_empty_groups = true;
@@ -121,18 +122,20 @@ public class RepositoryUtils {
 		if (user != null) {
 			copyUser(user, src, dst);
 		} else {
-			List<BareJID> users = src.getUsers();
-
-			if (users != null) {
-				System.out.println("Found " + users.size() + " in the source repository.");
-
-				for (BareJID usr : users) {
-					System.out.println("Found " + usr + " in the source repository.");
-					copyUser(usr, src, dst);
-				}    // end of for (String user: users)
-			} else {
+			System.out.println("Found " + src.getUsersCount() + " in the source repository.");
+
+			UsersCursor users = src.getUsersCursor(null, USERS_BATCH_SIZE);
+			BareJID usr;
+			long count = 0;
+
+			while ((usr = users.next()) != null) {
+				System.out.println("Found " + usr + " in the source repository.");
+				copyUser(usr, src, dst);
+				count++;
+			}    // end of while
+			if (count == 0) {
 				System.out.println("There are no user accounts in source repository.");
-			}      // end of else
+			}
 		}        // end of if (user != null) else
 	}
 
@@ -140,15 +143,17 @@ public class RepositoryUtils {
 		if (user != null) {
 			copyUser(user, src, dst);
 		} else {
-			List<BareJID> users = src.getUsers();
-
-			if (users != null) {
-				for (BareJID usr : users) {
-					copyUser(usr, src, dst);
-				}    // end of for (String user: users)
-			} else {
+			UsersCursor users = src.getUsersCursor(null, USERS_BATCH_SIZE);
+			BareJID usr;
+			long count = 0;
+
+			while ((usr = users.next()) != null) {
+				copyUser(usr, src, dst);
+				count++;
+			}    // end of while
+			if (count == 0) {
 				System.out.println("There are no user accounts in source repository.");
-			}      // end of else
+			}
 		}        // end of if (user != null) else
 	}
 
@@ -189,17 +194,17 @@ public class RepositoryUtils {
 		if (user != null) {
 			exportUserRoster(user, repo, w);
 		} else {
-			List<BareJID> users = repo.getUsers();
-
-			if (users != null) {
-				for (BareJID usr : users) {
-
-					// System.out.println(usr);
-					exportUserRoster(usr, repo, w);
-				}    // end of for (String user: users)
-			} else {
+			UsersCursor users = repo.getUsersCursor(null, USERS_BATCH_SIZE);
+			BareJID usr;
+			long count = 0;
+
+			while ((usr = users.next()) != null) {
+				exportUserRoster(usr, repo, w);
+				count++;
+			}    // end of while
+			if (count == 0) {
 				System.out.println("There are no user accounts in repository.");
-			}      // end of else
+			}
 		}
 	}
 
@@ -678,16 +683,18 @@ public class RepositoryUtils {
 		if (user != null) {
 			printNode(user, repo, "  ", subnode);
 		} else {
-			List<BareJID> users = repo.getUsers();
-
-			if (users != null) {
-				for (BareJID usr : users) {
-					System.out.println(usr);
-					printNode(usr, repo, "  ", subnode);
-				}    // end of for (String user: users)
-			} else {
+			UsersCursor users = repo.getUsersCursor(null, USERS_BATCH_SIZE);
+			BareJID usr;
+			long count = 0;
+
+			while ((usr = users.next()) != null) {
+				System.out.println(usr);
+				printNode(usr, repo, "  ", subnode);
+				count++;
+			}    // end of while
+			if (count == 0) {
 				System.out.println("There are no user accounts in repository.");
-			}      // end of else
+			}
 		}
 	}
 
@@ -701,17 +708,17 @@ public class RepositoryUtils {
 		if (user != null) {
 			repairUserRoster(user, repo);
 		} else {
-			List<BareJID> users = repo.getUsers();
-
-			if (users != null) {
-				for (BareJID usr : users) {
-
-					// System.out.println(usr);
-					repairUserRoster(usr, repo);
-				}    // end of for (String user: users)
-			} else {
+			UsersCursor users = repo.getUsersCursor(null, USERS_BATCH_SIZE);
+			BareJID usr;
+			long count = 0;
+
+			while ((usr = users.next()) != null) {
+				repairUserRoster(usr, repo);
+				count++;
+			}    // end of while
+			if (count == 0) {
 				System.out.println("There are no user accounts in repository.");
-			}      // end of else
+			}
 		}
 	}
 
@@ -24,6 +24,7 @@ import tigase.db.TigaseDBException;
 import tigase.db.comp.AbstractSDComponentRepositoryBean;
 import tigase.db.comp.ComponentRepository;
 import tigase.db.comp.ComponentRepositoryDataSourceAware;
+import tigase.db.comp.RepositoryChangeListenerIfc;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.RegistrarBean;
@@ -42,6 +43,7 @@ import javax.script.Bindings;
 import java.lang.reflect.Type;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,12 +58,15 @@ import java.util.logging.Logger;
 @ConfigType({ConfigTypeEnum.DefaultMode, ConfigTypeEnum.SessionManagerMode, ConfigTypeEnum.ConnectionManagersMode, ConfigTypeEnum.ComponentMode})
 public class VHostManager
 		extends AbstractComponentRegistrator<VHostListener>
-		implements VHostManagerIfc, StatisticsContainer, RegistrarBean {
+		implements VHostManagerIfc, StatisticsContainer, RegistrarBean, RepositoryChangeListenerIfc<VHostItem> {
 
 	private static final Logger log = Logger.getLogger(VHostManager.class.getName());
 
 	@Inject
 	protected ComponentRepository<VHostItem> repo = null;
+	private final AtomicLong snapshotVersion = new AtomicLong();
+	private volatile VHostSnapshot snapshot = null;
+	private long snapshotRebuilds = 0;
 	private long getComponentsForLocalDomainCalls = 0;
 	private long getComponentsForNonLocalDomainCalls = 0;
 	// private ServiceEntity serviceEntity = null;
@@ -97,6 +102,7 @@ public class VHostManager
 		if (component.handlesNameSubdomains()) {
 			nameSubdomainsHandlers.add(component);
 		}
+		invalidateSnapshot();
 	}
 
 	@Override
@@ -104,6 +110,22 @@ public class VHostManager
 		localDomainsHandlers.remove(component);
 		nonLocalDomainsHandlers.remove(component);
 		nameSubdomainsHandlers.remove(component);
+		invalidateSnapshot();
+	}
+
+	@Override
+	public void itemAdded(VHostItem item) {
+		invalidateSnapshot();
+	}
+
+	@Override
+	public void itemUpdated(VHostItem item) {
+		invalidateSnapshot();
+	}
+
+	@Override
+	public void itemRemoved(VHostItem item) {
+		invalidateSnapshot();
 	}
 
 	@Override
@@ -128,6 +150,17 @@ public class VHostManager
 
 	}
 
+	public void setRepo(ComponentRepository<VHostItem> repo) {
+		if (this.repo != null) {
+			this.repo.removeRepoChangeListener(this);
+		}
+		this.repo = repo;
+		if (this.repo != null) {
+			this.repo.addRepoChangeListener(this);
+		}
+		invalidateSnapshot();
+	}
+
 	@Override
 	public List<JID> getAllVHosts() {
 		List<JID> list = new ArrayList<JID>();
@@ -147,60 +180,28 @@ public class VHostManager
 	public ServerComponent[] getComponentsForLocalDomain(String domain) {
 		++getComponentsForLocalDomainCalls;
 
-		VHostItem vhost = repo.getItem(domain);
-
-		if (vhost == null) {
-
-			// This is not a local domain.
-			// Maybe this is a 'name' subdomain: 'pubsub'.domain.name
-			int idx = domain.indexOf('.');
-
-			if (idx > 0) {
-				String name = domain.substring(0, idx);
-				String basedomain = domain.substring(idx + 1);
-				VHostListener listener = components.get(name);
-
-				if ((listener != null) && listener.handlesNameSubdomains() && isLocalDomain(basedomain)) {
-					return new ServerComponent[]{listener};
-				}
-			}
+		VHostSnapshot snapshot = getSnapshot();
+		String key = domain.toLowerCase();
+		if (snapshot.items.containsKey(key)) {
+			// components explicitly bound to this domain or generic handlers for local domains
+			return snapshot.localComponents.get(key);
+		}
 
-			return null;
-		} else {
+		// This is not a local domain.
+		// Maybe this is a 'name' subdomain: 'pubsub'.domain.name
+		int idx = domain.indexOf('.');
 
-//    // First check whether the domain has special configuration
-//    // specifying what components are for this domain:
-//    String[] comps = vhost.getComps();
-//    if (comps != null && comps.length > 0) {
-//      !!
-//    }
-			// Return all components for local domains and components selected
-			// for this specific domain
-			LinkedHashSet<ServerComponent> results = new LinkedHashSet<ServerComponent>(10);
-
-			// are there any components explicitly bound to this domain?
-			String[] comps = vhost.getComps();
-
-			if ((comps != null) && (comps.length > 0)) {
-				for (String name : comps) {
-					VHostListener listener = components.get(name);
-
-					if (listener != null) {
-						results.add(listener);
-					}
-				}
-			}
+		if (idx > 0) {
+			String name = domain.substring(0, idx);
+			String basedomain = domain.substring(idx + 1);
+			VHostListener listener = components.get(name);
 
-			// if not, then add any generic handlers
-			if (results.size() == 0) {
-				results.addAll(localDomainsHandlers);
-			}
-			if (results.size() > 0) {
-				return results.toArray(new ServerComponent[results.size()]);
-			} else {
-				return null;
+			if ((listener != null) && listener.handlesNameSubdomains() && isLocalDomain(basedomain)) {
+				return new ServerComponent[]{listener};
 			}
 		}
+
+		return null;
 	}
 
 	@Override
@@ -208,11 +209,7 @@ public class VHostManager
 		++getComponentsForNonLocalDomainCalls;
 
 		// Return components for non-local domains
-		if (nonLocalDomainsHandlers.size() > 0) {
-			return nonLocalDomainsHandlers.toArray(new ServerComponent[nonLocalDomainsHandlers.size()]);
-		} else {
-			return null;
-		}
+		return getSnapshot().nonLocalComponents;
 	}
 
 	@Override
@@ -243,11 +240,12 @@ public class VHostManager
 		list.add(getName(), "Checks: is anonymous domain", isAnonymousEnabledCalls, Level.FINER);
 		list.add(getName(), "Get components for local domain", getComponentsForLocalDomainCalls, Level.FINER);
 		list.add(getName(), "Get components for non-local domain", getComponentsForNonLocalDomainCalls, Level.FINER);
+		list.add(getName(), "VHosts snapshot rebuilds", snapshotRebuilds, Level.FINER);
 	}
 
 	@Override
 	public VHostItem getVHostItem(String domain) {
-		return repo.getItem(domain);
+		return getSnapshot().items.get(domain.toLowerCase());
 	}
 
 	@Override
@@ -272,7 +270,7 @@ public class VHostManager
 	public boolean isAnonymousEnabled(String domain) {
 		++isAnonymousEnabledCalls;
 
-		VHostItem vhost = repo.getItem(domain);
+		VHostItem vhost = getVHostItem(domain);
 
 		if (vhost == null) {
 			return false;
@@ -290,7 +288,7 @@ public class VHostManager
 	public boolean isLocalDomain(String domain) {
 		++isLocalDomainCalls;
 
-		return repo.contains(domain);
+		return getSnapshot().items.containsKey(domain.toLowerCase());
 	}
 
 	@Override
@@ -323,6 +321,7 @@ public class VHostManager
 	public void initializeRepository() throws TigaseDBException {
 		// loading all items
 		repo.reload();
+		invalidateSnapshot();
 
 //		List<VHostItem> items = new ArrayList<VHostItem>(repo.allItems());
 //		for (VHostItem item : items) {
@@ -344,6 +343,94 @@ public class VHostManager
 		return repo;
 	}
 
+	protected void invalidateSnapshot() {
+		snapshotVersion.incrementAndGet();
+		snapshot = null;
+	}
+
+	protected VHostSnapshot getSnapshot() {
+		VHostSnapshot result = snapshot;
+		if (result == null) {
+			result = rebuildSnapshot();
+		}
+		return result;
+	}
+
+	private synchronized VHostSnapshot rebuildSnapshot() {
+		VHostSnapshot result = snapshot;
+		if (result != null) {
+			return result;
+		}
+		long version = snapshotVersion.get();
+		Map<String, VHostItem> items = new HashMap<>();
+		if (repo != null) {
+			try {
+				for (VHostItem item : repo.allItems()) {
+					items.put(item.getKey().toLowerCase(), item);
+				}
+			} catch (TigaseDBException ex) {
+				log.log(Level.SEVERE, "Could not load vhosts for snapshot", ex);
+			}
+		}
+		result = new VHostSnapshot(items, components, localDomainsHandlers, nonLocalDomainsHandlers);
+		++snapshotRebuilds;
+		// publish only if nothing has changed while the snapshot was built, otherwise the next call
+		// will build a new one
+		if (version == snapshotVersion.get()) {
+			snapshot = result;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Rebuilt vhosts snapshot with {0} items", items.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Immutable view of the local domains with precomputed lists of components handling packets for each of them.
+	 * A new instance is created (lazily) after any change of vhosts or registered components, so it is safe to share
+	 * between threads and lookups do not require any allocations.
+	 */
+	protected static class VHostSnapshot {
+
+		private final Map<String, VHostItem> items;
+		private final Map<String, ServerComponent[]> localComponents;
+		private final ServerComponent[] nonLocalComponents;
+
+		VHostSnapshot(Map<String, VHostItem> items, Map<String, VHostListener> components,
+					  Collection<VHostListener> localDomainsHandlers, Collection<VHostListener> nonLocalDomainsHandlers) {
+			this.items = Collections.unmodifiableMap(items);
+			ServerComponent[] localHandlers = localDomainsHandlers.isEmpty()
+											  ? null
+											  : localDomainsHandlers.toArray(new ServerComponent[0]);
+			Map<String, ServerComponent[]> localComponents = new HashMap<>();
+			for (Map.Entry<String, VHostItem> e : items.entrySet()) {
+				ServerComponent[] comps = localHandlers;
+				// are there any components explicitly bound to this domain?
+				String[] names = e.getValue().getComps();
+				if ((names != null) && (names.length > 0)) {
+					LinkedHashSet<ServerComponent> results = new LinkedHashSet<>();
+					for (String name : names) {
+						VHostListener listener = components.get(name);
+						if (listener != null) {
+							results.add(listener);
+						}
+					}
+					if (!results.isEmpty()) {
+						comps = results.toArray(new ServerComponent[results.size()]);
+					}
+				}
+				if (comps != null) {
+					localComponents.put(e.getKey(), comps);
+				}
+			}
+			this.localComponents = localComponents;
+			this.nonLocalComponents = nonLocalDomainsHandlers.isEmpty()
+									  ? null
+									  : nonLocalDomainsHandlers.toArray(new ServerComponent[0]);
+		}
+
+	}
+
 	@Bean(name = "vhostRepository", parent = VHostManager.class, active = true)
 	public static class DefVHostRepositoryBean
 			extends AbstractSDComponentRepositoryBean<VHostItem> {
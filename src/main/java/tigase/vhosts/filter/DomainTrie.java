@@ -0,0 +1,139 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable set of domains compiled into a trie of reversed domain labels, so checking if a domain is on the list
+ * takes time proportional to the number of labels in the checked domain and not to the size of the list.
+ * <br>
+ * Besides exact domain names the list may contain wildcard entries in the form of <code>*.example.com</code> matching
+ * every subdomain of <code>example.com</code> (but not <code>example.com</code> itself) and <code>*</code> matching
+ * every domain.
+ */
+public final class DomainTrie {
+
+	public static final DomainTrie EMPTY = new DomainTrie(new Node(), 0);
+
+	private final Node root;
+	private final int size;
+
+	/**
+	 * Compiles list of domains into a trie. <code>null</code> and empty entries are ignored.
+	 *
+	 * @param domains list of domains (with optional wildcard entries)
+	 *
+	 * @return compiled list of domains
+	 */
+	public static DomainTrie compile(String... domains) {
+		if (domains == null || domains.length == 0) {
+			return EMPTY;
+		}
+		Node root = new Node();
+		int size = 0;
+		for (String domain : domains) {
+			if (domain == null) {
+				continue;
+			}
+			domain = domain.trim().toLowerCase();
+			if (domain.isEmpty()) {
+				continue;
+			}
+			boolean wildcard = domain.equals("*") || domain.startsWith("*.");
+			if (wildcard) {
+				domain = domain.length() > 2 ? domain.substring(2) : "";
+			}
+			Node node = root;
+			int end = domain.length();
+			while (end > 0) {
+				int dot = domain.lastIndexOf('.', end - 1);
+				node = node.child(domain.substring(dot + 1, end));
+				end = dot;
+			}
+			if (wildcard) {
+				node.wildcard = true;
+			} else {
+				node.terminal = true;
+			}
+			size++;
+		}
+		return new DomainTrie(root, size);
+	}
+
+	private DomainTrie(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Checks if domain matches any of the compiled entries.
+	 *
+	 * @param domain checked domain name (expected to be already normalized to lower case, as in <code>JID</code>)
+	 *
+	 * @return <code>true</code> if domain is on the list or is a subdomain of one of wildcard entries
+	 */
+	public boolean contains(String domain) {
+		if (domain == null || domain.isEmpty()) {
+			return false;
+		}
+		Node node = root;
+		int end = domain.length();
+		while (end > 0) {
+			if (node.wildcard) {
+				return true;
+			}
+			if (node.children == null) {
+				return false;
+			}
+			int dot = domain.lastIndexOf('.', end - 1);
+			node = node.children.get(domain.substring(dot + 1, end));
+			if (node == null) {
+				return false;
+			}
+			end = dot;
+		}
+		return node.terminal;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return number of compiled entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	private static class Node {
+
+		private Map<String, Node> children;
+		private boolean terminal;
+		private boolean wildcard;
+
+		private Node child(String label) {
+			if (children == null) {
+				children = new HashMap<>(4);
+			}
+			return children.computeIfAbsent(label, key -> new Node());
+		}
+	}
+}
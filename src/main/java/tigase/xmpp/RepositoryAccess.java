@@ -58,6 +58,10 @@ public abstract class RepositoryAccess {
 
 	// private boolean anon_allowed = false;
 	protected boolean is_anonymous = false;
+	/**
+	 * Snapshot of user data prefetched when session was opened.
+	 */
+	private volatile UserDataSnapshot dataSnapshot = null;
 	/**
 	 * Handle to user repository - permanent data base for storing user data.
 	 */
@@ -81,6 +85,7 @@ public abstract class RepositoryAccess {
 		if (!isAuthorized()) {
 			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
 		}
+		invalidateSnapshot(subnode, false);
 		try {
 			repo.addDataList(getBareJID(), subnode, key, list);
 		} catch (UserNotFoundException e) {
@@ -105,6 +110,7 @@ public abstract class RepositoryAccess {
 
 	public void logout() throws NotAuthorizedException {
 		authState = Authorization.NOT_AUTHORIZED;
+		dataSnapshot = null;
 	}
 
 	public void queryAuth(Map<String, Object> authProps) throws TigaseDBException {
@@ -146,6 +152,7 @@ public abstract class RepositoryAccess {
 	}
 
 	public void removeData(String subnode, String key) throws NotAuthorizedException, TigaseDBException {
+		invalidateSnapshot(subnode, false);
 		try {
 			repo.removeData(getBareJID(), subnode, key);
 		} catch (UserNotFoundException e) {
@@ -176,6 +183,7 @@ public abstract class RepositoryAccess {
 		if (!isAuthorized()) {
 			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
 		}
+		invalidateSnapshot(subnode, true);
 		try {
 			repo.removeSubnode(getBareJID(), subnode);
 		} catch (UserNotFoundException e) {
@@ -261,6 +269,11 @@ public abstract class RepositoryAccess {
 		if (!isAuthorized()) {
 			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
 		}
+		Map<String, String> nodeData = getSnapshotData(subnode);
+		if (nodeData != null) {
+			String value = nodeData.get(key);
+			return value == null ? def : value;
+		}
 		try {
 			return repo.getData(getBareJID(), subnode, key, def);
 		} catch (UserNotFoundException e) {
@@ -330,6 +343,10 @@ public abstract class RepositoryAccess {
 		if (!isAuthorized()) {
 			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
 		}
+		Map<String, String> nodeData = getSnapshotData(subnode);
+		if (nodeData != null) {
+			return nodeData.isEmpty() ? null : nodeData.keySet().toArray(new String[nodeData.size()]);
+		}
 		try {
 			return repo.getKeys(getBareJID(), subnode);
 		} catch (UserNotFoundException e) {
@@ -380,6 +397,28 @@ public abstract class RepositoryAccess {
 		// return null;
 	}
 
+	/**
+	 * Returns snapshot of user data prefetched when session was opened or <code>null</code> if there is no valid
+	 * snapshot.
+	 */
+	public UserDataSnapshot getDataSnapshot() {
+		UserDataSnapshot snapshot = dataSnapshot;
+		if (snapshot != null && snapshot.isExpired()) {
+			dataSnapshot = null;
+			return null;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Sets snapshot of user data used to serve reads of prefetched nodes instead of accessing user repository.
+	 *
+	 * @param snapshot a <code>UserDataSnapshot</code> or <code>null</code> to stop using current snapshot.
+	 */
+	public void setDataSnapshot(UserDataSnapshot snapshot) {
+		this.dataSnapshot = snapshot;
+	}
+
 	public VHostItem getDomain() {
 		return domain;
 	}
@@ -466,6 +505,7 @@ public abstract class RepositoryAccess {
 	 * @see UserRepository
 	 */
 	public void setData(String subnode, String key, String value) throws NotAuthorizedException, TigaseDBException {
+		invalidateSnapshot(subnode, false);
 		try {
 			repo.setData(getBareJID(), subnode, key, value);
 		} catch (UserNotFoundException e) {
@@ -500,6 +540,7 @@ public abstract class RepositoryAccess {
 		if (!isAuthorized()) {
 			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
 		}
+		invalidateSnapshot(subnode, false);
 		try {
 			repo.setDataList(getBareJID(), subnode, key, list);
 		} catch (UserNotFoundException e) {
@@ -603,6 +644,18 @@ public abstract class RepositoryAccess {
 
 	protected abstract void login();
 
+	private Map<String, String> getSnapshotData(String subnode) {
+		UserDataSnapshot snapshot = getDataSnapshot();
+		return snapshot == null ? null : snapshot.getNodeData(subnode);
+	}
+
+	private void invalidateSnapshot(String subnode, boolean withSubnodes) {
+		UserDataSnapshot snapshot = dataSnapshot;
+		if (snapshot != null) {
+			snapshot.invalidate(subnode, withSubnodes);
+		}
+	}
+
 	private String calcNode(String base, String subnode) {
 		if (subnode == null) {
 			return base;
@@ -0,0 +1,89 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import tigase.db.UserRepository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Snapshot of user data loaded at once when user session is opened. It is used by {@link RepositoryAccess} to serve
+ * reads of data from prefetched nodes without accessing user repository.
+ * <br>
+ * Snapshot is used only during the login sequence, as it is not updated when data is modified by other sessions of
+ * the same user or by other cluster nodes. It is dropped when the initial presence of the session is set or when it
+ * expires, whichever happens first. Nodes modified using the session owning the snapshot are removed from the
+ * snapshot.
+ */
+public class UserDataSnapshot {
+
+	private final Map<String, Map<String, String>> data = new ConcurrentHashMap<>();
+	private final long expiresAt;
+	private final LongAdder hits;
+
+	/**
+	 * @param subnodes node paths which were loaded, all data of those nodes is expected to be in <code>values</code>.
+	 * @param values data loaded from repository by {@link tigase.db.UserRepository#getDataMap}.
+	 * @param expiresAt time in milliseconds after which snapshot may not be used.
+	 * @param hits counter of reads served from snapshots, may be <code>null</code>.
+	 */
+	public UserDataSnapshot(Collection<String> subnodes, Map<String, Map<String, String>> values, long expiresAt,
+							LongAdder hits) {
+		for (String subnode : subnodes) {
+			Map<String, String> nodeData = values == null ? null : values.get(subnode);
+			data.put(UserRepository.normalizeNodePath(subnode),
+					 nodeData == null ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(nodeData)));
+		}
+		this.expiresAt = expiresAt;
+		this.hits = hits;
+	}
+
+	public boolean isExpired() {
+		return System.currentTimeMillis() > expiresAt;
+	}
+
+	/**
+	 * Returns data of a node or <code>null</code> if node is not covered by this snapshot.
+	 */
+	public Map<String, String> getNodeData(String subnode) {
+		Map<String, String> nodeData = data.get(UserRepository.normalizeNodePath(subnode));
+		if (nodeData != null && hits != null) {
+			hits.increment();
+		}
+		return nodeData;
+	}
+
+	/**
+	 * Removes node from the snapshot and, if <code>withSubnodes</code> is set, all its subnodes.
+	 */
+	public void invalidate(String subnode, boolean withSubnodes) {
+		String path = UserRepository.normalizeNodePath(subnode);
+		data.remove(path);
+		if (withSubnodes) {
+			String prefix = path.isEmpty() ? "" : (path + "/");
+			data.keySet().removeIf(node -> node.startsWith(prefix));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "UserDataSnapshot{nodes=" + data.keySet() + ", expiresAt=" + expiresAt + "}";
+	}
+}
@@ -27,9 +27,14 @@ import tigase.util.dns.DNSResolverFactory;
 import tigase.vhosts.VHostItem;
 import tigase.vhosts.filter.CustomDomainFilter;
 import tigase.vhosts.filter.DomainFilterPolicy;
+import tigase.vhosts.filter.DomainTrie;
+import tigase.vhosts.filter.Rule;
 import tigase.xmpp.*;
+import tigase.xmpp.jid.JID;
 
+import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -61,9 +66,14 @@ public class DomainFilter
 	/** xmlns for which plugin should be enabled */
 	private static final String[] XMLNSS = {ALL_NAMES};
 	private static final String[] EMPTY_STRING_ARRAY = new String[0];
+	/** key under which compiled list of domains is kept in user session */
+	private static final String COMPILED_DOMAINS_KEY = "allowed-domains-compiled";
 	/** default local hostname */
 	private static String local_hostname = DNSResolverFactory.getInstance().getDefaultHost();
 
+	/** compiled lists of domains configured for VHosts, shared by all users of the VHost */
+	private final Map<String, CompiledDomains> vhostsCompiledDomains = new ConcurrentHashMap<>();
+
 	@Override
 	public void filter(Packet packet, XMPPResourceConnection session, NonAuthUserRepository repo,
 					   Queue<Packet> results) {
@@ -139,7 +149,7 @@ public class DomainFilter
 						break;
 
 					case CUSTOM:
-						String[] customRules = getDomainsList(session);
+						CompiledDomains customRules = getCompiledDomains(session);
 
 						if ((outDomain == null) || outDomain.equals(local_hostname) ||
 								(res.getType() != null && res.getType().equals(StanzaType.error)) ||
@@ -149,8 +159,7 @@ public class DomainFilter
 							break;
 						}
 
-						boolean isAlowed = CustomDomainFilter.isAllowed(res.getStanzaFrom(), res.getStanzaTo(),
-																		customRules);
+						boolean isAlowed = customRules.isAllowed(res.getStanzaFrom(), res.getStanzaTo());
 
 						if (!isAlowed) {
 							removePacket(it, res, errors,
@@ -158,37 +167,24 @@ public class DomainFilter
 							if (log.isLoggable(Level.FINEST)) {
 								log.log(Level.FINEST,
 										"CUSTOM filtering rules for domain {0}, blocking packet (filter): {1}, rules: {2}",
-										new Object[]{outDomain, res, Arrays.asList(customRules)});
+										new Object[]{outDomain, res, Arrays.asList(customRules.source)});
 							}
 						} else {
 							if (log.isLoggable(Level.FINEST)) {
 								log.log(Level.FINEST,
 										"CUSTOM filtering rules for domain {0}, packet not blocked (filter): {1}, rules: {2}",
-										new Object[]{outDomain, res, Arrays.asList(customRules)});
+										new Object[]{outDomain, res, Arrays.asList(customRules.source)});
 							}
 						}
 
 						break;
 
 					case BLACKLIST:
-						String[] blacklistedDomains = getDomainsList(session);
-						boolean blacklist_match = false;
-
 						if ((outDomain == null) || outDomain.equals(local_hostname)) {
 							// don't filter system packets, breaks things
 							break;
 						}
-						for (String domain : blacklistedDomains) {
-
-							// Intentionally comparing domains by reference instead of value
-							// domain is processed through the String.intern() method
-							if (domain == outDomain) {
-								blacklist_match = true;
-
-								break;
-							}
-						}
-						if (blacklist_match) {
+						if (getCompiledDomains(session).contains(outDomain)) {
 							removePacket(it, res, errors,
 										 "You attempted to communicate with the blacklisted domain - FORBIDDEN");
 							if (log.isLoggable(Level.FINEST)) {
@@ -205,25 +201,11 @@ public class DomainFilter
 						break;
 
 					case LIST:
-
-						String[] allowedDomains = getDomainsList(session);
-						boolean found = false;
-
 						if ((outDomain == null) || outDomain.equals(local_hostname)) {
 							// don't filter system packets, breaks things
 							break;
 						}
-						for (String domain : allowedDomains) {
-
-							// Intentionally comparing domains by reference instead of value
-							// domain is processed through the String.intern() method
-							if (domain == outDomain) {
-								found = true;
-
-								break;
-							}
-						}
-						if (!found) {
+						if (!getCompiledDomains(session).contains(outDomain)) {
 							removePacket(it, res, errors, "You can only communicate within selected list of domains.");
 							if (log.isLoggable(Level.FINEST)) {
 								log.log(Level.FINEST, "LIST Domain only {1}, blocking packet (filter): {0}",
@@ -343,7 +325,7 @@ public class DomainFilter
 					break;
 
 				case CUSTOM:
-					String[] customRules = getDomainsList(session);
+					CompiledDomains customRules = getCompiledDomains(session);
 
 					if ((outDomain == null) || outDomain.equals(local_hostname) ||
 							(packet.getType() == StanzaType.error) ||
@@ -353,8 +335,7 @@ public class DomainFilter
 						break;
 					}
 
-					boolean isAlowed = CustomDomainFilter.isAllowed(packet.getStanzaFrom(), packet.getStanzaTo(),
-																	customRules);
+					boolean isAlowed = customRules.isAllowed(packet.getStanzaFrom(), packet.getStanzaTo());
 
 					if (!isAlowed) {
 						removePacket(null, packet, results,
@@ -374,24 +355,11 @@ public class DomainFilter
 					break;
 
 				case BLACKLIST:
-					String[] disallowedDomains = getDomainsList(session);
-					boolean blacklist_match = false;
 					if ((outDomain == null) || outDomain.equals(local_hostname)) {
 						// don't filter system packets, breaks things
 						break;
 					}
-
-					for (String domain : disallowedDomains) {
-
-						// Intentionally comparing domains by reference instead of value
-						// domain is processed through the String.intern() method
-						if (domain == outDomain) {
-							blacklist_match = true;
-
-							break;
-						}
-					}
-					if (blacklist_match) {
+					if (getCompiledDomains(session).contains(outDomain)) {
 						removePacket(null, packet, results,
 									 "You attempted to communicate with the blacklisted domain - FORBIDDEN");
 						stop = true;
@@ -409,24 +377,11 @@ public class DomainFilter
 					break;
 
 				case LIST:
-					String[] allowedDomains = getDomainsList(session);
-					boolean found = false;
-
 					if ((outDomain == null) || outDomain.equals(local_hostname)) {
 						// don't filter system packets, breaks things
 						break;
 					}
-					for (String domain : allowedDomains) {
-
-						// Intentionally comparing domains by reference instead of value
-						// domain is processed through the String.intern() method
-						if (domain == outDomain) {
-							found = true;
-
-							break;
-						}
-					}
-					if (!found) {
+					if (!getCompiledDomains(session).contains(outDomain)) {
 						removePacket(null, packet, results,
 									 "You can only communicate within selected list of domains.");
 						stop = true;
@@ -563,6 +518,45 @@ public class DomainFilter
 		return domainsList;
 	}
 
+	/**
+	 * Method returns list of domains retrieved by {@link #getDomainsList(XMPPResourceConnection)} compiled for fast
+	 * matching. List configured for VHost is compiled once and shared by all users of the VHost, while list configured
+	 * for the user is compiled once per user session. Compiled list is replaced whenever the list it was compiled from
+	 * changes, ie. after VHost configuration is updated or the list is removed from user session data.
+	 *
+	 * @param session user session
+	 *
+	 * @return compiled list of domains or rules
+	 */
+	protected CompiledDomains getCompiledDomains(XMPPResourceConnection session)
+			throws NotAuthorizedException, TigaseDBException {
+		String[] domainsList = getDomainsList(session);
+		CompiledDomains compiled = (CompiledDomains) session.getCommonSessionData(COMPILED_DOMAINS_KEY);
+
+		if (compiled != null && compiled.source == domainsList) {
+			return compiled;
+		}
+
+		VHostItem domain = session.getDomain();
+		if (domainsList == domain.getDomainFilterDomains()) {
+			String vhost = domain.getVhost().getDomain();
+			compiled = vhostsCompiledDomains.get(vhost);
+			if (compiled == null || compiled.source != domainsList) {
+				compiled = new CompiledDomains(domainsList);
+				vhostsCompiledDomains.put(vhost, compiled);
+			}
+		} else {
+			compiled = new CompiledDomains(domainsList);
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Compiled list of domains: {0} for VHost: {1}",
+					new Object[]{Arrays.asList(domainsList), domain});
+		}
+		session.putCommonSessionData(COMPILED_DOMAINS_KEY, compiled);
+
+		return compiled;
+	}
+
 	/**
 	 * Helper method removing packets from processing queue and generating appropriate error packet to be send back to
 	 * client
@@ -582,4 +576,50 @@ public class DomainFilter
 			log.log(Level.FINE, "Already error packet, dropping it..: {0}", res);
 		}
 	}
+
+	/**
+	 * List of domains (for {@code LIST} and {@code BLACKLIST} policies) or rules (for {@code CUSTOM} policy) compiled
+	 * on first use.
+	 */
+	protected static class CompiledDomains {
+
+		private final String[] source;
+		private volatile DomainTrie domains;
+		private volatile Set<Rule> rules;
+		private volatile boolean rulesParsed = false;
+
+		protected CompiledDomains(String[] source) {
+			this.source = source;
+		}
+
+		public boolean contains(String domain) {
+			DomainTrie domains = this.domains;
+			if (domains == null) {
+				domains = DomainTrie.compile(source);
+				this.domains = domains;
+			}
+			return domains.contains(domain);
+		}
+
+		public boolean isAllowed(JID source, JID destination) {
+			if (!rulesParsed) {
+				parseRules();
+			}
+			return CustomDomainFilter.isAllowed(source, destination, rules);
+		}
+
+		private synchronized void parseRules() {
+			// rules are parsed only once, so invalid rules are reported once per compiled list
+			if (rulesParsed) {
+				return;
+			}
+			try {
+				rules = CustomDomainFilter.parseRules(this.source);
+			} catch (ParseException e) {
+				log.log(Level.WARNING, "Error while parsing custom domain filter rules: " + Arrays.toString(this.source) +
+						", packets will not be filtered", e);
+			}
+			rulesParsed = true;
+		}
+	}
 }
@@ -62,7 +62,8 @@ import static tigase.xmpp.impl.Privacy.*;
 @Bean(name = JabberIqPrivacy.ID, parent = SessionManager.class, active = true)
 public class JabberIqPrivacy
 		extends XMPPProcessor
-		implements XMPPProcessorIfc, XMPPPreprocessorIfc, XMPPPacketFilterIfc, RegistrarBean {
+		implements XMPPProcessorIfc, XMPPPreprocessorIfc, XMPPPacketFilterIfc, RegistrarBean, Initializable,
+				   UnregisterAware {
 
 	protected static final String ACTIVE_EL_NAME = "active";
 	protected static final Element BLOCKED_ELEM = new Element("blocked", new String[]{"xmlns"},
@@ -95,6 +96,8 @@ public class JabberIqPrivacy
 	protected static RosterAbstract roster_util = RosterFactory.getRosterImplementation(true);
 	@Inject(nullAllowed = true)
 	protected PrivacyListOfflineCache cache;
+	@Inject
+	private EventBus eventBus;
 
 	public static Authorization validateList(final XMPPResourceConnection session, final List<Element> items) {
 		Authorization result = null;
@@ -193,6 +196,16 @@ public class JabberIqPrivacy
 
 	}
 
+	@Override
+	public void initialize() {
+		eventBus.registerAll(this);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		eventBus.unregisterAll(this);
+	}
+
 	@Override
 	public void filter(Packet packet, XMPPResourceConnection session, NonAuthUserRepository repo,
 					   Queue<Packet> results) {
@@ -386,6 +399,29 @@ public class JabberIqPrivacy
 		return true;
 	}
 
+	@HandleEvent
+	protected void onRosterModified(RosterAbstract.RosterModifiedEvent event) {
+		// privacy lists cache decisions based on roster groups and subscriptions
+		XMPPSession session = event.getSession();
+		if (session == null) {
+			return;
+		}
+		PrivacyList list = (PrivacyList) session.getCommonSessionData(DEFAULT);
+		if (list != null) {
+			list.invalidateCache();
+		}
+		for (XMPPResourceConnection conn : session.getActiveResources()) {
+			try {
+				list = Privacy.getActiveList(conn);
+				if (list != null) {
+					list.invalidateCache();
+				}
+			} catch (NotAuthorizedException ex) {
+				// session is not authorized, nothing to invalidate
+			}
+		}
+	}
+
 	protected boolean allowedByDefault(Packet packet, JID connId, BareJID userJid) {
 		// If this is a preprocessing phase, always allow all packets to
 		// make it possible for the client to communicate with the server.
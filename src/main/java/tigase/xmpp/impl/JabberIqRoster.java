@@ -27,14 +27,17 @@ import tigase.server.Packet;
 import tigase.server.PolicyViolationException;
 import tigase.server.Priority;
 import tigase.server.xmppsession.SessionManager;
+import tigase.stats.StatisticsList;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.*;
 import tigase.xmpp.impl.roster.*;
 import tigase.xmpp.impl.roster.RosterAbstract.SubscriptionType;
+import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -75,6 +78,14 @@ public class JabberIqRoster
 	private boolean emptyNameAllowed = false;
 	@ConfigField(desc = "Max roster size", alias = "max_roster_size")
 	private int maxRosterSize = 0;
+	@ConfigField(desc = "Number of roster changes kept for roster versioning", alias = "roster-change-log-size")
+	private int rosterChangeLogSize = 100;
+	@ConfigField(desc = "Format in which rosters are saved", alias = "roster-storage-format")
+	private RosterFlat.StorageFormat rosterStorageFormat = RosterFlat.StorageFormat.compact;
+	private final LongAdder rosterDeltaItems = new LongAdder();
+	private final LongAdder rosterDeltaResults = new LongAdder();
+	private final LongAdder rosterFullResults = new LongAdder();
+	private final LongAdder rosterItemsSaved = new LongAdder();
 
 	/**
 	 * Method processes roster <code>get</code> request related to dynamic roster. Generates output packet with data
@@ -194,6 +205,45 @@ public class JabberIqRoster
 		roster_util.setMaxRosterSize(maxRosterSize);
 	}
 
+	public int getRosterChangeLogSize() {
+		return roster_util.getRosterChangeLogSize();
+	}
+
+	public void setRosterChangeLogSize(int rosterChangeLogSize) {
+		roster_util.setRosterChangeLogSize(rosterChangeLogSize);
+	}
+
+	public RosterFlat.StorageFormat getRosterStorageFormat() {
+		return RosterFlat.getStorageFormat();
+	}
+
+	public void setRosterStorageFormat(RosterFlat.StorageFormat rosterStorageFormat) {
+		this.rosterStorageFormat = rosterStorageFormat;
+		RosterFlat.setStorageFormat(rosterStorageFormat);
+	}
+
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		long deltaResults = rosterDeltaResults.sum();
+		long itemsSaved = rosterItemsSaved.sum();
+		list.add(id(), "Roster full results", rosterFullResults.sum(), Level.FINE);
+		list.add(id(), "Roster delta results", deltaResults, Level.FINE);
+		list.add(id(), "Roster delta items", rosterDeltaItems.sum(), Level.FINE);
+		list.add(id(), "Roster items saved", itemsSaved, Level.FINE);
+		list.add(id(), "Roster items saved per login", deltaResults > 0 ? itemsSaved / deltaResults : 0, Level.FINE);
+		if (roster_util instanceof RosterFlat) {
+			RosterFlat rosterFlat = (RosterFlat) roster_util;
+			long loads = rosterFlat.getRosterLoads();
+			long loadItems = rosterFlat.getRosterLoadItems();
+			long loadTime = rosterFlat.getRosterLoadTime();
+			list.add(id(), "Roster loads", loads, Level.FINE);
+			list.add(id(), "Roster average load time [us]", loads > 0 ? loadTime / loads / 1000 : 0, Level.FINE);
+			list.add(id(), "Roster average load time per item [ns]", loadItems > 0 ? loadTime / loadItems : 0,
+					 Level.FINE);
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * <br>
@@ -391,18 +441,36 @@ public class JabberIqRoster
 
 		// If the dynamic roster exists, we have to always recalculate hash, as the
 		// part of the roster could have changed outside of the Tigase server.
+		// Roster change log does not cover dynamic roster, so it is not used then.
+		RosterChangeLog changeLog = null;
 		if ((its != null) && (its.size() > 0)) {
 			updateHash(session, settings);
+		} else {
+			changeLog = roster_util.getRosterChangeLog(session);
 		}
 
 		// Check roster version hash.
 		String incomingHash = packet.getAttributeStaticStr(Iq.IQ_QUERY_PATH, RosterAbstract.VER_ATT);
 		String storedHash = "";
 
+		// If client provided version known to the change log, send only items
+		// changed since then, as roster pushes following the empty result.
+		if (incomingHash != null && changeLog != null) {
+			storedHash = Long.toString(changeLog.getVersion());
+
+			Map<BareJID, Long> changes = getRosterChangesSince(changeLog, incomingHash);
+
+			if (changes != null) {
+				processRosterChanges(packet, session, changes, results);
+
+				return;
+			}
+		}
+
 		// If client provided hash and the server calculated hash are the same
 		// return the success result and abort further roster processing.
 		// No need to send the whole roster to the client.
-		if (incomingHash != null) {
+		if (incomingHash != null && changeLog == null) {
 			storedHash = roster_util.getBuddiesHash(session);
 			if ((storedHash == null) || storedHash.isEmpty()) {
 				updateHash(session, settings);
@@ -427,6 +495,7 @@ public class JabberIqRoster
 				query.setAttribute(RosterAbstract.VER_ATT, storedHash);
 			}
 			query.addChildren(ritems);
+			rosterFullResults.increment();
 			results.offer(packet.okResult(query, 0));
 		} else {
 			results.offer(packet.okResult((String) null, 1));
@@ -465,6 +534,91 @@ public class JabberIqRoster
 		}
 	}
 
+	/**
+	 * Method sends result of roster <code>get</code> request for client which provided roster version known to the
+	 * roster change log: empty result followed by roster pushes of items changed since that version.
+	 *
+	 * @param packet packet is which being processed.
+	 * @param session user session which keeps all the user session data and also gives an access to the user's
+	 * repository data.
+	 * @param changes changed items with versions of their last change.
+	 * @param results this a collection with packets which have been generated as input packet processing results.
+	 */
+	protected void processRosterChanges(Packet packet, XMPPResourceConnection session, Map<BareJID, Long> changes,
+										Queue<Packet> results) throws NotAuthorizedException, TigaseDBException {
+		results.offer(packet.okResult((String) null, 0));
+
+		try {
+			for (Map.Entry<BareJID, Long> change : changes.entrySet()) {
+				JID jid = JID.jidInstance(change.getKey());
+				Element item = null;
+
+				if (roster_util.containsBuddy(session, jid) &&
+						!SubscriptionType.none_pending_in.equals(roster_util.getBuddySubscription(session, jid))) {
+					item = roster_util.getBuddyItem(session, jid);
+				}
+				if (item == null) {
+					item = new Element("item", new String[]{"jid", "subscription"},
+									   new String[]{jid.toString(), SubscriptionType.remove.toString()});
+				}
+
+				Element iq = new Element("iq", new String[]{"type", "id", "to"},
+										 new String[]{"set", session.nextStanzaId(), session.getJID().toString()});
+
+				iq.setXMLNS(CLIENT_XMLNS);
+
+				Element query = new Element("query", new String[]{"xmlns", RosterAbstract.VER_ATT},
+											new String[]{RosterAbstract.XMLNS, change.getValue().toString()});
+
+				query.addChild(item);
+				iq.addChild(query);
+
+				Packet rost_res = Packet.packetInstance(iq, null, session.getJID());
+
+				rost_res.setPacketTo(session.getConnectionId());
+				rost_res.setPacketFrom(packet.getTo());
+				results.offer(rost_res);
+			}
+		} catch (NoConnectionIdException ex) {
+			log.log(Level.WARNING, "Problem with roster request, no connection ID for session: {0}, request: {1}",
+					new Object[]{session, packet});
+		}
+
+		rosterDeltaResults.increment();
+		rosterDeltaItems.add(changes.size());
+
+		// items which would be sent in the full roster but were not pushed
+		JID[] buddies = roster_util.getBuddies(session);
+		if (buddies != null && buddies.length > changes.size()) {
+			rosterItemsSaved.add(buddies.length - changes.size());
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Sending {0} roster changes to {1}", new Object[]{changes.size(), session});
+		}
+	}
+
+	/**
+	 * Returns roster items changed since the roster version provided by the client.
+	 *
+	 * @param changeLog roster change log of the user.
+	 * @param ver roster version provided by the client.
+	 *
+	 * @return changed items with versions of their last change or <code>null</code> if changes since passed version
+	 * are not known.
+	 */
+	private Map<BareJID, Long> getRosterChangesSince(RosterChangeLog changeLog, String ver) {
+		long since;
+
+		try {
+			since = Long.parseLong(ver);
+		} catch (NumberFormatException ex) {
+			// version issued before the change log was used, ie. roster hash
+			return null;
+		}
+
+		return changeLog.getChangesSince(since);
+	}
+
 	/**
 	 * Method processes roster <code>set</code> request. Performs modifications of user roster.
 	 *
@@ -20,6 +20,7 @@ package tigase.xmpp.impl;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.TigaseDBException;
 import tigase.db.UserNotFoundException;
+import tigase.db.UserRepositoryWriteBehind;
 import tigase.server.Packet;
 import tigase.server.Presence;
 import tigase.xml.DomBuilderHandler;
@@ -37,6 +38,8 @@ import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static tigase.db.NonAuthUserRepository.PUBLIC_DATA_NODE;
+
 /**
  * Implementation of <a href='http://xmpp.org/extensions/xep-0012.html'>XEP-0012</a>: Last Activity.
  *
@@ -137,6 +140,15 @@ public abstract class LastActivityAbstract
 	}
 
 	protected static void persistLastActivity(XMPPResourceConnection session, Element presence) {
+		persistLastActivity(session, presence, null);
+	}
+
+	/**
+	 * Persists last activity of the user. If <code>writeBehind</code> is not <code>null</code> values are passed to
+	 * it and will be stored later, otherwise they are stored in the repository immediately.
+	 */
+	protected static void persistLastActivity(XMPPResourceConnection session, Element presence,
+											  UserRepositoryWriteBehind writeBehind) {
 		long last = getLastActivity(session, false);
 		String status = getStatus(session);
 
@@ -146,6 +158,16 @@ public abstract class LastActivityAbstract
 						"Persiting last:activity of user " + session.getUserName() + " in storage (value=" + last +
 								", " + "presence=" + presence + ").");
 			}
+			if (writeBehind != null) {
+				BareJID user = session.getBareJID();
+				writeBehind.setData(user, PUBLIC_DATA_NODE + "/" + XMLNS, LAST_ACTIVITY_KEY, String.valueOf(last));
+				if (presence != null) {
+					writeBehind.setData(user, PUBLIC_DATA_NODE + "/" + XMLNS, LAST_PRESENCE_KEY,
+										String.valueOf(presence));
+				}
+				writeBehind.setData(user, PUBLIC_DATA_NODE + "/" + XMLNS, LAST_STATUS_KEY, status);
+				return;
+			}
 			session.setPublicData(XMLNS, LAST_ACTIVITY_KEY, String.valueOf(last));
 			if (presence != null) {
 				session.setPublicData(XMLNS, LAST_PRESENCE_KEY, String.valueOf(presence));
@@ -18,6 +18,7 @@
 package tigase.xmpp.impl;
 
 import tigase.db.NonAuthUserRepository;
+import tigase.db.UserRepositoryWriteBehind;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.RegistrarBean;
@@ -28,6 +29,7 @@ import tigase.server.Packet;
 import tigase.server.Presence;
 import tigase.server.xmppsession.SessionManager;
 import tigase.xml.Element;
+import tigase.xmpp.NotAuthorizedException;
 import tigase.xmpp.XMPPException;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.XMPPStopListenerIfc;
@@ -70,12 +72,16 @@ public class LastActivityMarker
 	private boolean updateOnMessage = false;
 	@ConfigField(desc = "Whether to update last activity information on presence packets", alias = "presence")
 	private boolean updateOnPresence = true;
+	@ConfigField(desc = "Whether to delay and batch repository updates of last activity", alias = "write-behind")
+	private boolean writeBehind = false;
+	@Inject(nullAllowed = true)
+	private UserRepositoryWriteBehind writeBehindBuffer;
 
-	private static void setLastActivity(XMPPResourceConnection session, Long last, Element presence, boolean repository) {
+	private void setLastActivity(XMPPResourceConnection session, Long last, Element presence, boolean repository) {
 		session.putCommonSessionData(LastActivityAbstract.LAST_ACTIVITY_KEY, last);
 		session.putSessionData(LastActivityAbstract.LAST_ACTIVITY_KEY, last);
 		if (repository) {
-			persistLastActivity(session, presence);
+			persistLastActivity(session, presence, getWriteBehindBuffer());
 		}
 	}
 
@@ -120,10 +126,23 @@ public class LastActivityMarker
 		}
 		if (session != null && session.isAuthorized()) {
 			final Element presence = session.getPresence();
-			persistLastActivity(session, presence);
+			UserRepositoryWriteBehind buffer = getWriteBehindBuffer();
+			persistLastActivity(session, presence, buffer);
+			if (buffer != null) {
+				// values must be stored before session is closed as last activity of offline users is read from repository
+				try {
+					buffer.flush(session.getBareJID());
+				} catch (NotAuthorizedException ex) {
+					log.log(Level.FINEST, "session isn't authorized", ex);
+				}
+			}
 		}
 	}
 
+	private UserRepositoryWriteBehind getWriteBehindBuffer() {
+		return writeBehind ? writeBehindBuffer : null;
+	}
+
 	@Override
 	public void register(Kernel kernel) {
 		this.kernel = kernel;
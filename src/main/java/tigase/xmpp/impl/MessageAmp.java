@@ -222,18 +222,7 @@ public class MessageAmp
 			case "presence":
 				if ((offlineProcessor != null) && offlineProcessor.loadOfflineMessages(packet, session)) {
 					try {
-						Queue<Packet> packets = offlineProcessor.restorePacketForOffLineUser(session, msg_repo);
-
-						if (packets != null) {
-							if (log.isLoggable(Level.FINER)) {
-								log.finer("Sending off-line messages: " + packets.size());
-							}
-							results.addAll(packets);
-
-							if (!packets.isEmpty()) {
-								offlineProcessor.notifyOfflineMessagesRetrieved(session, results);
-							}
-						}    // end of if (packets != null)
+						offlineProcessor.sendOfflineMessages(session, msg_repo, results);
 					} catch (UserNotFoundException e) {
 						log.info("Something wrong, DB problem, cannot load offline messages. " + e);
 					}      // end of try-catch
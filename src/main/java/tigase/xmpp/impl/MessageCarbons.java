@@ -34,7 +34,6 @@ import tigase.xmpp.*;
 import tigase.xmpp.jid.JID;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -68,7 +67,7 @@ public class MessageCarbons
 	private static final String MESSAGE_HINTS_XMLNS = "urn:xmpp:hints";
 
 	private static final Function<String, Object> RESOURCES_MAP_FACTORY = (k) -> {
-		return new ConcurrentHashMap<JID, Boolean>();
+		return new Resources();
 	};
 
 	private final EventBus eventBus = EventBusFactory.getInstance();
@@ -78,6 +77,8 @@ public class MessageCarbons
 	private ElementMatcher[] msgCarbonPaths = {
 			new ElementMatcher(new String[]{Message.ELEM_NAME, "received"}, "urn:xmpp:receipts", true)
 	};
+	@ConfigField(desc = "Share forwarded message between carbon copies", alias = "carbons-shared-payload")
+	private boolean sharedPayload = true;
 
 	/**
 	 * Returns true if session is enabled for receiving carbon copy messages
@@ -88,17 +89,11 @@ public class MessageCarbons
 	}
 
 	/**
-	 * Prepare packet which is carbon copy of message passed as argument
+	 * Prepare <code>received</code> or <code>sent</code> element with forwarded copy of message passed as argument
 	 */
-	private static Packet prepareCarbonCopy(Packet packet, JID srcJid, JID jid,
-											String type) { //throws NoConnectionIdException {
-		Packet msgClone = Message.getMessage(srcJid, jid, packet.getType(), null, null, null, packet.getStanzaId());
-
-		//msgClone.setPacketTo(session.getConnectionId(jid));
-
+	private static Element prepareCarbonPayload(Packet packet, String type) {
 		Element received = new Element(type);
 		received.setXMLNS(XMLNS);
-		msgClone.getElement().addChild(received);
 
 		Element forwarded = new Element("forwarded");
 		forwarded.setXMLNS("urn:xmpp:forward:0");
@@ -106,8 +101,18 @@ public class MessageCarbons
 
 		forwarded.addChild(packet.getElement().clone());
 
-		return msgClone;
+		return received;
+	}
+
+	/**
+	 * Prepare packet which is carbon copy of message passed as argument
+	 */
+	private static Packet prepareCarbonCopy(Packet packet, JID srcJid, JID jid, Element payload) {
+		Packet msgClone = Message.getMessage(srcJid, jid, packet.getType(), null, null, null, packet.getStanzaId());
+
+		msgClone.getElement().addChild(payload);
 
+		return msgClone;
 	}
 
 	@Override
@@ -164,7 +169,7 @@ public class MessageCarbons
 				return;
 			}
 
-			Map<JID, Boolean> resources = (Map<JID, Boolean>) session.getCommonSessionData(ENABLED_RESOURCES_KEY);
+			Resources resources = (Resources) session.getCommonSessionData(ENABLED_RESOURCES_KEY);
 			if (resources == null || resources.isEmpty()) {
 				// no session has enabled message carbons
 				return;
@@ -218,7 +223,7 @@ public class MessageCarbons
 					skipForkingTo = messageProcessor.getJIDsForMessageDelivery(session);
 
 					// we should skip forking to JID with enabled message carbons if jid is not from local node
-					for (JID jid : resources.keySet()) {
+					for (JID jid : resources.getEnabled()) {
 						if (session.getParentSession().getResourceForJID(jid) == null) {
 							skipForkingTo.add(jid);
 						}
@@ -233,23 +238,35 @@ public class MessageCarbons
 							new Object[]{packet, resources, skipForkingTo, session});
 				}
 
-				for (Map.Entry<JID, Boolean> entry : resources.entrySet()) {
-
-					if (!entry.getValue()) {
-						continue;
-					}
+				// forwarded message is prepared once and shared by all carbon copies
+				Element payload = null;
 
-					JID jid = entry.getKey();
+				for (JID jid : resources.getEnabled()) {
 
 					// do not send carbon copy to session to which it is addressed
 					// or from which it is sent or to which it will be delivered due
 					// to default routing
-					if (skipForkingTo.contains(entry.getKey())) {
+					if (skipForkingTo.contains(jid)) {
 						continue;
 					}
 
+					if (payload == null) {
+						payload = prepareCarbonPayload(packet, type);
+					}
+
 					// prepare carbon copy of message
-					Packet msgClone = prepareCarbonCopy(packet, srcJid, jid, type);
+					Packet msgClone = prepareCarbonCopy(packet, srcJid, jid, sharedPayload ? payload : payload.clone());
+
+					// copies for resources connected to this node are sent directly to their connections
+					// instead of being processed by the session manager again
+					XMPPResourceConnection conn = session.getParentSession().getResourceForJID(jid);
+					if (conn != null) {
+						try {
+							msgClone.setPacketTo(conn.getConnectionId());
+						} catch (NoConnectionIdException ex) {
+							// connection is being closed, let session manager route the copy
+						}
+					}
 					results.offer(msgClone);
 				}
 			}
@@ -314,14 +331,14 @@ public class MessageCarbons
 	@HandleEvent
 	protected void stateChanged(MessageCarbonsStateChangedEvent event) {
 		XMPPSession session = event.getSession();
-		ConcurrentHashMap<JID, Boolean> resources = (ConcurrentHashMap<JID, Boolean>) session.computeCommonSessionDataIfAbsent(
-				ENABLED_RESOURCES_KEY, RESOURCES_MAP_FACTORY);
+		Resources resources = (Resources) session.computeCommonSessionDataIfAbsent(ENABLED_RESOURCES_KEY,
+																				   RESOURCES_MAP_FACTORY);
 
 		for (JID jid : event.getEnabledJids()) {
-			resources.put(jid, true);
+			resources.setEnabled(jid, true);
 		}
 		for (JID jid : event.getDisabledJids()) {
-			resources.put(jid, false);
+			resources.setEnabled(jid, false);
 		}
 	}
 
@@ -337,12 +354,12 @@ public class MessageCarbons
 			log.log(Level.FINEST, "session = {0} processing presence = {1}", new Object[]{session, packet.toString()});
 		}
 
-		ConcurrentHashMap<JID, Boolean> resources = (ConcurrentHashMap<JID, Boolean>) session.computeCommonSessionDataIfAbsent(
-				ENABLED_RESOURCES_KEY, RESOURCES_MAP_FACTORY);
+		Resources resources = (Resources) session.computeCommonSessionDataIfAbsent(ENABLED_RESOURCES_KEY,
+																				   RESOURCES_MAP_FACTORY);
 
 		StanzaType type = packet.getType();
 		if (type == null || type == StanzaType.available) {
-			if (resources.putIfAbsent(packet.getStanzaFrom(), false) != null) {
+			if (!resources.add(packet.getStanzaFrom())) {
 				return;
 			}
 
@@ -440,6 +457,89 @@ public class MessageCarbons
 		return false;
 	}
 
+	/**
+	 * Available resources of the user split into arrays of resources with enabled and disabled message carbons, so
+	 * sending carbon copies iterates only over enabled resources. Arrays are replaced on change, which happens only on
+	 * presence or message carbons state change.
+	 */
+	static class Resources {
+
+		private static final JID[] EMPTY = new JID[0];
+
+		private JID[] disabled = EMPTY;
+		private volatile JID[] enabled = EMPTY;
+
+		private static boolean contains(JID[] jids, JID jid) {
+			for (JID it : jids) {
+				if (it.equals(jid)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static JID[] with(JID[] jids, JID jid) {
+			JID[] result = Arrays.copyOf(jids, jids.length + 1);
+			result[jids.length] = jid;
+			return result;
+		}
+
+		private static JID[] without(JID[] jids, JID jid) {
+			if (!contains(jids, jid)) {
+				return jids;
+			}
+			return jids.length == 1 ? EMPTY : Arrays.stream(jids).filter(it -> !it.equals(jid)).toArray(JID[]::new);
+		}
+
+		/**
+		 * Marks resource as available.
+		 *
+		 * @return <code>true</code> if resource was not known before
+		 */
+		synchronized boolean add(JID jid) {
+			if (contains(disabled, jid) || contains(enabled, jid)) {
+				return false;
+			}
+			disabled = with(disabled, jid);
+			return true;
+		}
+
+		synchronized void remove(JID jid) {
+			disabled = without(disabled, jid);
+			enabled = without(enabled, jid);
+		}
+
+		synchronized void setEnabled(JID jid, boolean value) {
+			if (value) {
+				disabled = without(disabled, jid);
+				if (!contains(enabled, jid)) {
+					enabled = with(enabled, jid);
+				}
+			} else {
+				enabled = without(enabled, jid);
+				if (!contains(disabled, jid)) {
+					disabled = with(disabled, jid);
+				}
+			}
+		}
+
+		/**
+		 * Returns resources with enabled message carbons. Returned array is shared and must not be modified.
+		 */
+		JID[] getEnabled() {
+			return enabled;
+		}
+
+		synchronized boolean isEmpty() {
+			return disabled.length == 0 && enabled.length == 0;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return "enabled: " + Arrays.toString(enabled) + ", disabled: " + Arrays.toString(disabled);
+		}
+	}
+
 	/**
 	 * Event class responsible for notification other sessions of same user that message carbons state was changed.
 	 */
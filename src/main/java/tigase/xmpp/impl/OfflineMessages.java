@@ -17,18 +17,21 @@
  */
 package tigase.xmpp.impl;
 
+import tigase.component.PacketWriter;
 import tigase.db.MsgRepositoryIfc;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.TigaseDBException;
 import tigase.db.UserNotFoundException;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.osgi.ModulesManagerImpl;
 import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.amp.db.MsgRepository;
 import tigase.server.xmppsession.SessionManager;
+import tigase.stats.StatisticsList;
 import tigase.util.dns.DNSResolverFactory;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.DomBuilderHandler;
@@ -40,6 +43,12 @@ import tigase.xmpp.jid.JID;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -58,7 +67,7 @@ import static tigase.server.Message.ELEM_NAME;
 @Bean(name = OfflineMessages.ID, parent = SessionManager.class, active = false)
 public class OfflineMessages
 		extends XMPPProcessor
-		implements XMPPPostprocessorIfc, XMPPProcessorIfc {
+		implements XMPPPostprocessorIfc, XMPPProcessorIfc, UnregisterAware {
 
 	/**
 	 * Field holds an array for element paths for which the plugin offers message saving capabilities. In case of {@code
@@ -102,6 +111,10 @@ public class OfflineMessages
 	 */
 	private static final Element[] DISCO_FEATURES = {
 			new Element("feature", new String[]{"var"}, new String[]{"msgoffline"})};
+	/**
+	 * Key of common session data (shared by all resources of the user) holding paged delivery which is in progress
+	 */
+	private static final String PAGED_DELIVERY_KEY = "offline-msgs-paged-delivery";
 	private static final String MSG_OFFLINE_STORAGE_PATHS = "msg-store-offline-paths";
 	private static final String MSG_REPO_CLASS_KEY = "msg-repo-class";
 	private static final String MSG_PUBSUB_JID = "msg-pubsub-jid";
@@ -114,12 +127,21 @@ public class OfflineMessages
 	 * Field holds class for formatting and parsing dates in a locale-sensitive manner
 	 */
 	private final SimpleDateFormat formatter;
+	private final AtomicLong deliveryBacklog = new AtomicLong();
+	private ScheduledExecutorService deliveryExecutor;
+	@ConfigField(desc = "Delay in ms between delivery of pages of offline messages", alias = "delivery-page-delay")
+	private long deliveryPageDelay = 100;
+	@ConfigField(desc = "Number of offline messages delivered at once (0 - all messages at once)", alias = "delivery-page-size")
+	private int deliveryPageSize = 0;
+	private final LongAdder deliveryPages = new LongAdder();
 	@Inject
 	private Message message;
 	@ConfigField(desc = "Offline message implementation repository class", alias = MSG_REPO_CLASS_KEY)
 	private String msgRepoCls = null;
 	@Inject(nullAllowed = true)
 	private List<Notifier> notifiers;
+	@Inject(nullAllowed = true)
+	private PacketWriter packetWriter;
 	@ConfigField(desc = "Store offline messages with mathing paths", alias = MSG_OFFLINE_STORAGE_PATHS)
 	private ElementMatcher[] offlineStorageMatchers = new ElementMatcher[0];
 
@@ -133,6 +155,23 @@ public class OfflineMessages
 		return ID;
 	}
 
+	@Override
+	public void beforeUnregister() {
+		synchronized (this) {
+			if (deliveryExecutor != null) {
+				deliveryExecutor.shutdownNow();
+				deliveryExecutor = null;
+			}
+		}
+	}
+
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		list.add(id(), "Offline delivery pages", deliveryPages.sum(), Level.FINE);
+		list.add(id(), "Offline delivery backlog", deliveryBacklog.get(), Level.FINE);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * <br>
@@ -199,18 +238,7 @@ public class OfflineMessages
 				if (loadOfflineMessages(packet, conn)) {
 					try {
 						OfflineMsgRepositoryIfc msg_repo = getMsgRepoImpl(repo, conn);
-						Queue<Packet> packets = restorePacketForOffLineUser(conn, msg_repo);
-
-						if (packets != null) {
-							if (log.isLoggable(Level.FINER)) {
-								log.finer("Sending off-line messages: " + packets.size());
-							}
-							results.addAll(packets);
-
-							if (!packets.isEmpty()) {
-								notifyOfflineMessagesRetrieved(conn, results);
-							}
-						}    // end of if (packets != null)
+						sendOfflineMessages(conn, msg_repo, results);
 					} catch (UserNotFoundException e) {
 						log.info("Something wrong, DB problem, cannot load offline messages. " + e);
 					}      // end of try-catch
@@ -302,34 +330,78 @@ public class OfflineMessages
 		Queue<Element> elems = repo.loadMessagesToJID(conn, true);
 
 		if (elems != null) {
-			LinkedList<Packet> pacs = new LinkedList<Packet>();
-			Element elem = null;
+			return toPackets(conn, elems);
+		}
 
-			while ((elem = elems.poll()) != null) {
-				try {
-					Packet p = Packet.packetInstance(elem);
-					if (p.getElemName() == Iq.ELEM_NAME) {
-						p.initVars(p.getStanzaFrom(), conn.getJID());
-					}
-					pacs.offer(p);
-				} catch (TigaseStringprepException ex) {
-					log.warning("Packet addressing problem, stringprep failed: " + elem);
+		return null;
+	}
+
+	/**
+	 * Method sends messages stored in repository for the JID of the current session. If delivery in pages is enabled
+	 * and repository supports it, only first page of messages is added to the results queue and following pages are
+	 * sent with delay, each page is removed from repository after it was sent. In this mode messages are delivered
+	 * only to a single resource at a time - if delivery to other resource of the same user is in progress, nothing is
+	 * sent to this resource.
+	 *
+	 * @param conn user session
+	 * @param repo an implementation of {@link MsgRepositoryIfc} interface
+	 * @param results queue to which packets with messages should be added
+	 */
+	public void sendOfflineMessages(XMPPResourceConnection conn, tigase.db.OfflineMsgRepositoryIfc repo,
+									Queue<Packet> results) throws UserNotFoundException, NotAuthorizedException {
+		if (deliveryPageSize > 0 && packetWriter != null && repo instanceof MsgRepositoryIfc) {
+			// Only one resource of the user may deliver offline messages at a time, otherwise resources going
+			// online at the same time would receive the same messages. This guard is local to the node, so in
+			// a cluster concurrent logins on different nodes are not covered.
+			AtomicReference<PagedDelivery> holder = (AtomicReference<PagedDelivery>) conn.computeCommonSessionDataIfAbsent(
+					PAGED_DELIVERY_KEY, key -> new AtomicReference<PagedDelivery>());
+			PagedDelivery delivery = new PagedDelivery(conn, (MsgRepositoryIfc) repo, holder);
+			if (!holder.compareAndSet(null, delivery)) {
+				if (log.isLoggable(Level.FINER)) {
+					log.finer("Off-line messages are already being delivered to other resource of " + conn);
 				}
-			}    // end of while (elem = elems.poll() != null)
+				return;
+			}
 			try {
-				Collections.sort(pacs, new StampComparator());
-			} catch (NullPointerException e) {
-				try {
-					log.warning("Can not sort off line messages: " + pacs + ",\n" + e);
-				} catch (Exception exc) {
-					log.log(Level.WARNING, "Can not print log message.", exc);
+				List<String> ids = ((MsgRepositoryIfc) repo).getMessagesIds(JID.jidInstance(conn.getBareJID()));
+				if (ids.size() > deliveryPageSize) {
+					if (log.isLoggable(Level.FINER)) {
+						log.finer("Sending off-line messages in pages: " + ids.size());
+					}
+					deliveryBacklog.addAndGet(ids.size());
+					delivery.start(ids);
+					if (delivery.sendPage(results)) {
+						notifyOfflineMessagesRetrieved(conn, results);
+					}
+					return;
 				}
+				sendAllOfflineMessages(conn, repo, results);
+				delivery.release();
+			} catch (UserNotFoundException | NotAuthorizedException | RuntimeException ex) {
+				delivery.cancel();
+				throw ex;
 			}
-
-			return pacs;
+			return;
 		}
 
-		return null;
+		sendAllOfflineMessages(conn, repo, results);
+	}
+
+	private void sendAllOfflineMessages(XMPPResourceConnection conn, tigase.db.OfflineMsgRepositoryIfc repo,
+										Queue<Packet> results) throws UserNotFoundException, NotAuthorizedException {
+
+		Queue<Packet> packets = restorePacketForOffLineUser(conn, repo);
+
+		if (packets != null) {
+			if (log.isLoggable(Level.FINER)) {
+				log.finer("Sending off-line messages: " + packets.size());
+			}
+			results.addAll(packets);
+
+			if (!packets.isEmpty()) {
+				notifyOfflineMessagesRetrieved(conn, results);
+			}
+		}    // end of if (packets != null)
 	}
 
 	/**
@@ -558,6 +630,34 @@ public class OfflineMessages
 		return false;
 	}
 
+	protected Queue<Packet> toPackets(XMPPResourceConnection conn, Queue<Element> elems) throws NotAuthorizedException {
+		LinkedList<Packet> pacs = new LinkedList<Packet>();
+		Element elem = null;
+
+		while ((elem = elems.poll()) != null) {
+			try {
+				Packet p = Packet.packetInstance(elem);
+				if (p.getElemName() == Iq.ELEM_NAME) {
+					p.initVars(p.getStanzaFrom(), conn.getJID());
+				}
+				pacs.offer(p);
+			} catch (TigaseStringprepException ex) {
+				log.warning("Packet addressing problem, stringprep failed: " + elem);
+			}
+		}    // end of while (elem = elems.poll() != null)
+		try {
+			Collections.sort(pacs, new StampComparator());
+		} catch (NullPointerException e) {
+			try {
+				log.warning("Can not sort off line messages: " + pacs + ",\n" + e);
+			} catch (Exception exc) {
+				log.log(Level.WARNING, "Can not print log message.", exc);
+			}
+		}
+
+		return pacs;
+	}
+
 	protected void notifyNewOfflineMessage(Packet packet, XMPPResourceConnection conn, Queue<Packet> queue,
 										   Map<String, Object> settings) {
 		if (notifiers != null) {
@@ -703,6 +803,99 @@ public class OfflineMessages
 		}
 	}
 
+	private synchronized ScheduledExecutorService getDeliveryExecutor() {
+		if (deliveryExecutor == null) {
+			deliveryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "offline-messages-delivery");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return deliveryExecutor;
+	}
+
+	/**
+	 * Delivery of offline messages in pages. Each page is loaded from repository, sent to the user and then removed
+	 * from repository. Delivery of remaining pages is stopped if the session is closed, so remaining messages will be
+	 * delivered on next login. While delivery is in progress it is kept in common session data of the user, so other
+	 * resources of the same user will not start delivery of the same messages.
+	 */
+	private class PagedDelivery
+			implements Runnable {
+
+		private final XMPPResourceConnection conn;
+		private final AtomicReference<PagedDelivery> holder;
+		private final MsgRepositoryIfc repo;
+		private List<String> ids = Collections.emptyList();
+		private int offset = 0;
+
+		private PagedDelivery(XMPPResourceConnection conn, MsgRepositoryIfc repo,
+							  AtomicReference<PagedDelivery> holder) {
+			this.conn = conn;
+			this.repo = repo;
+			this.holder = holder;
+		}
+
+		@Override
+		public void run() {
+			Queue<Packet> results = new ArrayDeque<>();
+			try {
+				if (!conn.isAuthorized()) {
+					cancel();
+					return;
+				}
+				sendPage(results);
+			} catch (Exception ex) {
+				log.log(Level.WARNING, "Could not deliver offline messages to " + conn, ex);
+				cancel();
+				return;
+			}
+			packetWriter.write(results);
+		}
+
+		private void start(List<String> ids) {
+			this.ids = ids;
+			this.offset = 0;
+		}
+
+		/**
+		 * Adds next page of messages to results queue and schedules delivery of the next page.
+		 *
+		 * @return <code>true</code> if any message was added
+		 */
+		private boolean sendPage(Queue<Packet> results) throws UserNotFoundException, NotAuthorizedException {
+			int end = Math.min(offset + deliveryPageSize, ids.size());
+			List<String> pageIds = new ArrayList<>(ids.subList(offset, end));
+			offset = end;
+
+			Queue<Element> elems = repo.loadMessagesToJID(pageIds, conn, false, null);
+			Queue<Packet> packets = elems == null ? null : toPackets(conn, elems);
+			if (packets != null) {
+				results.addAll(packets);
+			}
+			repo.deleteMessagesToJID(pageIds, conn);
+			deliveryPages.increment();
+			deliveryBacklog.addAndGet(-pageIds.size());
+
+			if (offset < ids.size()) {
+				getDeliveryExecutor().schedule(this, deliveryPageDelay, TimeUnit.MILLISECONDS);
+			} else {
+				release();
+			}
+			return packets != null && !packets.isEmpty();
+		}
+
+		private void cancel() {
+			deliveryBacklog.addAndGet(offset - ids.size());
+			offset = ids.size();
+			release();
+		}
+
+		private void release() {
+			holder.compareAndSet(this, null);
+		}
+	}
+
 	/**
 	 * Implementation of {@code MsgRepositoryIfc} interface providing basic support for storing and loading of Elements
 	 * from repository.
@@ -30,6 +30,7 @@ import tigase.xmpp.impl.roster.*;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.logging.Level;
@@ -54,6 +55,8 @@ public abstract class PresenceAbstract
 
 	public static final String SKIP_OFFLINE_SYS_PROP_KEY = "skip-offline-sys";
 
+	public static final String BROADCAST_SHARED_PAYLOAD_PROP_KEY = "broadcast-shared-payload";
+
 	public static final String USERS_STATUS_CHANGES = "Users status changes";
 
 	protected static final String XMLNS = CLIENT_XMLNS;
@@ -67,6 +70,8 @@ public abstract class PresenceAbstract
 	protected static boolean skipOffline = false;
 	@ConfigField(desc = "Skip offline sys", alias = SKIP_OFFLINE_SYS_PROP_KEY)
 	private static boolean skipOfflineSys = true;
+	@ConfigField(desc = "Share payload of broadcasted presence between recipients", alias = BROADCAST_SHARED_PAYLOAD_PROP_KEY)
+	private static boolean broadcastSharedPayload = false;
 
 	protected RosterAbstract roster_util = getRosterUtil();
 
@@ -449,8 +454,8 @@ public abstract class PresenceAbstract
 		}
 
 		// Probe is always broadcasted with initial presence
-		Element presInit = session.getPresence();
-		Element presProbe = prepareProbe(session);
+		FanOut presInit = new FanOut(null, null, session.getPresence());
+		FanOut presProbe = new FanOut(null, null, prepareProbe(session));
 
 		JID[] buddies = roster_util.getBuddies(session, SUB_BOTH);
 
@@ -466,11 +471,11 @@ public abstract class PresenceAbstract
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Sending presence probe to: " + buddy);
 					}
-					sendPresence(null, null, buddy, results, presProbe);
+					presProbe.send(buddy, results);
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Sending intial presence to: " + buddy);
 					}
-					sendPresence(null, null, buddy, results, presInit);
+					presInit.send(buddy, results);
 					roster_util.setPresenceSent(session, buddy, true);
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
@@ -495,7 +500,7 @@ public abstract class PresenceAbstract
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Sending probe to: " + buddy);
 					}
-					sendPresence(null, null, buddy, results, presProbe);
+					presProbe.send(buddy, results);
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Skipping sending presence probe to: " + buddy);
@@ -520,7 +525,7 @@ public abstract class PresenceAbstract
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Sending initial presence to: " + buddy);
 					}
-					sendPresence(null, null, buddy, results, presInit);
+					presInit.send(buddy, results);
 					roster_util.setPresenceSent(session, buddy, true);
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
@@ -537,4 +542,79 @@ public abstract class PresenceAbstract
 		return super.concurrentQueuesNo() * 4;
 	}
 
-} 
+
+	/**
+	 * Creates presence packets for all recipients of a single presence broadcast. Presence element is prepared once,
+	 * and addresses of the stanza are not parsed again for each recipient. If enabled by {@value
+	 * #BROADCAST_SHARED_PAYLOAD_PROP_KEY}, children of the presence element are shared between all created packets
+	 * instead of being copied for each recipient, so they must not be modified by any code processing these packets.
+	 */
+	public static class FanOut {
+
+		private final Element template;
+		private JID stanzaFrom;
+		private boolean stanzaFromParsed = false;
+
+		/**
+		 * @param t specifies type of the presence to be send if {@code pres} is not provided.
+		 * @param from is a <code>JID</code> instance with stanza source address used if {@code pres} is not
+		 * provided.
+		 * @param pres an Object of type {@link Element} holding Presence stanza to be sent.
+		 */
+		public FanOut(StanzaType t, JID from, Element pres) {
+			if (pres == null) {
+				template = new Element(PRESENCE_ELEMENT_NAME);
+				template.setAttribute("type", (t != null ? t : StanzaType.unavailable).toString());
+				if (null != from) {
+					template.setAttribute("from", from.toString());
+				}
+				template.setXMLNS(XMLNS);
+			} else {
+				template = pres.clone();
+			}
+		}
+
+		/**
+		 * Creates and adds to results presence packet addressed to the given recipient.
+		 *
+		 * @param to is a <code>JID</code> instance with stanza destination address.
+		 * @param results this a collection with packets which have been generated as input packet processing
+		 * results.
+		 *
+		 * @return an instance of {@link Packet} or null if it was not possible to create it.
+		 */
+		public Packet send(JID to, Queue<Packet> results) {
+			Element presence;
+			if (broadcastSharedPayload) {
+				presence = new Element(template.getName());
+				presence.setAttributes(template.getAttributes());
+				List<Element> children = template.getChildren();
+				if (children != null) {
+					presence.addChildren(children);
+				}
+			} else {
+				presence = template.clone();
+			}
+			presence.setAttribute("to", to.toString());
+
+			Packet result;
+			if (stanzaFromParsed) {
+				result = Packet.packetInstance(presence, stanzaFrom, to);
+			} else {
+				try {
+					result = Packet.packetInstance(presence);
+				} catch (TigaseStringprepException ex) {
+					log.log(Level.FINE, "Packet stringprep addressing problem, skipping presence send: {0}", presence);
+					return null;
+				}
+				stanzaFrom = result.getStanzaFrom();
+				stanzaFromParsed = true;
+			}
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Sending presence info: {0}", result);
+			}
+			results.offer(result);
+			return result;
+		}
+	}
+}
@@ -39,10 +39,9 @@ public class PresenceCapabilitiesManager {
 	public static final String CAPS_NODE = "https://tigase.net/tigase-xmpp-server";
 	public final static String HASH_ALGORITHM = "SHA-1";
 	public final static String charsetName = "UTF-8";
-	// Map<capsNode,Set<feature>>
-	private static final Map<String, String[]> nodeFeatures = new ConcurrentHashMap<String, String[]>(250);
-	private static final ConcurrentMap<String, Set<String>> featureNodes = new ConcurrentHashMap<String, Set<String>>(
-			250);
+	public static final String CAPS_CACHE_SIZE_PROP_KEY = "caps-cache-size";
+	public static final int CAPS_CACHE_SIZE_PROP_DEF = 10000;
+	private static final PresenceCapabilitiesStore store = new PresenceCapabilitiesStore(CAPS_CACHE_SIZE_PROP_DEF);
 	private static final List<PresenceCapabilitiesListener> handlers = new CopyOnWriteArrayList<PresenceCapabilitiesListener>();
 	private static long idCounter = 0;
 	private static Logger log = Logger.getLogger(PresenceCapabilitiesManager.class.getName());
@@ -121,17 +120,26 @@ public class PresenceCapabilitiesManager {
 		return features;
 	}
 
+	/**
+	 * Returns sorted features of the caps node. Returned array is shared and must not be modified.
+	 */
 	public static String[] getNodeFeatures(String capsNode) {
-		return nodeFeatures.get(capsNode);
+		return store.getFeatures(capsNode);
 	}
 
+	/**
+	 * Returns caps nodes with the feature. Result is cached until the next change of known caps nodes.
+	 */
 	public static Set<String> getNodesWithFeature(String feature) {
-		Set<String> nodes = featureNodes.get(feature);
-		if (nodes == null) {
-			return Collections.emptySet();
-		} else {
-			return Collections.unmodifiableSet(nodes);
-		}
+		return store.getNodesWithFeature(feature);
+	}
+
+	public static int getCapsCacheSize() {
+		return store.getLimit();
+	}
+
+	public static void setCapsCacheSize(int size) {
+		store.setLimit(size);
 	}
 
 	public static void handlePresence(JID owner, JID from, String[] capsNodes, Queue<Packet> results) {
@@ -149,7 +157,7 @@ public class PresenceCapabilitiesManager {
 	public static void prepareCapsQueries(JID compJid, JID to, String[] caps_nodes, Queue<Packet> results) {
 		if (caps_nodes != null) {
 			for (String caps_node : caps_nodes) {
-				if (!nodeFeatures.containsKey(caps_node)) {
+				if (!store.contains(caps_node)) {
 					results.offer(prepareCapsQuery(to, compJid, caps_node));
 				}
 			}
@@ -159,7 +167,7 @@ public class PresenceCapabilitiesManager {
 	public static void prepareCapsQueriesEl(JID compJid, JID to, String[] caps_nodes, Queue<Element> results) {
 		if (caps_nodes != null) {
 			for (String caps_node : caps_nodes) {
-				if (!nodeFeatures.containsKey(caps_node)) {
+				if (!store.contains(caps_node)) {
 					results.offer(prepareCapsQueryEl(to, compJid, caps_node));
 				}
 			}
@@ -205,7 +213,7 @@ public class PresenceCapabilitiesManager {
 				List<Element> ch = query.getChildren();
 
 				if (ch != null) {
-					Set<String> features = new ConcurrentSkipListSet<String>();
+					List<String> features = new ArrayList<String>(ch.size());
 
 					for (Element item : ch) {
 						if (!"feature".equals(item.getName())) {
@@ -213,7 +221,14 @@ public class PresenceCapabilitiesManager {
 						}
 						features.add(item.getAttributeStaticStr("var"));
 					}
-					setNodeFeatures(query.getAttributeStaticStr("node"), features.toArray(new String[features.size()]));
+
+					String node = query.getAttributeStaticStr("node");
+					if (log.isLoggable(Level.FINER)) {
+						log.log(Level.FINER, "setting features for node = {0}, features = {1}",
+								new Object[]{node, features});
+					}
+					// nodes advertised by clients may be evicted from the store
+					store.put(node, features.toArray(new String[features.size()]), false);
 				}
 			}
 
@@ -255,7 +270,7 @@ public class PresenceCapabilitiesManager {
 			String caps_node = c.getAttributeStaticStr("node") + "#" + c.getAttributeStaticStr("ver");
 
 			// String[] nFeatures = nodeFeatures.get(caps_node);
-			if (!nodeFeatures.containsKey(caps_node)) {
+			if (!store.contains(caps_node)) {
 				Set<String> caps_nodes = new HashSet<String>();
 
 				caps_nodes.add(caps_node);
@@ -265,7 +280,7 @@ public class PresenceCapabilitiesManager {
 					}
 				}
 				for (String node : caps_nodes) {
-					if (!nodeFeatures.containsKey(node)) {
+					if (!store.contains(node)) {
 						results.offer(prepareCapsQuery(p.getFrom(), compJid, node));
 					}
 				}
@@ -282,21 +297,9 @@ public class PresenceCapabilitiesManager {
 	public static void setNodeFeatures(String capsNode, String[] features) {
 		if (log.isLoggable(Level.FINER)) {
 			log.log(Level.FINER, "setting features for node = {0}, features = {1}",
-					new Object[]{capsNode, Arrays.asList(features)});
-		}
-		Arrays.sort(features);
-		nodeFeatures.put(capsNode, features);
-		for (String feature : features) {
-			Set<String> caps = featureNodes.get(feature);
-			if (caps == null) {
-				Set<String> tmp = new CopyOnWriteArraySet<String>();
-				caps = featureNodes.putIfAbsent(feature, tmp);
-				if (caps == null) {
-					caps = tmp;
-				}
-			}
-			caps.add(capsNode);
+					new Object[]{capsNode, features == null ? null : Arrays.asList(features)});
 		}
+		store.put(capsNode, features, true);
 	}
 
 	public static void unregisterPresenceHandler(PresenceCapabilitiesListener handler) {
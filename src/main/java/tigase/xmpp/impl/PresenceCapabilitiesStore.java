@@ -0,0 +1,266 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded store of features advertised by <em>XEP-0115</em> capabilities nodes used by {@link
+ * PresenceCapabilitiesManager}.
+ * <br>
+ * Feature names are kept once in a global dictionary and each node points to a feature set, which is represented by a
+ * bitset over that dictionary and shared by all nodes advertising the same features. Feature names are removed from the
+ * dictionary, and their ids reused, when no feature set uses them any longer. Nodes learned from clients are
+ * evicted in the least recently used order when the store grows over the limit, while nodes set by the server itself
+ * are never evicted. Sets of nodes with particular feature are cached until the next change of the store.
+ */
+class PresenceCapabilitiesStore {
+
+	private final Map<String, Integer> featureIds = new ConcurrentHashMap<>();
+	// number of feature sets using each feature id
+	private int[] featureReferences = new int[64];
+	private final Map<FeatureSet, FeatureSet> featureSets = new HashMap<>();
+	private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> nodesWithFeature = new ConcurrentHashMap<>();
+	private String[] dictionary = new String[64];
+	private final BitSet freeFeatureIds = new BitSet();
+	private int featureIdsEnd = 0;
+	private volatile int limit;
+	// increased on every change, used as a clock for eviction and to validate cached lookups
+	private volatile long tick = 0;
+
+	PresenceCapabilitiesStore(int limit) {
+		this.limit = limit;
+	}
+
+	boolean contains(String node) {
+		return get(node) != null;
+	}
+
+	String[] getFeatures(String node) {
+		FeatureSet featureSet = get(node);
+		return featureSet == null ? null : featureSet.features;
+	}
+
+	Set<String> getNodesWithFeature(String feature) {
+		Set<String> result = nodesWithFeature.get(feature);
+		if (result != null) {
+			return result;
+		}
+
+		long tick = this.tick;
+		result = findNodesWithFeature(feature);
+		if (tick != this.tick) {
+			// store changed concurrently and id of the feature could have been reused
+			synchronized (this) {
+				tick = this.tick;
+				result = findNodesWithFeature(feature);
+			}
+		}
+		nodesWithFeature.put(feature, result);
+		if (tick != this.tick) {
+			// store changed concurrently, result may be outdated
+			nodesWithFeature.remove(feature, result);
+		}
+		return result;
+	}
+
+	int getFeaturesCount() {
+		return featureIds.size();
+	}
+
+	int getFeatureSetsCount() {
+		synchronized (this) {
+			return featureSets.size();
+		}
+	}
+
+	int getLimit() {
+		return limit;
+	}
+
+	synchronized void setLimit(int limit) {
+		this.limit = limit;
+		if (nodes.size() > limit) {
+			evict();
+			changed();
+		}
+	}
+
+	int getNodesCount() {
+		return nodes.size();
+	}
+
+	synchronized void put(String node, String[] features, boolean pinned) {
+		BitSet bits = new BitSet();
+		if (features != null) {
+			for (String feature : features) {
+				if (feature != null) {
+					bits.set(getFeatureId(feature));
+				}
+			}
+		}
+
+		FeatureSet featureSet = featureSets.get(new FeatureSet(bits, null));
+		if (featureSet == null) {
+			String[] sorted = new String[bits.cardinality()];
+			int idx = 0;
+			for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+				sorted[idx++] = dictionary[id];
+			}
+			Arrays.sort(sorted);
+			featureSet = new FeatureSet(bits, sorted);
+			featureSets.put(featureSet, featureSet);
+			for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+				featureReferences[id]++;
+			}
+		}
+		featureSet.references++;
+
+		Node old = nodes.put(node, new Node(featureSet, pinned, tick));
+		if (old != null) {
+			release(old.featureSet);
+		}
+
+		if (nodes.size() > limit) {
+			evict();
+		}
+		changed();
+	}
+
+	private void changed() {
+		// must be called after all modifications, so lookups done concurrently are not cached
+		tick++;
+		nodesWithFeature.clear();
+	}
+
+	private Set<String> findNodesWithFeature(String feature) {
+		Integer id = featureIds.get(feature);
+		if (id == null) {
+			return Collections.emptySet();
+		}
+
+		Set<String> found = new HashSet<>();
+		for (Map.Entry<String, Node> e : nodes.entrySet()) {
+			if (e.getValue().featureSet.bits.get(id)) {
+				found.add(e.getKey());
+			}
+		}
+		return Collections.unmodifiableSet(found);
+	}
+
+	private FeatureSet get(String node) {
+		Node n = nodes.get(node);
+		if (n == null) {
+			return null;
+		}
+		long tick = this.tick;
+		// avoid writing to shared memory on every lookup
+		if (n.lastUsed != tick) {
+			n.lastUsed = tick;
+		}
+		return n.featureSet;
+	}
+
+	private int getFeatureId(String feature) {
+		Integer id = featureIds.get(feature);
+		if (id == null) {
+			id = freeFeatureIds.nextSetBit(0);
+			if (id >= 0) {
+				freeFeatureIds.clear(id);
+			} else {
+				id = featureIdsEnd++;
+				if (id == dictionary.length) {
+					dictionary = Arrays.copyOf(dictionary, dictionary.length * 2);
+					featureReferences = Arrays.copyOf(featureReferences, featureReferences.length * 2);
+				}
+			}
+			dictionary[id] = feature;
+			featureIds.put(feature, id);
+		}
+		return id;
+	}
+
+	private void evict() {
+		// removing 10% of nodes at once, so eviction is not done on each new node
+		int toRemove = nodes.size() - (limit - limit / 10);
+		List<Map.Entry<String, Node>> candidates = new ArrayList<>();
+		for (Map.Entry<String, Node> e : nodes.entrySet()) {
+			if (!e.getValue().pinned) {
+				candidates.add(e);
+			}
+		}
+		candidates.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+		for (int i = 0; i < toRemove && i < candidates.size(); i++) {
+			Map.Entry<String, Node> e = candidates.get(i);
+			if (nodes.remove(e.getKey(), e.getValue())) {
+				release(e.getValue().featureSet);
+			}
+		}
+	}
+
+	private void release(FeatureSet featureSet) {
+		if (--featureSet.references == 0) {
+			featureSets.remove(featureSet);
+			BitSet bits = featureSet.bits;
+			for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+				if (--featureReferences[id] == 0) {
+					featureIds.remove(dictionary[id]);
+					dictionary[id] = null;
+					freeFeatureIds.set(id);
+				}
+			}
+		}
+	}
+
+	private static class FeatureSet {
+
+		private final BitSet bits;
+		private final String[] features;
+		private int references = 0;
+
+		private FeatureSet(BitSet bits, String[] features) {
+			this.bits = bits;
+			this.features = features;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof FeatureSet && bits.equals(((FeatureSet) o).bits);
+		}
+
+		@Override
+		public int hashCode() {
+			return bits.hashCode();
+		}
+	}
+
+	private static class Node {
+
+		private final FeatureSet featureSet;
+		private final boolean pinned;
+		private volatile long lastUsed;
+
+		private Node(FeatureSet featureSet, boolean pinned, long lastUsed) {
+			this.featureSet = featureSet;
+			this.pinned = pinned;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
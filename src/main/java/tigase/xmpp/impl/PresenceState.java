@@ -134,14 +134,17 @@ public class PresenceState
 		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
 
 		if ((direct_presences != null) && (t != null) && (t == StanzaType.unavailable)) {
+			FanOut fanOut = new FanOut(t, session.getJID(), pres);
 			for (JID buddy : direct_presences) {
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Updating direct presence for: {0}", buddy);
 				}
 
-				Packet pack = sendPresence(t, session.getJID(), buddy, results, pres);
+				Packet pack = fanOut.send(buddy, results);
 
-				pack.setPriority(Priority.LOW);
+				if (pack != null) {
+					pack.setPriority(Priority.LOW);
+				}
 			}    // end of for (String buddy: buddies)
 		}      // end of if (direct_presence != null)
 	}
@@ -243,10 +246,11 @@ public class PresenceState
 
 			Priority pack_priority = Priority.PRESENCE;
 			int pres_cnt = 0;
+			FanOut fanOut = new FanOut(t, session.getJID(), pres);
 
 			for (JID buddy : buddies) {
 				if (requiresPresenceSending(roster, buddy, session, false)) {
-					Packet pack = sendPresence(t, session.getJID(), buddy, results, pres);
+					Packet pack = fanOut.send(buddy, results);
 
 					if (pres_cnt == HIGH_PRIORITY_PRESENCES_NO) {
 						++pres_cnt;
@@ -18,6 +18,7 @@
 package tigase.xmpp.impl;
 
 import tigase.db.TigaseDBException;
+import tigase.util.cache.LRUConcurrentCache;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.NotAuthorizedException;
@@ -39,6 +40,11 @@ public class PrivacyList {
 	public static final PrivacyList ALLOW_ALL = new PrivacyList(null, new Element("list"));
 	private static final Logger log = Logger.getLogger(PrivacyList.class.getCanonicalName());
 	private static final Set<Item.Type> ALL_TYPES = EnumSet.allOf(Item.Type.class);
+	private static final int DECISION_CACHE_SIZE = 128;
+	private static final byte DECISION_ALLOW = 1;
+	private static final byte DECISION_DENY = 2;
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+	private static final int TYPES_COUNT = Item.Type.values().length;
 	private static final PrivacyList DENY_ALL = new PrivacyList(null, new Element("list")) {
 		@Override
 		public boolean isAllowed(JID jid, Item.Type type) {
@@ -46,8 +52,10 @@ public class PrivacyList {
 		}
 	};
 	private final Item[] items;
+	private final CompiledItems compiled;
 	private final String name;
 	private final Function<JID, RosterElement> rosterElementGetter;
+	private volatile LRUConcurrentCache<BareJID, byte[]> decisionCache;
 
 	public static PrivacyList create(final Map<BareJID, RosterElement> roster, Element el) {
 		if (el == null) {
@@ -81,6 +89,7 @@ public class PrivacyList {
 				.map(this::elemToItem)
 				.filter(it -> it != null)
 				.toArray(x -> new Item[x]);
+		this.compiled = new CompiledItems(items);
 	}
 
 	public String getName() {
@@ -92,6 +101,43 @@ public class PrivacyList {
 	}
 
 	public boolean isAllowed(JID jid, Item.Type type) {
+		if (!compiled.cacheable) {
+			return compiled.isAllowed(jid, type);
+		}
+
+		// decisions depend on the roster, so they are cached per contact until the roster is changed
+		LRUConcurrentCache<BareJID, byte[]> cache = decisionCache;
+		if (cache == null) {
+			cache = new LRUConcurrentCache<>(DECISION_CACHE_SIZE);
+			decisionCache = cache;
+		}
+		BareJID bareJid = jid.getBareJID();
+		byte[] decisions = cache.get(bareJid);
+		if (decisions == null) {
+			decisions = new byte[TYPES_COUNT];
+			cache.put(bareJid, decisions);
+		}
+		byte decision = decisions[type.ordinal()];
+		if (decision == 0) {
+			decision = compiled.isAllowed(jid, type) ? DECISION_ALLOW : DECISION_DENY;
+			decisions[type.ordinal()] = decision;
+		}
+		return decision == DECISION_ALLOW;
+	}
+
+	/**
+	 * Drops cached decisions. Needs to be called when roster of the owner of the list is changed as items matching
+	 * groups or subscriptions may give a different result.
+	 */
+	public void invalidateCache() {
+		decisionCache = null;
+	}
+
+	/**
+	 * Checks the items one by one in the order of the list. This is reference implementation of the matching used by
+	 * {@link #isAllowed(JID, Item.Type)}.
+	 */
+	boolean isAllowedByScan(JID jid, Item.Type type) {
 		for (Item item : items) {
 			if (item.matches(jid, type)) {
 				return item.isAllowed();
@@ -201,6 +247,36 @@ public class PrivacyList {
 		}
 	}
 
+	private static int[] newDecisions() {
+		int[] decisions = new int[TYPES_COUNT];
+		Arrays.fill(decisions, NO_MATCH);
+		return decisions;
+	}
+
+	private static void addDecision(int[] decisions, Set<Item.Type> types, int idx) {
+		for (Item.Type type : types) {
+			if (decisions[type.ordinal()] > idx) {
+				decisions[type.ordinal()] = idx;
+			}
+		}
+	}
+
+	private static int decision(Map<?, int[]> map, Object key, int type) {
+		int[] decisions = map.get(key);
+		return decisions == null ? NO_MATCH : decisions[type];
+	}
+
+	private static int subscriptionClass(RosterAbstract.SubscriptionType subscription) {
+		int result = 0;
+		if (RosterAbstract.TO_SUBSCRIBED.contains(subscription)) {
+			result |= 1;
+		}
+		if (RosterAbstract.FROM_SUBSCRIBED.contains(subscription)) {
+			result |= 2;
+		}
+		return result;
+	}
+
 	public interface Item {
 
 		enum Type {
@@ -374,5 +450,110 @@ public class PrivacyList {
 		public String toString() {
 			return "Subscription: " + subscription + ": " + (allowed ? "allowed" : "blocked");
 		}
+
+		private boolean matchesClass(int subscriptionClass) {
+			boolean to = (subscriptionClass & 1) != 0;
+			boolean from = (subscriptionClass & 2) != 0;
+			switch (this.subscription) {
+				case none:
+					return !to && !from;
+				case to:
+					return to;
+				case from:
+					return from;
+				case both:
+					return to && from;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Items of the list grouped by the kind of match, so the first matching item (lowest index in the list) is found
+	 * with a few hash lookups instead of scanning whole list.
+	 */
+	private class CompiledItems {
+
+		private final int all;
+		private final Map<BareJID, int[]> bareJids = new HashMap<>();
+		private final boolean cacheable;
+		private final Map<String, int[]> domains = new HashMap<>();
+		private final Map<JID, int[]> fullJids = new HashMap<>();
+		private final Map<String, int[]> groups = new HashMap<>();
+		// lowest index of item which requires roster lookup for each type
+		private final int[] rosterItems = newDecisions();
+		// indexed by subscription class: bit 1 - 'to' subscription, bit 2 - 'from' subscription
+		private final int[][] subscriptions = new int[4][];
+
+		private CompiledItems(Item[] items) {
+			for (int i = 0; i < subscriptions.length; i++) {
+				subscriptions[i] = newDecisions();
+			}
+			int all = NO_MATCH;
+			for (int idx = 0; idx < items.length; idx++) {
+				Item item = items[idx];
+				if (item instanceof ItemAll) {
+					all = Math.min(all, idx);
+				} else if (item instanceof ItemJid) {
+					JID jid = ((ItemJid) item).jid;
+					int[] decisions;
+					if (jid.getResource() != null) {
+						decisions = fullJids.computeIfAbsent(jid, key -> newDecisions());
+					} else if (jid.getLocalpart() != null) {
+						decisions = bareJids.computeIfAbsent(jid.getBareJID(), key -> newDecisions());
+					} else {
+						decisions = domains.computeIfAbsent(jid.getDomain(), key -> newDecisions());
+					}
+					addDecision(decisions, ((ItemJid) item).types, idx);
+				} else if (item instanceof ItemGroup) {
+					addDecision(groups.computeIfAbsent(((ItemGroup) item).group, key -> newDecisions()),
+								((ItemGroup) item).types, idx);
+					addDecision(rosterItems, ((ItemGroup) item).types, idx);
+				} else if (item instanceof ItemSubscription) {
+					ItemSubscription subscription = (ItemSubscription) item;
+					for (int subscriptionClass = 0; subscriptionClass < subscriptions.length; subscriptionClass++) {
+						if (subscription.matchesClass(subscriptionClass)) {
+							addDecision(subscriptions[subscriptionClass], subscription.types, idx);
+						}
+					}
+					addDecision(rosterItems, subscription.types, idx);
+				}
+			}
+			this.all = all;
+			boolean rosterDependent = false;
+			for (int idx : rosterItems) {
+				rosterDependent |= idx < all;
+			}
+			// decisions are cached per bare JID so it is not possible if there are items for full JIDs
+			this.cacheable = rosterDependent && fullJids.isEmpty() && rosterElementGetter != null;
+		}
+
+		private boolean isAllowed(JID jid, Item.Type type) {
+			int t = type.ordinal();
+			int idx = all;
+			if (jid.getResource() != null && !fullJids.isEmpty()) {
+				idx = Math.min(idx, decision(fullJids, jid, t));
+			}
+			if (jid.getLocalpart() != null && !bareJids.isEmpty()) {
+				idx = Math.min(idx, decision(bareJids, jid.getBareJID(), t));
+			}
+			if (!domains.isEmpty()) {
+				idx = Math.min(idx, decision(domains, jid.getDomain(), t));
+			}
+			if (rosterItems[t] < idx && rosterElementGetter != null) {
+				RosterElement rosterElement = rosterElementGetter.apply(jid);
+				if (rosterElement != null && !groups.isEmpty()) {
+					String[] contactGroups = rosterElement.getGroups();
+					if (contactGroups != null) {
+						for (String group : contactGroups) {
+							idx = Math.min(idx, decision(groups, group, t));
+						}
+					}
+				}
+				int subscriptionClass = subscriptionClass(rosterElement == null ? null : rosterElement.getSubscription());
+				idx = Math.min(idx, subscriptions[subscriptionClass][t]);
+			}
+			return idx == NO_MATCH || items[idx].isAllowed();
+		}
 	}
 }
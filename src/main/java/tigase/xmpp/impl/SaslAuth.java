@@ -21,11 +21,13 @@ import tigase.auth.*;
 import tigase.auth.XmppSaslException.SaslError;
 import tigase.auth.mechanisms.AbstractSasl;
 import tigase.auth.mechanisms.SaslANONYMOUS;
+import tigase.component.PacketWriter;
 import tigase.db.AuthRepository;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.TigaseDBException;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Command;
 import tigase.server.Packet;
 import tigase.server.Priority;
@@ -42,10 +44,12 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,6 +73,7 @@ public class SaslAuth
 												{"abort"}};
 	private static final Logger log = Logger.getLogger(SaslAuth.class.getName());
 	private final static String SASL_SERVER_KEY = "SASL_SERVER_KEY";
+	private final static String AUTH_IN_PROGRESS_KEY = "SASL_AUTH_IN_PROGRESS_KEY";
 	private static final String[] XMLNSS = {_XMLNS, _XMLNS, _XMLNS, _XMLNS, _XMLNS, _XMLNS};
 
 	public enum ElementType {
@@ -81,9 +86,15 @@ public class SaslAuth
 	}
 
 	private final Map<String, Object> props = new HashMap<String, Object>();
+	@ConfigField(desc = "Run authentication on a dedicated pool of threads", alias = "async")
+	private boolean async = false;
+	@Inject
+	private AuthWorkerPool authWorkerPool;
 	@Inject
 	private BruteForceLockerBean bruteForceLocker;
 	@Inject
+	private PacketWriter packetWriter;
+	@Inject
 	private TigaseSaslProvider saslProvider;
 
 	@Override
@@ -97,12 +108,12 @@ public class SaslAuth
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public void process(final Packet packet, final XMPPResourceConnection session, final NonAuthUserRepository repo,
 						final Queue<Packet> results, final Map<String, Object> settings) {
 		if (session == null) {
 			return;
 		}
+		final long startNanos = System.nanoTime();
 		synchronized (session) {
 			// If authentication timeout expired, ignore the request....
 			if (session.getSessionData(XMPPResourceConnection.AUTHENTICATION_TIMEOUT_KEY) != null) {
@@ -137,139 +148,182 @@ public class SaslAuth
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Session after logout: {0}", session.toString());
 				}
-			} else {
-				Element request = packet.getElement();
+			} else if (async) {
+				if (session.getSessionData(AUTH_IN_PROGRESS_KEY) != null) {
+					// client must wait for the result of previous step
+					sendNotAuthorized(SaslError.malformed_request, null, packet, results);
+					return;
+				}
+				session.putSessionData(AUTH_IN_PROGRESS_KEY, Boolean.TRUE);
 				try {
-					SaslServer ss;
+					authWorkerPool.execute(() -> {
+						Queue<Packet> asyncResults = new ArrayDeque<>();
+						synchronized (session) {
+							try {
+								if (session.getSessionData(XMPPResourceConnection.AUTHENTICATION_TIMEOUT_KEY) !=
+										null) {
+									return;
+								}
+								authenticate(packet, session, repo, settings, clientIp, startNanos, asyncResults);
+							} finally {
+								// step is completed only after its results are ready, so the next step cannot
+								// be executed before this one
+								session.removeSessionData(AUTH_IN_PROGRESS_KEY);
+							}
+						}
+						packetWriter.write(asyncResults);
+					});
+				} catch (RejectedExecutionException ex) {
+					session.removeSessionData(AUTH_IN_PROGRESS_KEY);
+					onAuthFail(session);
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Authentication queue is full, rejecting authentication of {0}", session);
+					}
+					sendNotAuthorized(SaslError.temporary_auth_failure, "Server is busy, try again later", packet,
+									  results);
+				}
+			} else {
+				authenticate(packet, session, repo, settings, clientIp, startNanos, results);
+			}
+		}
+	}
 
-					if ("auth" == request.getName()) {
-						final String mechanismName = request.getAttributeStaticStr("mechanism");
+	@SuppressWarnings("unchecked")
+	protected void authenticate(final Packet packet, final XMPPResourceConnection session,
+								final NonAuthUserRepository repo, final Map<String, Object> settings,
+								final String clientIp, final long startNanos, final Queue<Packet> results) {
+		Element request = packet.getElement();
+		try {
+			SaslServer ss;
 
-						if (log.isLoggable(Level.FINEST)) {
-							log.finest("Start SASL auth. mechanism=" + mechanismName);
-						}
+			if ("auth" == request.getName()) {
+				final String mechanismName = request.getAttributeStaticStr("mechanism");
 
-						Collection<String> allowedMechanisms = (Collection<String>) session.getSessionData(
-								ALLOWED_SASL_MECHANISMS_KEY);
-						session.removeSessionData(ALLOWED_SASL_MECHANISMS_KEY);
+				if (log.isLoggable(Level.FINEST)) {
+					log.finest("Start SASL auth. mechanism=" + mechanismName);
+				}
 
-						if (allowedMechanisms == null) {
-							allowedMechanisms = saslProvider.filterMechanisms(Sasl.getSaslServerFactories(), session);
-						}
+				Collection<String> allowedMechanisms = (Collection<String>) session.getSessionData(
+						ALLOWED_SASL_MECHANISMS_KEY);
+				session.removeSessionData(ALLOWED_SASL_MECHANISMS_KEY);
 
-						if ((mechanismName == null) || allowedMechanisms == null ||
-								!allowedMechanisms.contains(mechanismName)) {
-							throw new XmppSaslException(SaslError.invalid_mechanism,
-														"Mechanism '" + mechanismName + "' is not allowed");
-						}
+				if (allowedMechanisms == null) {
+					allowedMechanisms = saslProvider.filterMechanisms(Sasl.getSaslServerFactories(), session);
+				}
 
-						CallbackHandler cbh = saslProvider.create(mechanismName, session, repo, settings);
+				if ((mechanismName == null) || allowedMechanisms == null ||
+						!allowedMechanisms.contains(mechanismName)) {
+					throw new XmppSaslException(SaslError.invalid_mechanism,
+												"Mechanism '" + mechanismName + "' is not allowed");
+				}
 
-						ss = Sasl.createSaslServer(mechanismName, "xmpp", session.getDomain().getVhost().getDomain(),
-												   props, cbh);
-						if (ss == null) {
-							throw new XmppSaslException(SaslError.invalid_mechanism,
-														"Mechanism '" + mechanismName + "' is not allowed");
-						}
-						session.putSessionData(SASL_SERVER_KEY, ss);
-					} else if ("response" == request.getName()) {
-						ss = (SaslServer) session.getSessionData(SASL_SERVER_KEY);
-						if (ss == null) {
-							throw new XmppSaslException(SaslError.malformed_request);
-						}
-					} else {
-						throw new XmppSaslException(SaslError.malformed_request,
-													"Unrecognized element " + request.getName());
-					}
+				CallbackHandler cbh = saslProvider.create(mechanismName, session, repo, settings);
 
-					byte[] data;
-					String cdata = request.getCData();
+				ss = Sasl.createSaslServer(mechanismName, "xmpp", session.getDomain().getVhost().getDomain(),
+										   props, cbh);
+				if (ss == null) {
+					throw new XmppSaslException(SaslError.invalid_mechanism,
+												"Mechanism '" + mechanismName + "' is not allowed");
+				}
+				session.putSessionData(SASL_SERVER_KEY, ss);
+			} else if ("response" == request.getName()) {
+				ss = (SaslServer) session.getSessionData(SASL_SERVER_KEY);
+				if (ss == null) {
+					throw new XmppSaslException(SaslError.malformed_request);
+				}
+			} else {
+				throw new XmppSaslException(SaslError.malformed_request,
+											"Unrecognized element " + request.getName());
+			}
 
-					if ((cdata != null) && (cdata.length() == 1) && cdata.equals("=")) {
-						data = new byte[]{};
-					} else if ((cdata != null) && (cdata.length() > 0)) {
-						data = Base64.decode(cdata);
-					} else {
-						data = new byte[]{};
-					}
+			byte[] data;
+			String cdata = request.getCData();
 
-					byte[] challenge = ss.evaluateResponse(data);
-					String challengeData;
+			if ((cdata != null) && (cdata.length() == 1) && cdata.equals("=")) {
+				data = new byte[]{};
+			} else if ((cdata != null) && (cdata.length() > 0)) {
+				data = Base64.decode(cdata);
+			} else {
+				data = new byte[]{};
+			}
 
-					if (challenge != null) {
-						challengeData = Base64.encode(challenge);
-					} else {
-						challengeData = null;
-					}
-					if (ss.isComplete() && (ss.getAuthorizationID() != null)) {
-						BareJID jid;
-
-						if (ss.getAuthorizationID().contains("@")) {
-							jid = BareJID.bareJIDInstance(ss.getAuthorizationID());
-						} else {
-							jid = BareJID.bareJIDInstance(ss.getAuthorizationID(),
-														  session.getDomain().getVhost().getDomain());
-						}
+			byte[] challenge = ss.evaluateResponse(data);
+			String challengeData;
 
-						if (bruteForceLocker.isEnabled(session) &&
-								!bruteForceLocker.isLoginAllowed(session, clientIp, jid)) {
-							throw new BruteForceLockerBean.LoginLockedException();
-						}
+			if (challenge != null) {
+				challengeData = Base64.encode(challenge);
+			} else {
+				challengeData = null;
+			}
+			if (ss.isComplete() && (ss.getAuthorizationID() != null)) {
+				BareJID jid;
+
+				if (ss.getAuthorizationID().contains("@")) {
+					jid = BareJID.bareJIDInstance(ss.getAuthorizationID());
+				} else {
+					jid = BareJID.bareJIDInstance(ss.getAuthorizationID(),
+												  session.getDomain().getVhost().getDomain());
+				}
 
-						if (log.isLoggable(Level.FINE)) {
-							log.finest("Authorized as " + jid);
-						}
+				if (bruteForceLocker.isEnabled(session) &&
+						!bruteForceLocker.isLoginAllowed(session, clientIp, jid)) {
+					throw new BruteForceLockerBean.LoginLockedException();
+				}
 
-						boolean anonymous;
+				if (log.isLoggable(Level.FINE)) {
+					log.finest("Authorized as " + jid);
+				}
 
-						try {
-							Boolean x = (Boolean) ss.getNegotiatedProperty(SaslANONYMOUS.IS_ANONYMOUS_PROPERTY);
+				boolean anonymous;
 
-							anonymous = x != null && x;
-						} catch (Exception e) {
-							anonymous = false;
-						}
-						session.removeSessionData(SASL_SERVER_KEY);
-						session.authorizeJID(jid, anonymous);
-						if (session.getAuthRepository() != null) {
-							session.getAuthRepository().loggedIn(jid);
-						}
-						results.offer(packet.swapFromTo(createReply(ElementType.success, challengeData), null, null));
-					} else if (!ss.isComplete()) {
-						results.offer(packet.swapFromTo(createReply(ElementType.challenge, challengeData), null, null));
-					} else {
-						throw new XmppSaslException(SaslError.malformed_request);
-					}
-				} catch (BruteForceLockerBean.LoginLockedException e) {
-					onAuthFail(session);
-					if (log.isLoggable(Level.FINER)) {
-						log.log(Level.FINER, "Account locked by BruteForceLocker.");
-					}
-					sendNotAuthorized(SaslError.not_authorized, AbstractSasl.PASSWORD_NOT_VERIFIED_MSG, packet,
-									  results);
-				} catch (XmppSaslException e) {
-					saveIntoBruteForceLocker(session, e);
-					onAuthFail(session);
-					if (log.isLoggable(Level.FINER)) {
-						log.log(Level.FINER, "SASL unsuccessful", e);
-					}
-					sendNotAuthorized(e.getSaslError(), e.getMessage(), packet, results);
-				} catch (SaslException e) {
-					saveIntoBruteForceLocker(session, e);
-					onAuthFail(session);
-					if (log.isLoggable(Level.FINER)) {
-						log.log(Level.FINER, "SASL unsuccessful", e);
-					}
-					sendNotAuthorized(SaslError.not_authorized, null, packet, results);
+				try {
+					Boolean x = (Boolean) ss.getNegotiatedProperty(SaslANONYMOUS.IS_ANONYMOUS_PROPERTY);
+
+					anonymous = x != null && x;
 				} catch (Exception e) {
-					onAuthFail(session);
-					if (log.isLoggable(Level.WARNING)) {
-						log.log(Level.WARNING, "Problem with SASL", e);
-					}
-					sendNotAuthorized(SaslError.temporary_auth_failure, null, packet, results);
+					anonymous = false;
+				}
+				session.removeSessionData(SASL_SERVER_KEY);
+				session.authorizeJID(jid, anonymous);
+				if (session.getAuthRepository() != null) {
+					session.getAuthRepository().loggedIn(jid);
 				}
+				results.offer(packet.swapFromTo(createReply(ElementType.success, challengeData), null, null));
+				authWorkerPool.recordResult(true);
+			} else if (!ss.isComplete()) {
+				results.offer(packet.swapFromTo(createReply(ElementType.challenge, challengeData), null, null));
+			} else {
+				throw new XmppSaslException(SaslError.malformed_request);
+			}
+		} catch (BruteForceLockerBean.LoginLockedException e) {
+			onAuthFail(session);
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "Account locked by BruteForceLocker.");
+			}
+			sendNotAuthorized(SaslError.not_authorized, AbstractSasl.PASSWORD_NOT_VERIFIED_MSG, packet,
+							  results);
+		} catch (XmppSaslException e) {
+			saveIntoBruteForceLocker(session, e);
+			onAuthFail(session);
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "SASL unsuccessful", e);
+			}
+			sendNotAuthorized(e.getSaslError(), e.getMessage(), packet, results);
+		} catch (SaslException e) {
+			saveIntoBruteForceLocker(session, e);
+			onAuthFail(session);
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "SASL unsuccessful", e);
+			}
+			sendNotAuthorized(SaslError.not_authorized, null, packet, results);
+		} catch (Exception e) {
+			onAuthFail(session);
+			if (log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, "Problem with SASL", e);
 			}
+			sendNotAuthorized(SaslError.temporary_auth_failure, null, packet, results);
 		}
+		authWorkerPool.recordStep(startNanos);
 	}
 
 	@Override
@@ -307,6 +361,7 @@ public class SaslAuth
 
 	protected void onAuthFail(final XMPPResourceConnection session) {
 		session.removeSessionData(SASL_SERVER_KEY);
+		authWorkerPool.recordResult(false);
 	}
 
 	private Element createReply(final ElementType type, final String cdata) {
@@ -17,14 +17,17 @@
  */
 package tigase.xmpp.impl.push;
 
+import tigase.component.PacketWriter;
 import tigase.db.*;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.server.DataForm;
 import tigase.server.Iq;
 import tigase.server.Message;
 import tigase.server.Packet;
 import tigase.server.amp.db.MsgRepository;
+import tigase.stats.StatisticsList;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
@@ -40,6 +43,7 @@ import tigase.xmpp.jid.JID;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,7 +55,7 @@ import static tigase.xmpp.impl.push.AbstractPushNotifications.XMLNS;
 		  @Handle(path = {Iq.ELEM_NAME, "disable"}, xmlns = XMLNS)})
 public class AbstractPushNotifications
 		extends AnnotatedXMPPProcessor
-		implements XMPPProcessorIfc {
+		implements XMPPProcessorIfc, UnregisterAware {
 
 		public static final String XMLNS = "urn:xmpp:push:0";
 		public static final String ID = XMLNS;
@@ -64,13 +68,57 @@ public class AbstractPushNotifications
 		protected boolean withBody = true;
 		@ConfigField(desc = "Send notifications with sender", alias = "with-sender")
 		protected boolean withSender = true;
+		@ConfigField(desc = "Max number of offline users with cached push services and messages count", alias = "cache-size")
+		private int cacheSize = 10000;
+		@ConfigField(desc = "Time in ms after which cached push services and messages count are reloaded", alias = "cache-time")
+		private long cacheTime = 60 * 1000;
+		@ConfigField(desc = "Time in ms during which notifications for a device are coalesced into one", alias = "coalescing-window")
+		private long coalescingWindow = 0;
+
+		private final PushNotificationsCache cache = new PushNotificationsCache(cacheSize, cacheTime);
+		private final PushNotificationsCoalescer coalescer = new PushNotificationsCoalescer(this::sendCoalescedNotification,
+																							 coalescingWindow);
+		private final LongAdder notificationsSent = new LongAdder();
+		private final LongAdder notificationsCoalesced = new LongAdder();
 
 		@Inject
 		private MsgRepositoryIfc msgRepository;
 
+		@Inject(nullAllowed = true)
+		private PacketWriter packetWriter;
+
 		@Inject
 		private UserRepository userRepository;
 
+		public void setCacheSize(int cacheSize) {
+			this.cacheSize = cacheSize;
+			cache.setLimit(cacheSize);
+		}
+
+		public void setCacheTime(long cacheTime) {
+			this.cacheTime = cacheTime;
+			cache.setExpiration(cacheTime);
+		}
+
+		public void setCoalescingWindow(long coalescingWindow) {
+			this.coalescingWindow = coalescingWindow;
+			coalescer.setWindow(coalescingWindow);
+		}
+
+		@Override
+		public void beforeUnregister() {
+			coalescer.shutdown();
+		}
+
+		@Override
+		public void getStatistics(StatisticsList list) {
+			super.getStatistics(list);
+			list.add(id(), "Push notifications sent", notificationsSent.sum(), Level.FINE);
+			list.add(id(), "Push notifications coalesced", notificationsCoalesced.sum(), Level.FINE);
+			list.add(id(), "Push notifications pending", coalescer.size(), Level.FINE);
+			list.add(id(), "Push notifications cached users", cache.size(), Level.FINE);
+		}
+
 		@Override
 		public void process(Packet packet, XMPPResourceConnection session, NonAuthUserRepository nonAuthUserRepository,
 				Queue<Packet> results, Map<String, Object> map) throws XMPPException {
@@ -146,6 +194,7 @@ public class AbstractPushNotifications
 			}
 
 			pushServices.put(key, settings);
+			cache.invalidatePushServices(session.getBareJID());
 		}
 
 		protected void disableNotifications(XMPPResourceConnection session, JID jid, String node)
@@ -176,6 +225,7 @@ public class AbstractPushNotifications
 					}
 				}
 			}
+			cache.invalidatePushServices(session.getBareJID());
 		}
 
 		protected Map<String, Element> getPushServices(XMPPResourceConnection session) {
@@ -220,27 +270,51 @@ public class AbstractPushNotifications
 
 		protected void sendPushNotification(BareJID userJid, Collection<Element> pushServices, Element notification,
 				Consumer<Packet> results) {
-			pushServices.forEach(settings -> {
-				try {
-					JID pushService = JID.jidInstance(settings.getAttributeStaticStr("jid"));
-					String pushNode = settings.getAttributeStaticStr("node");
-					Element publishOptionsForm = settings.findChild(
-							element -> element.getXMLNS() == JABBER_X_DATA_XMLNS && element.getName() == "x");
-
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Push notifications for JID: {0}, notification: {1}, pushServices: {2}",
-								new Object[]{userJid, notification, pushService});
-					}
+			pushServices.forEach(settings -> sendPushNotification(userJid, settings, notification, results));
+		}
 
-					sendPushNotification(userJid, notification, pushService, pushNode, publishOptionsForm, results);
-				} catch (Exception ex) {
-					log.log(Level.FINE, "Could not publish notification for " + userJid + " to " +
-							settings.getAttributeStaticStr("jid") + " at " + settings.getAttributeStaticStr("node"));
+		private void sendPushNotification(BareJID userJid, Element settings, Element notification,
+				Consumer<Packet> results) {
+			try {
+				JID pushService = JID.jidInstance(settings.getAttributeStaticStr("jid"));
+				String pushNode = settings.getAttributeStaticStr("node");
+				Element publishOptionsForm = settings.findChild(
+						element -> element.getXMLNS() == JABBER_X_DATA_XMLNS && element.getName() == "x");
+
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Push notifications for JID: {0}, notification: {1}, pushServices: {2}",
+							new Object[]{userJid, notification, pushService});
 				}
-			});
+
+				sendPushNotification(userJid, notification, pushService, pushNode, publishOptionsForm, results);
+				notificationsSent.increment();
+			} catch (Exception ex) {
+				log.log(Level.FINE, "Could not publish notification for " + userJid + " to " +
+						settings.getAttributeStaticStr("jid") + " at " + settings.getAttributeStaticStr("node"));
+			}
+		}
+
+		private void sendCoalescedNotification(BareJID userJid, Element settings, Element notification) {
+			PacketWriter writer = packetWriter;
+			if (writer != null) {
+				sendPushNotification(userJid, settings, notification, writer::write);
+			}
+		}
+
+		/**
+		 * Drops notifications waiting for the end of coalescing window and marks cached number of offline messages as
+		 * unknown, as messages were retrieved by the user.
+		 */
+		protected void offlineMessagesRetrieved(BareJID userJid, Collection<Element> pushServices) {
+			cache.invalidateMessagesCount(userJid);
+			coalescer.cancel(userJid, pushServices);
 		}
 
 		protected Map<String, Element> getPushServices(BareJID userJid) throws TigaseDBException {
+			return cache.getPushServices(userJid, () -> loadPushServices(userJid));
+		}
+
+		private Map<String, Element> loadPushServices(BareJID userJid) throws TigaseDBException {
 			String[] keys = userRepository.getKeys(userJid, ID);
 			if (keys == null) {
 				return Collections.emptyMap();
@@ -256,12 +330,31 @@ public class AbstractPushNotifications
 			return map;
 		}
 
-		private Element prepareNotificationPayload(Packet packet) throws TigaseDBException {
-			Map<Enum, Long> typesCount = msgRepository.getMessagesCount(packet.getStanzaTo());
-			return prepareNotificationPayload(packet, typesCount.getOrDefault(MsgRepository.MSG_TYPES.message, 0l));
+		private Element prepareNotificationPayload(Packet packet, boolean stored) throws TigaseDBException {
+			BareJID userJid = packet.getStanzaTo().getBareJID();
+			long msgCount = stored
+							? cache.incrementMessagesCount(userJid, () -> loadMessagesCount(packet.getStanzaTo()))
+							: cache.getMessagesCount(userJid, () -> loadMessagesCount(packet.getStanzaTo()));
+			return prepareNotificationPayload(packet, msgCount);
+		}
+
+		private long loadMessagesCount(JID userJid) throws TigaseDBException {
+			Map<Enum, Long> typesCount = msgRepository.getMessagesCount(userJid);
+			return typesCount.getOrDefault(MsgRepository.MSG_TYPES.message, 0l);
 		}
 
 		protected void sendPushNotification(Packet packet, Queue<Packet> results) throws TigaseDBException {
+			sendPushNotification(packet, false, results);
+		}
+
+		/**
+		 * Sends notification about the message to all push services registered by the recipient.
+		 *
+		 * @param stored <code>true</code> if the message was stored in offline messages repository, so cached number of
+		 * offline messages needs to be incremented
+		 */
+		protected void sendPushNotification(Packet packet, boolean stored, Queue<Packet> results)
+				throws TigaseDBException {
 			final BareJID userJid = packet.getStanzaTo().getBareJID();
 			Map<String, Element> pushServices = getPushServices(userJid);
 			if (log.isLoggable(Level.FINEST)) {
@@ -272,8 +365,18 @@ public class AbstractPushNotifications
 				return;
 			}
 
-			final Element notification = prepareNotificationPayload(packet);
-			sendPushNotification(userJid, pushServices.values(), notification, results::offer);
+			final Element notification = prepareNotificationPayload(packet, stored);
+			if (!coalescer.isEnabled() || packetWriter == null) {
+				sendPushNotification(userJid, pushServices.values(), notification, results::offer);
+				return;
+			}
+			for (Element settings : pushServices.values()) {
+				if (coalescer.offer(userJid, settings, notification)) {
+					sendPushNotification(userJid, settings, notification, results::offer);
+				} else {
+					notificationsCoalesced.increment();
+				}
+			}
 		}
 
 		private void sendPushNotification(BareJID userJid, Element notification, JID pushService, String pushNode,
@@ -111,7 +111,7 @@ public class PushNotifications
 		}
 
 		try {
-			sendPushNotification(packet, results);
+			sendPushNotification(packet, true, results);
 		} catch (UserNotFoundException ex) {
 			log.log(Level.FINEST, "Could not send push notification for message " + packet, ex);
 		} catch (TigaseDBException ex) {
@@ -128,6 +128,7 @@ public class PushNotifications
 				log.log(Level.FINEST, "Offline messages retrieved push notifications for JID: {0}, pushServices: {1}",
 				        new Object[]{userJid, pushServices});
 			}
+			offlineMessagesRetrieved(userJid, pushServices.values());
 			if (pushServices.isEmpty()) {
 				return;
 			}
@@ -0,0 +1,188 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.push;
+
+import tigase.db.TigaseDBException;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per user cache of data required to generate push notifications for users without an active session: registered
+ * push services and number of offline messages. Entries expire after configured time and number of cached users is
+ * limited, so values changed by other cluster nodes or by message expiration are eventually reloaded from
+ * repositories.
+ */
+class PushNotificationsCache {
+
+	private final Map<BareJID, Entry> entries = new ConcurrentHashMap<>();
+	private volatile int limit;
+	private volatile long expiration;
+
+	PushNotificationsCache(int limit, long expiration) {
+		this.limit = limit;
+		this.expiration = expiration;
+	}
+
+	/**
+	 * Returns cached push services registered by the user, loading them with passed loader if not cached or expired.
+	 */
+	Map<String, Element> getPushServices(BareJID userJid, Loader<Map<String, Element>> loader)
+			throws TigaseDBException {
+		if (limit <= 0) {
+			return loader.load();
+		}
+		Entry entry = getEntry(userJid);
+		Map<String, Element> services = entry.services;
+		if (services == null) {
+			services = Collections.unmodifiableMap(loader.load());
+			entry.services = services;
+		}
+		return services;
+	}
+
+	void invalidatePushServices(BareJID userJid) {
+		Entry entry = entries.get(userJid);
+		if (entry != null) {
+			entry.services = null;
+		}
+	}
+
+	/**
+	 * Returns number of offline messages for the user after a new message was stored. If number of messages is known,
+	 * it is incremented, otherwise it is loaded with passed loader (which should include the new message).
+	 */
+	long incrementMessagesCount(BareJID userJid, Loader<Long> loader) throws TigaseDBException {
+		if (limit <= 0) {
+			return loader.load();
+		}
+		Entry entry = getEntry(userJid);
+		synchronized (entry) {
+			if (entry.messagesCount < 0) {
+				entry.messagesCount = loader.load();
+			} else {
+				entry.messagesCount++;
+			}
+			return entry.messagesCount;
+		}
+	}
+
+	/**
+	 * Returns number of offline messages for the user, loading it with passed loader if not known.
+	 */
+	long getMessagesCount(BareJID userJid, Loader<Long> loader) throws TigaseDBException {
+		if (limit <= 0) {
+			return loader.load();
+		}
+		Entry entry = getEntry(userJid);
+		synchronized (entry) {
+			if (entry.messagesCount < 0) {
+				entry.messagesCount = loader.load();
+			}
+			return entry.messagesCount;
+		}
+	}
+
+	/**
+	 * Marks number of offline messages as unknown, ie. after messages were retrieved by the user.
+	 */
+	void invalidateMessagesCount(BareJID userJid) {
+		Entry entry = entries.get(userJid);
+		if (entry != null) {
+			synchronized (entry) {
+				entry.messagesCount = -1;
+			}
+		}
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	int getLimit() {
+		return limit;
+	}
+
+	void setLimit(int limit) {
+		this.limit = limit;
+		if (limit <= 0) {
+			entries.clear();
+		}
+	}
+
+	long getExpiration() {
+		return expiration;
+	}
+
+	void setExpiration(long expiration) {
+		this.expiration = expiration;
+	}
+
+	private Entry getEntry(BareJID userJid) {
+		long now = System.currentTimeMillis();
+		Entry entry = entries.get(userJid);
+		if (entry == null || entry.expiresAt < now) {
+			Entry created = new Entry(now + expiration);
+			if (entry == null) {
+				entry = entries.putIfAbsent(userJid, created);
+			} else {
+				entry = entries.replace(userJid, entry, created) ? null : entries.get(userJid);
+			}
+			if (entry == null) {
+				entry = created;
+				if (entries.size() > limit) {
+					evict(now);
+				}
+			}
+		}
+		return entry;
+	}
+
+	private void evict(long now) {
+		// expired entries go first, remaining ones are removed in iteration order
+		entries.values().removeIf(entry -> entry.expiresAt < now);
+		int target = limit - limit / 10;
+		Iterator<Entry> it = entries.values().iterator();
+		while (entries.size() > target && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	@FunctionalInterface
+	interface Loader<T> {
+
+		T load() throws TigaseDBException;
+
+	}
+
+	private static class Entry {
+
+		private final long expiresAt;
+		private volatile Map<String, Element> services;
+		private long messagesCount = -1;
+
+		private Entry(long expiresAt) {
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.push;
+
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces push notifications sent to a single device (user and push service node). First notification is sent
+ * immediately and opens a window, during which later notifications only replace pending one. When the window ends,
+ * the last pending notification (if any) is sent and next window is opened, so a burst of messages results in at most
+ * one notification per window for each device.
+ */
+class PushNotificationsCoalescer {
+
+	private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+	private final Sender sender;
+	private ScheduledExecutorService executor;
+	private volatile long window;
+
+	PushNotificationsCoalescer(Sender sender, long window) {
+		this.sender = sender;
+		this.window = window;
+	}
+
+	long getWindow() {
+		return window;
+	}
+
+	void setWindow(long window) {
+		this.window = window;
+	}
+
+	boolean isEnabled() {
+		return window > 0;
+	}
+
+	/**
+	 * Registers notification for a device.
+	 *
+	 * @return <code>true</code> if notification should be sent immediately, <code>false</code> if it was queued and
+	 * will be sent (or replaced by a newer one) when the window for the device ends.
+	 */
+	boolean offer(BareJID userJid, Element settings, Element notification) {
+		boolean[] sendNow = new boolean[1];
+		pending.compute(key(userJid, settings), (key, current) -> {
+			if (current == null) {
+				sendNow[0] = true;
+				current = new Pending(userJid);
+				schedule(key, current);
+			} else {
+				current.settings = settings;
+				current.notification = notification;
+			}
+			return current;
+		});
+		return sendNow[0];
+	}
+
+	/**
+	 * Drops notifications pending for passed devices of the user, ie. when offline messages were retrieved.
+	 */
+	void cancel(BareJID userJid, Collection<Element> services) {
+		for (Element settings : services) {
+			pending.remove(key(userJid, settings));
+		}
+	}
+
+	int size() {
+		return pending.size();
+	}
+
+	synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		pending.clear();
+	}
+
+	private void flush(String key, Pending expected) {
+		Pending[] toSend = new Pending[1];
+		pending.computeIfPresent(key, (k, current) -> {
+			if (current != expected) {
+				return current;
+			}
+			if (current.notification == null) {
+				return null;
+			}
+			Pending copy = new Pending(current.userJid);
+			copy.settings = current.settings;
+			copy.notification = current.notification;
+			toSend[0] = copy;
+			current.settings = null;
+			current.notification = null;
+			schedule(k, current);
+			return current;
+		});
+		if (toSend[0] != null) {
+			sender.send(toSend[0].userJid, toSend[0].settings, toSend[0].notification);
+		}
+	}
+
+	private void schedule(String key, Pending item) {
+		getExecutor().schedule(() -> flush(key, item), window, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "push-notifications-coalescer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+
+	private static String key(BareJID userJid, Element settings) {
+		return userJid + "/" + settings.getAttributeStaticStr("jid") + "/" + settings.getAttributeStaticStr("node");
+	}
+
+	@FunctionalInterface
+	interface Sender {
+
+		void send(BareJID userJid, Element settings, Element notification);
+
+	}
+
+	private static class Pending {
+
+		private final BareJID userJid;
+		private Element notification;
+		private Element settings;
+
+		private Pending(BareJID userJid) {
+			this.userJid = userJid;
+		}
+	}
+}
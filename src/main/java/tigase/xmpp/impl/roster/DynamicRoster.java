@@ -78,7 +78,8 @@ public class DynamicRoster
 
 		if (buddies != null) {
 			if (result == null) {
-				result = new ArrayList<JID>();
+				// nothing to merge, no need to copy the array
+				return buddies.length > 0 ? buddies : null;
 			}
 			addBuddiesToList(result, buddies);
 		}
@@ -90,8 +91,9 @@ public class DynamicRoster
 	}
 
 	public static void addBuddiesToList(List<JID> list, JID[] buddies) {
+		Set<JID> present = new HashSet<>(list);
 		for (JID buddy : buddies) {
-			if (!list.contains(buddy)) {
+			if (present.add(buddy)) {
 				list.add(buddy);
 			}
 		}
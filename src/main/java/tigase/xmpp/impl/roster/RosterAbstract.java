@@ -63,6 +63,8 @@ public abstract class RosterAbstract {
 
 	public static final String ROSTERHASH = "rosterhash";
 
+	public static final String ROSTER_CHANGES = "roster-changes";
+
 	public static final String SUBSCRIPTION = "subscription";
 
 	public static final String VER_ATT = "ver";
@@ -298,6 +300,7 @@ public abstract class RosterAbstract {
 	}
 
 	protected static boolean emptyNameAllowed = false;
+	protected static int rosterChangeLogSize = 100;
 
 	// ~--- constant enums -------------------------------------------------------
 	protected static int maxRosterSize = new Long(Runtime.getRuntime().maxMemory() / 250000L).intValue();
@@ -460,6 +463,14 @@ public abstract class RosterAbstract {
 		return transition.getStateTransition(presence);
 	}
 
+	public static int getRosterChangeLogSize() {
+		return rosterChangeLogSize;
+	}
+
+	public static void setRosterChangeLogSize(int rosterChangeLogSize) {
+		RosterAbstract.rosterChangeLogSize = rosterChangeLogSize;
+	}
+
 	public static boolean isEmptyNameAllowed() {
 		return emptyNameAllowed;
 	}
@@ -518,7 +529,8 @@ public abstract class RosterAbstract {
 	public void updateBuddyChange(final XMPPResourceConnection session, final Queue<Packet> results, final Element item)
 			throws NotAuthorizedException, TigaseDBException, NoConnectionIdException {
 
-		broadcastRosterChange(session.getParentSession(), item, results::offer);
+		String ver = recordRosterChange(session, item);
+		broadcastRosterChange(session.getParentSession(), item, ver, results::offer);
 		if (eventBus != null) {
 			JID jid = JID.jidInstanceNS(item.getAttributeStaticStr("jid"));
 			RosterElement rosterElement = getRosterElement(session, jid);
@@ -609,6 +621,46 @@ public abstract class RosterAbstract {
 		return list.toArray(new JID[list.size()]);
 	}
 
+	/**
+	 * Returns log of roster changes used for roster versioning, loading it from the user repository if needed.
+	 *
+	 * @param session user session.
+	 *
+	 * @return roster change log or <code>null</code> if roster versioning based on the change log is disabled.
+	 */
+	public RosterChangeLog getRosterChangeLog(final XMPPResourceConnection session)
+			throws NotAuthorizedException, TigaseDBException {
+		if (rosterChangeLogSize <= 0) {
+			return null;
+		}
+
+		RosterChangeLog changeLog = (RosterChangeLog) session.getCommonSessionData(ROSTER_CHANGES);
+
+		if (changeLog == null) {
+			synchronized (session) {
+				changeLog = (RosterChangeLog) session.getCommonSessionData(ROSTER_CHANGES);
+				if (changeLog == null) {
+					int fingerprint = getRosterFingerprint(session);
+
+					changeLog = RosterChangeLog.decode(session.getData(null, ROSTER_CHANGES, null),
+													   rosterChangeLogSize);
+					if (changeLog == null || changeLog.getFingerprint() != fingerprint) {
+						// roster was modified without updating the log, versions known to clients are not valid
+						if (changeLog == null) {
+							changeLog = new RosterChangeLog(rosterChangeLogSize, fingerprint);
+						} else {
+							changeLog.reset(fingerprint);
+						}
+						session.setData(null, ROSTER_CHANGES, changeLog.encode());
+					}
+					session.putCommonSessionData(ROSTER_CHANGES, changeLog);
+				}
+			}
+		}
+
+		return changeLog;
+	}
+
 	public String getBuddiesHash(final XMPPResourceConnection session) {
 		String hash = (String) session.getCommonSessionData(ROSTERHASH);
 
@@ -620,6 +672,45 @@ public abstract class RosterAbstract {
 		return hash != null ? hash : "";
 	}
 
+	/**
+	 * Calculates fingerprint of the roster content visible to the client. It is stored with the roster change log to
+	 * detect modifications of the roster which were not recorded in the log. It is calculated when the log is loaded,
+	 * afterwards implementations update it in the loaded log while saving the roster, see {@link
+	 * RosterChangeLog#setFingerprint(int)}.
+	 *
+	 * @param session user session.
+	 *
+	 * @return fingerprint of the roster.
+	 */
+	protected int getRosterFingerprint(final XMPPResourceConnection session)
+			throws NotAuthorizedException, TigaseDBException {
+		return 0;
+	}
+
+	/**
+	 * Records change of the roster item in the roster change log and stores the log in the user repository.
+	 *
+	 * @param session user session.
+	 * @param item roster item which was changed.
+	 *
+	 * @return new roster version or <code>null</code> if roster versioning based on the change log is disabled.
+	 */
+	protected String recordRosterChange(final XMPPResourceConnection session, final Element item)
+			throws NotAuthorizedException, TigaseDBException {
+		RosterChangeLog changeLog = getRosterChangeLog(session);
+
+		if (changeLog == null) {
+			return null;
+		}
+
+		BareJID jid = JID.jidInstanceNS(item.getAttributeStaticStr("jid")).getBareJID();
+		long version = changeLog.record(jid);
+
+		session.setData(null, ROSTER_CHANGES, changeLog.encode());
+
+		return Long.toString(version);
+	}
+
 	public abstract String[] getBuddyGroups(final XMPPResourceConnection session, JID buddy)
 			throws NotAuthorizedException, TigaseDBException;
 
@@ -857,8 +948,15 @@ public abstract class RosterAbstract {
 										.forEach(item::addChild);
 							}
 
+							// roster was saved by the other node, so fingerprint was not updated on save
+							RosterChangeLog changeLog = (RosterChangeLog) conn.getCommonSessionData(ROSTER_CHANGES);
+							if (changeLog != null) {
+								changeLog.setFingerprint(getRosterFingerprint(conn));
+							}
+
 							Queue<Packet> results = new ArrayDeque<>();
-							broadcastRosterChange(event.getSession(), item, results::offer);
+							String ver = recordRosterChange(conn, item);
+							broadcastRosterChange(event.getSession(), item, ver, results::offer);
 							preparePresencePackets(event.getSession(), event.getJid(), event.getSubscription(),
 												   results::offer);
 
@@ -909,7 +1007,7 @@ public abstract class RosterAbstract {
 		}
 	}
 
-	private void broadcastRosterChange(XMPPSession session, Element item, Consumer<Packet> consumer)
+	private void broadcastRosterChange(XMPPSession session, Element item, String ver, Consumer<Packet> consumer)
 			throws NotAuthorizedException, NoConnectionIdException {
 		Element update = new Element("iq");
 
@@ -919,7 +1017,7 @@ public abstract class RosterAbstract {
 		Element query = new Element("query");
 
 		query.setXMLNS(ROSTER_XMLNS);
-		query.addAttribute(VER_ATT, getBuddiesHash(session));
+		query.addAttribute(VER_ATT, ver != null ? ver : getBuddiesHash(session));
 		query.addChild(item);
 		update.addChild(query);
 
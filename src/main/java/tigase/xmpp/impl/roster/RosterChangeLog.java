@@ -0,0 +1,215 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import tigase.xmpp.jid.BareJID;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded log of roster changes used for roster versioning (<em>XEP-0237</em>). Every change of a roster item bumps
+ * the version of the roster and records JID of the changed item, so a client presenting one of the recent versions
+ * may receive only items changed since then instead of the whole roster.
+ * <br>
+ * The log is kept in the common session data and stored in the user repository next to the roster. Fingerprint of
+ * the roster is stored with it to detect changes made to the stored roster while the log was not updated.
+ */
+public class RosterChangeLog {
+
+	private static final String FORMAT_VERSION = "v1";
+
+	private final ArrayDeque<Change> changes = new ArrayDeque<>();
+	private final int limit;
+	// oldest version for which all later changes are still kept in the log
+	private long baseline;
+	private int fingerprint;
+	private long version;
+
+	/**
+	 * Parses roster change log from the form stored in the user repository.
+	 *
+	 * @param data stored change log.
+	 * @param limit max number of changes kept in the log.
+	 *
+	 * @return parsed change log or <code>null</code> if there was no data or data could not be parsed.
+	 */
+	public static RosterChangeLog decode(String data, int limit) {
+		if (data == null || data.isEmpty()) {
+			return null;
+		}
+		try {
+			String[] lines = data.split("\n");
+			String[] header = lines[0].split(";");
+			if (header.length != 4 || !FORMAT_VERSION.equals(header[0])) {
+				return null;
+			}
+			RosterChangeLog changeLog = new RosterChangeLog(limit, Integer.parseInt(header[3]),
+															Long.parseLong(header[1]));
+			changeLog.baseline = Long.parseLong(header[2]);
+			for (int i = 1; i < lines.length; i++) {
+				int idx = lines[i].indexOf(' ');
+				if (idx > 0) {
+					changeLog.changes.add(new Change(Long.parseLong(lines[i].substring(0, idx)),
+													 BareJID.bareJIDInstanceNS(lines[i].substring(idx + 1))));
+				}
+			}
+			changeLog.trim();
+			return changeLog;
+		} catch (RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates new, empty change log. Initial version is based on the current time, so versions issued by a log which
+	 * was lost or reset will not be mistaken for versions issued by this one.
+	 *
+	 * @param limit max number of changes kept in the log.
+	 * @param fingerprint fingerprint of the roster.
+	 */
+	public RosterChangeLog(int limit, int fingerprint) {
+		this(limit, fingerprint, System.currentTimeMillis());
+	}
+
+	private RosterChangeLog(int limit, int fingerprint, long version) {
+		this.limit = limit;
+		this.fingerprint = fingerprint;
+		this.version = version;
+		this.baseline = version;
+	}
+
+	/**
+	 * Records change of the roster item.
+	 *
+	 * @param jid JID of the changed item.
+	 *
+	 * @return new version of the roster.
+	 */
+	public synchronized long record(BareJID jid) {
+		version++;
+		changes.add(new Change(version, jid));
+		trim();
+		return version;
+	}
+
+	/**
+	 * Drops all recorded changes and bumps the version, so clients with any of the previous versions will receive
+	 * the whole roster.
+	 *
+	 * @param fingerprint fingerprint of the current roster.
+	 */
+	public synchronized void reset(int fingerprint) {
+		changes.clear();
+		version++;
+		baseline = version;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Returns items changed after the passed version.
+	 *
+	 * @param since version known to the client.
+	 *
+	 * @return map of changed items to the version of their last change, ordered by version, or <code>null</code> if
+	 * changes since passed version are not known.
+	 */
+	public synchronized Map<BareJID, Long> getChangesSince(long since) {
+		if (since < baseline || since > version) {
+			return null;
+		}
+		Map<BareJID, Long> result = new LinkedHashMap<>();
+		for (Iterator<Change> it = changes.descendingIterator(); it.hasNext(); ) {
+			Change change = it.next();
+			if (change.version <= since) {
+				break;
+			}
+			result.putIfAbsent(change.jid, change.version);
+		}
+		if (result.size() > 1) {
+			Map<BareJID, Long> ordered = new LinkedHashMap<>();
+			result.entrySet()
+					.stream()
+					.sorted(Map.Entry.comparingByValue())
+					.forEach(e -> ordered.put(e.getKey(), e.getValue()));
+			result = ordered;
+		}
+		return result;
+	}
+
+	public synchronized int getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Sets fingerprint of the roster as it is stored in the user repository. It is stored with the log on next change.
+	 *
+	 * @param fingerprint fingerprint of the roster.
+	 */
+	public synchronized void setFingerprint(int fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns change log in the form stored in the user repository.
+	 *
+	 * @return serialized change log.
+	 */
+	public synchronized String encode() {
+		StringBuilder sb = new StringBuilder(32 + changes.size() * 40);
+		sb.append(FORMAT_VERSION)
+				.append(';')
+				.append(version)
+				.append(';')
+				.append(baseline)
+				.append(';')
+				.append(fingerprint);
+		for (Change change : changes) {
+			sb.append('\n').append(change.version).append(' ').append(change.jid);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return encode();
+	}
+
+	private void trim() {
+		while (changes.size() > limit) {
+			baseline = changes.poll().version;
+		}
+	}
+
+	private static class Change {
+
+		private final BareJID jid;
+		private final long version;
+
+		private Change(long version, BareJID jid) {
+			this.version = version;
+			this.jid = jid;
+		}
+	}
+}
@@ -24,9 +24,7 @@ import tigase.xml.XMLUtils;
 import tigase.xmpp.impl.roster.RosterAbstract.SubscriptionType;
 import tigase.xmpp.jid.JID;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
@@ -41,6 +39,11 @@ public class RosterElement {
 
 	protected static final long INITIAL_LAST_SEEN_VAL = 1000l;
 	private static final String ACTIVITY_ATT = "activity";
+	private static final char COMPACT_ESCAPE = '\\';
+	private static final char COMPACT_FIELD_SEP = '|';
+	private static final char COMPACT_GROUP_SEP = ',';
+	private static final char COMPACT_ITEM_SEP = '\n';
+	private static final String COMPACT_NULL = "\\0";
 	private static final String ELEM_NAME = "contact";
 	private static final String GRP_ATT = "groups";
 	private static final double INITIAL_ACTIVITY_VAL = 1d;
@@ -62,13 +65,22 @@ public class RosterElement {
 	// private boolean online = false;
 	private boolean modified = false;
 	private String name = null;
-	private Map<String, Boolean> onlineMap = new ConcurrentHashMap<String, Boolean>();
+	// created on first use as most of the contacts are never marked as online
+	private volatile Map<String, Boolean> onlineMap = null;
 	private String otherData = null;
+	// compact form of the element which fields after the weight were not decoded yet, null if all fields are decoded
+	private volatile String pending = null;
 	private boolean persistent = true;
 	private boolean presence_sent = false;
+	// serialized form (XML or compact) of the element as stored in the repository, reset on every change
+	private volatile String serialized = null;
+	// number of changes, guarded by this, so a form serialized concurrently with a change is not kept
+	private int serializedChanges = 0;
 	private String stringpreped = null;
 	private SubscriptionType subscription = null;
 	private double weight = INITIAL_WEIGHT_VAL;
+	// notified when weight changes, so lists of buddies ordered by weight may be dropped
+	private volatile Runnable weightListener = null;
 
 	public RosterElement(Element roster_el) throws TigaseStringprepException {
 		if (roster_el.getName() == ELEM_NAME) {
@@ -128,6 +140,48 @@ public class RosterElement {
 		}
 	}
 
+	/**
+	 * Creates roster element from its compact form, as returned by {@link #getRosterElementCompactString()}. Only the
+	 * JID, subscription and weight are decoded here, other fields are decoded on first use, so loading a roster does
+	 * not decode items which are not used during the session.
+	 *
+	 * @param item compact form of a single roster element.
+	 */
+	public RosterElement(String item) throws TigaseStringprepException {
+		int jidEnd = item.indexOf(COMPACT_FIELD_SEP);
+		int prepEnd = item.indexOf(COMPACT_FIELD_SEP, jidEnd + 1);
+		int subsEnd = item.indexOf(COMPACT_FIELD_SEP, prepEnd + 1);
+		int weightEnd = item.indexOf(COMPACT_FIELD_SEP, subsEnd + 1);
+
+		int fieldEnd = weightEnd;
+
+		// fields decoded later must be present as well
+		for (int i = 0; i < 4 && fieldEnd >= 0; i++) {
+			fieldEnd = item.indexOf(COMPACT_FIELD_SEP, fieldEnd + 1);
+		}
+		if (jidEnd < 0 || prepEnd < 0 || subsEnd < 0 || fieldEnd < 0) {
+			throw new IllegalArgumentException("Incorrect roster data: " + item);
+		}
+		this.stringpreped = decodeCompact(item, jidEnd + 1, prepEnd);
+
+		boolean preped = XMPPStringPrepFactory.STRINGPREP_PROCESSOR.equals(stringpreped);
+
+		setJid(decodeCompact(item, 0, jidEnd));
+		subscription = SubscriptionType.valueOf(item.substring(prepEnd + 1, subsEnd));
+		try {
+			weight = Double.parseDouble(item.substring(subsEnd + 1, weightEnd));
+		} catch (NumberFormatException nfe) {
+			log.warning("Incorrect weight field: " + item);
+			weight = INITIAL_WEIGHT_VAL;
+		}
+		pending = item;
+		// item read from the repository is saved again as it is, unless JID had to be processed by stringprep
+		if (preped && item.charAt(item.length() - 1) == COMPACT_ITEM_SEP) {
+			serialized = item;
+		}
+		modified = false;
+	}
+
 	public RosterElement(JID jid, String name, String[] groups) {
 		this.stringpreped = XMPPStringPrepFactory.STRINGPREP_PROCESSOR;
 		setJid(jid);
@@ -137,6 +191,7 @@ public class RosterElement {
 	}
 
 	public void addGroups(String[] groups) {
+		load();
 		if (groups != null) {
 			if (this.groups == null) {
 				setGroups(groups);
@@ -158,10 +213,12 @@ public class RosterElement {
 	}
 
 	public String[] getGroups() {
+		load();
 		return groups;
 	}
 
 	public final void setGroups(String[] groups) {
+		load();
 		if ((groups != null) && (groups.length > 0)) {
 			this.groups = new String[groups.length];
 			for (int i = 0; i < groups.length; i++) {
@@ -171,6 +228,7 @@ public class RosterElement {
 			this.groups = null;
 		}
 		modified = true;
+		changed();
 	}
 
 	public JID getJid() {
@@ -185,18 +243,22 @@ public class RosterElement {
 			modified = true;
 		}
 		stringpreped = XMPPStringPrepFactory.STRINGPREP_PROCESSOR;
+		changed();
 	}
 
 	public String getName() {
+		load();
 		return name;
 	}
 
 	public final void setName(final String name) {
+		load();
 		if (name == this.name || (name != null && this.name != null && name.equals(this.name))) {
 			return;
 		} else {
 			this.name = name == null ? null : XMLUtils.unescape(name);
 			this.modified = true;
+			changed();
 		}
 
 //		String old_name = this.name;
@@ -214,14 +276,18 @@ public class RosterElement {
 	}
 
 	public String getOtherData() {
+		load();
 		return otherData;
 	}
 
 	public void setOtherData(String other_data) {
+		load();
 		otherData = other_data;
+		changed();
 	}
 
 	public Element getRosterElement() {
+		load();
 		Element elem = new Element(ELEM_NAME, new String[]{JID_ATT, SUBS_ATT, STRINGPREP_ATT},
 								   new String[]{jid.toString(), subscription.toString(), "" + stringpreped});
 
@@ -249,7 +315,30 @@ public class RosterElement {
 		return elem;
 	}
 
+	/**
+	 * Returns serialized form of {@link #getRosterElement()}. The result is kept until the element is modified, so
+	 * saving a roster serializes only items changed since the last save.
+	 *
+	 * @return XML string representing the element in the repository.
+	 */
+	public String getRosterElementString() {
+		return getSerialized(false);
+	}
+
+	/**
+	 * Returns compact form of the element used by {@link RosterFlat.StorageFormat#compact} storage format. Fields are
+	 * separated with <code>|</code> and the form ends with a new line, so items may be concatenated. The result is
+	 * kept until the element is modified, the same as the result of {@link #getRosterElementString()}.
+	 *
+	 * @return compact string representing the element in the repository.
+	 */
+	public String getRosterElementCompactString() {
+		return getSerialized(true);
+	}
+
+
 	public Element getRosterItem() {
+		load();
 
 		// This is actually not a good idea to cache the item element.
 		// This causes a huge memory consumption and usually the item
@@ -289,6 +378,7 @@ public class RosterElement {
 			this.subscription = subscription;
 		}
 		modified = true;
+		changed();
 	}
 
 	public boolean isModified() {
@@ -296,7 +386,8 @@ public class RosterElement {
 	}
 
 	public boolean isOnline() {
-		return onlineMap.size() > 0;
+		Map<String, Boolean> onlineMap = this.onlineMap;
+		return onlineMap != null && onlineMap.size() > 0;
 	}
 
 	public boolean isPresence_sent() {
@@ -308,10 +399,20 @@ public class RosterElement {
 	}
 
 	public void setOnline(String resource, boolean online) {
-		if ((onlineMap != null) && (resource != null)) {
+		if (resource != null) {
+			Map<String, Boolean> onlineMap = this.onlineMap;
 			if (online) {
+				if (onlineMap == null) {
+					synchronized (this) {
+						onlineMap = this.onlineMap;
+						if (onlineMap == null) {
+							onlineMap = new ConcurrentHashMap<String, Boolean>(4);
+							this.onlineMap = onlineMap;
+						}
+					}
+				}
 				onlineMap.put(resource, Boolean.TRUE);
-			} else {
+			} else if (onlineMap != null) {
 				onlineMap.remove(resource);
 			}
 		}
@@ -326,15 +427,18 @@ public class RosterElement {
 	}
 
 	public double getActivity() {
+		load();
 		return activity;
 	}
 
 	public void setActivity(double activity) {
+		load();
 		this.activity = activity;
 		if (activity != 0) {
-			weight = 1 / activity;
+			updateWeight(1 / activity);
 		}
 		modified = true;
+		changed();
 	}
 
 	public double getWeight() {
@@ -342,21 +446,217 @@ public class RosterElement {
 	}
 
 	public void setWeight(double weight) {
-		this.weight = weight;
+		updateWeight(weight);
 		modified = true;
+		changed();
+	}
+
+	void setWeightListener(Runnable weightListener) {
+		this.weightListener = weightListener;
+	}
+
+	private void updateWeight(double weight) {
+		if (Double.compare(this.weight, weight) != 0) {
+			this.weight = weight;
+			Runnable listener = weightListener;
+			if (listener != null) {
+				listener.run();
+			}
+		}
 	}
 
 	public long getLastSeen() {
+		load();
 		return lastSeen;
 	}
 
 	public void setLastSeen(long lastSeen) {
+		load();
 		this.lastSeen = lastSeen;
 		modified = true;
+		changed();
 	}
 
 	private void setJid(JID jid) {
 		this.jid = jid;
 		modified = true;
+		changed();
+	}
+
+	private void changed() {
+		synchronized (this) {
+			serializedChanges++;
+			serialized = null;
+		}
+	}
+
+	private String getSerialized(boolean compact) {
+		String result = serialized;
+		// XML form always starts with '<' which is never the first character of the compact form
+		if (result == null || (result.charAt(0) != '<') != compact) {
+			int changes;
+			synchronized (this) {
+				changes = serializedChanges;
+			}
+			result = compact ? getRosterElementCompact() : getRosterElement().toString();
+			synchronized (this) {
+				if (changes == serializedChanges) {
+					serialized = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	private String getRosterElementCompact() {
+		load();
+
+		StringBuilder sb = new StringBuilder(64);
+
+		encodeCompact(sb, jid.toString()).append(COMPACT_FIELD_SEP);
+		encodeCompact(sb, stringpreped).append(COMPACT_FIELD_SEP);
+		sb.append(subscription.name()).append(COMPACT_FIELD_SEP);
+		sb.append(weight).append(COMPACT_FIELD_SEP);
+		encodeCompact(sb, name).append(COMPACT_FIELD_SEP);
+		if (groups == null) {
+			sb.append(COMPACT_NULL);
+		} else {
+			for (int i = 0; i < groups.length; i++) {
+				if (i > 0) {
+					sb.append(COMPACT_GROUP_SEP);
+				}
+				encodeCompact(sb, groups[i]);
+			}
+		}
+		sb.append(COMPACT_FIELD_SEP);
+		encodeCompact(sb, otherData).append(COMPACT_FIELD_SEP);
+		sb.append(activity).append(COMPACT_FIELD_SEP);
+		sb.append(lastSeen).append(COMPACT_ITEM_SEP);
+		modified = false;
+
+		return sb.toString();
+	}
+
+	// decodes fields of the compact form which are not decoded by the constructor
+	private void load() {
+		if (pending != null) {
+			synchronized (this) {
+				String item = pending;
+				if (item != null) {
+					int start = item.indexOf(COMPACT_FIELD_SEP);
+					for (int i = 0; i < 3; i++) {
+						start = item.indexOf(COMPACT_FIELD_SEP, start + 1);
+					}
+					int end = item.indexOf(COMPACT_FIELD_SEP, ++start);
+					name = decodeCompact(item, start, end);
+
+					start = end + 1;
+					end = item.indexOf(COMPACT_FIELD_SEP, start);
+					if (!isCompactNull(item, start, end)) {
+						List<String> grps = new ArrayList<>();
+						int grpStart = start;
+						for (int i = start; i <= end; i++) {
+							if (i == end || item.charAt(i) == COMPACT_GROUP_SEP) {
+								grps.add(decodeCompact(item, grpStart, i));
+								grpStart = i + 1;
+							}
+						}
+						groups = grps.toArray(new String[grps.size()]);
+					}
+
+					start = end + 1;
+					end = item.indexOf(COMPACT_FIELD_SEP, start);
+					otherData = decodeCompact(item, start, end);
+
+					start = end + 1;
+					end = item.indexOf(COMPACT_FIELD_SEP, start);
+					try {
+						activity = Double.parseDouble(item.substring(start, end));
+					} catch (NumberFormatException nfe) {
+						log.warning("Incorrect activity field: " + item);
+						activity = INITIAL_ACTIVITY_VAL;
+					}
+
+					start = end + 1;
+					end = item.indexOf(COMPACT_ITEM_SEP, start);
+					try {
+						lastSeen = Long.parseLong(item.substring(start, end < 0 ? item.length() : end));
+					} catch (NumberFormatException nfe) {
+						log.warning("Incorrect last seen field: " + item);
+						lastSeen = INITIAL_LAST_SEEN_VAL;
+					}
+					pending = null;
+				}
+			}
+		}
+	}
+
+	private static StringBuilder encodeCompact(StringBuilder sb, String value) {
+		if (value == null) {
+			return sb.append(COMPACT_NULL);
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case COMPACT_ESCAPE:
+					sb.append(COMPACT_ESCAPE).append(COMPACT_ESCAPE);
+					break;
+				case COMPACT_FIELD_SEP:
+					sb.append(COMPACT_ESCAPE).append('v');
+					break;
+				case COMPACT_GROUP_SEP:
+					sb.append(COMPACT_ESCAPE).append('c');
+					break;
+				case COMPACT_ITEM_SEP:
+					sb.append(COMPACT_ESCAPE).append('n');
+					break;
+				case '\r':
+					sb.append(COMPACT_ESCAPE).append('r');
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+		return sb;
+	}
+
+	private static boolean isCompactNull(String item, int start, int end) {
+		return end - start == COMPACT_NULL.length() && item.startsWith(COMPACT_NULL, start);
+	}
+
+	private static String decodeCompact(String item, int start, int end) {
+		if (isCompactNull(item, start, end)) {
+			return null;
+		}
+
+		int escape = item.indexOf(COMPACT_ESCAPE, start);
+		if (escape < 0 || escape >= end) {
+			return item.substring(start, end);
+		}
+
+		StringBuilder sb = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = item.charAt(i);
+			if (c == COMPACT_ESCAPE && i + 1 < end) {
+				switch (item.charAt(++i)) {
+					case 'v':
+						c = COMPACT_FIELD_SEP;
+						break;
+					case 'c':
+						c = COMPACT_GROUP_SEP;
+						break;
+					case 'n':
+						c = COMPACT_ITEM_SEP;
+						break;
+					case 'r':
+						c = '\r';
+						break;
+					default:
+						c = item.charAt(i);
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
 	}
 }
@@ -32,6 +32,8 @@ import tigase.xmpp.jid.JID;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,10 +48,23 @@ import java.util.logging.Logger;
 public class RosterFlat
 		extends RosterAbstract {
 
+	/**
+	 * Prefix of the roster stored in other format than XML, followed by the format version and a new line. Roster
+	 * stored as XML has no prefix and is treated as version 1.
+	 */
+	public static final String STORAGE_FORMAT_PREFIX = "#roster-v";
+	public static final int STORAGE_FORMAT_VERSION = 2;
 	private static final Logger log = Logger.getLogger(RosterFlat.class.getName());
 	private static final SimpleParser parser = SingletonFactory.getParserInstance();
+	private static final String STORAGE_FORMAT_HEADER = STORAGE_FORMAT_PREFIX + STORAGE_FORMAT_VERSION + "\n";
+	private static final String SUBSCRIBERS = "roster-subscribers";
+
+	protected static StorageFormat storageFormat = StorageFormat.compact;
 
 	private final SimpleDateFormat formatter;
+	private final LongAdder rosterLoadItems = new LongAdder();
+	private final LongAdder rosterLoadTime = new LongAdder();
+	private final LongAdder rosterLoads = new LongAdder();
 
 	{
 		this.formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
@@ -66,8 +81,29 @@ public class RosterFlat
 		return false;
 	}
 
+	public static StorageFormat getStorageFormat() {
+		return storageFormat;
+	}
+
+	public static void setStorageFormat(StorageFormat storageFormat) {
+		RosterFlat.storageFormat = storageFormat;
+	}
+
+	/**
+	 * Parses roster stored in any of supported formats.
+	 *
+	 * @param roster_str roster as stored in the repository.
+	 * @param roster map to which parsed roster elements are added.
+	 * @param session user session, may be <code>null</code>.
+	 *
+	 * @return <code>true</code> if any of parsed roster elements was modified while it was parsed.
+	 */
 	public static boolean parseRosterUtil(String roster_str, Map<BareJID, RosterElement> roster,
 										  XMPPResourceConnection session) {
+		if (roster_str.startsWith(STORAGE_FORMAT_PREFIX)) {
+			return parseCompactRoster(roster_str, roster);
+		}
+
 		boolean result = false;
 		DomBuilderHandler domHandler = new DomBuilderHandler();
 
@@ -93,6 +129,40 @@ public class RosterFlat
 		return result;
 	}
 
+	private static boolean parseCompactRoster(String roster_str, Map<BareJID, RosterElement> roster) {
+		int start = roster_str.indexOf('\n');
+
+		if (start < 0 || !roster_str.startsWith(STORAGE_FORMAT_HEADER)) {
+			log.log(Level.WARNING, "Unsupported roster storage format: {0}",
+					start < 0 ? roster_str : roster_str.substring(0, start));
+			return false;
+		}
+
+		boolean result = false;
+
+		for (start++; start < roster_str.length(); ) {
+			int end = roster_str.indexOf('\n', start);
+
+			end = end < 0 ? roster_str.length() : end + 1;
+			if (end - start > 1) {
+				String item = roster_str.substring(start, end);
+				try {
+					RosterElement relem = new RosterElement(item);
+
+					result |= relem.isModified();
+					if (!addBuddy(relem, roster)) {
+						break;
+					}
+				} catch (Exception e) {
+					log.log(Level.WARNING, "Can't load roster element: " + item, e);
+				}
+			}
+			start = end;
+		}
+
+		return result;
+	}
+
 	public RosterElement addTempBuddy(JID buddy, XMPPResourceConnection session)
 			throws NotAuthorizedException, TigaseDBException {
 		RosterElement relem = getRosterElementInstance(buddy.copyWithoutResource(), null, null, session);
@@ -139,6 +209,7 @@ public class RosterFlat
 				relem.setSubscription(subscription);
 			}
 			if (addBuddy(relem, roster)) {
+				subscriptionChanged(session, null, relem.getSubscription());
 				saveUserRoster(session);
 				// notify that roster element was changed!
 			} else {
@@ -171,7 +242,9 @@ public class RosterFlat
 			// }
 			relem.setPersistent(true);
 			if (subscription != null) {
+				SubscriptionType oldSubscription = relem.getSubscription();
 				relem.setSubscription(subscription);
+				subscriptionChanged(session, oldSubscription, subscription);
 			}
 			saveUserRoster(session);
 			// notify that roster element was changed!
@@ -229,6 +302,45 @@ public class RosterFlat
 
 	}
 
+	/**
+	 * Returns buddies with subscription matching one of the given types, ordered by weight. Arrays are cached in the
+	 * user session and dropped when subscription of any buddy matching the given types changes or when weight of any
+	 * of returned buddies changes, so repeated presence broadcasts do not scan and sort the whole roster. Returned
+	 * array is shared and must not be modified.
+	 */
+	@Override
+	public JID[] getBuddies(XMPPResourceConnection session, EnumSet<SubscriptionType> subscrs)
+			throws NotAuthorizedException, TigaseDBException {
+		Map<BareJID, RosterElement> roster = getUserRoster(session);
+
+		if (roster.size() == 0) {
+			return null;
+		}
+
+		Subscribers subscribers = (Subscribers) session.getCommonSessionData(SUBSCRIBERS);
+		if (subscribers == null) {
+			return super.getBuddies(session, subscrs);
+		}
+
+		JID[] result = subscribers.buddies.get(subscrs);
+		if (result == null) {
+			long version = subscribers.version.get();
+			result = super.getBuddies(session, subscrs);
+			if (result != null) {
+				for (JID buddy : result) {
+					RosterElement relem = roster.get(buddy.getBareJID());
+					if (relem != null) {
+						relem.setWeightListener(subscribers.weightListener);
+					}
+				}
+				if (version == subscribers.version.get()) {
+					subscribers.buddies.put(EnumSet.copyOf(subscrs), result);
+				}
+			}
+		}
+		return result;
+	}
+
 	@Override
 	public String[] getBuddyGroups(XMPPResourceConnection session, JID buddy)
 			throws NotAuthorizedException, TigaseDBException {
@@ -309,6 +421,21 @@ public class RosterFlat
 		return items;
 	}
 
+	@Override
+	protected int getRosterFingerprint(XMPPResourceConnection session)
+			throws NotAuthorizedException, TigaseDBException {
+		Map<BareJID, RosterElement> roster = getUserRoster(session);
+		int fingerprint = 0;
+
+		for (RosterElement relem : roster.values()) {
+			if (relem.isPersistent()) {
+				fingerprint += getFingerprint(relem);
+			}
+		}
+
+		return fingerprint;
+	}
+
 	@Override
 	public boolean isRosterLoaded(XMPPResourceConnection session) {
 		return session.getCommonSessionData(ROSTER) != null;
@@ -342,7 +469,10 @@ public class RosterFlat
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Removing roster buddy: {0}, before removal: {1}", new Object[]{jid, roster});
 		}
-		roster.remove(jid.getBareJID());
+		RosterElement removed = roster.remove(jid.getBareJID());
+		if (removed != null) {
+			subscriptionChanged(session, removed.getSubscription(), null);
+		}
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Removing roster buddy: {0}, after removal: {1}", new Object[]{jid, roster});
 		}
@@ -386,7 +516,9 @@ public class RosterFlat
 		RosterElement relem = getRosterElement(session, buddy);
 
 		if (relem != null) {
+			SubscriptionType oldSubscription = relem.getSubscription();
 			relem.setSubscription(subscription);
+			subscriptionChanged(session, oldSubscription, subscription);
 			saveUserRoster(session);
 			// notify that roster element was changed!
 
@@ -433,6 +565,7 @@ public class RosterFlat
 		// very unlikely by more than one thread
 		Map<BareJID, RosterElement> roster = new ConcurrentHashMap<BareJID, RosterElement>(100, 0.25f, 1);
 
+		session.putCommonSessionData(SUBSCRIBERS, new Subscribers());
 		session.putCommonSessionData(ROSTER, roster);
 
 		String roster_str = session.getData(null, ROSTER, null);
@@ -443,8 +576,13 @@ public class RosterFlat
 		if ((roster_str != null) && !roster_str.isEmpty()) {
 			updateRosterHash(roster_str, session);
 
+			long start = System.nanoTime();
 			boolean modified = parseRoster(roster_str, roster, session);
 
+			rosterLoadTime.add(System.nanoTime() - start);
+			rosterLoadItems.add(roster.size());
+			rosterLoads.increment();
+
 			if (modified) {
 				saveUserRoster(session);
 				// notify that roster element was changed!
@@ -498,6 +636,27 @@ public class RosterFlat
 		}
 	}
 
+	/**
+	 * Returns number of rosters parsed while they were loaded from the repository.
+	 */
+	public long getRosterLoads() {
+		return rosterLoads.sum();
+	}
+
+	/**
+	 * Returns number of roster items parsed while rosters were loaded from the repository.
+	 */
+	public long getRosterLoadItems() {
+		return rosterLoadItems.sum();
+	}
+
+	/**
+	 * Returns total time in nanoseconds spent on parsing rosters loaded from the repository.
+	 */
+	public long getRosterLoadTime() {
+		return rosterLoadTime.sum();
+	}
+
 	public boolean isModified(XMPPResourceConnection session) throws NotAuthorizedException, TigaseDBException {
 		Map<BareJID, RosterElement> roster = getUserRoster(session);
 		boolean result = false;
@@ -531,11 +690,20 @@ public class RosterFlat
 
 	protected void saveUserRoster(XMPPResourceConnection session) throws NotAuthorizedException, TigaseDBException {
 		Map<BareJID, RosterElement> roster = getUserRoster(session);
+		RosterChangeLog changeLog = (RosterChangeLog) session.getCommonSessionData(ROSTER_CHANGES);
 		StringBuilder sb = new StringBuilder(5000);
+		boolean compact = storageFormat == StorageFormat.compact;
+		int fingerprint = 0;
 
+		if (compact) {
+			sb.append(STORAGE_FORMAT_HEADER);
+		}
 		for (RosterElement relem : roster.values()) {
 			if (relem.isPersistent()) {
-				sb.append(relem.getRosterElement().toString());
+				sb.append(compact ? relem.getRosterElementCompactString() : relem.getRosterElementString());
+				if (changeLog != null) {
+					fingerprint += getFingerprint(relem);
+				}
 			}
 			// here we could detect changed records, but is removed record changed??
 			// no - item removed is gone!!!
@@ -545,6 +713,10 @@ public class RosterFlat
 					new String[]{session.getBareJID().toString(), sb.toString()});
 		}
 		session.setData(null, ROSTER, sb.toString());
+		if (changeLog != null) {
+			// fingerprint is updated while roster is saved, so recording a change does not scan the whole roster
+			changeLog.setFingerprint(fingerprint);
+		}
 
 		// here we should record changes? but how to detect that change was made and what was changed?
 		//
@@ -557,7 +729,10 @@ public class RosterFlat
 
 		Map<BareJID, RosterElement> roster = getUserRoster(session);
 		if (event.getSubscription() == SubscriptionType.remove) {
-			roster.remove(event.getJid().getBareJID());
+			RosterElement removed = roster.remove(event.getJid().getBareJID());
+			if (removed != null) {
+				subscriptionChanged(session, removed.getSubscription(), null);
+			}
 			return;
 		}
 
@@ -566,15 +741,70 @@ public class RosterFlat
 			element = new RosterElement(event.getJid(), event.getName(), event.getGroups());
 			element.setSubscription(event.getSubscription());
 			addBuddy(element, getUserRoster(session));
+			subscriptionChanged(session, null, element.getSubscription());
 		} else {
+			SubscriptionType oldSubscription = element.getSubscription();
 			element.setName(event.getName());
 			element.setGroups(event.getGroups());
 			element.setSubscription(event.getSubscription());
+			subscriptionChanged(session, oldSubscription, element.getSubscription());
 		}
 
 		super.updateRosterItem(session, event);
 	}
 
+	protected void subscriptionChanged(XMPPResourceConnection session, SubscriptionType oldSubscription,
+									   SubscriptionType newSubscription) {
+		if (oldSubscription == newSubscription) {
+			return;
+		}
+		Subscribers subscribers = (Subscribers) session.getCommonSessionData(SUBSCRIBERS);
+		if (subscribers != null) {
+			subscribers.version.incrementAndGet();
+			subscribers.buddies.keySet()
+					.removeIf(subscrs -> subscrs.contains(oldSubscription) || subscrs.contains(newSubscription));
+		}
+	}
+
+	/**
+	 * Format in which rosters are saved to the repository. Rosters are read in any of these formats, regardless of the
+	 * configured one.
+	 */
+	public enum StorageFormat {
+		/**
+		 * Roster items stored as XML <code>contact</code> elements, readable by tools and scripts using the
+		 * repository directly and by older versions of the server.
+		 */
+		xml,
+		/**
+		 * Versioned text format with one line per item, which is faster to parse than XML and allows roster items to
+		 * be decoded on first use.
+		 */
+		compact
+	}
+
+	/**
+	 * Arrays of buddies for each set of subscription types requested from {@link #getBuddies(XMPPResourceConnection,
+	 * EnumSet)}.
+	 */
+	private static class Subscribers {
+
+		private final Map<EnumSet<SubscriptionType>, JID[]> buddies = new ConcurrentHashMap<>();
+		private final AtomicLong version = new AtomicLong();
+		// order of all arrays depends on weights, so all of them are dropped
+		private final Runnable weightListener = () -> {
+			version.incrementAndGet();
+			buddies.clear();
+		};
+
+	}
+
+	// order independent, as order of items in the roster map is not stable
+	private static int getFingerprint(RosterElement relem) {
+		return Objects.hash(relem.getJid().getBareJID(), relem.getName(), relem.getSubscription(),
+							Arrays.hashCode(relem.getGroups()));
+	}
+
 	private class RosterElemComparator
 			implements Comparator<JID> {
 
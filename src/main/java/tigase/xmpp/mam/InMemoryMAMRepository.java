@@ -0,0 +1,238 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam;
+
+import tigase.component.exceptions.ComponentException;
+import tigase.xml.Element;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+import tigase.xmpp.rsm.RSM;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reference implementation of {@link MAMStreamRepository} keeping archived messages in memory. Messages are archived
+ * per owner, which is bare JID of the questioner, and ordered by timestamp. Pages are selected by looking up position
+ * of <code>after</code> or <code>before</code> id in the ordered archive, so cost of retrieving a page does not depend
+ * on number of preceding pages.
+ */
+public class InMemoryMAMRepository
+		implements MAMStreamRepository<QueryImpl, InMemoryMAMRepository.Item> {
+
+	private final Map<BareJID, Archive> archives = new ConcurrentHashMap<>();
+	private final AtomicLong idCounter = new AtomicLong();
+
+	/**
+	 * Adds message to the archive of the owner.
+	 *
+	 * @return id of archived message.
+	 */
+	public String addItem(BareJID owner, JID with, Date timestamp, Element message) {
+		Item item = new Item(Long.toString(idCounter.incrementAndGet()), with, timestamp, message);
+		archives.computeIfAbsent(owner, k -> new Archive()).add(item);
+		return item.getId();
+	}
+
+	@Override
+	public long countItems(QueryImpl query) {
+		Archive archive = archives.get(query.getQuestionerJID().getBareJID());
+		if (archive == null) {
+			return 0;
+		}
+		synchronized (archive) {
+			return archive.range(query, null, null).values().stream().filter(item -> item.matches(query)).count();
+		}
+	}
+
+	@Override
+	public void streamItems(QueryImpl query, ItemStreamHandler<QueryImpl, Item> handler) throws ComponentException {
+		RSM rsm = query.getRsm();
+		Archive archive = archives.get(query.getQuestionerJID().getBareJID());
+		List<Item> page = new ArrayList<>();
+		boolean complete = true;
+
+		if (archive != null) {
+			synchronized (archive) {
+				String after = rsm.getAfter();
+				String before = rsm.getBefore();
+				Key afterKey = after == null ? null : archive.getKey(after);
+				Key beforeKey = before == null || before.isEmpty() ? null : archive.getKey(before);
+				NavigableMap<Key, Item> range = archive.range(query, afterKey, beforeKey);
+
+				// looking for one item more than requested to know if page is complete
+				if (rsm.hasBefore()) {
+					for (Item item : range.descendingMap().values()) {
+						if (item.matches(query)) {
+							if (page.size() == rsm.getMax()) {
+								complete = false;
+								break;
+							}
+							page.add(item);
+						}
+					}
+					Collections.reverse(page);
+				} else {
+					for (Item item : range.values()) {
+						if (item.matches(query)) {
+							if (page.size() == rsm.getMax()) {
+								complete = false;
+								break;
+							}
+							page.add(item);
+						}
+					}
+				}
+			}
+		}
+
+		String first = null;
+		String last = null;
+		for (Item item : page) {
+			if (first == null) {
+				first = item.getId();
+			}
+			last = item.getId();
+			if (!handler.itemStreamed(query, item)) {
+				complete = complete && item == page.get(page.size() - 1);
+				break;
+			}
+		}
+		rsm.setResults(null, first, last);
+		handler.streamFinished(query, complete);
+	}
+
+	@Override
+	public QueryImpl newQuery() {
+		return new QueryImpl();
+	}
+
+	public static class Item
+			implements MAMRepository.Item {
+
+		private final String id;
+		private final Element message;
+		private final Date timestamp;
+		private final JID with;
+
+		private Item(String id, JID with, Date timestamp, Element message) {
+			this.id = id;
+			this.with = with;
+			this.timestamp = timestamp;
+			this.message = message;
+		}
+
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		@Override
+		public Element getMessage() {
+			return message.clone();
+		}
+
+		@Override
+		public Date getTimestamp() {
+			return timestamp;
+		}
+
+		public JID getWith() {
+			return with;
+		}
+
+		private boolean matches(Query query) {
+			JID queryWith = query.getWith();
+			if (queryWith == null) {
+				return true;
+			}
+			if (queryWith.getResource() == null) {
+				return queryWith.getBareJID().equals(with.getBareJID());
+			}
+			return queryWith.equals(with);
+		}
+	}
+
+	private static class Archive {
+
+		private final Map<String, Key> ids = new HashMap<>();
+		private final NavigableMap<Key, Item> items = new TreeMap<>();
+		private long seq = 0;
+
+		private synchronized void add(Item item) {
+			Key key = new Key(item.getTimestamp().getTime(), seq++);
+			items.put(key, item);
+			ids.put(item.getId(), key);
+		}
+
+		private Key getKey(String id) throws ComponentException {
+			Key key = ids.get(id);
+			if (key == null) {
+				throw new ComponentException(Authorization.ITEM_NOT_FOUND, "Item with id " + id + " not found");
+			}
+			return key;
+		}
+
+		private NavigableMap<Key, Item> range(Query query, Key after, Key before) {
+			Key from = query.getStart() == null ? null : new Key(query.getStart().getTime(), Long.MIN_VALUE);
+			boolean fromInclusive = true;
+			if (after != null && (from == null || after.compareTo(from) >= 0)) {
+				from = after;
+				fromInclusive = false;
+			}
+			Key to = query.getEnd() == null ? null : new Key(query.getEnd().getTime(), Long.MAX_VALUE);
+			boolean toInclusive = true;
+			if (before != null && (to == null || before.compareTo(to) <= 0)) {
+				to = before;
+				toInclusive = false;
+			}
+
+			if (from != null && to != null) {
+				if (from.compareTo(to) > 0) {
+					return Collections.emptyNavigableMap();
+				}
+				return items.subMap(from, fromInclusive, to, toInclusive);
+			} else if (from != null) {
+				return items.tailMap(from, fromInclusive);
+			} else if (to != null) {
+				return items.headMap(to, toInclusive);
+			}
+			return items;
+		}
+	}
+
+	private static class Key
+			implements Comparable<Key> {
+
+		private final long seq;
+		private final long timestamp;
+
+		private Key(long timestamp, long seq) {
+			this.timestamp = timestamp;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Key o) {
+			int result = Long.compare(timestamp, o.timestamp);
+			return result != 0 ? result : Long.compare(seq, o.seq);
+		}
+	}
+}
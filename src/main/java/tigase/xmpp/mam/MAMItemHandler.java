@@ -20,12 +20,17 @@ package tigase.xmpp.mam;
 import tigase.component.PacketWriter;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Message;
+import tigase.server.Packet;
 import tigase.server.Priority;
 import tigase.util.datetime.TimestampHelper;
 import tigase.xml.Element;
 import tigase.xmpp.mam.modules.QueryModule;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Basic implementation of handler processing items found in repository and converting into forward messages for
  * delivery to client as specified in XEP-0313: Message Archive Management
@@ -40,9 +45,32 @@ public class MAMItemHandler
 	
 	@Inject
 	private PacketWriter packetWriter;
+	@ConfigField(desc = "Number of results passed at once to the packet writer when streaming items", alias = "stream-batch-size")
+	private int streamBatchSize = 20;
 
 	@Override
 	public void itemFound(Query query, MAMRepository.Item item) {
+		Packet packet = prepareResult(query, item);
+
+		if (query.getRsm().getFirst() == null) {
+			query.getRsm().setFirst(item.getId());
+		}
+		query.getRsm().setLast(item.getId());
+
+		packetWriter.write(packet);
+	}
+
+	/**
+	 * Creates handler for streaming items of a single query. Results are passed to the packet writer in batches
+	 * instead of one by one.
+	 *
+	 * @return new handler instance.
+	 */
+	public StreamHandler newStreamHandler() {
+		return new StreamHandler(Math.max(1, streamBatchSize));
+	}
+
+	protected Packet prepareResult(Query query, MAMRepository.Item item) {
 		Element m = new Element("message");
 		Element result = new Element("result", new String[]{"xmlns", "id"},
 									 new String[]{"urn:xmpp:mam:1", item.getId()});
@@ -64,12 +92,62 @@ public class MAMItemHandler
 		Message packet = new Message(m, query.getComponentJID(), query.getQuestionerJID());
 		packet.setPriority(Priority.HIGH);
 
-		if (query.getRsm().getFirst() == null) {
-			query.getRsm().setFirst(item.getId());
+		return packet;
+	}
+
+	/**
+	 * Handler of items of a single streamed query, which keeps state of the stream after it is finished.
+	 */
+	public class StreamHandler
+			implements MAMStreamRepository.ItemStreamHandler<Query, MAMRepository.Item> {
+
+		private final int batchSize;
+		private List<Packet> batch;
+		private boolean complete = false;
+		private int itemsCount = 0;
+
+		private StreamHandler(int batchSize) {
+			this.batchSize = batchSize;
+			this.batch = new ArrayList<>(batchSize);
 		}
-		query.getRsm().setLast(item.getId());
 
-		packetWriter.write(packet);
+		/**
+		 * Returns number of items passed to the handler.
+		 */
+		public int getItemsCount() {
+			return itemsCount;
+		}
+
+		/**
+		 * Returns <code>true</code> if the stream was finished and there are no more items matching the query in the
+		 * direction of pagination.
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		@Override
+		public boolean itemStreamed(Query query, MAMRepository.Item item) {
+			itemsCount++;
+			batch.add(prepareResult(query, item));
+			if (batch.size() >= batchSize) {
+				flush();
+			}
+			return true;
+		}
+
+		@Override
+		public void streamFinished(Query query, boolean complete) {
+			this.complete = complete;
+			flush();
+		}
+
+		private void flush() {
+			if (!batch.isEmpty()) {
+				packetWriter.write(batch);
+				batch = new ArrayList<>(batchSize);
+			}
+		}
 	}
 
 }
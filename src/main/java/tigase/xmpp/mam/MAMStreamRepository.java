@@ -0,0 +1,80 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam;
+
+import tigase.component.exceptions.ComponentException;
+import tigase.component.exceptions.RepositoryException;
+
+/**
+ * Extension of {@link MAMRepository} for repositories able to execute queries as a stream of items with limits and
+ * pagination pushed down to the storage.
+ * <br>
+ * Single call of {@link #streamItems(Query, ItemStreamHandler)} returns single page of results. Page is selected by
+ * <code>after</code> or <code>before</code> id from RSM of the query (key-set pagination), so storage does not need to
+ * skip items from previous pages, and size of the page is limited by <code>max</code> from RSM of the query. Items are
+ * passed to the handler as they are read and reading stops as soon as the handler does not accept more items.
+ */
+public interface MAMStreamRepository<Q extends Query, I extends MAMRepository.Item>
+		extends MAMRepository<Q, I> {
+
+	/**
+	 * Counts items matching the query without retrieving them. Pagination data from RSM of the query is ignored.
+	 *
+	 * @param query query to execute.
+	 *
+	 * @return number of items matching the query.
+	 */
+	long countItems(Q query) throws RepositoryException, ComponentException;
+
+	/**
+	 * Passes page of items matching the query to the handler in the order of their timestamps. After the page is
+	 * finished, id of first and last passed item are set in RSM of the query and {@link
+	 * ItemStreamHandler#streamFinished(Query, boolean)} is called.
+	 *
+	 * @param query query to execute.
+	 * @param handler handler of found items.
+	 */
+	void streamItems(Q query, ItemStreamHandler<Q, I> handler) throws RepositoryException, ComponentException;
+
+	@Override
+	default void queryItems(Q query, ItemHandler<Q, I> itemHandler) throws RepositoryException, ComponentException {
+		streamItems(query, (q, item) -> {
+			itemHandler.itemFound(q, item);
+			return true;
+		});
+	}
+
+	interface ItemStreamHandler<Q extends Query, I extends Item> {
+
+		/**
+		 * Called for each item of the page.
+		 *
+		 * @return <code>false</code> if handler will not accept more items and page should be finished.
+		 */
+		boolean itemStreamed(Q query, I item);
+
+		/**
+		 * Called after last item of the page was passed to the handler.
+		 *
+		 * @param complete <code>true</code> if there are no more items matching the query in the direction of
+		 * pagination.
+		 */
+		default void streamFinished(Q query, boolean complete) {
+		}
+	}
+}
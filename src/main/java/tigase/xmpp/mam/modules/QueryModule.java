@@ -29,9 +29,12 @@ import tigase.server.Priority;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
+import tigase.xmpp.mam.MAMItemHandler;
 import tigase.xmpp.mam.MAMRepository;
+import tigase.xmpp.mam.MAMStreamRepository;
 import tigase.xmpp.mam.Query;
 import tigase.xmpp.mam.QueryParser;
+import tigase.xmpp.rsm.RSM;
 
 /**
  * Implementation of module processing requests to retrieve items using XEP-0313: Message Archive Management
@@ -69,11 +72,18 @@ public class QueryModule
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public void process(Packet packet) throws ComponentException, TigaseStringprepException {
 		Query query = mamRepository.newQuery();
 		query = queryParser.parseQuery(query, packet);
+		boolean complete;
 		try {
-			mamRepository.queryItems(query, itemHandler);
+			if (mamRepository instanceof MAMStreamRepository && itemHandler instanceof MAMItemHandler) {
+				complete = streamItems((MAMStreamRepository<Query, MAMRepository.Item>) mamRepository, query);
+			} else {
+				mamRepository.queryItems(query, itemHandler);
+				complete = query.getRsm().getIndex() + query.getRsm().getMax() >= query.getRsm().getCount();
+			}
 		} catch (RepositoryException ex) {
 			throw new RuntimeException("Error retrieving messages from database", ex);
 		}
@@ -81,7 +91,7 @@ public class QueryModule
 		Element fin = new Element("fin");
 		fin.setXMLNS("urn:xmpp:mam:1");
 		fin.addChild(query.getRsm().toElement());
-		if (query.getRsm().getIndex() + query.getRsm().getMax() >= query.getRsm().getCount()) {
+		if (complete) {
 			fin.setAttribute("complete", "true");
 		}
 
@@ -90,4 +100,32 @@ public class QueryModule
 
 		packetWriter.write(result);
 	}
+
+	/**
+	 * Executes query using streaming API of the repository. Query with <code>max</code> set to 0 only counts matching
+	 * items.
+	 * <br>
+	 * Streaming does not count all matching items, so <code>count</code> is set in RSM of the result only if the
+	 * returned page contains all of them (first page which is also complete). In other cases <code>&lt;fin/&gt;</code>
+	 * has no <code>count</code> and clients should rely on <code>complete</code> attribute.
+	 *
+	 * @return <code>true</code> if there are no more items to retrieve.
+	 */
+	protected boolean streamItems(MAMStreamRepository<Query, MAMRepository.Item> repository, Query query)
+			throws ComponentException, RepositoryException {
+		RSM rsm = query.getRsm();
+		if (rsm.getMax() == 0) {
+			long count = repository.countItems(query);
+			rsm.setResults((int) count, (String) null, (String) null);
+			return count == 0;
+		}
+
+		boolean allItemsInPage = rsm.getAfter() == null && (rsm.getBefore() == null || rsm.getBefore().isEmpty());
+		MAMItemHandler.StreamHandler handler = ((MAMItemHandler) itemHandler).newStreamHandler();
+		repository.streamItems(query, handler);
+		if (handler.isComplete() && allItemsInPage) {
+			rsm.setResults(handler.getItemsCount(), rsm.getFirst(), rsm.getLast());
+		}
+		return handler.isComplete();
+	}
 }
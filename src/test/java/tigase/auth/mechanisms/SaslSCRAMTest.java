@@ -25,6 +25,9 @@ import tigase.TestLogger;
 import tigase.auth.callbacks.*;
 import tigase.util.Base64;
 
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
@@ -34,6 +37,11 @@ import javax.security.sasl.SaslException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -100,6 +108,49 @@ public class SaslSCRAMTest
 		}
 	}
 
+	@Test
+	public void testMacReuse() throws Exception {
+		// Mac instances are kept per thread and algorithm
+		Mac sha1 = AbstractSaslSCRAM.mac("HmacSHA1");
+		assertSame(sha1, AbstractSaslSCRAM.mac("HmacSHA1"));
+		assertNotSame(sha1, AbstractSaslSCRAM.mac("HmacSHA256"));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			assertNotSame(sha1, executor.submit(() -> AbstractSaslSCRAM.mac("HmacSHA1")).get());
+		} finally {
+			executor.shutdown();
+		}
+
+		// reused instance has to be initialized with a new key for every computation
+		byte[] salt = "salt".getBytes("UTF-8");
+		byte[] first = AbstractSaslSCRAM.hi("SHA1", "password".getBytes("UTF-8"), salt, 4096);
+		byte[] other = AbstractSaslSCRAM.hi("SHA1", "other".getBytes("UTF-8"), salt, 4096);
+		byte[] sha256 = AbstractSaslSCRAM.hi("SHA-256", "password".getBytes("UTF-8"), salt, 4096);
+		Assert.assertArrayEquals(pbkdf2("PBKDF2WithHmacSHA1", "other", salt, 4096, 160), other);
+		Assert.assertArrayEquals(pbkdf2("PBKDF2WithHmacSHA256", "password", salt, 4096, 256), sha256);
+		Assert.assertArrayEquals(first, AbstractSaslSCRAM.hi("SHA1", "password".getBytes("UTF-8"), salt, 4096));
+		Assert.assertArrayEquals(pbkdf2("PBKDF2WithHmacSHA1", "password", salt, 4096, 160), first);
+	}
+
+	@Test
+	public void testConcurrentHi() throws Exception {
+		byte[] salt = "salt".getBytes("UTF-8");
+		byte[] expected = pbkdf2("PBKDF2WithHmacSHA1", "password", salt, 4096, 160);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<byte[]>> results = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				results.add(executor.submit(
+						() -> AbstractSaslSCRAM.hi("SHA1", "password".getBytes("UTF-8"), salt, 4096)));
+			}
+			for (Future<byte[]> result : results) {
+				Assert.assertArrayEquals(expected, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 	@Test
 	public void testHmac() {
 		SaslSCRAM m = create("QSXCR+Q6sek8bf92", "3rfcNHYJY1ZVvWVs7j", "pencil");
@@ -225,6 +276,12 @@ public class SaslSCRAMTest
 	 * @param password user password (plaintext)
 	 *
 	 */
+	private static byte[] pbkdf2(String algorithm, String password, byte[] salt, int iterations, int length)
+			throws Exception {
+		SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm);
+		return factory.generateSecret(new PBEKeySpec(password.toCharArray(), salt, iterations, length)).getEncoded();
+	}
+
 	private SaslSCRAM create(String salt, String snonce, String password) {
 		return create(salt, snonce, password, new TestCallbackHandler());
 	}
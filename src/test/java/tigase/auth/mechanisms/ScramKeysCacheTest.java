@@ -0,0 +1,97 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth.mechanisms;
+
+import org.junit.After;
+import org.junit.Test;
+import tigase.auth.credentials.entries.PlainCredentialsEntry;
+import tigase.auth.credentials.entries.ScramCredentialsEntry;
+import tigase.db.AuthRepository;
+import tigase.xmpp.jid.BareJID;
+
+import static org.junit.Assert.*;
+
+public class ScramKeysCacheTest {
+
+	private static final String USER = "user@example.com";
+
+	@After
+	public void tearDown() {
+		ScramKeysCache.invalidate(USER);
+	}
+
+	@Test
+	public void testKeysValidatedWithSaltedPassword() throws Exception {
+		byte[] saltedPassword = new byte[]{1, 2, 3, 4};
+		byte[][] keys = new byte[][]{{1}, {2}, {3}};
+		ScramKeysCache.putKeys(USER, "SCRAM-SHA-1", saltedPassword, keys);
+
+		assertSame(keys, ScramKeysCache.getKeys(USER, "SCRAM-SHA-1", new byte[]{1, 2, 3, 4}));
+		assertNull(ScramKeysCache.getKeys(USER, "SCRAM-SHA-1", new byte[]{1, 2, 3, 5}));
+		assertNull(ScramKeysCache.getKeys(USER, "SCRAM-SHA-256", saltedPassword));
+		assertNull(ScramKeysCache.getKeys("other@example.com", "SCRAM-SHA-1", saltedPassword));
+	}
+
+	@Test
+	public void testDerivedCredentialsReusedForSamePassword() throws Exception {
+		ScramCredentialsEntry derived = ScramKeysCache.getDerived(USER, "SHA-1", new PlainCredentialsEntry("pencil"));
+
+		assertSame(derived, ScramKeysCache.getDerived(USER, "SHA-1", new PlainCredentialsEntry("pencil")));
+		assertNotSame(derived, ScramKeysCache.getDerived(USER, "SHA-256", new PlainCredentialsEntry("pencil")));
+
+		ScramCredentialsEntry changed = ScramKeysCache.getDerived(USER, "SHA-1", new PlainCredentialsEntry("pen"));
+		assertNotSame(derived, changed);
+		assertTrue(changed.verifyPlainPassword("pen"));
+		assertFalse(changed.verifyPlainPassword("pencil"));
+	}
+
+	@Test
+	public void testInvalidatedOnCredentialsChange() throws Exception {
+		byte[] saltedPassword = new byte[]{1, 2, 3, 4};
+		ScramKeysCache.putKeys(USER, "SCRAM-SHA-1", saltedPassword, new byte[][]{{1}, {2}, {3}});
+		ScramCredentialsEntry derived = ScramKeysCache.getDerived(USER, "SHA-1", new PlainCredentialsEntry("pencil"));
+
+		new ScramKeysCache().onCredentialsChanged(
+				new AuthRepository.CredentialsChangedEvent(BareJID.bareJIDInstanceNS(USER)));
+
+		assertNull(ScramKeysCache.getKeys(USER, "SCRAM-SHA-1", saltedPassword));
+		assertNotSame(derived, ScramKeysCache.getDerived(USER, "SHA-1", new PlainCredentialsEntry("pencil")));
+	}
+
+	@Test
+	public void testBounded() throws Exception {
+		ScramKeysCache cache = new ScramKeysCache();
+		int size = cache.getSize();
+		try {
+			cache.setSize(2);
+			for (int i = 0; i < 5; i++) {
+				ScramKeysCache.putKeys("user" + i + "@example.com", "SCRAM-SHA-1", new byte[]{1}, new byte[][]{{1}});
+			}
+			assertEquals(2, ScramKeysCache.getCachedUsers());
+			assertNull(ScramKeysCache.getKeys("user0@example.com", "SCRAM-SHA-1", new byte[]{1}));
+			assertNotNull(ScramKeysCache.getKeys("user4@example.com", "SCRAM-SHA-1", new byte[]{1}));
+
+			cache.setSize(0);
+			assertEquals(0, ScramKeysCache.getCachedUsers());
+			ScramKeysCache.putKeys(USER, "SCRAM-SHA-1", new byte[]{1}, new byte[][]{{1}});
+			assertNull(ScramKeysCache.getKeys(USER, "SCRAM-SHA-1", new byte[]{1}));
+		} finally {
+			cache.setSize(size);
+		}
+	}
+}
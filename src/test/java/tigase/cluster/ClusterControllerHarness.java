@@ -0,0 +1,235 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.ClusterControllerIfc;
+import tigase.cluster.api.CommandListenerAbstract;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Test harness connecting several {@link ClusterController} instances inside a single JVM. Each simulated node
+ * consists only of a {@link ClusterController} and an in-memory transport registered as its
+ * {@link ClusterControllerIfc#DELIVER_CLUSTER_PACKET_CMD} listener. Cluster packets are copied and delivered to the
+ * destination controller on a single thread per node, which keeps the ordering of a single cluster connection.
+ * <br>
+ * The harness does not start {@link ClusterConnectionManager}, {@code SessionManagerClustered} or a clustering
+ * strategy, so it is suitable for testing command routing, node join/leave notifications of the controller and
+ * command listeners, but not for the behaviour of a clustered server. Use {@link ClusterHarness} to start complete
+ * clustered nodes.
+ */
+public class ClusterControllerHarness
+		implements AutoCloseable {
+
+	private static final Logger log = Logger.getLogger(ClusterControllerHarness.class.getName());
+
+	private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+	public Node startNode(String hostname) {
+		if (nodes.containsKey(hostname)) {
+			throw new IllegalStateException("Node " + hostname + " is already running");
+		}
+		Node node = new Node(hostname);
+		nodes.put(hostname, node);
+		for (Node other : nodes.values()) {
+			if (other != node) {
+				other.controller.nodeConnected(hostname);
+				node.controller.nodeConnected(other.hostname);
+			}
+		}
+		return node;
+	}
+
+	public void stopNode(String hostname) {
+		Node node = nodes.remove(hostname);
+		if (node == null) {
+			return;
+		}
+		for (Node other : nodes.values()) {
+			other.controller.nodeDisconnected(hostname);
+		}
+		node.shutdown();
+	}
+
+	public Node getNode(String hostname) {
+		return nodes.get(hostname);
+	}
+
+	public Collection<Node> getNodes() {
+		return Collections.unmodifiableCollection(nodes.values());
+	}
+
+	public long getDeliveredPackets() {
+		long result = 0;
+		for (Node node : nodes.values()) {
+			result += node.packetsReceived.get();
+		}
+		return result;
+	}
+
+	@Override
+	public void close() {
+		for (String hostname : new ArrayList<>(nodes.keySet())) {
+			stopNode(hostname);
+		}
+	}
+
+	public class Node {
+
+		private final ClusterController controller;
+		private final String hostname;
+		private final ExecutorService inbound;
+		private final AtomicLong packetsReceived = new AtomicLong();
+		private final AtomicLong packetsSent = new AtomicLong();
+
+		private Node(String hostname) {
+			this.hostname = hostname;
+			this.inbound = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "cluster-controller-harness-" + hostname);
+				t.setDaemon(true);
+				return t;
+			});
+			this.controller = new NodeClusterController(hostname);
+			this.controller.setCommandListener(new Transport());
+			this.controller.nodeConnected(hostname);
+		}
+
+		public ClusterController getController() {
+			return controller;
+		}
+
+		public String getHostname() {
+			return hostname;
+		}
+
+		/**
+		 * Returns JID identifying this node as a sender or recipient of cluster commands.
+		 */
+		public JID getNodeJid() {
+			return controller.getComponentId();
+		}
+
+		public List<JID> getOtherNodes() {
+			List<JID> result = new ArrayList<>();
+			for (Node node : nodes.values()) {
+				if (node != this) {
+					result.add(node.getNodeJid());
+				}
+			}
+			return result;
+		}
+
+		public long getPacketsReceived() {
+			return packetsReceived.get();
+		}
+
+		public long getPacketsSent() {
+			return packetsSent.get();
+		}
+
+		/**
+		 * Waits until all cluster packets already queued for this node are processed.
+		 */
+		public void awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+			try {
+				inbound.submit(() -> {
+				}).get(timeout, unit);
+			} catch (ExecutionException | TimeoutException ex) {
+				throw new IllegalStateException("Node " + hostname + " did not become idle", ex);
+			}
+		}
+
+		private void deliver(Element packet) {
+			packetsReceived.incrementAndGet();
+			inbound.execute(() -> {
+				try {
+					controller.handleClusterPacket(packet);
+				} catch (Throwable ex) {
+					log.log(Level.WARNING, "Exception processing cluster packet on node " + hostname, ex);
+				}
+			});
+		}
+
+		private void shutdown() {
+			inbound.shutdown();
+			try {
+				inbound.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private class Transport
+				extends CommandListenerAbstract {
+
+			private Transport() {
+				super(ClusterControllerIfc.DELIVER_CLUSTER_PACKET_CMD, Priority.HIGH);
+			}
+
+			@Override
+			public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+									   Queue<Element> packets) throws ClusterCommandException {
+				for (Element packet : packets) {
+					JID to = JID.jidInstanceNS(packet.getAttributeStaticStr(Packet.TO_ATT));
+					Node node = to == null ? null : nodes.get(to.getDomain());
+					if (node == null) {
+						log.log(Level.FINE, "Dropping cluster packet for disconnected node: {0}", to);
+						continue;
+					}
+					packetsSent.incrementAndGet();
+					// copy of the element mimics serialization boundary between nodes
+					node.deliver(packet.clone());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cluster controller which identifies itself with the hostname of the simulated node instead of the hostname of
+	 * the machine running the test.
+	 */
+	private static class NodeClusterController
+			extends ClusterController {
+
+		private final JID componentId;
+
+		private NodeClusterController(String hostname) {
+			setName("cluster-contr");
+			componentId = JID.jidInstanceNS(getName(), hostname, null);
+		}
+
+		@Override
+		public JID getComponentId() {
+			return componentId;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.CommandListenerAbstract;
+import tigase.server.Priority;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link ClusterController} command routing between several controllers connected by
+ * {@link ClusterControllerHarness}. Timings printed by the slow tests cover only controller dispatch and the in-memory
+ * transport, not sockets, {@link ClusterConnectionManager} or session managers.
+ */
+public class ClusterControllerHarnessTest {
+
+	private static final String PING_CMD = "ping";
+	private static final String PONG_CMD = "pong";
+	private static final String SYNC_CMD = "sync";
+
+	private ClusterControllerHarness cluster;
+
+	@Before
+	public void setUp() {
+		cluster = new ClusterControllerHarness();
+	}
+
+	@After
+	public void tearDown() {
+		cluster.close();
+	}
+
+	@Test
+	public void testNodeJoinAndLeave() throws Exception {
+		ClusterControllerHarness.Node node1 = cluster.startNode("node1.example.com");
+		ClusterControllerHarness.Node node2 = cluster.startNode("node2.example.com");
+		ClusterControllerHarness.Node node3 = cluster.startNode("node3.example.com");
+
+		assertEquals(2, node1.getController().getNodesConnected().size());
+		assertEquals(3, node1.getController().getNodesConnectedWithLocal().size());
+
+		cluster.stopNode("node2.example.com");
+		assertEquals(1, node1.getController().getNodesConnected().size());
+		assertEquals(Collections.singletonList(node3.getNodeJid()), node1.getController().getNodesConnected());
+		assertEquals(Collections.singletonList(node1.getNodeJid()), node3.getController().getNodesConnected());
+		assertNull(cluster.getNode(node2.getHostname()));
+	}
+
+	@Test
+	public void testCommandDelivery() throws Exception {
+		ClusterControllerHarness.Node node1 = cluster.startNode("node1.example.com");
+		ClusterControllerHarness.Node node2 = cluster.startNode("node2.example.com");
+
+		List<String> received = Collections.synchronizedList(new ArrayList<>());
+		node2.getController().setCommandListener(new CommandListenerAbstract("test", Priority.HIGH) {
+			@Override
+			public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+									   Queue<Element> packets) throws ClusterCommandException {
+				assertEquals(node1.getNodeJid(), fromNode);
+				received.add(data.get("seq"));
+				for (Element packet : packets) {
+					received.add(packet.getName());
+				}
+			}
+		});
+
+		for (int i = 0; i < 10; i++) {
+			node1.getController()
+					.sendToNodes("test", Collections.singletonMap("seq", String.valueOf(i)), new Element("message"),
+								 node1.getNodeJid(), null, node2.getNodeJid());
+		}
+		node2.awaitIdle(10, TimeUnit.SECONDS);
+
+		assertEquals(20, received.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(String.valueOf(i), received.get(i * 2));
+			assertEquals("message", received.get(i * 2 + 1));
+		}
+		assertEquals(10, node1.getPacketsSent());
+		assertEquals(10, node2.getPacketsReceived());
+	}
+
+	@Test
+	@Category(tigase.tests.SlowTest.class)
+	public void testCrossNodeLatency() throws Exception {
+		ClusterControllerHarness.Node node1 = cluster.startNode("node1.example.com");
+		ClusterControllerHarness.Node node2 = cluster.startNode("node2.example.com");
+
+		int rounds = 100000;
+		AtomicInteger pongs = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(1);
+		node2.getController().setCommandListener(new CommandListenerAbstract(PING_CMD, Priority.CLUSTER) {
+			@Override
+			public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+									   Queue<Element> packets) throws ClusterCommandException {
+				node2.getController().sendToNodes(PONG_CMD, data, node2.getNodeJid(), fromNode);
+			}
+		});
+		node1.getController().setCommandListener(new CommandListenerAbstract(PONG_CMD, Priority.CLUSTER) {
+			@Override
+			public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+									   Queue<Element> packets) throws ClusterCommandException {
+				if (pongs.incrementAndGet() < rounds) {
+					node1.getController().sendToNodes(PING_CMD, data, node1.getNodeJid(), fromNode);
+				} else {
+					done.countDown();
+				}
+			}
+		});
+
+		long start = System.nanoTime();
+		node1.getController().sendToNodes(PING_CMD, new HashMap<>(), node1.getNodeJid(), node2.getNodeJid());
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		long time = System.nanoTime() - start;
+		System.out.println("ClusterController round-trip: " + rounds + " rounds in " + (time / 1000000) + "ms, avg " +
+								   (time / rounds) + "ns per round-trip");
+	}
+
+	@Test
+	@Category(tigase.tests.SlowTest.class)
+	public void testFanOutThroughput() throws Exception {
+		int nodesCount = 5;
+		for (int i = 0; i < nodesCount; i++) {
+			cluster.startNode("node" + i + ".example.com");
+		}
+		ClusterControllerHarness.Node sender = cluster.getNode("node0.example.com");
+		JID[] others = sender.getOtherNodes().toArray(new JID[0]);
+
+		int commands = 50000;
+		CountDownLatch done = new CountDownLatch(commands * others.length);
+		for (ClusterControllerHarness.Node node : cluster.getNodes()) {
+			node.getController().setCommandListener(new CommandListenerAbstract("fan-out", Priority.HIGH) {
+				@Override
+				public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+										   Queue<Element> packets) throws ClusterCommandException {
+					done.countDown();
+				}
+			});
+		}
+
+		Element payload = new Element("presence", new String[]{"from", "to"},
+									  new String[]{"user@example.com/res", "example.com"});
+		long start = System.nanoTime();
+		for (int i = 0; i < commands; i++) {
+			sender.getController().sendToNodes("fan-out", payload, sender.getNodeJid(), null, others);
+		}
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		long time = System.nanoTime() - start;
+		System.out.println("ClusterController fan-out: " + commands + " commands to " + others.length + " nodes in " +
+								   (time / 1000000) + "ms, " + (commands * others.length * 1000000000L / time) +
+								   " deliveries/s");
+	}
+
+	@Test
+	@Category(tigase.tests.SlowTest.class)
+	public void testBatchedCommandDelivery() throws Exception {
+		int nodesCount = 4;
+		int entriesPerNode = 20000;
+		int batchSize = 1000;
+
+		Map<String, Set<String>> known = new ConcurrentHashMap<>();
+		for (int i = 0; i < nodesCount; i++) {
+			registerSyncListener(cluster.startNode("node" + i + ".example.com"), known);
+		}
+
+		// every node sends a batched bulk command to the node started last; this measures controller dispatch and
+		// in-memory transport only, not the resynchronization done by SessionManagerClustered and its strategy
+		ClusterControllerHarness.Node joining = cluster.startNode("joining.example.com");
+		registerSyncListener(joining, known);
+		Set<String> joiningState = known.get(joining.getHostname());
+
+		long start = System.nanoTime();
+		for (ClusterControllerHarness.Node node : cluster.getNodes()) {
+			if (node == joining) {
+				continue;
+			}
+			Queue<Element> batch = new ArrayDeque<>();
+			for (int i = 0; i < entriesPerNode; i++) {
+				batch.offer(new Element("item", new String[]{"jid"},
+										new String[]{"user" + i + "@" + node.getHostname()}));
+				if (batch.size() == batchSize) {
+					node.getController()
+							.sendToNodes(SYNC_CMD, batch, node.getNodeJid(), null, joining.getNodeJid());
+					batch = new ArrayDeque<>();
+				}
+			}
+			if (!batch.isEmpty()) {
+				node.getController().sendToNodes(SYNC_CMD, batch, node.getNodeJid(), null, joining.getNodeJid());
+			}
+		}
+		joining.awaitIdle(60, TimeUnit.SECONDS);
+		long time = System.nanoTime() - start;
+
+		assertEquals(nodesCount * entriesPerNode, joiningState.size());
+		System.out.println("ClusterController batched commands: " + joiningState.size() + " entries from " + nodesCount +
+								   " nodes in " + (time / 1000000) + "ms");
+
+		start = System.nanoTime();
+		cluster.stopNode(joining.getHostname());
+		time = System.nanoTime() - start;
+		for (ClusterControllerHarness.Node node : cluster.getNodes()) {
+			assertEquals(nodesCount - 1, node.getController().getNodesConnected().size());
+		}
+		System.out.println("ClusterController node leave: " + (time / 1000) + "us");
+	}
+
+	private void registerSyncListener(ClusterControllerHarness.Node node, Map<String, Set<String>> known) {
+		Set<String> state = ConcurrentHashMap.newKeySet();
+		known.put(node.getHostname(), state);
+		node.getController().setCommandListener(new CommandListenerAbstract(SYNC_CMD, Priority.CLUSTER) {
+			@Override
+			public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+									   Queue<Element> packets) throws ClusterCommandException {
+				for (Element item : packets) {
+					state.add(item.getAttributeStaticStr("jid"));
+				}
+			}
+		});
+	}
+}
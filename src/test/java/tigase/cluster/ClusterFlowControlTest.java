@@ -0,0 +1,206 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPIOService;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClusterFlowControlTest {
+
+	private static final String NODE = "node2.example.com";
+	private static final JID LOCAL = JID.jidInstanceNS("node1.example.com");
+
+	private ClusterConnection conns;
+	private ClusterFlowControl flowControl;
+	private List<Packet> sent;
+	private TestService service;
+
+	@Before
+	public void setUp() {
+		flowControl = new ClusterFlowControl();
+		flowControl.setEnabled(true);
+		flowControl.setWindowSize(1000);
+		flowControl.setMaxDeferredPackets(2);
+		service = new TestService();
+		conns = new ClusterConnection(NODE);
+		conns.addConn(service);
+		sent = new ArrayList<>();
+	}
+
+	@Test
+	public void testWindowUpdates() {
+		service.received = 499;
+		assertNull(flowControl.bytesReceived(LOCAL, NODE, service));
+
+		service.received = 600;
+		Packet update = flowControl.bytesReceived(LOCAL, NODE, service);
+		assertNotNull(update);
+		assertTrue(flowControl.isWindowUpdate(update));
+		assertEquals(Priority.CLUSTER, update.getPriority());
+		assertEquals(JID.jidInstanceNS(NODE), update.getTo());
+		assertEquals("600", update.getElement()
+				.getChild(ClusterFlowControl.FLOW_EL_NAME, ClusterFlowControl.FLOW_XMLNS)
+				.getAttributeStaticStr("ack"));
+
+		// only bytes received since last update are acknowledged
+		service.received = 700;
+		assertNull(flowControl.bytesReceived(LOCAL, NODE, service));
+		Packet[] pending = flowControl.pendingWindowUpdates(LOCAL);
+		assertEquals(1, pending.length);
+		assertEquals("100", pending[0].getElement()
+				.getChild(ClusterFlowControl.FLOW_EL_NAME, ClusterFlowControl.FLOW_XMLNS)
+				.getAttributeStaticStr("ack"));
+		assertEquals(0, flowControl.pendingWindowUpdates(LOCAL).length);
+	}
+
+	@Test
+	public void testOverloadWithholdsWindowUpdates() {
+		flowControl.setOverloaded(true);
+		service.received = 800;
+		assertNull(flowControl.bytesReceived(LOCAL, NODE, service));
+		assertEquals(0, flowControl.pendingWindowUpdates(LOCAL).length);
+
+		flowControl.setOverloaded(false);
+		Packet[] pending = flowControl.pendingWindowUpdates(LOCAL);
+		assertEquals(1, pending.length);
+		assertEquals("800", pending[0].getElement()
+				.getChild(ClusterFlowControl.FLOW_EL_NAME, ClusterFlowControl.FLOW_XMLNS)
+				.getAttributeStaticStr("ack"));
+	}
+
+	@Test
+	public void testCreditAccounting() {
+		// node which has not sent any window update is not limited
+		service.sent = 5000;
+		assertTrue(flowControl.send(packet("1"), conns, sent::add));
+		assertEquals(1, sent.size());
+
+		flowControl.windowUpdateReceived(NODE, windowUpdate(4500));
+		assertEquals(500, flowControl.getInFlight(NODE));
+
+		service.sent = 5600;
+		assertTrue(flowControl.send(packet("2"), conns, sent::add));
+		assertTrue(flowControl.send(packet("3"), conns, sent::add));
+		assertEquals(1, sent.size());
+		assertEquals(2, flowControl.getDeferredCount(NODE));
+
+		// no space left to defer packets
+		assertFalse(flowControl.send(packet("4"), conns, sent::add));
+		assertEquals(2, flowControl.getDeferredCount(NODE));
+
+		flowControl.windowUpdateReceived(NODE, windowUpdate(1000));
+		assertEquals(2, flowControl.releaseDeferred(NODE, conns, sent::add));
+		assertEquals(3, sent.size());
+		assertEquals("2", sent.get(1).getStanzaId());
+		assertEquals("3", sent.get(2).getStanzaId());
+		assertEquals(0, flowControl.getDeferredCount(NODE));
+	}
+
+	@Test
+	public void testDeferredWhenConnectionsAreFull() {
+		// node which has not sent any window update is not limited
+		service.waiting = 20000;
+		assertTrue(flowControl.send(packet("0"), conns, sent::add));
+		assertEquals(1, sent.size());
+		sent.clear();
+
+		flowControl.windowUpdateReceived(NODE, windowUpdate(0));
+		assertFalse(flowControl.hasBackpressuredNodes());
+		assertTrue(flowControl.send(packet("1"), conns, sent::add));
+		assertTrue(sent.isEmpty());
+		assertTrue(flowControl.hasBackpressuredNodes());
+
+		// packets with cluster priority are never deferred
+		Packet clusterPacket = packet("2");
+		clusterPacket.setPriority(Priority.CLUSTER);
+		assertTrue(flowControl.send(clusterPacket, conns, sent::add));
+		assertEquals(1, sent.size());
+
+		assertEquals(0, flowControl.releaseDeferred(NODE, conns, sent::add));
+		service.waiting = 0;
+		flowControl.releaseDeferred(node -> conns, sent::add);
+		assertEquals(2, sent.size());
+		assertEquals("1", sent.get(1).getStanzaId());
+		assertFalse(flowControl.hasBackpressuredNodes());
+
+		// deferred packets are dropped when node disconnects
+		service.waiting = 20000;
+		flowControl.send(packet("3"), conns, sent::add);
+		assertEquals(1, flowControl.getDeferredCount(NODE));
+		flowControl.nodeDisconnected(NODE);
+		assertEquals(0, flowControl.getDeferredCount(NODE));
+		assertFalse(flowControl.hasBackpressuredNodes());
+	}
+
+	@Test
+	public void testDisabled() {
+		flowControl.setEnabled(false);
+		service.waiting = 20000;
+		assertTrue(flowControl.send(packet("1"), conns, sent::add));
+		assertEquals(1, sent.size());
+		service.received = 5000;
+		assertNull(flowControl.bytesReceived(LOCAL, NODE, service));
+	}
+
+	private Packet packet(String id) {
+		Element message = new Element("message", new String[]{"id", "from", "to"},
+									  new String[]{id, "user@node1.example.com/res", "user@" + NODE + "/res"});
+		return Packet.packetInstance(message, JID.jidInstanceNS("sess-man@node1.example.com"),
+									 JID.jidInstanceNS("sess-man@" + NODE));
+	}
+
+	private Packet windowUpdate(long ack) {
+		Element iq = new Element("iq", new String[]{"type", "id"}, new String[]{"set", "flow-1"});
+		iq.addChild(new Element(ClusterFlowControl.FLOW_EL_NAME, new String[]{"xmlns", "ack"},
+								new String[]{ClusterFlowControl.FLOW_XMLNS, String.valueOf(ack)}));
+		return Packet.packetInstance(iq, JID.jidInstanceNS(NODE), LOCAL);
+	}
+
+	private static class TestService
+			extends XMPPIOService<Object> {
+
+		private long received;
+		private long sent;
+		private int waiting;
+
+		@Override
+		public long getTotalBytesReceived() {
+			return received;
+		}
+
+		@Override
+		public long getTotalBytesSent() {
+			return sent;
+		}
+
+		@Override
+		public int waitingToSendSize() {
+			return waiting;
+		}
+	}
+}
@@ -0,0 +1,440 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.cluster.api.ClusterControllerIfc;
+import tigase.cluster.repo.ClConConfigRepository;
+import tigase.cluster.repo.ClusterRepoItem;
+import tigase.component.DSLBeanConfigurator;
+import tigase.component.DSLBeanConfiguratorWithBackwardCompatibility;
+import tigase.conf.ConfigBuilder;
+import tigase.conf.ConfigHolder;
+import tigase.eventbus.EventBus;
+import tigase.eventbus.impl.EventBusImplementation;
+import tigase.kernel.DefaultTypesConverter;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.selector.ConfigTypeEnum;
+import tigase.kernel.beans.selector.ServerBeanSelector;
+import tigase.kernel.core.Kernel;
+import tigase.server.AbstractMessageReceiver;
+import tigase.server.MessageRouter;
+import tigase.server.Packet;
+import tigase.server.test.TestComponent;
+import tigase.util.dns.DNSResolverDefault;
+import tigase.util.dns.DNSResolverFactory;
+import tigase.util.reflection.ClassUtilBean;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+import tigase.xmpp.NoConnectionIdException;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.roster.RosterFactory;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Test harness running several clustered Tigase nodes inside a single JVM. Every node has its own {@link Kernel}
+ * configured in the {@code session-manager} mode with {@link MessageRouter}, {@link ClusterConnectionManager},
+ * {@link SessionManagerClustered}, {@link ClusterController} and {@link TestComponent} with its
+ * {@code TestGeneratorModule}, and its own in-memory data source and event bus.
+ * <br>
+ * Cluster connections are replaced by an in-memory transport: {@link NodeConnectionManager} serializes every packet
+ * which would be written to a cluster socket and parses it on the destination node, so packets cross the same
+ * serialization boundary as between real nodes, but socket I/O, handshakes and flow control window updates are not
+ * simulated. Instead of client connections each node has a {@link ClientConnectionSink} registered as {@code c2s},
+ * which receives packets sent by the session manager to user connections opened with
+ * {@link Node#login(String, String)}.
+ * <br>
+ * Components take the node hostname from the default host of the DNS resolver while they are created, so the harness
+ * installs {@link NodeDNSResolver} returning the hostname of the node being started. Check {@link #isSupported()}
+ * before starting nodes.
+ */
+public class ClusterHarness
+		implements AutoCloseable {
+
+	public static final String DOMAIN = "cluster.test";
+
+	private static final ThreadLocal<String> NODE_HOSTNAME = new ThreadLocal<>();
+	private static final Logger log = Logger.getLogger(ClusterHarness.class.getName());
+
+	private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+	/**
+	 * Installs {@link NodeDNSResolver}, which is required to give each node its own hostname.
+	 *
+	 * @return <code>false</code> if other DNS resolver instance is already in use by this JVM and nodes started by the
+	 * harness would share a single hostname
+	 */
+	public static boolean isSupported() {
+		DNSResolverFactory.setDnsResolverClassName(NodeDNSResolver.class.getName());
+		return DNSResolverFactory.getInstance() instanceof NodeDNSResolver;
+	}
+
+	/**
+	 * Starts a new node and connects it to all nodes already running.
+	 */
+	public Node startNode(String hostname) {
+		if (nodes.containsKey(hostname)) {
+			throw new IllegalStateException("Node " + hostname + " is already running");
+		}
+		Node node = new Node(hostname);
+		for (Node other : nodes.values()) {
+			node.connectionManager.connected(other.connectionManager);
+			other.connectionManager.connected(node.connectionManager);
+		}
+		nodes.put(hostname, node);
+		return node;
+	}
+
+	/**
+	 * Disconnects node from all other nodes and shuts down its kernel.
+	 */
+	public void stopNode(String hostname) {
+		Node node = nodes.remove(hostname);
+		if (node == null) {
+			return;
+		}
+		for (Node other : nodes.values()) {
+			other.connectionManager.disconnected(hostname);
+			node.connectionManager.disconnected(other.hostname);
+		}
+		node.kernel.shutdown();
+	}
+
+	public Node getNode(String hostname) {
+		return nodes.get(hostname);
+	}
+
+	public Collection<Node> getNodes() {
+		return Collections.unmodifiableCollection(nodes.values());
+	}
+
+	@Override
+	public void close() {
+		for (String hostname : new ArrayList<>(nodes.keySet())) {
+			stopNode(hostname);
+		}
+	}
+
+	private static Map<String, Object> prepareConfig(String hostname) {
+		return new ConfigBuilder().with("config-type", ConfigTypeEnum.SessionManagerMode.id())
+				.with("cluster-mode", Boolean.TRUE)
+				.with("default-virtual-host", DOMAIN)
+				.withBean(ds -> ds.name("dataSource")
+						.withBean(def -> def.name("default").with("uri", "memory://" + hostname + "?autoCreateUser=true")))
+				.withBean(sm -> sm.name("sess-man").clazz(NodeSessionManager.class).active(true))
+				.withBean(cl -> cl.name("cl-comp")
+						.clazz(NodeConnectionManager.class)
+						.active(true)
+						.withBean(repo -> repo.name("clConRepositoryBean").clazz(ClConConfigRepository.class)))
+				.withBean(c2s -> c2s.name("c2s").clazz(ClientConnectionSink.class).active(true))
+				.withBean(test -> test.name("test")
+						.clazz(TestComponent.class)
+						.active(true)
+						.withBean(spam -> spam.name("test-spam-module").active(false)))
+				.build();
+	}
+
+	public class Node {
+
+		private final ClientConnectionSink connections;
+		private final NodeConnectionManager connectionManager;
+		private final String hostname;
+		private final Kernel kernel;
+		private final NodeSessionManager sessionManager;
+		private final TestComponent testComponent;
+
+		private Node(String hostname) {
+			this.hostname = hostname;
+			this.kernel = new Kernel(hostname);
+
+			NODE_HOSTNAME.set(hostname);
+			try {
+				// the same beans as registered by Bootstrap, but with configuration and event bus of this node
+				kernel.registerBean("classUtilBean").asInstance(ClassUtilBean.getInstance()).exportable().exec();
+				kernel.registerBean(DefaultTypesConverter.class).exportable().exec();
+				kernel.registerBean(DSLBeanConfiguratorWithBackwardCompatibility.class).exportable().exec();
+				kernel.registerBean("eventBus").asInstance(new EventBusImplementation()).exportable().exec();
+
+				ConfigHolder config = new ConfigHolder();
+				config.setProperties(prepareConfig(hostname));
+				DSLBeanConfigurator configurator = kernel.getInstance(DSLBeanConfigurator.class);
+				configurator.setConfigHolder(config);
+
+				kernel.registerBean("beanSelector").asInstance(new ServerBeanSelector()).exportable().exec();
+				kernel.registerBean(RosterFactory.Bean.class).setPinned(true).exec();
+				kernel.getInstance(RosterFactory.Bean.class);
+
+				configurator.registerBeans(null, null, config.getProperties());
+
+				MessageRouter mr = kernel.getInstance("message-router");
+				mr.start();
+
+				this.sessionManager = kernel.getInstance("sess-man");
+				this.connectionManager = kernel.getInstance("cl-comp");
+				this.connections = kernel.getInstance("c2s");
+				this.testComponent = kernel.getInstance("test");
+			} finally {
+				NODE_HOSTNAME.remove();
+			}
+		}
+
+		public ClientConnectionSink getConnections() {
+			return connections;
+		}
+
+		public NodeConnectionManager getConnectionManager() {
+			return connectionManager;
+		}
+
+		public String getHostname() {
+			return hostname;
+		}
+
+		public Kernel getKernel() {
+			return kernel;
+		}
+
+		public NodeSessionManager getSessionManager() {
+			return sessionManager;
+		}
+
+		/**
+		 * Returns address of {@link TestComponent} of this node, a message with body {@code //genn N} sent to this
+		 * address generates {@code N} messages to the sender.
+		 */
+		public JID getTestComponentJid() {
+			return testComponent.getComponentId();
+		}
+
+		/**
+		 * Opens a session of {@code localpart@}{@link #DOMAIN} user with the resource bound, as done by the session
+		 * manager for a user connected to this node.
+		 */
+		public XMPPResourceConnection login(String localpart, String resource) {
+			return sessionManager.login(BareJID.bareJIDInstanceNS(localpart, DOMAIN), resource);
+		}
+
+		/**
+		 * Passes stanza to the session manager of this node as if it was received from the user connection.
+		 */
+		public void send(XMPPResourceConnection conn, Element stanza) {
+			try {
+				sessionManager.send(conn, stanza);
+			} catch (NoConnectionIdException | TigaseStringprepException ex) {
+				throw new IllegalStateException("Could not send " + stanza + " from " + conn, ex);
+			}
+		}
+	}
+
+	/**
+	 * Returns hostname of the node being started by the current thread as the default host, so each node gets its own
+	 * hostname.
+	 */
+	public static class NodeDNSResolver
+			extends DNSResolverDefault {
+
+		@Override
+		public String getDefaultHost() {
+			String hostname = NODE_HOSTNAME.get();
+			return hostname == null ? super.getDefaultHost() : hostname;
+		}
+
+		@Override
+		public String[] getDefaultHosts() {
+			String hostname = NODE_HOSTNAME.get();
+			return hostname == null ? super.getDefaultHosts() : new String[]{hostname};
+		}
+	}
+
+	/**
+	 * Cluster connection manager which does not open sockets. Connections to other nodes are established by the
+	 * harness and packets are passed to the connection manager of the destination node.
+	 */
+	public static class NodeConnectionManager
+			extends ClusterConnectionManager {
+
+		private final Map<String, NodeConnectionManager> connected = new ConcurrentHashMap<>();
+		private final AtomicLong packetsReceived = new AtomicLong();
+		private final AtomicLong packetsSent = new AtomicLong();
+		private boolean clusterInitialized = false;
+		private ClusterControllerIfc nodeClusterController = null;
+		@Inject
+		private EventBus nodeEventBus = null;
+		@Inject(nullAllowed = true)
+		private ClusterFlowControl nodeFlowControl = null;
+
+		public long getPacketsReceived() {
+			return packetsReceived.get();
+		}
+
+		public long getPacketsSent() {
+			return packetsSent.get();
+		}
+
+		@Override
+		public void itemAdded(ClusterRepoItem repoItem) {
+			log.log(Level.FINE, "Connections are established by the harness, ignoring: {0}", repoItem);
+		}
+
+		@Override
+		public void setClusterController(ClusterControllerIfc cl_controller) {
+			super.setClusterController(cl_controller);
+			nodeClusterController = cl_controller;
+		}
+
+		@Override
+		protected int[] getDefPlainPorts() {
+			return null;
+		}
+
+		@Override
+		protected boolean writePacketToSocket(Packet p) {
+			NodeConnectionManager remote = connected.get(p.getTo().getDomain());
+			if (remote == null) {
+				log.log(Level.WARNING, "No cluster connection to send a packet: {0}", p);
+
+				return false;
+			}
+			packetsSent.incrementAndGet();
+			remote.receive(p.getElement().toString());
+
+			return true;
+		}
+
+		private void connected(NodeConnectionManager remote) {
+			String addr = remote.getDefHostName().getDomain();
+			if (connected.putIfAbsent(addr, remote) != null) {
+				return;
+			}
+			for (String route : new String[]{addr, ".*@" + addr, ".*\\." + addr}) {
+				addRegexRouting(route);
+			}
+			updateServiceDiscoveryItem(addr, addr, XMLNS + " connected", true);
+			nodeClusterController.nodeConnected(addr);
+			synchronized (this) {
+				if (!clusterInitialized) {
+					clusterInitialized = true;
+					nodeEventBus.fire(new ClusterInitializedEvent());
+				}
+			}
+		}
+
+		private void disconnected(String addr) {
+			if (connected.remove(addr) == null) {
+				return;
+			}
+			for (String route : new String[]{addr, ".*@" + addr, ".*\\." + addr}) {
+				removeRegexRouting(route);
+			}
+			updateServiceDiscoveryItem(addr, addr, XMLNS + " disconnected", true);
+			nodeClusterController.nodeDisconnected(addr);
+			if (nodeFlowControl != null) {
+				nodeFlowControl.nodeDisconnected(addr);
+			}
+		}
+
+		private void receive(String data) {
+			DomBuilderHandler domHandler = new DomBuilderHandler();
+			SimpleParser parser = SingletonFactory.getParserInstance();
+
+			parser.parse(domHandler, data.toCharArray(), 0, data.length());
+
+			Queue<Element> elems = domHandler.getParsedElements();
+			Element elem;
+			while ((elem = elems.poll()) != null) {
+				packetsReceived.incrementAndGet();
+				try {
+					Packet packet = Packet.packetInstance(elem);
+					addOutPacket(packet.isRouted() ? packet.unpackRouted() : packet);
+				} catch (TigaseStringprepException ex) {
+					log.log(Level.WARNING, "Packet stringprep addressing problem, dropping packet: {0}", elem);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Session manager allowing the harness to open user sessions and pass stanzas from them without client
+	 * connection managers.
+	 */
+	public static class NodeSessionManager
+			extends SessionManagerClustered {
+
+		public XMPPResourceConnection login(BareJID userId, String resource) {
+			JID connectionId = JID.jidInstanceNS("c2s", getDefHostName().getDomain(), UUID.randomUUID().toString());
+			XMPPResourceConnection conn = loginUserSession(connectionId, userId.getDomain(), userId, resource,
+														   UUID.randomUUID().toString(), false);
+			if (conn == null) {
+				throw new IllegalStateException(
+						"Could not open session for " + userId + "/" + resource + " on " + getDefHostName());
+			}
+			return conn;
+		}
+
+		public void send(XMPPResourceConnection conn, Element stanza)
+				throws NoConnectionIdException, TigaseStringprepException {
+			Packet packet = Packet.packetInstance(stanza);
+
+			packet.setPacketFrom(conn.getConnectionId());
+			packet.setPacketTo(getComponentId());
+			addPacket(packet);
+		}
+	}
+
+	/**
+	 * Replaces client connection manager of a node and passes packets sent to user connections to registered
+	 * listeners. Listeners are called from the component processing threads.
+	 */
+	public static class ClientConnectionSink
+			extends AbstractMessageReceiver {
+
+		private final List<Consumer<Packet>> listeners = new CopyOnWriteArrayList<>();
+		private final AtomicLong packetsReceived = new AtomicLong();
+
+		public void addListener(Consumer<Packet> listener) {
+			listeners.add(listener);
+		}
+
+		public long getPacketsReceived() {
+			return packetsReceived.get();
+		}
+
+		public void removeListener(Consumer<Packet> listener) {
+			listeners.remove(listener);
+		}
+
+		@Override
+		public void processPacket(Packet packet) {
+			packetsReceived.incrementAndGet();
+			for (Consumer<Packet> listener : listeners) {
+				listener.accept(packet);
+			}
+		}
+	}
+}
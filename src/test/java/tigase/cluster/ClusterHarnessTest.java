@@ -0,0 +1,279 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.server.Message;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests and benchmarks of clustered nodes started by {@link ClusterHarness}. Each node boots a complete kernel, so all
+ * tests are slow. Timings printed by the benchmarks include session manager processing, clustering strategy, cluster
+ * controller and serialization of cluster packets, but not sockets.
+ */
+@Category(tigase.tests.SlowTest.class)
+public class ClusterHarnessTest {
+
+	private static final long TIMEOUT = 60;
+
+	private ClusterHarness cluster;
+
+	@Before
+	public void setUp() {
+		Assume.assumeTrue("Other DNS resolver is already in use, nodes would share a hostname",
+						  ClusterHarness.isSupported());
+		cluster = new ClusterHarness();
+	}
+
+	@After
+	public void tearDown() {
+		if (cluster != null) {
+			cluster.close();
+		}
+	}
+
+	@Test
+	public void testNodeJoinAndLeave() throws Exception {
+		ClusterHarness.Node node1 = cluster.startNode("node1.cluster.test");
+		ClusterHarness.Node node2 = cluster.startNode("node2.cluster.test");
+		ClusterHarness.Node node3 = cluster.startNode("node3.cluster.test");
+
+		assertEquals(JID.jidInstanceNS("sess-man", "node1.cluster.test", null),
+					 node1.getSessionManager().getComponentId());
+		assertEquals(2, node1.getSessionManager().getNodesConnected().size());
+		assertEquals(3, node1.getSessionManager().getNodesConnectedWithLocal().size());
+
+		cluster.stopNode(node2.getHostname());
+		assertEquals(Collections.singletonList(node3.getSessionManager().getComponentId()),
+					 node1.getSessionManager().getNodesConnected());
+		assertEquals(Collections.singletonList(node1.getSessionManager().getComponentId()),
+					 node3.getSessionManager().getNodesConnected());
+	}
+
+	@Test
+	public void testMessageToTestComponentOnOtherNode() throws Exception {
+		ClusterHarness.Node node1 = cluster.startNode("node1.cluster.test");
+		ClusterHarness.Node node2 = cluster.startNode("node2.cluster.test");
+
+		XMPPResourceConnection conn = node2.login("user", "res");
+		BlockingQueue<Packet> received = collectMessages(node2, conn);
+
+		node2.send(conn, message(conn, node1.getTestComponentJid(), "1", "//genn 10"));
+
+		Set<String> senders = new HashSet<>();
+		Packet packet;
+		while ((packet = received.poll(TIMEOUT, TimeUnit.SECONDS)) != null) {
+			senders.add(packet.getStanzaFrom().toString());
+			if (packet.getElemCDataStaticStr(Message.MESSAGE_BODY_PATH).startsWith("Completed")) {
+				break;
+			}
+		}
+		assertNotNull("Generated messages not delivered from " + node1.getHostname(), packet);
+		assertEquals(11, senders.size());
+		assertTrue(node1.getConnectionManager().getPacketsSent() > 0);
+	}
+
+	@Test
+	public void testCrossNodeMessageLatency() throws Exception {
+		ClusterHarness.Node node1 = cluster.startNode("node1.cluster.test");
+		ClusterHarness.Node node2 = cluster.startNode("node2.cluster.test");
+
+		XMPPResourceConnection conn = node2.login("user", "res");
+		BlockingQueue<Packet> received = collectMessages(node2, conn);
+		JID testJid = node1.getTestComponentJid();
+
+		// warm-up
+		for (int i = 0; i < 1000; i++) {
+			node2.send(conn, message(conn, testJid, "w" + i, "ping"));
+			assertNotNull(received.poll(TIMEOUT, TimeUnit.SECONDS));
+		}
+
+		int rounds = 10000;
+		long[] times = new long[rounds];
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			node2.send(conn, message(conn, testJid, "p" + i, "ping"));
+			assertNotNull(received.poll(TIMEOUT, TimeUnit.SECONDS));
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		System.out.println("Cross-node message round-trip: " + rounds + " rounds, p50 " + (times[rounds / 2] / 1000) +
+								   "us, p99 " + (times[rounds * 99 / 100] / 1000) + "us, max " +
+								   (times[rounds - 1] / 1000) + "us");
+
+		int generated = 100000;
+		long start = System.nanoTime();
+		node2.send(conn, message(conn, testJid, "genn", "//genn " + generated));
+		int count = 0;
+		Packet packet;
+		while ((packet = received.poll(TIMEOUT, TimeUnit.SECONDS)) != null) {
+			count++;
+			if (packet.getElemCDataStaticStr(Message.MESSAGE_BODY_PATH).startsWith("Completed")) {
+				break;
+			}
+		}
+		long time = System.nanoTime() - start;
+		assertEquals(generated + 1, count);
+		System.out.println("Cross-node generated messages: " + generated + " in " + (time / 1000000) + "ms, " +
+								   (generated * 1000000000L / time) + " messages/s");
+	}
+
+	@Test
+	public void testPresenceFanOut() throws Exception {
+		int nodesCount = 4;
+		List<ClusterHarness.Node> nodes = new ArrayList<>();
+		List<XMPPResourceConnection> conns = new ArrayList<>();
+		for (int i = 0; i < nodesCount; i++) {
+			ClusterHarness.Node node = cluster.startNode("node" + i + ".cluster.test");
+			nodes.add(node);
+			conns.add(node.login("fanout", "res" + i));
+		}
+
+		// every resource of the user is available, presence of one resource is sent to all others
+		CountDownLatch initial = new CountDownLatch(nodesCount * (nodesCount - 1));
+		Consumer<Packet> initialCounter = countPresences(initial, null);
+		nodes.forEach(node -> node.getConnections().addListener(initialCounter));
+		for (int i = 0; i < nodesCount; i++) {
+			nodes.get(i).send(conns.get(i), presence(conns.get(i), "initial"));
+		}
+		assertTrue(initial.await(TIMEOUT, TimeUnit.SECONDS));
+		nodes.forEach(node -> node.getConnections().removeListener(initialCounter));
+
+		int updates = 20000;
+		XMPPResourceConnection sender = conns.get(0);
+		CountDownLatch done = new CountDownLatch(updates * (nodesCount - 1));
+		Consumer<Packet> updateCounter = countPresences(done, sender.getJID());
+		nodes.forEach(node -> node.getConnections().addListener(updateCounter));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < updates; i++) {
+			nodes.get(0).send(sender, presence(sender, "update " + i));
+		}
+		assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+		long time = System.nanoTime() - start;
+		System.out.println("Presence fan-out: " + updates + " presences to " + (nodesCount - 1) + " nodes in " +
+								   (time / 1000000) + "ms, " + (updates * (nodesCount - 1) * 1000000000L / time) +
+								   " deliveries/s");
+	}
+
+	@Test
+	public void testJoinLeaveResync() throws Exception {
+		int nodesCount = 3;
+		int usersPerNode = 500;
+		List<JID> users = new ArrayList<>();
+		BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+		for (int i = 0; i < nodesCount; i++) {
+			ClusterHarness.Node node = cluster.startNode("node" + i + ".cluster.test");
+			node.getConnections().addListener(messageCollector(received));
+			for (int j = 0; j < usersPerNode; j++) {
+				users.add(node.login("user" + i + "_" + j, "res").getJID());
+			}
+		}
+
+		long start = System.nanoTime();
+		ClusterHarness.Node joining = cluster.startNode("joining.cluster.test");
+		long joinTime = System.nanoTime() - start;
+		for (ClusterHarness.Node node : cluster.getNodes()) {
+			assertEquals(nodesCount, node.getSessionManager().getNodesConnected().size());
+		}
+
+		// the joining node is in sync when users connected to the other nodes are reachable from it
+		XMPPResourceConnection conn = joining.login("joining", "res");
+		start = System.nanoTime();
+		for (JID user : users) {
+			joining.send(conn, message(conn, user, null, "hello"));
+		}
+		for (int i = 0; i < users.size(); i++) {
+			assertNotNull(received.poll(TIMEOUT, TimeUnit.SECONDS));
+		}
+		long resyncTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		cluster.stopNode(joining.getHostname());
+		long leaveTime = System.nanoTime() - start;
+		for (ClusterHarness.Node node : cluster.getNodes()) {
+			assertEquals(nodesCount - 1, node.getSessionManager().getNodesConnected().size());
+		}
+
+		System.out.println("Node join: " + (joinTime / 1000000) + "ms, " + users.size() +
+								   " users on other nodes reachable after " + (resyncTime / 1000000) +
+								   "ms, node leave: " + (leaveTime / 1000000) + "ms");
+	}
+
+	private BlockingQueue<Packet> collectMessages(ClusterHarness.Node node, XMPPResourceConnection conn)
+			throws Exception {
+		BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+		JID jid = conn.getJID();
+		node.getConnections().addListener(packet -> {
+			if (jid.equals(packet.getStanzaTo())) {
+				messageCollector(received).accept(packet);
+			}
+		});
+		return received;
+	}
+
+	private Consumer<Packet> messageCollector(BlockingQueue<Packet> received) {
+		return packet -> {
+			if (packet.getElemName() == Message.ELEM_NAME) {
+				received.offer(packet);
+			}
+		};
+	}
+
+	private Consumer<Packet> countPresences(CountDownLatch latch, JID from) {
+		return packet -> {
+			if (packet.getElemName() == "presence" && (from == null || from.equals(packet.getStanzaFrom()))) {
+				latch.countDown();
+			}
+		};
+	}
+
+	private Element message(XMPPResourceConnection conn, JID to, String id, String body) throws Exception {
+		Element message = new Element(Message.ELEM_NAME, new String[]{"from", "to", "type"},
+									  new String[]{conn.getJID().toString(), to.toString(), "chat"});
+		if (id != null) {
+			message.setAttribute("id", id);
+		}
+		message.addChild(new Element("body", body));
+		message.setXMLNS(Packet.CLIENT_XMLNS);
+		return message;
+	}
+
+	private Element presence(XMPPResourceConnection conn, String status) throws Exception {
+		Element presence = new Element("presence", new String[]{"from"}, new String[]{conn.getJID().toString()});
+		presence.addChild(new Element("status", status));
+		presence.setXMLNS(Packet.CLIENT_XMLNS);
+		return presence;
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.auth.credentials.Credentials;
+import tigase.auth.credentials.entries.PlainCredentialsEntry;
+import tigase.db.beans.AuthRepositoryMDPoolBean;
+import tigase.eventbus.EventBusFactory;
+import tigase.eventbus.EventListener;
+import tigase.xmpp.jid.BareJID;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AuthRepositoryMDImplTest {
+
+	private static final BareJID USER = BareJID.bareJIDInstanceNS("user@example.com");
+
+	private final AtomicInteger credentialsLookups = new AtomicInteger();
+	private final LinkedBlockingQueue<BareJID> events = new LinkedBlockingQueue<>();
+	private final EventListener<AuthRepository.CredentialsChangedEvent> listener = event -> events.offer(
+			event.getJid());
+	private final Map<BareJID, String> passwords = new ConcurrentHashMap<>();
+	private final AtomicInteger statusLookups = new AtomicInteger();
+	private AuthRepositoryMDPoolBean pool;
+
+	@Before
+	public void setUp() {
+		AuthRepository repo = (AuthRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+																	  new Class[]{AuthRepository.class},
+																	  (proxy, method, args) -> {
+			BareJID user = args != null && args.length > 0 && args[0] instanceof BareJID ? (BareJID) args[0] : null;
+			switch (method.getName()) {
+				case "getCredentials":
+					credentialsLookups.incrementAndGet();
+					String password = passwords.get(user);
+					return password == null
+						   ? null
+						   : new AuthRepository.SingleCredential(user, AuthRepository.AccountStatus.active,
+																 new PlainCredentialsEntry(password));
+				case "getAccountStatus":
+					statusLookups.incrementAndGet();
+					return passwords.containsKey(user) ? AuthRepository.AccountStatus.active : null;
+				case "addUser":
+				case "updatePassword":
+					passwords.put(user, (String) args[1]);
+					return null;
+				case "removeUser":
+					passwords.remove(user);
+					return null;
+				default:
+					return method.getReturnType() == boolean.class ? false :
+						   method.getReturnType() == long.class ? 0L : null;
+			}
+		});
+
+		pool = new AuthRepositoryMDPoolBean();
+		pool.setStatisticsEnabled(false);
+		pool.addRepo("default", repo);
+		pool.setDefault(repo);
+		pool.setCredentialsCacheSize(100);
+		EventBusFactory.getInstance().addListener(AuthRepository.CredentialsChangedEvent.class, listener);
+	}
+
+	@After
+	public void tearDown() {
+		EventBusFactory.getInstance().removeListener(listener);
+	}
+
+	@Test
+	public void testCacheHit() throws Exception {
+		passwords.put(USER, "secret");
+
+		assertEquals("secret", getPassword(pool.getCredentials(USER, "default")));
+		assertEquals("secret", getPassword(pool.getCredentials(USER, "default")));
+		assertEquals(1, credentialsLookups.get());
+
+		assertEquals(AuthRepository.AccountStatus.active, pool.getAccountStatus(USER));
+		assertEquals(AuthRepository.AccountStatus.active, pool.getAccountStatus(USER));
+		assertEquals(1, statusLookups.get());
+
+		// different username is a different entry
+		pool.getCredentials(USER, "other");
+		assertEquals(2, credentialsLookups.get());
+	}
+
+	@Test
+	public void testNegativeCaching() throws Exception {
+		assertNull(pool.getCredentials(USER, "default"));
+		assertNull(pool.getCredentials(USER, "default"));
+		assertEquals(1, credentialsLookups.get());
+		assertNull(pool.getAccountStatus(USER));
+		assertNull(pool.getAccountStatus(USER));
+		assertEquals(1, statusLookups.get());
+	}
+
+	@Test
+	public void testAddUserInvalidatesNegativeEntry() throws Exception {
+		assertNull(pool.getCredentials(USER, "default"));
+		assertNull(pool.getAccountStatus(USER));
+
+		pool.addUser(USER, "secret");
+		assertEquals(USER, events.poll(10, TimeUnit.SECONDS));
+
+		assertEquals("secret", getPassword(pool.getCredentials(USER, "default")));
+		assertEquals(AuthRepository.AccountStatus.active, pool.getAccountStatus(USER));
+		assertEquals(2, credentialsLookups.get());
+		assertEquals(2, statusLookups.get());
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		passwords.put(USER, "secret");
+		BareJID other = BareJID.bareJIDInstanceNS("other@example.com");
+		passwords.put(other, "other");
+		pool.getCredentials(USER, "default");
+		pool.getCredentials(other, "default");
+
+		pool.updatePassword(USER, "changed");
+		assertEquals(USER, events.poll(10, TimeUnit.SECONDS));
+		assertEquals("changed", getPassword(pool.getCredentials(USER, "default")));
+		// entries of other users are kept
+		assertEquals("other", getPassword(pool.getCredentials(other, "default")));
+		assertEquals(3, credentialsLookups.get());
+
+		pool.removeUser(USER);
+		assertEquals(USER, events.poll(10, TimeUnit.SECONDS));
+		assertNull(pool.getCredentials(USER, "default"));
+		assertEquals(4, credentialsLookups.get());
+
+		// change made on other cluster node
+		passwords.put(other, "remote");
+		pool.onCredentialsChanged(new AuthRepository.CredentialsChangedEvent(other));
+		assertEquals("remote", getPassword(pool.getCredentials(other, "default")));
+		assertEquals(5, credentialsLookups.get());
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		pool.setCredentialsCacheSize(0);
+		passwords.put(USER, "secret");
+
+		pool.getCredentials(USER, "default");
+		pool.getCredentials(USER, "default");
+		assertEquals(2, credentialsLookups.get());
+	}
+
+	private static String getPassword(Credentials credentials) {
+		assertNotNull(credentials);
+		return ((PlainCredentialsEntry) credentials.getFirst()).getPassword();
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.xml.XMLRepository;
+import tigase.stats.StatisticsList;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.logging.Level;
+
+import static org.junit.Assert.*;
+
+public class UserRepositoryWriteBehindTest {
+
+	private XMLRepository repository;
+	private UserRepositoryWriteBehind writeBehind;
+
+	@Before
+	public void setUp() throws Exception {
+		repository = new XMLRepository();
+		repository.initRepository("memory://xmlRepo?autoCreateUser=true", null);
+		writeBehind = new UserRepositoryWriteBehind();
+		writeBehind.setUserRepository(repository);
+	}
+
+	@Test
+	public void testCoalescingAndFlush() throws Exception {
+		BareJID user1 = BareJID.bareJIDInstance("user1@example.com");
+		BareJID user2 = BareJID.bareJIDInstance("user2@example.com");
+
+		for (int i = 0; i < 10; i++) {
+			writeBehind.setData(user1, "public/jabber:iq:last", "LAST_ACTIVITY_KEY", String.valueOf(i));
+		}
+		writeBehind.setData(user2, "public/jabber:iq:last", "LAST_ACTIVITY_KEY", "100");
+		assertEquals(2, writeBehind.getPendingCount());
+		assertNull(repository.getData(user1, "public/jabber:iq:last", "LAST_ACTIVITY_KEY"));
+
+		writeBehind.flush(user1);
+		assertEquals(1, writeBehind.getPendingCount());
+		assertEquals("9", repository.getData(user1, "public/jabber:iq:last", "LAST_ACTIVITY_KEY"));
+		assertNull(repository.getData(user2, "public/jabber:iq:last", "LAST_ACTIVITY_KEY"));
+
+		writeBehind.flush();
+		assertEquals(0, writeBehind.getPendingCount());
+		assertEquals("100", repository.getData(user2, "public/jabber:iq:last", "LAST_ACTIVITY_KEY"));
+
+		StatisticsList list = new StatisticsList(Level.ALL);
+		writeBehind.getStatistics("sess-man", list);
+		assertEquals(2L, list.getValue("sess-man/userRepositoryWriteBehind", "Written values", -1L));
+		assertEquals(9L, list.getValue("sess-man/userRepositoryWriteBehind", "Coalesced values", -1L));
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import org.junit.Test;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UsersCursorTest {
+
+	@Test
+	public void testBatches() throws TigaseDBException {
+		List<BareJID> users = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			users.add(BareJID.bareJIDInstanceNS("user" + i + "@" + (i % 2 == 0 ? "a.com" : "b.com")));
+		}
+
+		int[] fetches = new int[1];
+		UsersCursor cursor = new UsersCursor("a.com", 10) {
+			private int idx = 0;
+
+			@Override
+			protected int fetchBatch(Queue<BareJID> batch) {
+				fetches[0]++;
+				int count = 0;
+				while (count < batchSize && idx < users.size()) {
+					batch.offer(users.get(idx++));
+					count++;
+				}
+				return count;
+			}
+		};
+
+		List<BareJID> result = new ArrayList<>();
+		BareJID user;
+		while ((user = cursor.next()) != null) {
+			result.add(user);
+		}
+		assertEquals(13, result.size());
+		assertEquals(BareJID.bareJIDInstanceNS("user0@a.com"), result.get(0));
+		assertEquals(BareJID.bareJIDInstanceNS("user24@a.com"), result.get(12));
+		assertEquals(3, fetches[0]);
+		assertNull(cursor.next());
+		assertEquals(3, fetches[0]);
+	}
+
+	@Test
+	public void testCollection() throws TigaseDBException {
+		List<BareJID> users = new ArrayList<>();
+		users.add(BareJID.bareJIDInstanceNS("user1@a.com"));
+		users.add(BareJID.bareJIDInstanceNS("user2@b.com"));
+
+		UsersCursor cursor = UsersCursor.of(users, null);
+		assertEquals(users.get(0), cursor.next());
+		assertEquals(users.get(1), cursor.next());
+		assertNull(cursor.next());
+		assertNull(UsersCursor.of(null, null).next());
+	}
+}
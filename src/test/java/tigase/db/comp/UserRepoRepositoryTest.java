@@ -0,0 +1,177 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.comp;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.UserRepository;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class UserRepoRepositoryTest {
+
+	private final Map<String, String> data = new ConcurrentHashMap<>();
+	private TestRepository repository;
+
+	@Before
+	public void setUp() {
+		UserRepository userRepository = (UserRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+																				 new Class[]{UserRepository.class},
+																				 (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "userExists":
+					return true;
+				case "getData":
+					return data.get((String) args[args.length - 1]);
+				case "setData":
+					data.put((String) args[args.length - 2], (String) args[args.length - 1]);
+					return null;
+				default:
+					return method.getReturnType() == boolean.class ? false : null;
+			}
+		});
+		repository = new TestRepository();
+		repository.setRepo(userRepository);
+	}
+
+	@Test
+	public void testUnmodifiedItemsAreKept() {
+		data.put("items-lists", item("a", "1") + item("b", "1"));
+		repository.reload();
+		TestItem a = repository.getItem("a");
+		TestItem b = repository.getItem("b");
+		assertNotNull(a);
+		assertNotNull(b);
+
+		data.put("items-lists", item("a", "1") + item("b", "2"));
+		repository.reload();
+		assertSame(a, repository.getItem("a"));
+		assertNotSame(b, repository.getItem("b"));
+		assertEquals("2", repository.getItem("b").value);
+
+		data.put("items-lists", item("b", "2"));
+		repository.reload();
+		assertNull(repository.getItem("a"));
+		assertEquals(1, repository.size());
+	}
+
+	@Test
+	public void testModificationWithSameHashCode() {
+		String before = item("a", "1") + item("b", "Aa");
+		String after = item("a", "1") + item("b", "BB");
+		assertEquals("test data should have colliding hash codes", before.hashCode(), after.hashCode());
+
+		data.put("items-lists", before);
+		repository.reload();
+		TestItem a = repository.getItem("a");
+		assertEquals("Aa", repository.getItem("b").value);
+
+		data.put("items-lists", after);
+		repository.reload();
+		assertSame(a, repository.getItem("a"));
+		assertEquals("BB", repository.getItem("b").value);
+	}
+
+	private static String item(String key, String value) {
+		TestItem item = new TestItem();
+		item.key = key;
+		item.value = value;
+		return item.toElement().toString();
+	}
+
+	private static class TestItem
+			extends RepositoryItemAbstract {
+
+		private String key;
+		private String value;
+
+		@Override
+		public String getElemName() {
+			return "item";
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		protected void setKey(String key) {
+			this.key = key;
+		}
+
+		@Override
+		public void initFromElement(Element elem) {
+			super.initFromElement(elem);
+			key = elem.getAttributeStaticStr("key");
+			value = elem.getAttributeStaticStr("value");
+		}
+
+		@Override
+		public void initFromPropertyString(String propString) {
+			key = propString;
+		}
+
+		@Override
+		public Element toElement() {
+			Element elem = super.toElement();
+			elem.addAttribute("key", key);
+			elem.addAttribute("value", value);
+			return elem;
+		}
+
+		@Override
+		public String toPropertyString() {
+			return key;
+		}
+	}
+
+	private static class TestRepository
+			extends UserRepoRepository<TestItem> {
+
+		@Override
+		public void destroy() {
+		}
+
+		@Override
+		public String getConfigKey() {
+			return "test-items";
+		}
+
+		@Override
+		public String getPropertyKey() {
+			return null;
+		}
+
+		@Override
+		public BareJID getRepoUser() {
+			return BareJID.bareJIDInstanceNS("test-items@example.com");
+		}
+
+		@Override
+		public TestItem getItemInstance() {
+			return new TestItem();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.jdbc;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.db.DataRepository;
+import tigase.db.DataRepositoryPool;
+import tigase.tests.SlowTest;
+import tigase.xmpp.jid.BareJID;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.*;
+
+public class PooledDataRepositoryTest {
+
+	private static final String URI = "jdbc:derby:memory:pooledDataRepositoryTest;create=true";
+	private static final String SELECT_QUERY = "select val from pool_test where id = ?";
+	private static final String UPDATE_QUERY = "update pool_test set val = ? where id = ?";
+	private static final int ROWS = 1000;
+
+	private static Connection setupConnection;
+
+	@BeforeClass
+	public static void setUpDatabase() throws Exception {
+		Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+		setupConnection = DriverManager.getConnection(URI);
+		try (Statement st = setupConnection.createStatement()) {
+			st.executeUpdate("CREATE procedure TigGetComponentVersion(component varchar(100)) " +
+									 "PARAMETER STYLE JAVA LANGUAGE JAVA MODIFIES SQL DATA DYNAMIC RESULT SETS 1 " +
+									 "EXTERNAL NAME 'tigase.db.derby.StoredProcedures.tigGetComponentVersion'");
+			st.executeUpdate("create table pool_test (id int not null primary key, val varchar(100))");
+		}
+		try (PreparedStatement ps = setupConnection.prepareStatement("insert into pool_test values (?, ?)")) {
+			for (int i = 0; i < ROWS; i++) {
+				ps.setInt(1, i);
+				ps.setString(2, "value-" + i);
+				ps.executeUpdate();
+			}
+		}
+	}
+
+	@AfterClass
+	public static void tearDownDatabase() throws Exception {
+		if (setupConnection != null) {
+			setupConnection.close();
+		}
+	}
+
+	@Test
+	public void testStatementCheckout() throws Exception {
+		PooledDataRepository pool = createPool(new PooledDataRepository(), 2);
+
+		PreparedStatement first = pool.getPreparedStatement(BareJID.bareJIDInstanceNS("user@example.com"),
+															SELECT_QUERY);
+		ResultSet firstRs;
+		synchronized (first) {
+			first.setInt(1, 1);
+			firstRs = first.executeQuery();
+		}
+		assertEquals(1, pool.getBusyConnectionsCount());
+
+		// first connection is in use until its result set is released, so next call must use another connection
+		PreparedStatement second = pool.getPreparedStatement(BareJID.bareJIDInstanceNS("user@example.com"),
+															 SELECT_QUERY);
+		assertNotSame(first, second);
+		synchronized (second) {
+			second.setInt(1, 2);
+			try (ResultSet rs = second.executeQuery()) {
+				assertTrue(rs.next());
+				assertEquals("value-2", rs.getString(1));
+			}
+		}
+		assertEquals(1, pool.getBusyConnectionsCount());
+
+		assertTrue(firstRs.next());
+		assertEquals("value-1", firstRs.getString(1));
+		assertSame(first, firstRs.getStatement());
+		pool.release(null, firstRs);
+		assertEquals(0, pool.getBusyConnectionsCount());
+
+		// statements which are only obtained or executed as updates do not keep connection in use
+		PreparedStatement update = pool.getPreparedStatement(0, UPDATE_QUERY);
+		assertEquals(0, pool.getBusyConnectionsCount());
+		synchronized (update) {
+			update.setString(1, "value-0");
+			update.setInt(2, 0);
+			assertEquals(1, update.executeUpdate());
+		}
+		assertEquals(0, pool.getBusyConnectionsCount());
+
+		// re-execution closes previous result set, so it is counted only once and closing stale result set does
+		// not release the current one
+		ResultSet stale;
+		ResultSet current;
+		synchronized (first) {
+			first.setInt(1, 3);
+			stale = first.executeQuery();
+			first.setInt(1, 4);
+			current = first.executeQuery();
+		}
+		assertEquals(1, pool.getBusyConnectionsCount());
+		stale.close();
+		assertEquals(1, pool.getBusyConnectionsCount());
+		pool.release(null, current);
+		assertEquals(0, pool.getBusyConnectionsCount());
+
+		// both connections are idle now, so statements for the same connection must be the same instance
+		List<PreparedStatement> statements = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			PreparedStatement ps = pool.getPreparedStatement(i, SELECT_QUERY);
+			synchronized (ps) {
+				ps.setInt(1, i);
+				ps.executeQuery().close();
+			}
+			statements.add(ps);
+		}
+		for (PreparedStatement ps : statements) {
+			assertTrue(ps == first || ps == second);
+		}
+	}
+
+	@Test
+	public void testResultSetHeldAcrossThreads() throws Exception {
+		PooledDataRepository pool = createPool(new PooledDataRepository(), 2);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			PreparedStatement ps = pool.getPreparedStatement(1, SELECT_QUERY);
+			ResultSet rs = executor.submit(() -> {
+				synchronized (ps) {
+					ps.setInt(1, 5);
+					return ps.executeQuery();
+				}
+			}).get(10, TimeUnit.SECONDS);
+
+			// result set is still open, so statements for other callers must come from the other connection
+			for (int i = 0; i < 10; i++) {
+				assertNotSame(ps, pool.getPreparedStatement(i, SELECT_QUERY));
+			}
+			assertEquals(1, pool.getBusyConnectionsCount());
+
+			String value = executor.submit(() -> {
+				synchronized (ps) {
+					try {
+						assertTrue(rs.next());
+						return rs.getString(1);
+					} finally {
+						pool.release(null, rs);
+					}
+				}
+			}).get(10, TimeUnit.SECONDS);
+			assertEquals("value-5", value);
+			assertEquals(0, pool.getBusyConnectionsCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	@Category(SlowTest.class)
+	public void testThroughput() throws Exception {
+		int connections = 4;
+		int threads = 16;
+		int operations = 20000;
+
+		long hashed = runBenchmark(createPool(new DataRepositoryPool(), connections), threads, operations);
+		long pooled = runBenchmark(createPool(new PooledDataRepository(), connections), threads, operations);
+
+		System.out.println("DataRepositoryPool: " + threads + " threads, " + operations + " operations in " + hashed +
+								   "ms, " + (operations * 1000L / Math.max(hashed, 1)) + " ops/s");
+		System.out.println("PooledDataRepository: " + threads + " threads, " + operations + " operations in " +
+								   pooled + "ms, " + (operations * 1000L / Math.max(pooled, 1)) + " ops/s");
+	}
+
+	private <T extends DataRepositoryPool> T createPool(T pool, int connections) throws Exception {
+		pool.initialize(URI);
+		for (int i = 0; i < connections; i++) {
+			DataRepositoryImpl repo = new DataRepositoryImpl();
+			repo.initialize(URI);
+			pool.addRepo(repo);
+		}
+		pool.initPreparedStatement(SELECT_QUERY, SELECT_QUERY);
+		pool.initPreparedStatement(UPDATE_QUERY, UPDATE_QUERY);
+		return pool;
+	}
+
+	private long runBenchmark(DataRepository repo, int threads, int operations) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LongAdder errors = new LongAdder();
+		CountDownLatch done = new CountDownLatch(operations);
+		// a few hot users to reproduce convoys on connections selected by hash
+		BareJID[] users = new BareJID[threads];
+		for (int i = 0; i < users.length; i++) {
+			users[i] = BareJID.bareJIDInstanceNS("user" + (i % 2) + "@example.com");
+		}
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < operations; i++) {
+			final int id = i % ROWS;
+			final BareJID user = users[i % users.length];
+			executor.execute(() -> {
+				try {
+					if (id % 10 == 0) {
+						PreparedStatement ps = repo.getPreparedStatement(user, UPDATE_QUERY);
+						synchronized (ps) {
+							ps.setString(1, "value-" + id);
+							ps.setInt(2, id);
+							ps.executeUpdate();
+						}
+					} else {
+						PreparedStatement ps = repo.getPreparedStatement(user, SELECT_QUERY);
+						ResultSet rs = null;
+						synchronized (ps) {
+							try {
+								ps.setInt(1, id);
+								rs = ps.executeQuery();
+								while (rs.next()) {
+									rs.getString(1);
+								}
+							} finally {
+								repo.release(null, rs);
+							}
+						}
+					}
+				} catch (SQLException ex) {
+					errors.increment();
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(5, TimeUnit.MINUTES));
+		long time = System.currentTimeMillis() - start;
+		executor.shutdown();
+		assertEquals(0, errors.sum());
+		return time;
+	}
+}
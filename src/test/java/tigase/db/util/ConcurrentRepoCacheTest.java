@@ -0,0 +1,132 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.util;
+
+import org.junit.Test;
+import tigase.stats.StatisticsList;
+
+import java.util.logging.Level;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentRepoCacheTest {
+
+	@Test
+	public void testPrefixRemoval() {
+		ConcurrentRepoCache cache = new ConcurrentRepoCache(1000, 0);
+		cache.put("user1@example.com", 1L);
+		cache.put("user1@example.com/roster", 2L);
+		cache.put("user1@example.com/roster\u0000data", "value");
+		cache.put("user1@example.com/privacy", 3L);
+		cache.put("user2@example.com/roster", 4L);
+
+		cache.remove("user1@example.com/roster");
+		assertNull(cache.get("user1@example.com/roster"));
+		assertNull(cache.get("user1@example.com/roster\u0000data"));
+		assertEquals(3L, cache.get("user1@example.com/privacy"));
+		assertEquals(1L, cache.get("user1@example.com"));
+
+		cache.remove("user1@example.com");
+		assertNull(cache.get("user1@example.com"));
+		assertNull(cache.get("user1@example.com/privacy"));
+		assertEquals(4L, cache.get("user2@example.com/roster"));
+	}
+
+	@Test
+	public void testNegativeCaching() {
+		ConcurrentRepoCache cache = new ConcurrentRepoCache(1000, 0);
+		assertNull(cache.get("user@example.com/node\u0000key"));
+		cache.put("user@example.com/node\u0000key", ConcurrentRepoCache.NULL);
+		assertSame(ConcurrentRepoCache.NULL, cache.get("user@example.com/node\u0000key"));
+	}
+
+	@Test
+	public void testStamp() {
+		ConcurrentRepoCache cache = new ConcurrentRepoCache(1000, 0);
+		String key = "user@example.com/node\u0000key";
+		long stamp = cache.getStamp(key);
+		// value modified and invalidated while it was loaded
+		cache.remove(key);
+		cache.put(key, "stale", stamp);
+		assertNull(cache.get(key));
+
+		stamp = cache.getStamp(key);
+		cache.put(key, "fresh", stamp);
+		assertEquals("fresh", cache.get(key));
+	}
+
+	@Test
+	public void testEviction() {
+		ConcurrentRepoCache cache = new ConcurrentRepoCache(10, 0, 1, value -> 1);
+		for (int i = 0; i < 20; i++) {
+			cache.put("user" + i + "@example.com", i);
+		}
+		assertEquals(10, cache.size());
+		assertEquals(10, cache.getEvictions());
+		assertNull(cache.get("user0@example.com"));
+		assertEquals(19, cache.get("user19@example.com"));
+
+		// recently used entry is not evicted
+		assertEquals(10, cache.get("user10@example.com"));
+		cache.put("user20@example.com", 20);
+		assertEquals(10, cache.get("user10@example.com"));
+		assertNull(cache.get("user11@example.com"));
+	}
+
+	@Test
+	public void testWeight() {
+		ConcurrentRepoCache cache = new ConcurrentRepoCache(10, 0, 1, ConcurrentRepoCache::defaultWeight);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 64 * 4; i++) {
+			sb.append('a');
+		}
+		cache.put("user1@example.com", "small");
+		cache.put("user2@example.com", sb.toString());
+		cache.put("user3@example.com", sb.toString());
+		assertEquals(2, cache.size());
+		assertNull(cache.get("user1@example.com"));
+	}
+
+	@Test
+	public void testExpiration() throws InterruptedException {
+		ConcurrentRepoCache cache = new ConcurrentRepoCache(1000, 50);
+		cache.put("user@example.com", "value");
+		assertEquals("value", cache.get("user@example.com"));
+		Thread.sleep(100);
+		assertNull(cache.get("user@example.com"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testStatistics() {
+		ConcurrentRepoCache cache = new ConcurrentRepoCache(1000, 0);
+		cache.put("user@example.com", "value");
+		cache.get("user@example.com");
+		cache.get("user@example.com");
+		cache.get("user@example.com");
+		cache.get("other@example.com");
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.75, cache.getHitRatio(), 0.001);
+
+		StatisticsList list = new StatisticsList(Level.FINEST);
+		cache.getStatistics("test", "cache", list);
+		assertEquals(3, list.getValue("test", "cache/Hits", -1L));
+		assertEquals(1, list.getValue("test", "cache/Misses", -1L));
+	}
+}
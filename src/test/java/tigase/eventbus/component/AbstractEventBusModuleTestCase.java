@@ -0,0 +1,141 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.eventbus.component;
+
+import org.junit.After;
+import org.junit.Before;
+import tigase.component.PacketWriter;
+import tigase.component.responses.AsyncCallback;
+import tigase.eventbus.component.stores.AffiliationStore;
+import tigase.eventbus.component.stores.SubscriptionStore;
+import tigase.eventbus.impl.EventBusImplementation;
+import tigase.server.Packet;
+import tigase.util.common.TimerTask;
+import tigase.xmpp.jid.JID;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Base class for tests of event bus modules, which wires modules with stub component and packet writer.
+ */
+public abstract class AbstractEventBusModuleTestCase {
+
+	protected final JID componentJid = JID.jidInstanceNS("eventbus@node1.example.com");
+	protected AffiliationStore affiliationStore;
+	protected TestComponent component;
+	protected EventBusImplementation localEventBus;
+	protected SubscriptionStore subscriptionStore;
+	protected TestWriter writer;
+
+	protected static void inject(Object bean, Class<?> cls, String fieldName, Object value) throws Exception {
+		Field field = cls.getDeclaredField(fieldName);
+		field.setAccessible(true);
+		field.set(bean, value);
+	}
+
+	@Before
+	public void setUpModules() throws Exception {
+		affiliationStore = new AffiliationStore();
+		component = new TestComponent(componentJid);
+		localEventBus = new EventBusImplementation();
+		localEventBus.setDefaultDispatchMode(EventBusImplementation.DispatchMode.synchronous);
+		subscriptionStore = new SubscriptionStore();
+		writer = new TestWriter();
+	}
+
+	@After
+	public void tearDownModules() {
+		localEventBus = null;
+	}
+
+	protected EventPublisherModule createPublisher(int batchSize) throws Exception {
+		EventPublisherModule publisher = new EventPublisherModule();
+		inject(publisher, AbstractEventBusModule.class, "component", component);
+		inject(publisher, EventPublisherModule.class, "component", component);
+		inject(publisher, EventPublisherModule.class, "localEventBus", localEventBus);
+		inject(publisher, EventPublisherModule.class, "subscriptionStore", subscriptionStore);
+		inject(publisher, EventPublisherModule.class, "batchSize", batchSize);
+		inject(publisher, EventPublisherModule.class, "batchDelay", 1000L);
+		publisher.setWriter(writer);
+		return publisher;
+	}
+
+	protected EventReceiverModule createReceiver(EventPublisherModule publisher) throws Exception {
+		EventReceiverModule receiver = new EventReceiverModule();
+		inject(receiver, AbstractEventBusModule.class, "component", component);
+		inject(receiver, EventReceiverModule.class, "affiliationStore", affiliationStore);
+		inject(receiver, EventReceiverModule.class, "eventPublisherModule", publisher);
+		inject(receiver, EventReceiverModule.class, "localEventBus", localEventBus);
+		inject(receiver, EventReceiverModule.class, "subscriptionStore", subscriptionStore);
+		receiver.setWriter(writer);
+		return receiver;
+	}
+
+	protected static class TestComponent
+			extends EventBusComponent {
+
+		private final JID componentId;
+		private final List<TimerTask> timerTasks = new ArrayList<>();
+
+		TestComponent(JID componentId) {
+			this.componentId = componentId;
+		}
+
+		@Override
+		public void addTimerTask(TimerTask task, long delay) {
+			timerTasks.add(task);
+		}
+
+		@Override
+		public JID getComponentId() {
+			return componentId;
+		}
+
+		public List<TimerTask> getTimerTasks() {
+			return timerTasks;
+		}
+	}
+
+	protected static class TestWriter
+			implements PacketWriter {
+
+		private final List<Packet> packets = new ArrayList<>();
+
+		public List<Packet> getPackets() {
+			return packets;
+		}
+
+		@Override
+		public void write(Collection<Packet> packets) {
+			this.packets.addAll(packets);
+		}
+
+		@Override
+		public void write(Packet packet) {
+			packets.add(packet);
+		}
+
+		@Override
+		public void write(Packet packet, AsyncCallback callback) {
+			packets.add(packet);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.eventbus.component;
+
+import org.junit.Test;
+import tigase.eventbus.component.stores.Subscription;
+import tigase.server.Packet;
+import tigase.util.common.TimerTask;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventPublisherModuleTest
+		extends AbstractEventBusModuleTestCase {
+
+	private Subscription clusterSubscription(String node) {
+		Subscription subscription = new Subscription(JID.jidInstanceNS("eventbus@" + node), componentJid);
+		subscription.setInClusterSubscription(true);
+		return subscription;
+	}
+
+	@Test
+	public void testBatchFlushedWhenFull() throws Exception {
+		EventPublisherModule publisher = createPublisher(3);
+		List<Subscription> subscribers = Collections.singletonList(clusterSubscription("node2.example.com"));
+
+		publisher.publishEvent("test.events", "Ev1", new Element("test.events.Ev1", "1"), subscribers);
+		publisher.publishEvent("test.events", "Ev1", new Element("test.events.Ev1", "2"), subscribers);
+		assertTrue(writer.getPackets().isEmpty());
+		assertEquals(1, component.getTimerTasks().size());
+
+		publisher.publishEvent("test.events", "Ev2", new Element("test.events.Ev2", "3"), subscribers);
+		assertEquals(1, writer.getPackets().size());
+
+		Packet packet = writer.getPackets().get(0);
+		assertEquals(JID.jidInstanceNS("eventbus@node2.example.com"), packet.getStanzaTo());
+		List<Element> itemsElems = packet.getElement()
+				.getChild("event", "http://jabber.org/protocol/pubsub#event")
+				.getChildren();
+		assertEquals(2, itemsElems.size());
+		assertEquals("test.events.Ev1", itemsElems.get(0).getAttributeStaticStr("node"));
+		assertEquals(2, itemsElems.get(0).getChildren().size());
+		assertEquals("test.events.Ev2", itemsElems.get(1).getAttributeStaticStr("node"));
+		assertEquals("3", itemsElems.get(1).getChildren().get(0).getChildren().get(0).getCData());
+
+		// flush timer is cancelled when batch is sent because of its size
+		assertTrue(component.getTimerTasks().get(0).isCancelled());
+	}
+
+	@Test
+	public void testBatchFlushedByTimer() throws Exception {
+		EventPublisherModule publisher = createPublisher(10);
+		List<Subscription> subscribers = Collections.singletonList(clusterSubscription("node2.example.com"));
+
+		publisher.publishEvent("test.events", "Ev1", new Element("test.events.Ev1", "1"), subscribers);
+		assertTrue(writer.getPackets().isEmpty());
+
+		component.getTimerTasks().get(0).run();
+		assertEquals(1, writer.getPackets().size());
+
+		// events for external subscribers are not batched
+		Subscription external = new Subscription(JID.jidInstanceNS("listener@external.example.com"), componentJid);
+		publisher.publishEvent("test.events", "Ev1", new Element("test.events.Ev1", "2"),
+							   Collections.singletonList(external));
+		assertEquals(2, writer.getPackets().size());
+	}
+
+	@Test
+	public void testBatchesDroppedForDisconnectedNode() throws Exception {
+		EventPublisherModule publisher = createPublisher(10);
+		List<Subscription> subscribers = Arrays.asList(clusterSubscription("node2.example.com"),
+													   clusterSubscription("node3.example.com"));
+
+		publisher.publishEvent("test.events", "Ev1", new Element("test.events.Ev1", "1"), subscribers);
+		assertEquals(2, publisher.getBatchesCount());
+
+		publisher.clusterNodeDisconnected(JID.jidInstanceNS("sess-man@node2.example.com"));
+		assertEquals(1, publisher.getBatchesCount());
+
+		for (TimerTask task : component.getTimerTasks()) {
+			task.run();
+		}
+		assertEquals(1, writer.getPackets().size());
+		assertEquals(JID.jidInstanceNS("eventbus@node3.example.com"), writer.getPackets().get(0).getStanzaTo());
+	}
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.eventbus.component;
+
+import org.junit.Test;
+import tigase.eventbus.component.stores.Affiliation;
+import tigase.eventbus.component.stores.Subscription;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventReceiverModuleTest
+		extends AbstractEventBusModuleTestCase {
+
+	private static Element items(String node, Element... events) {
+		Element items = new Element("items", new String[]{"node"}, new String[]{node});
+		for (Element event : events) {
+			Element item = new Element("item");
+			item.addChild(event);
+			items.addChild(item);
+		}
+		return items;
+	}
+
+	@Test
+	public void testProcessBatchOfEvents() throws Exception {
+		EventReceiverModule receiver = createReceiver(createPublisher(10));
+		JID node2 = JID.jidInstanceNS("eventbus@node2.example.com");
+		affiliationStore.putAffiliation(node2, Affiliation.owner);
+
+		List<String> received = new ArrayList<>();
+		localEventBus.addListener("test.events", "Ev1", event -> received.add(event.getCData()));
+		localEventBus.addListener("test.events", "Ev2", event -> received.add(event.getCData()));
+
+		Subscription external = new Subscription(JID.jidInstanceNS("listener@external.example.com"), componentJid);
+		subscriptionStore.addSubscription("test.events", "Ev1", external);
+		subscriptionStore.addSubscription("test.events", "Ev2", external);
+
+		Element eventElem = new Element("event", new String[]{"xmlns"},
+										new String[]{"http://jabber.org/protocol/pubsub#event"});
+		eventElem.addChild(items("test.events.Ev1", new Element("test.events.Ev1", "1"),
+								 new Element("test.events.Ev1", "2")));
+		eventElem.addChild(items("test.events.Ev2", new Element("test.events.Ev2", "3")));
+		Element message = new Element("message", new String[]{"from", "to", "id"},
+									  new String[]{node2.toString(), componentJid.toString(), "1"});
+		message.addChild(eventElem);
+
+		receiver.process(Packet.packetInstance(message));
+
+		// all events from all <items/> elements are fired locally, in order
+		assertEquals(3, received.size());
+		assertEquals("1", received.get(0));
+		assertEquals("2", received.get(1));
+		assertEquals("3", received.get(2));
+
+		// and forwarded to non cluster subscribers
+		assertEquals(3, writer.getPackets().size());
+		for (Packet packet : writer.getPackets()) {
+			assertEquals(external.getJid(), packet.getStanzaTo());
+		}
+		Element forwarded = writer.getPackets()
+				.get(2)
+				.getElement()
+				.findChildStaticStr(new String[]{"message", "event", "items", "item"})
+				.getChildren()
+				.get(0);
+		assertEquals("true", forwarded.getAttributeStaticStr("remote"));
+		assertEquals("3", forwarded.getCData());
+	}
+
+	@Test(expected = tigase.component.exceptions.ComponentException.class)
+	public void testProcessFromNotAffiliatedNode() throws Exception {
+		EventReceiverModule receiver = createReceiver(createPublisher(10));
+		Element message = new Element("message", new String[]{"from", "to", "id"},
+									  new String[]{"eventbus@node3.example.com", componentJid.toString(), "1"});
+		message.addChild(new Element("event", new String[]{"xmlns"},
+									 new String[]{"http://jabber.org/protocol/pubsub#event"}));
+		receiver.process(Packet.packetInstance(message));
+	}
+
+}
@@ -20,16 +20,21 @@ package tigase.eventbus.impl;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
 import tigase.eventbus.EventListener;
 import tigase.eventbus.FillRoutedEvent;
 import tigase.eventbus.HandleEvent;
 import tigase.eventbus.RouteEvent;
 import tigase.eventbus.component.stores.Subscription;
+import tigase.tests.SlowTest;
 import tigase.xml.Element;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -123,6 +128,81 @@ public class EventBusImplementationTest {
 		Assert.assertNotNull(resp[4]);
 	}
 
+	@Test
+	public void testDispatchMode() throws Exception {
+		final List<Runnable> tasks = new ArrayList<>();
+		eventBus.setExecutor(tasks::add);
+
+		final Object resp[] = new Object[]{null, null, null};
+		eventBus.addListener(Event1.class, e -> resp[0] = e);
+		eventBus.addListener(Event12.class, e -> resp[1] = e);
+		eventBus.addListener(Event1.class.getPackage().getName(), Event1.class.getSimpleName(), e -> resp[2] = e);
+
+		eventBus.fire(new Event12());
+		Assert.assertEquals(3, tasks.size());
+		tasks.forEach(Runnable::run);
+		Assert.assertTrue(resp[0] instanceof Event12);
+		Assert.assertTrue(resp[1] instanceof Event12);
+		Assert.assertTrue(resp[2] instanceof Element);
+
+		tasks.clear();
+		Arrays.fill(resp, null);
+		eventBus.setDispatchMode(Event1.class, EventBusImplementation.DispatchMode.taskPerEvent);
+		eventBus.fire(new Event12());
+		Assert.assertEquals(1, tasks.size());
+		Assert.assertNull(resp[0]);
+		tasks.forEach(Runnable::run);
+		Assert.assertTrue(resp[0] instanceof Event12);
+		Assert.assertTrue(resp[1] instanceof Event12);
+		Assert.assertTrue(resp[2] instanceof Element);
+
+		tasks.clear();
+		Arrays.fill(resp, null);
+		eventBus.setDispatchMode(Event12.class, EventBusImplementation.DispatchMode.synchronous);
+		eventBus.fire(new Event12());
+		Assert.assertEquals(0, tasks.size());
+		Assert.assertTrue(resp[0] instanceof Event12);
+		Assert.assertTrue(resp[1] instanceof Event12);
+		Assert.assertTrue(resp[2] instanceof Element);
+
+		eventBus.setDispatchMode(Event12.class, null);
+		Assert.assertEquals(EventBusImplementation.DispatchMode.taskPerEvent, eventBus.getDispatchMode(Event12.class));
+		Assert.assertEquals(EventBusImplementation.DispatchMode.taskPerHandler, eventBus.getDispatchMode(Event2.class));
+	}
+
+	@Category(SlowTest.class)
+	@Test
+	public void testFirePerformance() throws Exception {
+		final AtomicLong counter = new AtomicLong();
+		for (int i = 0; i < 10; i++) {
+			eventBus.addListener(Event1.class, e -> counter.incrementAndGet());
+		}
+		eventBus.addListener(Event12.class, e -> counter.incrementAndGet());
+
+		final int iterations = 1000000;
+		for (EventBusImplementation.DispatchMode mode : EventBusImplementation.DispatchMode.values()) {
+			eventBus.setDefaultDispatchMode(mode);
+			counter.set(0);
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				eventBus.fire(new Event12());
+			}
+			long cached = System.nanoTime() - start;
+			Assert.assertEquals(iterations * 11L, counter.get());
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				eventBus.doFireThreadPerHandler(new Event12(), null, false,
+												eventBus.getListenersForEvent(Event12.class));
+			}
+			long uncached = System.nanoTime() - start;
+
+			System.out.println("mode " + mode + ": cached resolution " + (cached / iterations) +
+									   "ns/event, uncached resolution with task per handler " +
+									   (uncached / iterations) + "ns/event");
+		}
+	}
+
 	@Test
 	public void testFire() throws Exception {
 		Object resp[] = new Object[]{null, null, null, null, null};
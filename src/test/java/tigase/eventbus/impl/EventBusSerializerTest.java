@@ -19,6 +19,9 @@ package tigase.eventbus.impl;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.map.ClusterMapFactory;
+import tigase.tests.SlowTest;
 import tigase.xml.Element;
 import tigase.xmpp.jid.JID;
 
@@ -55,6 +58,79 @@ public class EventBusSerializerTest {
 		Assert.assertTrue(eo.getSetField().contains("test123"));
 	}
 
+	@Test
+	public void testDeserializeTrimsStrings() {
+		EventBusSerializer serializer = new EventBusSerializer();
+
+		Element ex = new Element(Event1.class.getName());
+		ex.addChild(new Element("v1", "  padded message \n"));
+		ex.addChild(new Element("v2", " 12 "));
+
+		Event1 ed = serializer.deserialize(ex);
+		Assert.assertNotNull(ed);
+		Assert.assertEquals("padded message", ed.getV1());
+		Assert.assertEquals(12, ed.getV2());
+
+		ex = new Element(Event1.class.getName());
+		ex.addChild(new Element("v1", "null"));
+		ed = serializer.deserialize(ex);
+		Assert.assertNull(ed.getV1());
+	}
+
+	@Test
+	public void testRegisterCodec() {
+		EventBusSerializer serializer = new EventBusSerializer();
+		serializer.registerCodec(Event2.class, new EventCodec<Event2>() {
+			@Override
+			public Event2 deserialize(Element element) {
+				return new Event2();
+			}
+
+			@Override
+			public Element serialize(Event2 event) {
+				return new Element(Event2.class.getName(), new String[]{"custom"}, new String[]{"true"});
+			}
+		});
+
+		Element ex = serializer.serialize(new Event2());
+		Assert.assertEquals("true", ex.getAttributeStaticStr("custom"));
+		Assert.assertTrue(serializer.deserialize(ex) instanceof Event2);
+		Assert.assertNull(serializer.deserialize(new Element("tigase.eventbus.impl.NotExistingEvent")));
+	}
+
+	@Category(SlowTest.class)
+	@Test
+	public void testSerializationPerformance() {
+		EventBusSerializer serializer = new EventBusSerializer();
+
+		ClusterMapFactory.ElementAddEvent addEvent = new ClusterMapFactory.ElementAddEvent();
+		addEvent.setUid("map-uid");
+		addEvent.setKey("key");
+		addEvent.setValue("value");
+		ClusterMapFactory.NewMapCreatedEvent mapCreatedEvent = new ClusterMapFactory.NewMapCreatedEvent();
+		mapCreatedEvent.setUid("map-uid");
+		mapCreatedEvent.setKeyClass(String.class);
+		mapCreatedEvent.setValueClass(String.class);
+		mapCreatedEvent.setParams(new String[]{"param1", "param2"});
+		Event1 event1 = new Event1();
+		event1.setJid(JID.jidInstanceNS("a@b.c/d"));
+		event1.setV1("message");
+		event1.setV2(9898);
+		event1.setStrArrField(new String[]{"ala", "m,a", "kota"});
+
+		final int iterations = 200000;
+		for (Object event : new Object[]{addEvent, mapCreatedEvent, event1}) {
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				Element ex = serializer.serialize(event);
+				Assert.assertNotNull(serializer.deserialize(ex));
+			}
+			long time = System.nanoTime() - start;
+			System.out.println(event.getClass().getName() + ": " + (iterations * 1000000000L / time) +
+									   " events/s (serialization + deserialization)");
+		}
+	}
+
 	@Test
 	public void testSerialize() {
 		EventBusSerializer serializer = new EventBusSerializer();
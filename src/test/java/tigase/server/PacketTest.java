@@ -19,13 +19,18 @@ package tigase.server;
 
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.JID;
 
-import static org.junit.Assert.assertEquals;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.*;
 
 /**
  * @author Wojciech Kapcia
@@ -145,4 +150,83 @@ public class PacketTest {
 		Assert.assertTrue("Output secured in default Packet.toString(false)",
 						  result.toString(false).contains("mySuperSecretPassword"));
 	}
+
+	@Test
+	public void testProcessedBy() {
+		assertFalse(packetInstance.wasProcessed());
+		assertFalse(packetInstance.wasSkipped());
+		assertTrue(packetInstance.getProcessorsIds().isEmpty());
+
+		packetInstance.processedBy("test-processor-a");
+		packetInstance.processedBy("test-processor-b");
+		packetInstance.notProcessedBy("test-processor-c");
+
+		assertTrue(packetInstance.wasProcessed());
+		assertTrue(packetInstance.wasSkipped());
+		assertTrue(packetInstance.wasProcessedBy("test-processor-a"));
+		assertFalse(packetInstance.wasProcessedBy("test-processor-c"));
+		assertFalse(packetInstance.wasProcessedBy("test-processor-unknown"));
+		assertEquals(new LinkedHashSet<>(Arrays.asList("test-processor-a", "test-processor-b")),
+					 packetInstance.getProcessorsIds());
+		assertEquals(new LinkedHashSet<>(Arrays.asList("test-processor-c")),
+					 packetInstance.getSkippedProcessorsIds());
+	}
+
+	@Test
+	public void testProcessedByOverflow() {
+		for (int i = 0; i < 150; i++) {
+			Packet.getProcessorIndex("test-overflow-" + i);
+		}
+		int index = Packet.getProcessorIndex("test-overflow-149");
+		assertTrue(index >= 128);
+		assertEquals(index, Packet.getProcessorIndex("test-overflow-149"));
+
+		packetInstance.processedBy("test-overflow-149");
+		packetInstance.notProcessedBy("test-overflow-80");
+
+		assertTrue(packetInstance.wasProcessed());
+		assertTrue(packetInstance.wasProcessedBy("test-overflow-149"));
+		assertFalse(packetInstance.wasProcessedBy("test-overflow-148"));
+		assertEquals(new LinkedHashSet<>(Arrays.asList("test-overflow-149")), packetInstance.getProcessorsIds());
+		assertEquals(new LinkedHashSet<>(Arrays.asList("test-overflow-80")),
+					 packetInstance.getSkippedProcessorsIds());
+	}
+
+	@Test
+	@Ignore
+	public void benchmarkProcessedByAllocation() {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		String[] processors = {"message", "presence-state", "presence-subscription", "jabber:iq:privacy",
+							   "message-carbons", "urn:xmpp:mam:1"};
+		Element message = new Element("message", new String[]{"from", "to", "type"},
+									  new String[]{"user@example.com/res", "buddy@example.com", "chat"});
+		JID from = JID.jidInstanceNS("user@example.com/res");
+		JID to = JID.jidInstanceNS("buddy@example.com");
+		int packets = 1000000;
+
+		for (int round = 0; round < 5; round++) {
+			long emptyStart = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			for (int i = 0; i < packets; i++) {
+				Packet.packetInstance(message, from, to);
+			}
+			long empty = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - emptyStart;
+
+			long start = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			long time = System.nanoTime();
+			for (int i = 0; i < packets; i++) {
+				Packet packet = Packet.packetInstance(message, from, to);
+				for (String id : processors) {
+					packet.processedBy(id);
+				}
+				packet.notProcessedBy(processors[0]);
+				assertTrue(packet.wasProcessed());
+			}
+			time = System.nanoTime() - time;
+			long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+
+			System.out.println("Packet instance: " + (empty / packets) + " bytes, marked by " + processors.length +
+									   " processors: " + (allocated / packets) + " bytes, " + (time / packets) +
+									   "ns per packet");
+		}
+	}
 }
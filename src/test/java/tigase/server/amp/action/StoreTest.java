@@ -0,0 +1,187 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.amp.action;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.MsgRepositoryIfc;
+import tigase.server.Packet;
+import tigase.server.amp.ActionResultsHandlerIfc;
+import tigase.server.amp.db.MsgRepository;
+import tigase.stats.StatisticsList;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static org.junit.Assert.*;
+
+public class StoreTest {
+
+	private final List<Object[]> expired = Collections.synchronizedList(new ArrayList<>());
+	private final LinkedBlockingQueue<Packet> results = new LinkedBlockingQueue<>();
+	private boolean bulkSupported = true;
+	private Store store;
+
+	@Before
+	public void setUp() throws Exception {
+		MsgRepositoryIfc repo = (MsgRepositoryIfc) Proxy.newProxyInstance(getClass().getClassLoader(),
+																		  new Class[]{MsgRepositoryIfc.class},
+																		  (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "removeExpiredMessages":
+					return removeExpiredMessages((Date) args[0], (Integer) args[1],
+												 (MsgRepository.ExpiredMessagesHandler) args[2]);
+				default:
+					return null;
+			}
+		});
+		store = new Store();
+		setField(store, "repo", repo);
+		store.setActionResultsHandler(new ActionResultsHandlerIfc() {
+			@Override
+			public boolean addOutPacket(Packet packet) {
+				return results.offer(packet);
+			}
+
+			@Override
+			public boolean addOutPackets(Queue<Packet> packets) {
+				return results.addAll(packets);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		store.beforeUnregister();
+	}
+
+	@Test
+	public void testRemoveExpiredMessages() throws Exception {
+		setField(store, "expiryBatchSize", 3);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 4; i++) {
+			addExpired("msg-" + i, new Date(now - 5000 + i * 1000));
+		}
+		addExpired("msg-valid", new Date(now + 60 * 60 * 1000));
+
+		assertEquals(3, store.removeExpiredMessages());
+		for (int i = 0; i < 3; i++) {
+			Packet packet = results.poll();
+			assertNotNull(packet);
+			assertEquals("msg-" + i, packet.getStanzaId());
+			assertEquals("1", packet.getAttributeStaticStr("offline"));
+			assertEquals("1", packet.getAttributeStaticStr("expired"));
+		}
+		assertTrue(results.isEmpty());
+
+		StatisticsList list = new StatisticsList(Level.ALL);
+		store.getStatistics("amp", list);
+		assertEquals(3, list.getValue("amp", "Expired messages", -1L));
+		long lag = list.getValue("amp", "Expiry lag [ms]", -1L);
+		assertTrue("unexpected expiry lag: " + lag, lag >= 3000);
+		long maxLag = list.getValue("amp", "Max expiry lag in last minute [ms]", -1L);
+		assertTrue("unexpected max expiry lag: " + maxLag, maxLag >= 5000);
+
+		assertEquals(1, store.removeExpiredMessages());
+		assertEquals("msg-3", results.poll().getStanzaId());
+		assertEquals(0, store.removeExpiredMessages());
+		assertTrue(results.isEmpty());
+
+		store.everyMinute();
+		list = new StatisticsList(Level.ALL);
+		store.getStatistics("amp", list);
+		assertEquals(4, list.getValue("amp", "Expired messages", -1L));
+		assertEquals(0, list.getValue("amp", "Max expiry lag in last minute [ms]", -1L));
+	}
+
+	@Test
+	public void testRemoveExpiredMessagesConcurrently() throws Exception {
+		store.setExpiryConcurrency(4);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 50; i++) {
+			addExpired("msg-" + i, new Date(now - 1000));
+		}
+
+		assertEquals(50, store.removeExpiredMessages());
+
+		Set<String> ids = new HashSet<>();
+		for (int i = 0; i < 50; i++) {
+			Packet packet = results.poll(5, TimeUnit.SECONDS);
+			assertNotNull("notification for expired message not sent", packet);
+			ids.add(packet.getStanzaId());
+		}
+		assertEquals(50, ids.size());
+		assertNull(results.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testBulkRemovalNotSupported() throws Exception {
+		bulkSupported = false;
+		addExpired("msg-0", new Date(System.currentTimeMillis() - 1000));
+
+		assertEquals(-1, store.removeExpiredMessages());
+		assertTrue(results.isEmpty());
+	}
+
+	private void addExpired(String id, Date expiredAt) {
+		expired.add(new Object[]{"<message id=\"" + id + "\" from=\"sender@example.com/res\" " +
+										 "to=\"recipient@example.com\"><body>Test</body></message>", expiredAt});
+	}
+
+	private int removeExpiredMessages(Date before, int limit, MsgRepository.ExpiredMessagesHandler handler) {
+		if (!bulkSupported) {
+			return -1;
+		}
+		List<Object[]> removed = new ArrayList<>();
+		synchronized (expired) {
+			Iterator<Object[]> it = expired.iterator();
+			while (it.hasNext() && removed.size() < limit) {
+				Object[] item = it.next();
+				if (((Date) item[1]).after(before)) {
+					break;
+				}
+				it.remove();
+				removed.add(item);
+			}
+		}
+		for (Object[] item : removed) {
+			handler.handle((String) item[0], (Date) item[1]);
+		}
+		return removed.size();
+	}
+
+	private static void setField(Object bean, String name, Object value) throws Exception {
+		Class<?> cls = bean.getClass();
+		while (cls != null) {
+			try {
+				Field field = cls.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(bean, value);
+				return;
+			} catch (NoSuchFieldException ex) {
+				cls = cls.getSuperclass();
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+}
@@ -180,6 +180,62 @@ public abstract class AbstractMsgRepositoryTest<DS extends DataSource, T>
 		}
 	}
 	
+	@Test
+	public void testStorageOfOfflineMessageWithExpiration2()
+			throws UserNotFoundException, NotAuthorizedException, TigaseStringprepException {
+		// removing expired messages left by other tests
+		int removed = repo.removeExpiredMessages(new Date(), Integer.MAX_VALUE, (msg, expired) -> {});
+		Assume.assumeTrue("Repository does not support bulk removal of expired messages", removed >= 0);
+
+		// more messages than deleted by a single statement, so delete is split and last chunk is padded
+		int expiredCount = 105;
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < expiredCount; i++) {
+			Packet message = Message.getMessage(sender, recipient, StanzaType.chat, generateRandomBody(), null, null,
+												String.format("expired-%03d", i));
+			assertTrue(repo.storeMessage(sender, recipient, new Date(now - (expiredCount - i) * 1000),
+										 message.getElement(), null));
+		}
+		for (int i = 0; i < 2; i++) {
+			Packet message = Message.getMessage(sender, recipient, StanzaType.chat, generateRandomBody(), null, null,
+												"valid-" + i);
+			assertTrue(repo.storeMessage(sender, recipient, new Date(now + 60 * 60 * 1000), message.getElement(),
+										 null));
+		}
+
+		List<String> handled = new ArrayList<>();
+		List<Long> remaining = new ArrayList<>();
+		removed = repo.removeExpiredMessages(new Date(), 5, (msg, expired) -> {
+			handled.add(msg);
+			try {
+				Map<Enum, Long> count = repo.getMessagesCount(recipient);
+				remaining.add(count.get(MsgRepository.MSG_TYPES.message));
+			} catch (UserNotFoundException ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		assertEquals(5, removed);
+		assertEquals(5, handled.size());
+		for (int i = 0; i < handled.size(); i++) {
+			assertTrue("expired messages not handled in order of expiration: " + handled.get(i),
+					   handled.get(i).contains(String.format("expired-%03d", i)));
+			assertEquals("message passed to handler before it was deleted", (long) (expiredCount - 5 + 2),
+						 remaining.get(i).longValue());
+		}
+
+		handled.clear();
+		removed = repo.removeExpiredMessages(new Date(), 1000, (msg, expired) -> handled.add(msg));
+		assertEquals(expiredCount - 5, removed);
+		assertEquals(expiredCount - 5, handled.size());
+
+		Map<Enum, Long> count = repo.getMessagesCount(recipient);
+		assertEquals(2, count.get(MsgRepository.MSG_TYPES.message).longValue());
+
+		assertEquals(0, repo.removeExpiredMessages(new Date(), 1000, (msg, expired) -> fail("message not expired")));
+
+		repo.loadMessagesToJID(recipientSession, true);
+	}
+
 	protected abstract <T> T getMsgId(String msgIdStr);
 
 	@Override
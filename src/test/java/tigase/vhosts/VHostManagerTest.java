@@ -0,0 +1,65 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.util.stringprep.TigaseStringprepException;
+
+import static org.junit.Assert.*;
+
+public class VHostManagerTest {
+
+	private VHostJDBCRepository repo;
+	private VHostManager vHostManager;
+
+	@Before
+	public void setUp() {
+		repo = new VHostJDBCRepository();
+		vHostManager = new VHostManager();
+		vHostManager.setRepo(repo);
+	}
+
+	@Test
+	public void testSnapshotFollowsRepositoryChanges() throws TigaseStringprepException {
+		assertFalse(vHostManager.isLocalDomain("domain.com"));
+
+		VHostItem item = new VHostItemImpl("domain.com");
+		repo.addItem(item);
+		assertTrue(vHostManager.isLocalDomain("domain.com"));
+		assertTrue(vHostManager.isLocalDomain("Domain.COM"));
+		assertSame(item, vHostManager.getVHostItem("DOMAIN.com"));
+
+		repo.removeItem("domain.com");
+		assertFalse(vHostManager.isLocalDomain("domain.com"));
+		assertNull(vHostManager.getVHostItem("domain.com"));
+	}
+
+	@Test
+	public void testSnapshotIsReused() throws TigaseStringprepException {
+		repo.addItem(new VHostItemImpl("domain.com"));
+
+		VHostManager.VHostSnapshot snapshot = vHostManager.getSnapshot();
+		vHostManager.isLocalDomain("domain.com");
+		assertSame(snapshot, vHostManager.getSnapshot());
+
+		repo.addItem(new VHostItemImpl("other.com"));
+		assertNotSame(snapshot, vHostManager.getSnapshot());
+	}
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts.filter;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DomainTrieTest {
+
+	@Test
+	public void testExactDomains() {
+		DomainTrie trie = DomainTrie.compile("example.com", "Test.ORG", " spaces.net ", null, "");
+
+		assertEquals(3, trie.size());
+		assertTrue(trie.contains("example.com"));
+		assertTrue(trie.contains("test.org"));
+		assertTrue(trie.contains("spaces.net"));
+		assertFalse(trie.contains("com"));
+		assertFalse(trie.contains("sub.example.com"));
+		assertFalse(trie.contains("example.org"));
+		assertFalse(trie.contains("xexample.com"));
+		assertFalse(trie.contains(null));
+		assertFalse(trie.contains(""));
+	}
+
+	@Test
+	public void testWildcardDomains() {
+		DomainTrie trie = DomainTrie.compile("*.example.com", "example.org");
+
+		assertTrue(trie.contains("sub.example.com"));
+		assertTrue(trie.contains("deep.sub.example.com"));
+		assertFalse(trie.contains("example.com"));
+		assertFalse(trie.contains("sub.example.org"));
+		assertTrue(trie.contains("example.org"));
+
+		trie = DomainTrie.compile("*.example.com", "example.com");
+		assertTrue(trie.contains("example.com"));
+		assertTrue(trie.contains("sub.example.com"));
+
+		trie = DomainTrie.compile("*");
+		assertTrue(trie.contains("example.com"));
+		assertTrue(trie.contains("localhost"));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertSame(DomainTrie.EMPTY, DomainTrie.compile());
+		assertSame(DomainTrie.EMPTY, DomainTrie.compile((String[]) null));
+		assertTrue(DomainTrie.EMPTY.isEmpty());
+		assertFalse(DomainTrie.EMPTY.contains("example.com"));
+	}
+
+	@Test
+	@Ignore
+	public void benchmarkLookup() {
+		int size = 10000;
+		int lookups = 1000000;
+		String[] domains = new String[size];
+		for (int i = 0; i < size; i++) {
+			domains[i] = ("domain-" + i + ".example.com").intern();
+		}
+		String[] checked = new String[1000];
+		for (int i = 0; i < checked.length; i++) {
+			// half of checked domains is on the list
+			checked[i] = (i % 2 == 0 ? "domain-" + (i * 7) : "other-" + i) + ".example.com";
+			checked[i] = checked[i].intern();
+		}
+
+		long start = System.nanoTime();
+		DomainTrie trie = DomainTrie.compile(domains);
+		long compileTime = System.nanoTime() - start;
+
+		int found = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			if (trie.contains(checked[i % checked.length])) {
+				found++;
+			}
+		}
+		long trieTime = System.nanoTime() - start;
+
+		int foundLinear = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < lookups / 100; i++) {
+			String domain = checked[i % checked.length];
+			for (String it : domains) {
+				if (it == domain) {
+					foundLinear++;
+					break;
+				}
+			}
+		}
+		long linearTime = (System.nanoTime() - start) * 100;
+
+		assertEquals(found / 100, foundLinear);
+		System.out.println(
+				"Domains: " + size + ", compiled in " + compileTime / 1000 + "us, trie lookup: " + trieTime / lookups +
+						"ns, linear lookup: " + linearTime / lookups + "ns, matched: " + found);
+	}
+}
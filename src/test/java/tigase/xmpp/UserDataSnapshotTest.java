@@ -0,0 +1,79 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+import tigase.db.UserRepository;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.*;
+
+public class UserDataSnapshotTest {
+
+	@Test
+	public void testNormalize() {
+		assertEquals("", UserRepository.normalizeNodePath(null));
+		assertEquals("", UserRepository.normalizeNodePath("/"));
+		assertEquals("privacy/list", UserRepository.normalizeNodePath("/privacy//list/"));
+	}
+
+	@Test
+	public void testNodeData() {
+		Map<String, Map<String, String>> values = new HashMap<>();
+		Map<String, String> root = new HashMap<>();
+		root.put("roster", "<contact/>");
+		values.put(null, root);
+
+		LongAdder hits = new LongAdder();
+		UserDataSnapshot snapshot = new UserDataSnapshot(Arrays.asList(null, "privacy"), values,
+														 System.currentTimeMillis() + 60000, hits);
+		assertEquals("<contact/>", snapshot.getNodeData("/").get("roster"));
+		// node was prefetched but has no data
+		assertTrue(snapshot.getNodeData("privacy").isEmpty());
+		// node was not prefetched
+		assertNull(snapshot.getNodeData("vcard"));
+		assertEquals(2, hits.sum());
+		assertFalse(snapshot.isExpired());
+	}
+
+	@Test
+	public void testInvalidate() {
+		UserDataSnapshot snapshot = new UserDataSnapshot(
+				Arrays.asList(null, "privacy", "privacy/list1", "privacy/list2"), new HashMap<>(),
+				System.currentTimeMillis() + 60000, null);
+		snapshot.invalidate("privacy/list1", false);
+		assertNull(snapshot.getNodeData("privacy/list1"));
+		assertNotNull(snapshot.getNodeData("privacy"));
+
+		snapshot.invalidate("privacy", true);
+		assertNull(snapshot.getNodeData("privacy"));
+		assertNull(snapshot.getNodeData("privacy/list2"));
+		assertNotNull(snapshot.getNodeData(null));
+	}
+
+	@Test
+	public void testExpired() {
+		UserDataSnapshot snapshot = new UserDataSnapshot(Arrays.asList("privacy"), null,
+														 System.currentTimeMillis() - 1, null);
+		assertTrue(snapshot.isExpired());
+	}
+}
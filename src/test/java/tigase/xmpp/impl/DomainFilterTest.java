@@ -33,9 +33,13 @@ import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.JID;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import static tigase.xmpp.impl.DomainFilter.ALLOWED_DOMAINS_KEY;
@@ -362,6 +366,88 @@ public class DomainFilterTest
 
 	}
 
+	@Test
+	public void testWildcardWhitelistPolicy() throws NotAuthorizedException, TigaseStringprepException {
+		JID subdomainUser = JID.jidInstanceNS("user3", "sub." + externalDomainUser.getDomain(), "resource3");
+		String[] whitelistDomains = new String[]{"domain1", "*." + externalDomainUser.getDomain()};
+
+		session = getSession(connId1, recp1, DomainFilterPolicy.LIST, whitelistDomains);
+
+		processPacket(session, subdomainUser);
+		Assert.assertTrue("WHITELIST policy, message to subdomain of wildcard entry", results.isEmpty());
+
+		processPacket(session, externalDomainUser);
+		Assert.assertTrue("WHITELIST policy, message to domain of wildcard entry",
+						  results.pop().getType().equals(StanzaType.error));
+
+		session.logout();
+	}
+
+	@Test
+	public void testCompiledDomainsInvalidation()
+			throws NotAuthorizedException, TigaseStringprepException, TigaseDBException {
+		session = getSession(connId1, recp1, DomainFilterPolicy.BLACKLIST, new String[]{localDomainUser.getDomain()});
+
+		processPacket(session, localDomainUser);
+		Assert.assertTrue("BLACKLIST policy, blacklisted in VHost", results.pop().getType().equals(StanzaType.error));
+		processPacket(session, externalDomainUser);
+		Assert.assertTrue("BLACKLIST policy, not blacklisted in VHost", results.isEmpty());
+
+		// change of VHost configuration
+		((VHostItemImpl) session.getDomain()).setDomainFilterDomains(new String[]{externalDomainUser.getDomain()});
+		session.removeCommonSessionData(ALLOWED_DOMAINS_LIST_KEY);
+		processPacket(session, localDomainUser);
+		Assert.assertTrue("BLACKLIST policy, no longer blacklisted in VHost", results.isEmpty());
+		processPacket(session, externalDomainUser);
+		Assert.assertTrue("BLACKLIST policy, blacklisted in updated VHost",
+						  results.pop().getType().equals(StanzaType.error));
+
+		// change of user configuration
+		session.putCommonSessionData(ALLOWED_DOMAINS_LIST_KEY, new String[]{localDomainUser.getDomain()});
+		processPacket(session, localDomainUser);
+		Assert.assertTrue("BLACKLIST policy, blacklisted by user", results.pop().getType().equals(StanzaType.error));
+		processPacket(session, externalDomainUser);
+		Assert.assertTrue("BLACKLIST policy, not blacklisted by user", results.isEmpty());
+
+		session.logout();
+	}
+
+	@Test
+	public void testInvalidCustomRulesReportedOnce() {
+		List<LogRecord> records = new ArrayList<>();
+		Handler handler = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				if (record.getLevel() == Level.WARNING) {
+					records.add(record);
+				}
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Logger filterLog = Logger.getLogger(DomainFilter.class.getName());
+		filterLog.addHandler(handler);
+		try {
+			DomainFilter.CompiledDomains compiled = new DomainFilter.CompiledDomains(new String[]{"invalid-rule"});
+			for (int i = 0; i < 3; i++) {
+				Assert.assertTrue(compiled.isAllowed(recp1, externalDomainUser));
+			}
+			Assert.assertEquals(1, records.size());
+
+			// each compiled list reports its own errors
+			new DomainFilter.CompiledDomains(new String[]{"invalid-rule"}).isAllowed(recp1, externalDomainUser);
+			Assert.assertEquals(2, records.size());
+		} finally {
+			filterLog.removeHandler(handler);
+		}
+	}
+
 	private void filterPacket(XMPPResourceConnection session, JID reciever) throws TigaseStringprepException {
 		p = Packet.packetInstance("message", recp1.toString(), reciever.toString(), StanzaType.chat);
 		p.setPacketFrom(connId1);
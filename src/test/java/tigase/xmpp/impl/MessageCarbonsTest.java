@@ -28,7 +28,7 @@ import tigase.xmpp.jid.JID;
 
 import java.util.*;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * @author andrzej
@@ -64,9 +64,10 @@ public class MessageCarbonsTest
 													 res2);
 
 		session2.putSessionData(MessageCarbons.XMLNS + "-enabled", true);
-		Map<JID, Boolean> enabled = new HashMap<>();
-		enabled.put(res2, true);
-		session2.putCommonSessionData(MessageCarbons.XMLNS + "-resources", enabled);
+		MessageCarbons.MessageCarbonsStateChangedEvent event = new MessageCarbons.MessageCarbonsStateChangedEvent(
+				res2, userJid, session2.getParentSession());
+		event.add(res2, true);
+		carbonsProcessor.stateChanged(event);
 		assertEquals(Arrays.asList(session1, session2), session1.getActiveSessions());
 
 		Element packetEl = new Element("message", new String[]{"type", "from", "to"},
@@ -101,9 +102,10 @@ public class MessageCarbonsTest
 													 res2);
 
 		session2.putSessionData(MessageCarbons.XMLNS + "-enabled", true);
-		Map<JID, Boolean> enabled = new HashMap<>();
-		enabled.put(res2, true);
-		session2.putCommonSessionData(MessageCarbons.XMLNS + "-resources", enabled);
+		MessageCarbons.MessageCarbonsStateChangedEvent event = new MessageCarbons.MessageCarbonsStateChangedEvent(
+				res2, userJid, session2.getParentSession());
+		event.add(res2, true);
+		carbonsProcessor.stateChanged(event);
 		assertEquals(Arrays.asList(session1, session2), session1.getActiveSessions());
 
 		Element packetEl = new Element("message", new String[]{"type", "from", "to"},
@@ -146,9 +148,10 @@ public class MessageCarbonsTest
 													 res2);
 
 		session2.putSessionData(MessageCarbons.XMLNS + "-enabled", true);
-		Map<JID, Boolean> enabled = new HashMap<>();
-		enabled.put(res2, true);
-		session2.putCommonSessionData(MessageCarbons.XMLNS + "-resources", enabled);
+		MessageCarbons.MessageCarbonsStateChangedEvent event = new MessageCarbons.MessageCarbonsStateChangedEvent(
+				res2, userJid, session2.getParentSession());
+		event.add(res2, true);
+		carbonsProcessor.stateChanged(event);
 		assertEquals(Arrays.asList(session1, session2), session1.getActiveSessions());
 
 		Element packetEl = new Element("message", new String[]{"from", "to"},
@@ -189,6 +192,53 @@ public class MessageCarbonsTest
 
 	}
 
+	@Test
+	public void testCarbonCopiesShareForwardedMessage() throws Exception {
+		BareJID userJid = BareJID.bareJIDInstance("user1@example.com");
+		JID res1 = JID.jidInstance(userJid, "res1");
+		JID res2 = JID.jidInstance(userJid, "res2");
+		JID res3 = JID.jidInstance(userJid, "res3");
+		XMPPResourceConnection session1 = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
+													 res1);
+		JID conn2 = JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString());
+		XMPPResourceConnection session2 = getSession(conn2, res2);
+		JID conn3 = JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString());
+		XMPPResourceConnection session3 = getSession(conn3, res3);
+
+		MessageCarbons.MessageCarbonsStateChangedEvent event = new MessageCarbons.MessageCarbonsStateChangedEvent(
+				res2, userJid, session2.getParentSession());
+		event.add(res2, true);
+		event.add(res3, true);
+		carbonsProcessor.stateChanged(event);
+
+		Element packetEl = new Element("message", new String[]{"type", "from", "to"},
+									   new String[]{"chat", res1.toString(), "remote-user@test.com/res1"});
+		packetEl.addChild(new Element("body", "test"));
+		Packet packet = Packet.packetInstance(packetEl);
+		Queue<Packet> results = new ArrayDeque<Packet>();
+		carbonsProcessor.process(packet, session1, null, results, null);
+		assertEquals(2, results.size());
+
+		Packet copy2 = results.poll();
+		Packet copy3 = results.poll();
+		assertSame(copy2.getElement().getChild("sent", MessageCarbons.XMLNS),
+				   copy3.getElement().getChild("sent", MessageCarbons.XMLNS));
+		assertEquals(packetEl.toString(), copy2.getElement()
+				.getChild("sent", MessageCarbons.XMLNS)
+				.getChild("forwarded", "urn:xmpp:forward:0")
+				.getChild("message")
+				.toString());
+		assertEquals(new HashSet<>(Arrays.asList(conn2, conn3)),
+					 new HashSet<>(Arrays.asList(copy2.getPacketTo(), copy3.getPacketTo())));
+
+		event = new MessageCarbons.MessageCarbonsStateChangedEvent(res3, userJid, session3.getParentSession());
+		event.add(res3, false);
+		carbonsProcessor.stateChanged(event);
+		results.clear();
+		carbonsProcessor.process(packet, session1, null, results, null);
+		assertEquals(Arrays.asList(res2), collectStanzaTo(results));
+	}
+
 	protected List<JID> collectStanzaTo(Queue<Packet> packets) {
 		List<JID> result = new ArrayList<JID>();
 		Packet p;
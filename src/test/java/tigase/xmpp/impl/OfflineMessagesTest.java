@@ -20,17 +20,24 @@ package tigase.xmpp.impl;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import tigase.component.PacketWriter;
+import tigase.component.responses.AsyncCallback;
 import tigase.db.DBInitException;
+import tigase.db.DataSource;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.UserNotFoundException;
 import tigase.kernel.core.Kernel;
 import tigase.server.Packet;
+import tigase.server.amp.db.MsgRepository;
 import tigase.xml.Element;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -251,6 +258,110 @@ public class OfflineMessagesTest
 		assertTrue(offlineProcessor.isAllowedForOfflineStorage(packet));
 	}
 
+	@Test
+	public void testSendOfflineMessagesInPages() throws Exception {
+		XMPPResourceConnection session1 = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
+													 JID.jidInstance("user1@example.com/res1"));
+		PagedMsgRepository pagedRepo = new PagedMsgRepository();
+		pagedRepo.store(session1.getBareJID(), 5);
+		SynchronizedPacketWriter writer = new SynchronizedPacketWriter();
+		enablePagedDelivery(writer, 2);
+
+		Queue<Packet> results = new ArrayDeque<>();
+		offlineProcessor.sendOfflineMessages(session1, pagedRepo, results);
+		assertEquals("first page should be returned at once", 2, results.size());
+		assertEquals(3, pagedRepo.size());
+
+		List<Packet> delivered = new ArrayList<>(results);
+		for (int i = 0; i < 3; i++) {
+			Packet packet = writer.poll(5, TimeUnit.SECONDS);
+			assertNotNull("remaining pages were not delivered", packet);
+			delivered.add(packet);
+		}
+		assertNull(writer.poll(200, TimeUnit.MILLISECONDS));
+		assertEquals(0, pagedRepo.size());
+		assertEquals(5, pagedRepo.getLoaded().size());
+		for (int i = 0; i < delivered.size(); i++) {
+			assertEquals("msg-" + i, delivered.get(i).getStanzaId());
+		}
+	}
+
+	@Test
+	public void testSendOfflineMessagesBelowPageSize() throws Exception {
+		XMPPResourceConnection session1 = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
+													 JID.jidInstance("user1@example.com/res1"));
+		PagedMsgRepository pagedRepo = new PagedMsgRepository();
+		pagedRepo.store(session1.getBareJID(), 2);
+		SynchronizedPacketWriter writer = new SynchronizedPacketWriter();
+		enablePagedDelivery(writer, 2);
+
+		Queue<Packet> results = new ArrayDeque<>();
+		offlineProcessor.sendOfflineMessages(session1, pagedRepo, results);
+		assertEquals(2, results.size());
+		assertEquals(0, pagedRepo.size());
+
+		// delivery is finished so the next login delivers again
+		pagedRepo.store(session1.getBareJID(), 1);
+		results.clear();
+		offlineProcessor.sendOfflineMessages(session1, pagedRepo, results);
+		assertEquals(1, results.size());
+	}
+
+	@Test
+	public void testPagedDeliveryCancelledOnSessionClose() throws Exception {
+		XMPPResourceConnection session1 = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
+													 JID.jidInstance("user1@example.com/res1"));
+		PagedMsgRepository pagedRepo = new PagedMsgRepository();
+		pagedRepo.store(session1.getBareJID(), 6);
+		SynchronizedPacketWriter writer = new SynchronizedPacketWriter();
+		enablePagedDelivery(writer, 2);
+		setField(offlineProcessor, "deliveryPageDelay", 300L);
+
+		Queue<Packet> results = new ArrayDeque<>();
+		offlineProcessor.sendOfflineMessages(session1, pagedRepo, results);
+		assertEquals(2, results.size());
+
+		session1.streamClosed();
+
+		assertNull("packets delivered to closed session", writer.poll(1, TimeUnit.SECONDS));
+		assertEquals("undelivered messages should be kept", 4, pagedRepo.size());
+
+		XMPPResourceConnection session2 = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
+													 JID.jidInstance("user1@example.com/res2"));
+		results.clear();
+		offlineProcessor.sendOfflineMessages(session2, pagedRepo, results);
+		assertEquals("delivery should start again after cancellation", 2, results.size());
+		assertEquals("msg-2", results.peek().getStanzaId());
+	}
+
+	@Test
+	public void testPagedDeliveryToSingleResource() throws Exception {
+		XMPPResourceConnection session1 = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
+													 JID.jidInstance("user1@example.com/res1"));
+		XMPPResourceConnection session2 = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString()),
+													 JID.jidInstance("user1@example.com/res2"));
+		PagedMsgRepository pagedRepo = new PagedMsgRepository();
+		pagedRepo.store(session1.getBareJID(), 5);
+		SynchronizedPacketWriter writer = new SynchronizedPacketWriter();
+		enablePagedDelivery(writer, 2);
+
+		Queue<Packet> results1 = new ArrayDeque<>();
+		offlineProcessor.sendOfflineMessages(session1, pagedRepo, results1);
+		Queue<Packet> results2 = new ArrayDeque<>();
+		offlineProcessor.sendOfflineMessages(session2, pagedRepo, results2);
+
+		assertEquals(2, results1.size());
+		assertTrue("messages delivered to second resource", results2.isEmpty());
+
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(writer.poll(5, TimeUnit.SECONDS));
+		}
+		assertNull(writer.poll(200, TimeUnit.MILLISECONDS));
+		assertEquals(0, pagedRepo.size());
+		assertEquals("messages loaded more than once", 5, new HashSet<>(pagedRepo.getLoaded()).size());
+		assertEquals(5, pagedRepo.getLoaded().size());
+	}
+
 	@Override
 	protected void registerBeans(Kernel kernel) {
 		super.registerBeans(kernel);
@@ -258,6 +369,27 @@ public class OfflineMessagesTest
 		kernel.registerBean(OfflineMessagesTestImpl.class).setActive(true).exec();
 	}
 
+	private void enablePagedDelivery(PacketWriter writer, int pageSize) throws Exception {
+		setField(offlineProcessor, "packetWriter", writer);
+		setField(offlineProcessor, "deliveryPageSize", pageSize);
+		setField(offlineProcessor, "deliveryPageDelay", 10L);
+	}
+
+	private static void setField(Object bean, String name, Object value) throws Exception {
+		Class<?> cls = bean.getClass();
+		while (cls != null) {
+			try {
+				Field field = cls.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(bean, value);
+				return;
+			} catch (NoSuchFieldException ex) {
+				cls = cls.getSuperclass();
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+
 	private static class MsgRepositoryIfcImpl
 			implements OfflineMessages.OfflineMsgRepositoryIfc {
 
@@ -302,6 +434,125 @@ public class OfflineMessagesTest
 		}
 	}
 
+	private static class PagedMsgRepository
+			extends MsgRepository<String, DataSource> {
+
+		private final List<String> loaded = Collections.synchronizedList(new ArrayList<>());
+		private final Map<String, Element> messages = Collections.synchronizedMap(new LinkedHashMap<>());
+
+		public void store(BareJID to, int count) {
+			int offset = messages.size() + loaded.size();
+			for (int i = offset; i < offset + count; i++) {
+				Element msg = new Element("message", new String[]{"id", "type", "from", "to"},
+										  new String[]{"msg-" + i, "chat", "remote-user@test.com/res1",
+													   to.toString()});
+				msg.addChild(new Element("body", "Test message " + i));
+				messages.put("msg-" + i, msg);
+			}
+		}
+
+		public int size() {
+			return messages.size();
+		}
+
+		public List<String> getLoaded() {
+			return loaded;
+		}
+
+		@Override
+		public List<String> getMessagesIds(JID to) {
+			synchronized (messages) {
+				return new ArrayList<>(messages.keySet());
+			}
+		}
+
+		@Override
+		public Queue<Element> loadMessagesToJID(List<String> db_ids, XMPPResourceConnection session, boolean delete,
+												OfflineMessagesProcessor proc) {
+			Queue<Element> result = new ArrayDeque<>();
+			for (String id : db_ids) {
+				Element msg = delete ? messages.remove(id) : messages.get(id);
+				if (msg != null) {
+					loaded.add(id);
+					result.offer(msg.clone());
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public Queue<Element> loadMessagesToJID(XMPPResourceConnection session, boolean delete) {
+			return loadMessagesToJID(getMessagesIds(null), session, delete, null);
+		}
+
+		@Override
+		public int deleteMessagesToJID(List<String> db_ids, XMPPResourceConnection session) {
+			int removed = 0;
+			for (String id : db_ids) {
+				if (messages.remove(id) != null) {
+					removed++;
+				}
+			}
+			return removed;
+		}
+
+		@Override
+		public boolean storeMessage(JID from, JID to, Date expired, Element msg, NonAuthUserRepository userRepo) {
+			throw new UnsupportedOperationException("Not supported yet.");
+		}
+
+		@Override
+		public Map<Enum, Long> getMessagesCount(JID to) {
+			return Collections.singletonMap(MSG_TYPES.message, (long) messages.size());
+		}
+
+		@Override
+		public List<Element> getMessagesList(JID to) {
+			return null;
+		}
+
+		@Override
+		public void setDataSource(DataSource dataSource) {
+		}
+
+		@Override
+		protected void loadExpiredQueue(int max) {
+		}
+
+		@Override
+		protected void loadExpiredQueue(Date expired) {
+		}
+
+		@Override
+		protected void deleteMessage(String db_id) {
+		}
+	}
+
+	private static class SynchronizedPacketWriter
+			implements PacketWriter {
+
+		private final LinkedBlockingQueue<Packet> packets = new LinkedBlockingQueue<>();
+
+		@Override
+		public void write(Collection<Packet> packets) {
+			this.packets.addAll(packets);
+		}
+
+		@Override
+		public void write(Packet packet) {
+			packets.offer(packet);
+		}
+
+		@Override
+		public void write(Packet packet, AsyncCallback callback) {
+			throw new UnsupportedOperationException("Method not implemented!");
+		}
+
+		private Packet poll(long timeout, TimeUnit unit) throws InterruptedException {
+			return packets.poll(timeout, unit);
+		}
+	}
+
 	public static class OfflineMessagesTestImpl
 			extends OfflineMessages {
 
@@ -24,8 +24,11 @@ import tigase.server.DataForm;
 import tigase.xml.Element;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class PresenceCapabilitiesManagerTest {
 
@@ -65,4 +68,109 @@ public class PresenceCapabilitiesManagerTest {
 		assertEquals("q07IKJEyjvHSyhy//CH0CxmKi8w=", s);
 
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testStoreSharesFeatureSets() {
+		PresenceCapabilitiesStore store = new PresenceCapabilitiesStore(100);
+		store.put("client-a#1", new String[]{"urn:b", "urn:a"}, false);
+		store.put("client-b#1", new String[]{new String("urn:a"), new String("urn:b")}, false);
+		store.put("client-c#1", new String[]{"urn:a"}, false);
+
+		assertEquals(3, store.getNodesCount());
+		assertEquals(2, store.getFeatureSetsCount());
+		assertArrayEquals(new String[]{"urn:a", "urn:b"}, store.getFeatures("client-a#1"));
+		assertSame(store.getFeatures("client-a#1"), store.getFeatures("client-b#1"));
+		assertSame(store.getFeatures("client-a#1")[0], store.getFeatures("client-c#1")[0]);
+
+		store.put("client-c#1", new String[]{"urn:c"}, false);
+		assertEquals(2, store.getFeatureSetsCount());
+		assertArrayEquals(new String[]{"urn:c"}, store.getFeatures("client-c#1"));
+	}
+
+	@Test
+	public void testStoreNodesWithFeature() {
+		PresenceCapabilitiesStore store = new PresenceCapabilitiesStore(100);
+		assertTrue(store.getNodesWithFeature("urn:a").isEmpty());
+
+		store.put("client-a#1", new String[]{"urn:a", "urn:b"}, false);
+		store.put("client-b#1", new String[]{"urn:b"}, false);
+
+		assertEquals(Collections.singleton("client-a#1"), store.getNodesWithFeature("urn:a"));
+		assertEquals(new HashSet<>(Arrays.asList("client-a#1", "client-b#1")), store.getNodesWithFeature("urn:b"));
+		assertSame(store.getNodesWithFeature("urn:b"), store.getNodesWithFeature("urn:b"));
+
+		store.put("client-c#1", new String[]{"urn:a"}, false);
+		Set<String> nodes = store.getNodesWithFeature("urn:a");
+		assertEquals(new HashSet<>(Arrays.asList("client-a#1", "client-c#1")), nodes);
+	}
+
+	@Test
+	public void testStoreEviction() {
+		PresenceCapabilitiesStore store = new PresenceCapabilitiesStore(10);
+		store.put("server#1", new String[]{"urn:server"}, true);
+		for (int i = 0; i < 10; i++) {
+			store.put("client#" + i, new String[]{"urn:" + (i % 3)}, false);
+			// keep first node in use
+			assertTrue(store.contains("client#0"));
+		}
+
+		assertTrue(store.getNodesCount() <= 10);
+		assertTrue(store.contains("server#1"));
+		assertTrue(store.contains("client#0"));
+		assertTrue(store.contains("client#9"));
+		assertFalse(store.contains("client#1"));
+		assertEquals(Collections.singleton("server#1"), store.getNodesWithFeature("urn:server"));
+	}
+
+	@Test
+	public void testStoreReleasesUnusedFeatures() {
+		PresenceCapabilitiesStore store = new PresenceCapabilitiesStore(100);
+		store.put("client-a#1", new String[]{"urn:a", "urn:b"}, false);
+		store.put("client-b#1", new String[]{"urn:b", "urn:c"}, false);
+		assertEquals(3, store.getFeaturesCount());
+
+		store.put("client-a#1", new String[]{"urn:b"}, false);
+		assertEquals(2, store.getFeaturesCount());
+		assertTrue(store.getNodesWithFeature("urn:a").isEmpty());
+
+		// id released by "urn:a" is reused and does not match nodes which had "urn:a" before
+		store.put("client-c#1", new String[]{"urn:d"}, false);
+		assertEquals(3, store.getFeaturesCount());
+		assertEquals(Collections.singleton("client-c#1"), store.getNodesWithFeature("urn:d"));
+		assertEquals(new HashSet<>(Arrays.asList("client-a#1", "client-b#1")), store.getNodesWithFeature("urn:b"));
+		assertArrayEquals(new String[]{"urn:b", "urn:c"}, store.getFeatures("client-b#1"));
+		assertArrayEquals(new String[]{"urn:d"}, store.getFeatures("client-c#1"));
+	}
+
+	@Test
+	public void testStoreFeaturesBoundedByEviction() {
+		PresenceCapabilitiesStore store = new PresenceCapabilitiesStore(10);
+		store.put("server#1", new String[]{"urn:server"}, true);
+		for (int i = 0; i < 1000; i++) {
+			store.put("client#" + i, new String[]{"urn:common", "urn:client:" + i}, false);
+		}
+
+		assertTrue(store.getNodesCount() <= 10);
+		// each client node has one unique feature, so only features of kept nodes may be left
+		assertTrue(store.getFeaturesCount() <= store.getNodesCount() + 1);
+		assertArrayEquals(new String[]{"urn:server"}, store.getFeatures("server#1"));
+		assertArrayEquals(new String[]{"urn:client:999", "urn:common"}, store.getFeatures("client#999"));
+	}
+
+	@Test
+	public void testStoreEvictsWhenLimitLowered() {
+		PresenceCapabilitiesStore store = new PresenceCapabilitiesStore(100);
+		store.put("server#1", new String[]{"urn:server"}, true);
+		for (int i = 0; i < 50; i++) {
+			store.put("client#" + i, new String[]{"urn:client:" + i}, false);
+		}
+		assertEquals(51, store.getNodesCount());
+
+		store.setLimit(20);
+		assertTrue(store.getNodesCount() <= 20);
+		assertTrue(store.contains("server#1"));
+		assertTrue(store.contains("client#49"));
+		assertFalse(store.contains("client#0"));
+		assertTrue(store.getNodesWithFeature("urn:client:0").isEmpty());
+	}
+}
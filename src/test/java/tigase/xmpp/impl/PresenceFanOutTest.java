@@ -0,0 +1,180 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterFactory;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PresenceFanOutTest
+		extends ProcessorTestCase {
+
+	private ArrayDeque<Packet> results;
+	private RosterAbstract roster_util;
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		getInstance(RosterFactory.Bean.class);
+		roster_util = RosterFactory.getRosterImplementation(true);
+		results = new ArrayDeque<>();
+	}
+
+	@After
+	@Override
+	public void tearDown() throws Exception {
+		super.tearDown();
+		roster_util.setEventBus(null);
+	}
+
+	@Test
+	public void testSubscribersFollowRosterChanges() throws Exception {
+		XMPPResourceConnection session = getSession(JID.jidInstanceNS("c2s@example.com/test-111"),
+													JID.jidInstanceNS("user-1@example.com/res-1"));
+		JID buddy1 = JID.jidInstanceNS("buddy-1@example.com");
+		JID buddy2 = JID.jidInstanceNS("buddy-2@example.com");
+		roster_util.addBuddy(session, buddy1, "Buddy-1", null, RosterAbstract.SubscriptionType.both, null);
+		roster_util.addBuddy(session, buddy2, "Buddy-2", null, RosterAbstract.SubscriptionType.to, null);
+
+		JID[] subscribers = roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED);
+		assertArrayEquals(new JID[]{buddy1}, subscribers);
+		assertSame(subscribers, roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED));
+
+		roster_util.setBuddySubscription(session, RosterAbstract.SubscriptionType.both, buddy2);
+		List<JID> updated = Arrays.asList(roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED));
+		assertEquals(2, updated.size());
+		assertTrue(updated.contains(buddy2));
+
+		roster_util.removeBuddy(session, buddy1);
+		assertArrayEquals(new JID[]{buddy2}, roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED));
+	}
+
+	@Test
+	public void testSubscribersFollowWeightChanges() throws Exception {
+		XMPPResourceConnection session = getSession(JID.jidInstanceNS("c2s@example.com/test-111"),
+													JID.jidInstanceNS("user-1@example.com/res-1"));
+		JID buddy1 = JID.jidInstanceNS("buddy-1@example.com");
+		JID buddy2 = JID.jidInstanceNS("buddy-2@example.com");
+		roster_util.addBuddy(session, buddy1, "Buddy-1", null, RosterAbstract.SubscriptionType.both, null);
+		roster_util.addBuddy(session, buddy2, "Buddy-2", null, RosterAbstract.SubscriptionType.both, null);
+		roster_util.getRosterElement(session, buddy1).setWeight(0.5);
+		roster_util.getRosterElement(session, buddy2).setWeight(0.7);
+
+		JID[] subscribers = roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED);
+		assertArrayEquals(new JID[]{buddy1, buddy2}, subscribers);
+		assertSame(subscribers, roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED));
+
+		// setting the same weight does not drop cached array
+		roster_util.getRosterElement(session, buddy2).setWeight(0.7);
+		assertSame(subscribers, roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED));
+
+		roster_util.getRosterElement(session, buddy2).setActivity(10);
+		assertArrayEquals(new JID[]{buddy2, buddy1}, roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED));
+
+		roster_util.getRosterElement(session, buddy1).setWeight(0.01);
+		assertArrayEquals(new JID[]{buddy1, buddy2}, roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED));
+	}
+
+	@Test
+	public void testFanOut() throws Exception {
+		JID from = JID.jidInstanceNS("user-1@example.com/res-1");
+		Element pres = new Element("presence", new String[]{"from", "xmlns"},
+								   new String[]{from.toString(), "jabber:client"});
+		pres.addChild(new Element("show", "away"));
+
+		PresenceAbstract.FanOut fanOut = new PresenceAbstract.FanOut(StanzaType.available, from, pres);
+		JID to1 = JID.jidInstanceNS("buddy-1@example.com");
+		JID to2 = JID.jidInstanceNS("buddy-2@example.com");
+		fanOut.send(to1, results);
+		fanOut.send(to2, results);
+
+		Packet p1 = results.poll();
+		Packet p2 = results.poll();
+		assertEquals(to1, p1.getStanzaTo());
+		assertEquals(to2, p2.getStanzaTo());
+		assertEquals(from, p2.getStanzaFrom());
+		assertEquals(to2.toString(), p2.getElement().getAttributeStaticStr("to"));
+		assertEquals("away", p2.getElement().getChildCData(new String[]{"presence", "show"}));
+		assertNull(pres.getAttributeStaticStr("to"));
+	}
+
+	@Test
+	@Ignore
+	public void testBroadcastBenchmark() throws Exception {
+		XMPPResourceConnection session = getSession(JID.jidInstanceNS("c2s@example.com/test-111"),
+													JID.jidInstanceNS("user-1@example.com/res-1"));
+		int contacts = 2000;
+		for (int i = 0; i < contacts; i++) {
+			roster_util.addBuddy(session, JID.jidInstanceNS("buddy-" + i + "@example.com"), null, null,
+								 RosterAbstract.SubscriptionType.both, null);
+		}
+		Element pres = new Element("presence", new String[]{"from", "xmlns"},
+								   new String[]{session.getJID().toString(), "jabber:client"});
+		pres.addChild(new Element("show", "away"));
+
+		int iterations = 100;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			// previous implementation: scan and sort of the whole roster and parsing of addresses of each copy
+			JID[] all = roster_util.getBuddies(session);
+			List<JID> buddies = new ArrayList<>();
+			for (JID buddy : all) {
+				if (RosterAbstract.FROM_SUBSCRIBED.contains(roster_util.getBuddySubscription(session, buddy))) {
+					buddies.add(buddy);
+				}
+			}
+			for (JID buddy : buddies) {
+				PresenceAbstract.sendPresence(StanzaType.available, session.getJID(), buddy, results, pres);
+			}
+			results.clear();
+		}
+		long before = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			JID[] buddies = roster_util.getBuddies(session, RosterAbstract.FROM_SUBSCRIBED);
+			PresenceAbstract.FanOut fanOut = new PresenceAbstract.FanOut(StanzaType.available, session.getJID(),
+																		 pres);
+			for (JID buddy : buddies) {
+				fanOut.send(buddy, results);
+			}
+			results.clear();
+		}
+		long after = System.nanoTime() - start;
+
+		System.out.println("broadcast to " + contacts + " contacts: before " + (before / iterations / 1000) +
+								   "us, after " + (after / iterations / 1000) + "us");
+	}
+
+}
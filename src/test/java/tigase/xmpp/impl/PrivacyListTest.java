@@ -20,8 +20,16 @@ package tigase.xmpp.impl;
 import org.junit.Ignore;
 import org.junit.Test;
 import tigase.xml.Element;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterElement;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
 
-import java.util.Collections;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class PrivacyListTest {
 
@@ -64,4 +72,118 @@ public class PrivacyListTest {
 
 //		System.out.println(privacyList.toString());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testCompiledMatchesScan() {
+		Map<BareJID, RosterElement> roster = new HashMap<>();
+		addContact(roster, "friend@example.com", RosterAbstract.SubscriptionType.both, "friends");
+		addContact(roster, "coworker@example.com", RosterAbstract.SubscriptionType.to, "work");
+		addContact(roster, "fan@example.com", RosterAbstract.SubscriptionType.from_pending_out);
+		addContact(roster, "stranger@spam.com", RosterAbstract.SubscriptionType.none, "friends");
+
+		Element list = new Element("list", new String[]{"name"}, new String[]{"test"});
+		addItem(list, 1, "jid", "spam.com", "deny");
+		addItem(list, 2, "jid", "friend@example.com/phone", "deny", "message");
+		addItem(list, 3, "group", "friends", "allow");
+		addItem(list, 4, "subscription", "from", "deny", "presence-out");
+		addItem(list, 5, "jid", "coworker@example.com", "deny", "iq");
+		addItem(list, 6, "subscription", "none", "deny");
+		addItem(list, 7, null, null, "allow");
+		PrivacyList privacyList = PrivacyList.create(roster, list);
+
+		String[] jids = {"friend@example.com/phone", "friend@example.com/pc", "coworker@example.com/pc",
+						 "fan@example.com", "stranger@spam.com/x", "unknown@example.com", "example.com",
+						 "spam.com/res", "other@other.com"};
+		for (String jid : jids) {
+			for (PrivacyList.Item.Type type : PrivacyList.Item.Type.values()) {
+				JID j = JID.jidInstanceNS(jid);
+				assertEquals(jid + " " + type, privacyList.isAllowedByScan(j, type), privacyList.isAllowed(j, type));
+			}
+		}
+		assertFalse(privacyList.isAllowed(JID.jidInstanceNS("friend@example.com/phone"), PrivacyList.Item.Type.message));
+		assertTrue(privacyList.isAllowed(JID.jidInstanceNS("friend@example.com/pc"), PrivacyList.Item.Type.message));
+		assertFalse(privacyList.isAllowed(JID.jidInstanceNS("unknown@example.com"), PrivacyList.Item.Type.message));
+	}
+
+	@Test
+	public void testDecisionCacheInvalidation() {
+		Map<BareJID, RosterElement> roster = new HashMap<>();
+		RosterElement contact = addContact(roster, "friend@example.com", RosterAbstract.SubscriptionType.both);
+
+		Element list = new Element("list", new String[]{"name"}, new String[]{"test"});
+		addItem(list, 1, "group", "blocked", "deny");
+		addItem(list, 2, null, null, "allow");
+		PrivacyList privacyList = PrivacyList.create(roster, list);
+
+		JID jid = JID.jidInstanceNS("friend@example.com/pc");
+		assertTrue(privacyList.isAllowed(jid, PrivacyList.Item.Type.message));
+		contact.setGroups(new String[]{"blocked"});
+		privacyList.invalidateCache();
+		assertFalse(privacyList.isAllowed(jid, PrivacyList.Item.Type.message));
+	}
+
+	@Test
+	@Ignore
+	public void testLargeListBenchmark() {
+		Map<BareJID, RosterElement> roster = new HashMap<>();
+		Element list = new Element("list", new String[]{"name"}, new String[]{"blocklist"});
+		int size = 10000;
+		for (int i = 0; i < size; i++) {
+			addItem(list, i, "jid", "spammer-" + i + "@spam" + (i % 100) + ".com", "deny");
+		}
+		addItem(list, size, "group", "blocked", "deny");
+		addItem(list, size + 1, "subscription", "none", "deny", "message");
+		for (int i = 0; i < 200; i++) {
+			addContact(roster, "contact-" + i + "@example.com", RosterAbstract.SubscriptionType.both, "friends");
+		}
+		PrivacyList privacyList = PrivacyList.create(roster, list);
+
+		JID[] jids = new JID[1000];
+		for (int i = 0; i < jids.length; i++) {
+			jids[i] = JID.jidInstanceNS(
+					i % 2 == 0 ? "contact-" + (i % 200) + "@example.com/res" : "spammer-" + (i * 7) + "@spam" + (i % 100) + ".com");
+		}
+
+		int iterations = 100;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (JID jid : jids) {
+				privacyList.isAllowedByScan(jid, PrivacyList.Item.Type.message);
+			}
+		}
+		long scan = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (JID jid : jids) {
+				privacyList.isAllowed(jid, PrivacyList.Item.Type.message);
+			}
+		}
+		long compiled = System.nanoTime() - start;
+
+		System.out.println("list of " + size + " items: scan " + (scan / (iterations * jids.length)) +
+								   "ns/check, compiled " + (compiled / (iterations * jids.length)) + "ns/check");
+	}
+
+	private static RosterElement addContact(Map<BareJID, RosterElement> roster, String jid,
+											RosterAbstract.SubscriptionType subscription, String... groups) {
+		RosterElement element = new RosterElement(JID.jidInstanceNS(jid), null, groups.length == 0 ? null : groups);
+		element.setSubscription(subscription);
+		roster.put(element.getJid().getBareJID(), element);
+		return element;
+	}
+
+	private static void addItem(Element list, int order, String type, String value, String action, String... stanzas) {
+		Element item = new Element("item", new String[]{"action", "order"},
+								   new String[]{action, String.valueOf(order)});
+		if (type != null) {
+			item.setAttribute("type", type);
+			item.setAttribute("value", value);
+		}
+		for (String stanza : stanzas) {
+			item.addChild(new Element(stanza));
+		}
+		list.addChild(item);
+	}
+
+}
@@ -0,0 +1,267 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.auth.AuthWorkerPool;
+import tigase.component.PacketWriter;
+import tigase.component.responses.AsyncCallback;
+import tigase.db.NonAuthUserRepository;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.jid.JID;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SaslAuthTest
+		extends ProcessorTestCase {
+
+	private static final String XMLNS = "urn:ietf:params:xml:ns:xmpp-sasl";
+
+	private AuthWorkerPool authWorkerPool;
+	private TestSaslAuth saslAuth;
+	private SynchronizedPacketWriter writer;
+
+	@Before
+	public void setUpSaslAuth() throws Exception {
+		authWorkerPool = new AuthWorkerPool();
+		setField(authWorkerPool, "threads", 1);
+		setField(authWorkerPool, "queueSize", 1);
+		authWorkerPool.initialize();
+
+		writer = new SynchronizedPacketWriter();
+		saslAuth = new TestSaslAuth();
+		setField(saslAuth, "async", true);
+		setField(saslAuth, "authWorkerPool", authWorkerPool);
+		setField(saslAuth, "packetWriter", writer);
+	}
+
+	@After
+	public void tearDownSaslAuth() {
+		saslAuth.release.countDown();
+		authWorkerPool.beforeUnregister();
+	}
+
+	@Test
+	public void testAsyncAuthentication() throws Exception {
+		XMPPResourceConnection session = createSession("1");
+		Queue<Packet> results = new ArrayDeque<>();
+
+		saslAuth.process(createPacket(session, "auth"), session, null, results, null);
+		assertTrue("results should be written by the authentication pool", results.isEmpty());
+		assertTrue(saslAuth.started.await(10, TimeUnit.SECONDS));
+		assertTrue(saslAuth.threads.get(0).startsWith("auth-worker-"));
+
+		saslAuth.release.countDown();
+		Packet success = writer.poll(10, TimeUnit.SECONDS);
+		assertNotNull(success);
+		assertEquals("success", success.getElemName());
+		assertEquals(session.getConnectionId(), success.getPacketTo());
+
+		// previous step is completed, so the next one is accepted again
+		saslAuth.process(createPacket(session, "response"), session, null, results, null);
+		assertTrue(results.isEmpty());
+		assertNotNull(writer.poll(10, TimeUnit.SECONDS));
+		assertEquals(2, saslAuth.invocations.get());
+	}
+
+	@Test
+	public void testNextStepRejectedWhileInProgress() throws Exception {
+		XMPPResourceConnection running = createSession("1");
+		XMPPResourceConnection queued = createSession("2");
+		Queue<Packet> results = new ArrayDeque<>();
+
+		saslAuth.process(createPacket(running, "auth"), running, null, results, null);
+		assertTrue(saslAuth.started.await(10, TimeUnit.SECONDS));
+		saslAuth.process(createPacket(queued, "auth"), queued, null, results, null);
+		assertTrue(results.isEmpty());
+
+		// next step may not be processed before the result of the previous one is ready
+		saslAuth.process(createPacket(queued, "response"), queued, null, results, null);
+		Packet failure = results.poll();
+		assertNotNull(failure);
+		assertEquals("failure", failure.getElemName());
+		assertEquals(queued.getConnectionId(), failure.getPacketTo());
+		assertTrue(failure.getElement().getCData().contains("malformed-request"));
+
+		saslAuth.release.countDown();
+		assertNotNull(writer.poll(10, TimeUnit.SECONDS));
+		assertNotNull(writer.poll(10, TimeUnit.SECONDS));
+		assertEquals(2, saslAuth.invocations.get());
+
+		// both steps are completed, so the next one is accepted again
+		saslAuth.process(createPacket(queued, "response"), queued, null, results, null);
+		assertTrue(results.isEmpty());
+		assertNotNull(writer.poll(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testQueueFull() throws Exception {
+		XMPPResourceConnection running = createSession("1");
+		XMPPResourceConnection queued = createSession("2");
+		XMPPResourceConnection rejected = createSession("3");
+		Queue<Packet> results = new ArrayDeque<>();
+
+		saslAuth.process(createPacket(running, "auth"), running, null, results, null);
+		assertTrue(saslAuth.started.await(10, TimeUnit.SECONDS));
+		saslAuth.process(createPacket(queued, "auth"), queued, null, results, null);
+		assertTrue(results.isEmpty());
+
+		saslAuth.process(createPacket(rejected, "auth"), rejected, null, results, null);
+		Packet failure = results.poll();
+		assertNotNull(failure);
+		assertEquals("failure", failure.getElemName());
+		assertEquals(rejected.getConnectionId(), failure.getPacketTo());
+		assertTrue(failure.getElement().getCData().contains("temporary-auth-failure"));
+
+		// rejected session may retry once the pool is not busy
+		saslAuth.release.countDown();
+		assertNotNull(writer.poll(10, TimeUnit.SECONDS));
+		assertNotNull(writer.poll(10, TimeUnit.SECONDS));
+		saslAuth.process(createPacket(rejected, "auth"), rejected, null, results, null);
+		assertTrue(results.isEmpty());
+		assertNotNull(writer.poll(10, TimeUnit.SECONDS));
+		assertEquals(3, saslAuth.invocations.get());
+	}
+
+	@Test
+	public void testAuthenticationTimeoutWhileQueued() throws Exception {
+		XMPPResourceConnection running = createSession("1");
+		XMPPResourceConnection queued = createSession("2");
+		Queue<Packet> results = new ArrayDeque<>();
+
+		saslAuth.process(createPacket(running, "auth"), running, null, results, null);
+		assertTrue(saslAuth.started.await(10, TimeUnit.SECONDS));
+		saslAuth.process(createPacket(queued, "auth"), queued, null, results, null);
+		queued.putSessionData(XMPPResourceConnection.AUTHENTICATION_TIMEOUT_KEY, Boolean.TRUE);
+
+		saslAuth.release.countDown();
+		assertNotNull(writer.poll(10, TimeUnit.SECONDS));
+
+		// wait until the queued task is processed
+		CountDownLatch idle = new CountDownLatch(1);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (true) {
+			try {
+				authWorkerPool.execute(idle::countDown);
+				break;
+			} catch (RejectedExecutionException ex) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+		}
+		assertTrue(idle.await(10, TimeUnit.SECONDS));
+
+		assertEquals(1, saslAuth.invocations.get());
+		assertNull(writer.poll(0, TimeUnit.SECONDS));
+	}
+
+	private XMPPResourceConnection createSession(String id) {
+		JID connId = JID.jidInstanceNS("c2s@example.com/127.0.0.1_5222_10.0.0." + id + "_1234");
+		return new XMPPResourceConnection(connId, getUserRepository(), getAuthRepository(),
+										  getSessionManagerHandler());
+	}
+
+	private Packet createPacket(XMPPResourceConnection session, String name) throws Exception {
+		Element el = new Element(name, new String[]{"xmlns", "mechanism"}, new String[]{XMLNS, "PLAIN"});
+		Packet packet = Packet.packetInstance(el, session.getConnectionId(), null);
+		packet.setPacketFrom(session.getConnectionId());
+		return packet;
+	}
+
+	private static void setField(Object bean, String name, Object value) throws Exception {
+		Class<?> cls = bean.getClass();
+		while (cls != null) {
+			try {
+				Field field = cls.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(bean, value);
+				return;
+			} catch (NoSuchFieldException ex) {
+				cls = cls.getSuperclass();
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+
+	private static class TestSaslAuth
+			extends SaslAuth {
+
+		private final AtomicInteger invocations = new AtomicInteger();
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CopyOnWriteArrayList<String> threads = new CopyOnWriteArrayList<>();
+
+		@Override
+		protected void authenticate(Packet packet, XMPPResourceConnection session, NonAuthUserRepository repo,
+									Map<String, Object> settings, String clientIp, long startNanos,
+									Queue<Packet> results) {
+			invocations.incrementAndGet();
+			threads.add(Thread.currentThread().getName());
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			Element success = new Element("success");
+			success.setXMLNS(XMLNS);
+			results.offer(packet.swapFromTo(success, null, null));
+		}
+	}
+
+	private static class SynchronizedPacketWriter
+			implements PacketWriter {
+
+		private final LinkedBlockingQueue<Packet> packets = new LinkedBlockingQueue<>();
+
+		@Override
+		public void write(Collection<Packet> packets) {
+			this.packets.addAll(packets);
+		}
+
+		@Override
+		public void write(Packet packet) {
+			packets.offer(packet);
+		}
+
+		@Override
+		public void write(Packet packet, AsyncCallback callback) {
+			throw new UnsupportedOperationException("Method not implemented!");
+		}
+
+		private Packet poll(long timeout, TimeUnit unit) throws InterruptedException {
+			return packets.poll(timeout, unit);
+		}
+	}
+}
@@ -250,6 +250,86 @@ public class PushNotificationsTest
 
 	}
 
+	@Test
+	public void test_messagesCountCached() throws Exception {
+		getInstance(UserRepository.class).setData(recipientJid.getBareJID(), "urn:xmpp:push:0",
+												  pushServiceJid + "/push-node",
+												  new Element("settings", new String[]{"jid", "node"},
+															  new String[]{pushServiceJid.toString(),
+																		   "push-node"}).toString());
+
+		Queue<Packet> stored = ((MsgRepositoryIfcImpl) msgRepository).getStored();
+		for (int i = 1; i <= 3; i++) {
+			String msgBody = "Message body " + i;
+			Element msg = new Element("message", new Element[]{new Element("body", msgBody)}, new String[]{"xmlns"},
+									  new String[]{"jabber:client"});
+			Packet packet = Packet.packetInstance(msg, senderJid, recipientJid);
+			msgRepository.storeMessage(senderJid, recipientJid, new Date(), packet.getElement(), null);
+			if (i > 1) {
+				// count should be taken from cache and not from repository
+				stored.clear();
+			}
+
+			Queue<Packet> results = new ArrayDeque<>();
+			pushNotifications.notifyNewOfflineMessage(packet, null, results, new HashMap<>());
+			assertEquals(1, results.size());
+			assertElementEquals(PushNotificationHelper.createPushNotification(pushServiceJid, recipientJid, "push-node",
+																			  PushNotificationHelper.createNotification(
+																					  i, senderJid, msgBody))
+										.getElement(), results.poll().getElement());
+		}
+
+		XMPPResourceConnection session = getSession(
+				JID.jidInstanceNS("c2s@example.com/" + UUID.randomUUID().toString()), recipientJid);
+		pushNotifications.notifyOfflineMessagesRetrieved(session, new ArrayDeque<>());
+
+		String msgBody = "Message body after retrieval";
+		Element msg = new Element("message", new Element[]{new Element("body", msgBody)}, new String[]{"xmlns"},
+								  new String[]{"jabber:client"});
+		Packet packet = Packet.packetInstance(msg, senderJid, recipientJid);
+		msgRepository.storeMessage(senderJid, recipientJid, new Date(), packet.getElement(), null);
+
+		Queue<Packet> results = new ArrayDeque<>();
+		pushNotifications.notifyNewOfflineMessage(packet, null, results, new HashMap<>());
+		assertEquals(1, results.size());
+		assertElementEquals(PushNotificationHelper.createPushNotification(pushServiceJid, recipientJid, "push-node",
+																		  PushNotificationHelper.createNotification(1,
+																													senderJid,
+																													msgBody))
+									.getElement(), results.poll().getElement());
+	}
+
+	@Test
+	public void test_coalescing() throws Exception {
+		List<Element> sent = Collections.synchronizedList(new ArrayList<>());
+		PushNotificationsCoalescer coalescer = new PushNotificationsCoalescer(
+				(userJid, settings, notification) -> sent.add(notification), 200);
+		Element settings = new Element("settings", new String[]{"jid", "node"},
+									   new String[]{pushServiceJid.toString(), "push-node"});
+		try {
+			assertTrue(coalescer.offer(recipientJid.getBareJID(), settings, new Element("notification-1")));
+			assertFalse(coalescer.offer(recipientJid.getBareJID(), settings, new Element("notification-2")));
+			assertFalse(coalescer.offer(recipientJid.getBareJID(), settings, new Element("notification-3")));
+			assertEquals(1, coalescer.size());
+
+			Thread.sleep(300);
+			assertEquals(1, sent.size());
+			assertEquals("notification-3", sent.get(0).getName());
+
+			Thread.sleep(300);
+			assertEquals(1, sent.size());
+			assertEquals(0, coalescer.size());
+
+			assertTrue(coalescer.offer(recipientJid.getBareJID(), settings, new Element("notification-4")));
+			assertFalse(coalescer.offer(recipientJid.getBareJID(), settings, new Element("notification-5")));
+			coalescer.cancel(recipientJid.getBareJID(), Collections.singletonList(settings));
+			Thread.sleep(300);
+			assertEquals(1, sent.size());
+		} finally {
+			coalescer.shutdown();
+		}
+	}
+
 	protected void registerLocalBeans(Kernel kernel) {
 		super.registerBeans(kernel);
 		kernel.registerBean("eventBus").asInstance(EventBusFactory.getInstance()).exportable().exec();
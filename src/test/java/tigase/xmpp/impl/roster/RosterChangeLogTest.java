@@ -0,0 +1,108 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import org.junit.Test;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RosterChangeLogTest {
+
+	private static final BareJID JID_1 = BareJID.bareJIDInstanceNS("buddy1@example.com");
+	private static final BareJID JID_2 = BareJID.bareJIDInstanceNS("buddy2@example.com");
+	private static final BareJID JID_3 = BareJID.bareJIDInstanceNS("buddy3@example.com");
+
+	@Test
+	public void testChangesSince() {
+		RosterChangeLog changeLog = new RosterChangeLog(10, 1);
+		long initial = changeLog.getVersion();
+
+		assertTrue(changeLog.getChangesSince(initial).isEmpty());
+
+		long v1 = changeLog.record(JID_1);
+		long v2 = changeLog.record(JID_2);
+		long v3 = changeLog.record(JID_1);
+		changeLog.setFingerprint(4);
+
+		assertEquals(4, changeLog.getFingerprint());
+		assertEquals(v3, changeLog.getVersion());
+
+		Map<BareJID, Long> changes = changeLog.getChangesSince(initial);
+		assertEquals(Arrays.asList(JID_2, JID_1), Arrays.asList(changes.keySet().toArray()));
+		assertEquals(Long.valueOf(v2), changes.get(JID_2));
+		assertEquals(Long.valueOf(v3), changes.get(JID_1));
+
+		changes = changeLog.getChangesSince(v1);
+		assertEquals(2, changes.size());
+		assertTrue(changeLog.getChangesSince(v3).isEmpty());
+
+		assertNull(changeLog.getChangesSince(v3 + 1));
+		assertNull(changeLog.getChangesSince(initial - 1));
+	}
+
+	@Test
+	public void testLimit() {
+		RosterChangeLog changeLog = new RosterChangeLog(2, 0);
+		long initial = changeLog.getVersion();
+
+		long v1 = changeLog.record(JID_1);
+		changeLog.record(JID_2);
+		changeLog.record(JID_3);
+
+		assertNull(changeLog.getChangesSince(initial));
+		assertEquals(2, changeLog.getChangesSince(v1).size());
+	}
+
+	@Test
+	public void testReset() {
+		RosterChangeLog changeLog = new RosterChangeLog(10, 0);
+		long v1 = changeLog.record(JID_1);
+
+		changeLog.reset(5);
+
+		assertNull(changeLog.getChangesSince(v1));
+		assertTrue(changeLog.getChangesSince(changeLog.getVersion()).isEmpty());
+		assertEquals(5, changeLog.getFingerprint());
+	}
+
+	@Test
+	public void testEncodeDecode() {
+		RosterChangeLog changeLog = new RosterChangeLog(10, 7);
+		long initial = changeLog.getVersion();
+		changeLog.record(JID_1);
+		changeLog.record(JID_2);
+		changeLog.setFingerprint(9);
+
+		RosterChangeLog decoded = RosterChangeLog.decode(changeLog.encode(), 10);
+		assertNotNull(decoded);
+		assertEquals(changeLog.getVersion(), decoded.getVersion());
+		assertEquals(changeLog.getFingerprint(), decoded.getFingerprint());
+		assertEquals(changeLog.getChangesSince(initial), decoded.getChangesSince(initial));
+
+		decoded = RosterChangeLog.decode(changeLog.encode(), 1);
+		assertNull(decoded.getChangesSince(initial));
+		assertEquals(1, decoded.getChangesSince(changeLog.getVersion() - 1).size());
+
+		assertNull(RosterChangeLog.decode(null, 10));
+		assertNull(RosterChangeLog.decode("d41d8cd98f00b204e9800998ecf8427e", 10));
+	}
+}
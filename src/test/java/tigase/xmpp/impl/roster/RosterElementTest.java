@@ -18,8 +18,15 @@
 package tigase.xmpp.impl.roster;
 
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.*;
 
 public class RosterElementTest {
@@ -67,4 +74,221 @@ public class RosterElementTest {
 		assertNull(e.getName());
 	}
 
+	@Test
+	public void testSerializedFormReset() {
+		RosterElement e = new RosterElement(JID.jidInstanceNS("a@b.c"), "jeff", new String[]{"friends"});
+		String serialized = e.getRosterElementString();
+		assertEquals(e.getRosterElement().toString(), serialized);
+		assertSame(serialized, e.getRosterElementString());
+		assertFalse(e.isModified());
+
+		e.setName("bob");
+		assertNotEquals(serialized, e.getRosterElementString());
+		assertTrue(e.getRosterElementString().contains("bob"));
+
+		serialized = e.getRosterElementString();
+		e.setOtherData("other");
+		assertTrue(e.getRosterElementString().contains("other"));
+
+		serialized = e.getRosterElementString();
+		e.setLastSeen(System.currentTimeMillis() + 1000);
+		assertNotSame(serialized, e.getRosterElementString());
+		assertEquals(e.getRosterElement().toString(), e.getRosterElementString());
+	}
+
+	@Test
+	public void testSerializedFormNotKeptAfterConcurrentChange() {
+		RosterElement e = new RosterElement(JID.jidInstanceNS("a@b.c"), "jeff", new String[]{"friends"}) {
+			private boolean changeName = true;
+
+			@Override
+			public Element getRosterElement() {
+				Element elem = super.getRosterElement();
+				if (changeName) {
+					// simulates modification done by other thread during serialization
+					changeName = false;
+					setName("bob");
+				}
+				return elem;
+			}
+		};
+
+		assertTrue(e.getRosterElementString().contains("jeff"));
+		assertTrue(e.getRosterElementString().contains("bob"));
+		assertSame(e.getRosterElementString(), e.getRosterElementString());
+	}
+
+	@Test
+	public void testCompactForm() throws Exception {
+		RosterElement e = new RosterElement(JID.jidInstanceNS("a@b.c"), "jeff|\\0, \"<x>\"\n",
+											new String[]{"friends, family", "", "work|\\"});
+		e.setSubscription(RosterAbstract.SubscriptionType.both);
+		e.setOtherData("other\r\n");
+		e.setActivity(4);
+		e.setLastSeen(12345L);
+
+		String compact = e.getRosterElementCompactString();
+		assertFalse(e.isModified());
+		assertSame(compact, e.getRosterElementCompactString());
+		assertTrue(compact.endsWith("\n"));
+		assertEquals(compact.length() - 1, compact.indexOf('\n'));
+
+		RosterElement copy = new RosterElement(compact);
+		assertFalse(copy.isModified());
+		assertSame(compact, copy.getRosterElementCompactString());
+		assertEquals(e.getJid(), copy.getJid());
+		assertEquals(e.getSubscription(), copy.getSubscription());
+		assertEquals(e.getName(), copy.getName());
+		assertArrayEquals(e.getGroups(), copy.getGroups());
+		assertEquals(e.getOtherData(), copy.getOtherData());
+		assertEquals(e.getActivity(), copy.getActivity(), 0);
+		assertEquals(e.getWeight(), copy.getWeight(), 0);
+		assertEquals(e.getLastSeen(), copy.getLastSeen());
+		assertEquals(e.getRosterElementString(), copy.getRosterElementString());
+
+		RosterElement empty = new RosterElement(
+				new RosterElement(JID.jidInstanceNS("a@b.c"), null, null).getRosterElementCompactString());
+		assertNull(empty.getName());
+		assertNull(empty.getGroups());
+		assertNull(empty.getOtherData());
+	}
+
+	@Test
+	public void testCompactFormDecodedOnChange() throws Exception {
+		RosterElement e = new RosterElement(JID.jidInstanceNS("a@b.c"), "jeff", new String[]{"friends"});
+		e.setLastSeen(12345L);
+
+		// change of a field decoded on first use must keep other fields
+		RosterElement copy = new RosterElement(e.getRosterElementCompactString());
+		copy.setName("bob");
+		assertTrue(copy.isModified());
+		assertArrayEquals(new String[]{"friends"}, copy.getGroups());
+		assertEquals(12345L, copy.getLastSeen());
+
+		copy = new RosterElement(e.getRosterElementCompactString());
+		copy.setWeight(5);
+		assertEquals(e.getRosterElementString().replace("weight=\"1.0\"", "weight=\"5.0\""),
+					 copy.getRosterElementString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompactFormIncorrect() throws Exception {
+		new RosterElement("a@b.c|\\0|both|1.0|name\n");
+	}
+
+	@Test
+	public void testParseRosterFormats() {
+		RosterElement e1 = new RosterElement(JID.jidInstanceNS("a@b.c"), "jeff", new String[]{"friends"});
+		RosterElement e2 = new RosterElement(JID.jidInstanceNS("d@b.c"), null, null);
+
+		Map<BareJID, RosterElement> xml = new HashMap<>();
+		RosterFlat.parseRosterUtil(e1.getRosterElementString() + e2.getRosterElementString(), xml, null);
+		Map<BareJID, RosterElement> compact = new HashMap<>();
+		RosterFlat.parseRosterUtil(RosterFlat.STORAGE_FORMAT_PREFIX + RosterFlat.STORAGE_FORMAT_VERSION + "\n" +
+										   e1.getRosterElementCompactString() + e2.getRosterElementCompactString(),
+								   compact, null);
+
+		assertEquals(2, xml.size());
+		assertEquals(2, compact.size());
+		for (RosterElement relem : new RosterElement[]{e1, e2}) {
+			BareJID jid = relem.getJid().getBareJID();
+			assertEquals(relem.getRosterElementString(), xml.get(jid).getRosterElementString());
+			assertEquals(relem.getRosterElementString(), compact.get(jid).getRosterElementString());
+		}
+
+		Map<BareJID, RosterElement> unknown = new HashMap<>();
+		RosterFlat.parseRosterUtil(RosterFlat.STORAGE_FORMAT_PREFIX + "99\n" + e1.getRosterElementCompactString(),
+								   unknown, null);
+		assertTrue(unknown.isEmpty());
+	}
+
+	@Test
+	public void testOnline() {
+		RosterElement e = new RosterElement(JID.jidInstanceNS("a@b.c"), null, new String[]{});
+		assertFalse(e.isOnline());
+		e.setOnline("res1", false);
+		assertFalse(e.isOnline());
+		e.setOnline("res1", true);
+		e.setOnline("res2", true);
+		assertTrue(e.isOnline());
+		e.setOnline("res1", false);
+		assertTrue(e.isOnline());
+		e.setOnline("res2", false);
+		assertFalse(e.isOnline());
+	}
+
+	@Test
+	@Category(SlowTest.class)
+	public void benchmarkRosterLoadAndSave() {
+		for (RosterFlat.StorageFormat format : RosterFlat.StorageFormat.values()) {
+			benchmarkRosterLoadAndSave(format);
+		}
+	}
+
+	private void benchmarkRosterLoadAndSave(RosterFlat.StorageFormat format) {
+		final int items = 10000;
+		boolean compact = format == RosterFlat.StorageFormat.compact;
+		StringBuilder sb = new StringBuilder();
+		if (compact) {
+			sb.append(RosterFlat.STORAGE_FORMAT_PREFIX).append(RosterFlat.STORAGE_FORMAT_VERSION).append('\n');
+		}
+		for (int i = 0; i < items; i++) {
+			RosterElement relem = new RosterElement(JID.jidInstanceNS("buddy-" + i + "@example.com"), "Buddy " + i,
+													new String[]{"group-" + (i % 10)});
+			sb.append(compact ? relem.getRosterElementCompactString() : relem.getRosterElementString());
+		}
+		String rosterStr = sb.toString();
+
+		Runtime rt = Runtime.getRuntime();
+		Map<BareJID, RosterElement> roster = null;
+		long parseTime = 0;
+		long memory = 0;
+		long decodedMemory = 0;
+		for (int i = 0; i < 5; i++) {
+			roster = null;
+			System.gc();
+			long before = rt.totalMemory() - rt.freeMemory();
+			long start = System.nanoTime();
+			roster = new HashMap<>();
+			RosterFlat.parseRosterUtil(rosterStr, roster, null);
+			parseTime = System.nanoTime() - start;
+			System.gc();
+			memory = (rt.totalMemory() - rt.freeMemory()) - before;
+			// all fields are decoded when the whole roster is sent to the client
+			for (RosterElement relem : roster.values()) {
+				relem.getRosterItem();
+			}
+			System.gc();
+			decodedMemory = (rt.totalMemory() - rt.freeMemory()) - before;
+		}
+		assertEquals(items, roster.size());
+
+		long fullSave = 0;
+		long incrementalSave = 0;
+		for (int i = 0; i < 5; i++) {
+			for (RosterElement relem : roster.values()) {
+				relem.setLastSeen(relem.getLastSeen() + 1);
+			}
+			fullSave = saveTime(roster, compact);
+			roster.values().iterator().next().setLastSeen(System.currentTimeMillis());
+			incrementalSave = saveTime(roster, compact);
+		}
+
+		System.out.println(
+				"Roster of " + items + " items in " + format + " format, " + rosterStr.length() + " chars: login parse " +
+						(parseTime / 1000) + "us, ~" + (memory / items) + " bytes per item after login, ~" +
+						(decodedMemory / items) + " bytes per item decoded, save " + (fullSave / 1000) +
+						"us all modified, " + (incrementalSave / 1000) + "us single item modified");
+	}
+
+	private long saveTime(Map<BareJID, RosterElement> roster, boolean compact) {
+		long start = System.nanoTime();
+		StringBuilder sb = new StringBuilder(5000);
+		for (RosterElement relem : roster.values()) {
+			sb.append(compact ? relem.getRosterElementCompactString() : relem.getRosterElementString());
+		}
+		assertTrue(sb.length() > 0);
+		return System.nanoTime() - start;
+	}
+
 }
@@ -0,0 +1,86 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.ProcessorTestCase;
+import tigase.xmpp.jid.JID;
+
+import static org.junit.Assert.*;
+
+public class RosterFlatChangeLogTest
+		extends ProcessorTestCase {
+
+	private RosterAbstract roster_util;
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		getInstance(RosterFactory.Bean.class);
+		roster_util = RosterFactory.getRosterImplementation(true);
+	}
+
+	@After
+	@Override
+	public void tearDown() throws Exception {
+		super.tearDown();
+		roster_util.setEventBus(null);
+	}
+
+	@Test
+	public void testFingerprintUpdatedOnSave() throws Exception {
+		XMPPResourceConnection session = getSession(JID.jidInstanceNS("c2s@example.com/test-111"),
+													JID.jidInstanceNS("user-1@example.com/res-1"));
+		JID buddy1 = JID.jidInstanceNS("buddy-1@example.com");
+		JID buddy2 = JID.jidInstanceNS("buddy-2@example.com");
+
+		RosterChangeLog changeLog = roster_util.getRosterChangeLog(session);
+		assertNotNull(changeLog);
+		long initial = changeLog.getVersion();
+
+		roster_util.addBuddy(session, buddy1, "Buddy-1", null, RosterAbstract.SubscriptionType.both, null);
+		assertEquals(roster_util.getRosterFingerprint(session), changeLog.getFingerprint());
+		roster_util.recordRosterChange(session, item(buddy1));
+
+		roster_util.addBuddy(session, buddy2, "Buddy-2", new String[]{"friends"}, RosterAbstract.SubscriptionType.to,
+							 null);
+		assertEquals(roster_util.getRosterFingerprint(session), changeLog.getFingerprint());
+		roster_util.recordRosterChange(session, item(buddy2));
+
+		roster_util.removeBuddy(session, buddy1);
+		assertEquals(roster_util.getRosterFingerprint(session), changeLog.getFingerprint());
+		String ver = roster_util.recordRosterChange(session, item(buddy1));
+		assertEquals(Long.toString(changeLog.getVersion()), ver);
+
+		// stored log matches stored roster, so it is still valid after it is loaded again
+		RosterChangeLog stored = RosterChangeLog.decode(
+				session.getData(null, RosterAbstract.ROSTER_CHANGES, null), RosterAbstract.getRosterChangeLogSize());
+		assertNotNull(stored);
+		assertEquals(roster_util.getRosterFingerprint(session), stored.getFingerprint());
+		assertEquals(2, stored.getChangesSince(initial).size());
+	}
+
+	private static Element item(JID jid) {
+		return new Element("item", new String[]{"jid"}, new String[]{jid.toString()});
+	}
+}
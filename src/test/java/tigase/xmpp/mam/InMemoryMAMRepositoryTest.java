@@ -0,0 +1,227 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import tigase.component.exceptions.ComponentException;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InMemoryMAMRepositoryTest {
+
+	private static final BareJID OWNER = BareJID.bareJIDInstanceNS("owner@example.com");
+	private static final JID BUDDY_1 = JID.jidInstanceNS("buddy1@example.com/res");
+	private static final JID BUDDY_2 = JID.jidInstanceNS("buddy2@example.com/res");
+
+	private List<String> ids;
+	private InMemoryMAMRepository repository;
+
+	@Before
+	public void setUp() {
+		repository = new InMemoryMAMRepository();
+		ids = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			ids.add(repository.addItem(OWNER, i % 5 == 0 ? BUDDY_2 : BUDDY_1, new Date(1000L * i),
+									   new Element("message", new Element[]{new Element("body", "msg-" + i)}, null,
+												   null)));
+		}
+	}
+
+	@Test
+	public void testForwardPaging() throws Exception {
+		List<String> found = new ArrayList<>();
+		String after = null;
+		boolean complete = false;
+		int pages = 0;
+		while (!complete) {
+			QueryImpl query = newQuery(10, after, null);
+			complete = stream(query, found);
+			after = query.getRsm().getLast();
+			pages++;
+		}
+		assertEquals(3, pages);
+		assertEquals(ids, found);
+	}
+
+	@Test
+	public void testBackwardPaging() throws Exception {
+		QueryImpl query = newQuery(10, null, "");
+		List<String> found = new ArrayList<>();
+		assertFalse(stream(query, found));
+		assertEquals(ids.subList(15, 25), found);
+		assertEquals(ids.get(15), query.getRsm().getFirst());
+
+		query = newQuery(10, null, query.getRsm().getFirst());
+		found.clear();
+		assertFalse(stream(query, found));
+		assertEquals(ids.subList(5, 15), found);
+
+		query = newQuery(10, null, query.getRsm().getFirst());
+		found.clear();
+		assertTrue(stream(query, found));
+		assertEquals(ids.subList(0, 5), found);
+	}
+
+	@Test
+	public void testFilters() throws Exception {
+		QueryImpl query = newQuery(100, null, null);
+		query.setWith(BUDDY_2.copyWithoutResource());
+		List<String> found = new ArrayList<>();
+		assertTrue(stream(query, found));
+		assertEquals(5, found.size());
+		assertEquals(5, repository.countItems(query));
+
+		query = newQuery(100, null, null);
+		query.setStart(new Date(5000));
+		query.setEnd(new Date(9000));
+		found.clear();
+		assertTrue(stream(query, found));
+		assertEquals(ids.subList(5, 10), found);
+		assertEquals(5, repository.countItems(query));
+	}
+
+	@Test
+	public void testHandlerStopsStream() throws Exception {
+		QueryImpl query = newQuery(10, null, null);
+		List<String> found = new ArrayList<>();
+		boolean[] complete = new boolean[]{true};
+		repository.streamItems(query, new MAMStreamRepository.ItemStreamHandler<QueryImpl, InMemoryMAMRepository.Item>() {
+			@Override
+			public boolean itemStreamed(QueryImpl query, InMemoryMAMRepository.Item item) {
+				found.add(item.getId());
+				return found.size() < 3;
+			}
+
+			@Override
+			public void streamFinished(QueryImpl query, boolean pageComplete) {
+				complete[0] = pageComplete;
+			}
+		});
+		assertFalse(complete[0]);
+		assertEquals(ids.subList(0, 3), found);
+		assertEquals(ids.get(2), query.getRsm().getLast());
+	}
+
+	@Test(expected = ComponentException.class)
+	public void testUnknownId() throws Exception {
+		stream(newQuery(10, "unknown", null), new ArrayList<>());
+	}
+
+	@Test
+	@Ignore
+	public void benchmarkPaging() throws Exception {
+		final int items = 1000000;
+		final int pageSize = 100;
+		InMemoryMAMRepository repository = new InMemoryMAMRepository();
+		Element message = new Element("message", new Element[]{new Element("body", "test message")}, null, null);
+		for (int i = 0; i < items; i++) {
+			repository.addItem(OWNER, i % 2 == 0 ? BUDDY_1 : BUDDY_2, new Date(i), message);
+		}
+
+		long start = System.nanoTime();
+		QueryImpl query = repository.newQuery();
+		query.setQuestionerJID(JID.jidInstance(OWNER));
+		query.getRsm().fromElement(rsmElement(pageSize, null, null));
+		assertEquals(items, repository.countItems(query));
+		long countTime = System.nanoTime() - start;
+
+		String after = null;
+		int pages = 0;
+		long firstPages = 0;
+		long lastPages = 0;
+		boolean complete = false;
+		while (!complete) {
+			query = repository.newQuery();
+			query.setQuestionerJID(JID.jidInstance(OWNER));
+			query.getRsm().fromElement(rsmElement(pageSize, after, null));
+			long pageStart = System.nanoTime();
+			boolean[] done = new boolean[1];
+			repository.streamItems(query, new MAMStreamRepository.ItemStreamHandler<QueryImpl, InMemoryMAMRepository.Item>() {
+				@Override
+				public boolean itemStreamed(QueryImpl query, InMemoryMAMRepository.Item item) {
+					return true;
+				}
+
+				@Override
+				public void streamFinished(QueryImpl query, boolean pageComplete) {
+					done[0] = pageComplete;
+				}
+			});
+			long pageTime = System.nanoTime() - pageStart;
+			complete = done[0];
+			after = query.getRsm().getLast();
+			if (pages < 100) {
+				firstPages += pageTime;
+			} else if (pages >= items / pageSize - 100) {
+				lastPages += pageTime;
+			}
+			pages++;
+		}
+
+		System.out.println("Archive of " + items + " items: count " + (countTime / 1000000) + "ms, " + pages +
+								   " pages, avg time of first 100 pages " + (firstPages / 100000) +
+								   "us, avg time of last 100 pages " + (lastPages / 100000) + "us");
+	}
+
+	private QueryImpl newQuery(int max, String after, String before) {
+		QueryImpl query = repository.newQuery();
+		query.setQuestionerJID(JID.jidInstanceNS(OWNER, "res"));
+		query.getRsm().fromElement(rsmElement(max, after, before));
+		return query;
+	}
+
+	private Element rsmElement(int max, String after, String before) {
+		Element query = new Element("query");
+		Element set = new Element("set", new String[]{"xmlns"}, new String[]{"http://jabber.org/protocol/rsm"});
+		set.addChild(new Element("max", String.valueOf(max)));
+		if (after != null) {
+			set.addChild(new Element("after", after));
+		}
+		if (before != null) {
+			set.addChild(before.isEmpty() ? new Element("before") : new Element("before", before));
+		}
+		query.addChild(set);
+		return query;
+	}
+
+	private boolean stream(QueryImpl query, List<String> found) throws Exception {
+		boolean[] complete = new boolean[1];
+		repository.streamItems(query, new MAMStreamRepository.ItemStreamHandler<QueryImpl, InMemoryMAMRepository.Item>() {
+			@Override
+			public boolean itemStreamed(QueryImpl query, InMemoryMAMRepository.Item item) {
+				found.add(item.getId());
+				return true;
+			}
+
+			@Override
+			public void streamFinished(QueryImpl query, boolean pageComplete) {
+				complete[0] = pageComplete;
+			}
+		});
+		return complete[0];
+	}
+}
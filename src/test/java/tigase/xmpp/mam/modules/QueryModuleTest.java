@@ -0,0 +1,142 @@
+/**
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam.modules;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.component.PacketWriter;
+import tigase.component.responses.AsyncCallback;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+import tigase.xmpp.mam.InMemoryMAMRepository;
+import tigase.xmpp.mam.MAMItemHandler;
+import tigase.xmpp.mam.MAMRepository;
+import tigase.xmpp.mam.MAMStreamRepository;
+import tigase.xmpp.mam.Query;
+import tigase.xmpp.mam.QueryImpl;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryModuleTest {
+
+	private static final BareJID OWNER = BareJID.bareJIDInstanceNS("owner@example.com");
+	private static final JID BUDDY = JID.jidInstanceNS("buddy@example.com/res");
+
+	private QueryModule queryModule;
+	private InMemoryMAMRepository repository;
+	private List<Packet> written;
+
+	@Before
+	public void setUp() throws Exception {
+		repository = new InMemoryMAMRepository();
+		for (int i = 0; i < 25; i++) {
+			repository.addItem(OWNER, BUDDY, new Date(1000L * i),
+							   new Element("message", new Element[]{new Element("body", "msg-" + i)}, null, null));
+		}
+
+		written = new ArrayList<>();
+		PacketWriter writer = new PacketWriter() {
+			@Override
+			public void write(Collection<Packet> packets) {
+				written.addAll(packets);
+			}
+
+			@Override
+			public void write(Packet packet) {
+				written.add(packet);
+			}
+
+			@Override
+			public void write(Packet packet, AsyncCallback callback) {
+				written.add(packet);
+			}
+		};
+		MAMItemHandler itemHandler = new MAMItemHandler();
+		setField(itemHandler, "packetWriter", writer);
+		queryModule = new QueryModule();
+		setField(queryModule, "itemHandler", itemHandler);
+	}
+
+	@Test
+	public void testCountOfCompleteFirstPage() throws Exception {
+		QueryImpl query = newQuery(50, null, null);
+		assertTrue(queryModule.streamItems(streamRepository(), query));
+		assertEquals(25, written.size());
+		assertEquals(Integer.valueOf(25), query.getRsm().getCount());
+	}
+
+	@Test
+	public void testNoCountOfIncompletePage() throws Exception {
+		QueryImpl query = newQuery(10, null, null);
+		assertFalse(queryModule.streamItems(streamRepository(), query));
+		assertEquals(10, written.size());
+		assertNull(query.getRsm().getCount());
+
+		String after = query.getRsm().getLast();
+		query = newQuery(20, after, null);
+		assertTrue(queryModule.streamItems(streamRepository(), query));
+		assertEquals(25, written.size());
+		// items before the page were not counted
+		assertNull(query.getRsm().getCount());
+	}
+
+	@Test
+	public void testCountOnly() throws Exception {
+		QueryImpl query = newQuery(0, null, null);
+		assertFalse(queryModule.streamItems(streamRepository(), query));
+		assertTrue(written.isEmpty());
+		assertEquals(Integer.valueOf(25), query.getRsm().getCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	private MAMStreamRepository<Query, MAMRepository.Item> streamRepository() {
+		return (MAMStreamRepository) repository;
+	}
+
+	private QueryImpl newQuery(int max, String after, String before) {
+		QueryImpl query = repository.newQuery();
+		query.setQuestionerJID(JID.jidInstanceNS(OWNER, "res"));
+		query.setComponentJID(JID.jidInstanceNS("mam.example.com"));
+		Element el = new Element("query");
+		Element set = new Element("set", new String[]{"xmlns"}, new String[]{"http://jabber.org/protocol/rsm"});
+		set.addChild(new Element("max", String.valueOf(max)));
+		if (after != null) {
+			set.addChild(new Element("after", after));
+		}
+		if (before != null) {
+			set.addChild(before.isEmpty() ? new Element("before") : new Element("before", before));
+		}
+		el.addChild(set);
+		query.getRsm().fromElement(el);
+		return query;
+	}
+
+	private static void setField(Object obj, String name, Object value) throws Exception {
+		Field field = obj.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(obj, value);
+	}
+}